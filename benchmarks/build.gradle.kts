@@ -0,0 +1,38 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.1"
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+dependencies {
+    jmh(project(":"))
+    jmh(project(":lib"))
+    jmh(libs.signalservice)
+    jmh(libs.jackson.databind)
+}
+
+tasks.withType<JavaCompile> {
+    options.encoding = "UTF-8"
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+
+    // e.g. ./gradlew :benchmarks:jmh -Pjmh.includes=StorageBenchmark -Pjmh.recipientCount=1000,100000
+    project.findProperty("jmh.includes")?.let { includes.add(it.toString()) }
+    // e.g. ./gradlew :benchmarks:jmh -Pjmh.includes=DependenciesBenchmark -Pjmh.profilers=gc
+    project.findProperty("jmh.profilers")?.let { profilers.add(it.toString()) }
+    project.findProperty("jmh.recipientCount")?.let {
+        benchmarkParameters.put("recipientCount",
+                project.objects.listProperty<String>().value(it.toString().split(",")))
+    }
+}
@@ -0,0 +1,117 @@
+package org.asamk.signal.benchmarks;
+
+import org.asamk.signal.manager.api.GroupIdV2;
+import org.asamk.signal.manager.groups.GroupUtils;
+import org.asamk.signal.manager.storage.AccountDatabase;
+import org.asamk.signal.manager.storage.groups.GroupInfoV2;
+import org.asamk.signal.manager.storage.groups.GroupStore;
+import org.asamk.signal.manager.storage.recipients.RecipientAddress;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.recipients.RecipientStore;
+import org.asamk.signal.manager.storage.sessions.SessionStore;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.signal.libsignal.protocol.state.SessionRecord;
+import org.signal.libsignal.zkgroup.groups.GroupMasterKey;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedMember;
+import org.whispersystems.signalservice.api.push.ServiceId.ACI;
+import org.whispersystems.signalservice.api.push.ServiceIdType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * A temporary account database filled with generated recipients, sessions and groups.
+ */
+@State(Scope.Benchmark)
+public class AccountDatabaseState {
+
+    private final static int GROUP_SIZE = 50;
+
+    @Param({"1000", "10000"})
+    public int recipientCount;
+
+    public Path tempDir;
+    public AccountDatabase database;
+    public RecipientStore recipientStore;
+    public SessionStore sessionStore;
+    public GroupStore groupStore;
+
+    public final List<ACI> serviceIds = new ArrayList<>();
+    public final List<RecipientId> recipientIds = new ArrayList<>();
+    public final List<SignalProtocolAddress> sessionAddresses = new ArrayList<>();
+    public final List<GroupIdV2> groupIds = new ArrayList<>();
+
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("signal-cli-benchmark");
+        database = AccountDatabase.init(tempDir.resolve("account.db").toFile());
+
+        final var selfAddress = new RecipientAddress(ACI.from(UUID.randomUUID()), "+10000000000");
+        recipientStore = new RecipientStore((connection, recipientId, toBeMergedRecipientId) -> {},
+                () -> selfAddress,
+                database);
+        sessionStore = new SessionStore(database, ServiceIdType.ACI);
+        groupStore = new GroupStore(database, recipientStore, recipientStore::create);
+
+        for (var i = 0; i < recipientCount; i++) {
+            final var serviceId = ACI.from(new UUID(random.nextLong(), random.nextLong()));
+            serviceIds.add(serviceId);
+            recipientIds.add(recipientStore.resolveRecipient(serviceId));
+
+            final var address = new SignalProtocolAddress(serviceId.toString(), 1);
+            sessionStore.storeSession(address, new SessionRecord());
+            sessionAddresses.add(address);
+        }
+
+        final var groupCount = Math.max(1, recipientCount / 100);
+        for (var i = 0; i < groupCount; i++) {
+            final var masterKeyBytes = new byte[32];
+            random.nextBytes(masterKeyBytes);
+            final var masterKey = new GroupMasterKey(masterKeyBytes);
+            final var groupId = GroupUtils.getGroupIdV2(masterKey);
+            final var members = new ArrayList<DecryptedMember>(GROUP_SIZE);
+            for (var j = 0; j < GROUP_SIZE; j++) {
+                final var serviceId = randomElement(serviceIds);
+                members.add(new DecryptedMember.Builder().aciBytes(serviceId.toByteString()).joinedAtRevision(1).build());
+            }
+            final var group = new GroupInfoV2(groupId, masterKey, recipientStore);
+            group.setGroup(new DecryptedGroup.Builder().title("Group " + i).revision(1).members(members).build());
+            groupStore.updateGroup(group);
+            groupIds.add(groupId);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+        deleteRecursively(tempDir);
+    }
+
+    public <T> T randomElement(List<T> list) {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    static void deleteRecursively(final Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (final var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.asamk.signal.benchmarks;
+
+import org.asamk.signal.manager.api.ServiceEnvironment;
+import org.asamk.signal.manager.config.ServiceConfig;
+import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
+import org.asamk.signal.manager.internal.SharedDependencies;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.signal.libsignal.metadata.certificate.CertificateValidator;
+import org.whispersystems.signalservice.api.groupsv2.ClientZkOperations;
+import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the credential independent dependencies for each loaded account.
+ * Run with -Pjmh.profilers=gc to compare the allocated memory per account.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DependenciesBenchmark {
+
+    private static final String USER_AGENT = "signal-cli-benchmark";
+
+    private ServiceEnvironmentConfig serviceEnvironmentConfig;
+    private SharedDependencies sharedDependencies;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        serviceEnvironmentConfig = ServiceConfig.getServiceEnvironmentConfig(ServiceEnvironment.LIVE, USER_AGENT);
+        sharedDependencies = new SharedDependencies(serviceEnvironmentConfig, USER_AGENT);
+    }
+
+    /**
+     * Each account created its own zk operations for groups and profiles and its own certificate validator.
+     */
+    @Benchmark
+    public void perAccount(Blackhole blackhole) {
+        final var configuration = serviceEnvironmentConfig.signalServiceConfiguration();
+        blackhole.consume(new GroupsV2Operations(ClientZkOperations.create(configuration),
+                ServiceConfig.GROUP_MAX_SIZE));
+        blackhole.consume(ClientZkOperations.create(configuration).getProfileOperations());
+        blackhole.consume(new CertificateValidator(serviceEnvironmentConfig.unidentifiedSenderTrustRoot()));
+    }
+
+    @Benchmark
+    public void shared(Blackhole blackhole) {
+        blackhole.consume(sharedDependencies.getGroupsV2Operations());
+        blackhole.consume(sharedDependencies.getClientZkOperations().getProfileOperations());
+        blackhole.consume(sharedDependencies.getCertificateValidator());
+    }
+}
@@ -0,0 +1,83 @@
+package org.asamk.signal.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.json.JsonMessageEnvelope;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.RecipientAddress;
+import org.asamk.signal.util.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private MessageEnvelope envelope;
+    private Manager manager;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        objectMapper = Util.createJsonObjectMapper();
+        // Only getContactOrProfileName is used while converting an envelope, which returns null here
+        manager = (Manager) Proxy.newProxyInstance(Manager.class.getClassLoader(),
+                new Class<?>[]{Manager.class},
+                (proxy, method, args) -> null);
+
+        final var timestamp = System.currentTimeMillis();
+        final var data = new MessageEnvelope.Data(timestamp,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.of("Hello, this is a benchmark message with some text in it."),
+                0,
+                false,
+                false,
+                false,
+                false,
+                true,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                List.of(),
+                Optional.empty(),
+                Optional.empty(),
+                List.of(),
+                List.of(),
+                List.of(),
+                List.of());
+        envelope = new MessageEnvelope(Optional.of(new RecipientAddress(UUID.randomUUID(), "+10000000001")),
+                1,
+                timestamp,
+                timestamp,
+                timestamp,
+                true,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.of(data),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty());
+    }
+
+    @Benchmark
+    public String serializeMessageEnvelope() throws Exception {
+        return objectMapper.writeValueAsString(JsonMessageEnvelope.from(envelope, null, manager));
+    }
+}
@@ -0,0 +1,57 @@
+package org.asamk.signal.benchmarks;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import org.asamk.signal.jsonrpc.JsonRpcReader;
+import org.asamk.signal.jsonrpc.JsonRpcSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonRpcReaderBenchmark {
+
+    private final static int REQUEST_COUNT = 1000;
+
+    private byte[] input;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final var requests = new StringBuilder();
+        for (var i = 0; i < REQUEST_COUNT; i++) {
+            requests.append("""
+                            {"jsonrpc":"2.0","method":"send","id":%d,"params":{"recipient":["+10000000001"],"message":"Benchmark message %d","attachments":[]}}
+                            """.formatted(i, i));
+        }
+        input = requests.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses and dispatches a stream of send requests, the result is reported per request.
+     * Requests are handled on the reader's worker threads, so responses are counted instead of using a Blackhole.
+     */
+    @Benchmark
+    @OperationsPerInvocation(REQUEST_COUNT)
+    public long readMessages() {
+        final var responses = new AtomicLong();
+        final var sender = new JsonRpcSender(response -> responses.incrementAndGet());
+        final var reader = new JsonRpcReader(sender,
+                new ByteArrayInputStream(input),
+                JsonRpcReader.DEFAULT_MAX_MESSAGE_SIZE);
+        reader.readMessages((method, params) -> JsonNodeFactory.instance.textNode(method), response -> {});
+        return responses.get();
+    }
+}
@@ -0,0 +1,75 @@
+package org.asamk.signal.benchmarks;
+
+import org.asamk.signal.manager.storage.messageCache.MessageCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.ServiceId.ACI;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageCacheBenchmark {
+
+    @Param({"256", "4096"})
+    public int contentSize;
+
+    private Path tempDir;
+    private MessageCache messageCache;
+    private SignalServiceEnvelope envelope;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("signal-cli-benchmark");
+        messageCache = new MessageCache(tempDir.resolve("msg-cache").toFile());
+
+        final var random = new Random(42);
+        final var content = new byte[contentSize];
+        random.nextBytes(content);
+        final var sender = ACI.from(UUID.randomUUID());
+        envelope = new SignalServiceEnvelope(1,
+                Optional.of(new SignalServiceAddress(sender)),
+                1,
+                System.currentTimeMillis(),
+                content,
+                System.currentTimeMillis(),
+                System.currentTimeMillis(),
+                UUID.randomUUID().toString(),
+                ACI.from(UUID.randomUUID()).toString(),
+                true,
+                false,
+                null,
+                "");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        AccountDatabaseState.deleteRecursively(tempDir);
+    }
+
+    /**
+     * Stores an envelope in the message cache and removes it again, like a successfully handled message.
+     */
+    @Benchmark
+    public void cacheMessage() {
+        // Without a recipient the message is stored like one from a not yet resolved sender
+        final var cachedMessage = messageCache.cacheMessage(envelope, null);
+        cachedMessage.delete();
+    }
+}
@@ -0,0 +1,46 @@
+package org.asamk.signal.benchmarks;
+
+import org.asamk.signal.logging.Scrubber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScrubberBenchmark {
+
+    private static final String PREFIX = "2023-10-19T12:34:56.789+0200 [receive-1] DEBUG "
+            + "o.a.s.m.helper.ReceiveHelper - ";
+
+    @Param({"plain", "number", "uuid", "domain", "mixed"})
+    public String line;
+
+    private String logLine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        logLine = PREFIX + switch (line) {
+            case "plain" -> "Received indicator that server queue is empty\n";
+            case "number" -> "Sending message to +4915112345678 with timestamp 1697711696789\n";
+            case "uuid" -> "Storing new session for 3fa85f64-5717-4562-b3fc-2c963f66afa6.1\n";
+            case "domain" -> "Connecting to wss://chat.signal.org/v1/websocket/ via proxy.example.com\n";
+            case "mixed" -> "Failed to send to +4915112345678 (3fa85f64-5717-4562-b3fc-2c963f66afa6) "
+                    + "user@example.com from 192.168.1.20\n";
+            default -> throw new AssertionError();
+        };
+    }
+
+    @Benchmark
+    public String scrub() {
+        return Scrubber.scrub(logLine).toString();
+    }
+}
@@ -0,0 +1,31 @@
+package org.asamk.signal.benchmarks;
+
+import org.asamk.signal.manager.storage.groups.GroupInfo;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.signal.libsignal.protocol.state.SessionRecord;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageBenchmark {
+
+    @Benchmark
+    public SessionRecord loadSession(AccountDatabaseState state) {
+        return state.sessionStore.loadSession(state.randomElement(state.sessionAddresses));
+    }
+
+    @Benchmark
+    public RecipientId resolveRecipient(AccountDatabaseState state) {
+        return state.recipientStore.resolveRecipient(state.randomElement(state.serviceIds));
+    }
+
+    @Benchmark
+    public GroupInfo getGroup(AccountDatabaseState state) {
+        return state.groupStore.getGroup(state.randomElement(state.groupIds));
+    }
+}
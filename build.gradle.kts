@@ -43,6 +43,12 @@ dependencies {
     implementation(libs.slf4j.jul)
     implementation(libs.logback)
     implementation(project(":lib"))
+
+    testImplementation(libs.junit)
+}
+
+tasks.named<Test>("test") {
+    useJUnitPlatform()
 }
 
 configurations {
@@ -19,6 +19,7 @@ import org.asamk.signal.manager.api.InvalidUsernameException;
 import org.asamk.signal.manager.api.LastGroupAdminException;
 import org.asamk.signal.manager.api.Message;
 import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.MetricsSnapshot;
 import org.asamk.signal.manager.api.NotAGroupMemberException;
 import org.asamk.signal.manager.api.NotPrimaryDeviceException;
 import org.asamk.signal.manager.api.Pair;
@@ -44,6 +45,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
@@ -285,6 +287,27 @@ public interface Manager extends Closeable {
 
     InputStream retrieveAttachment(final String id) throws IOException;
 
+    /**
+     * Open a downloaded attachment for reading parts of it, without reading the whole file.
+     */
+    FileChannel openAttachment(final String id) throws IOException;
+
+    /**
+     * Upload an attachment, so it can be sent later without transferring its data again.
+     * The returned reference can be used in place of an attachment file path or data URI.
+     *
+     * @param size the size of the data in bytes or -1 if it's unknown
+     */
+    String uploadAttachment(
+            InputStream data, long size, String contentType, Optional<String> filename
+    ) throws IOException, AttachmentInvalidException;
+
+    /**
+     * Get the current values of the runtime metrics of this account.
+     * Returns an empty snapshot if metrics collection is disabled.
+     */
+    MetricsSnapshot getMetrics();
+
     @Override
     void close() throws IOException;
 
@@ -12,8 +12,20 @@ public interface MultiAccountManager extends AutoCloseable {
 
     List<Manager> getManagers();
 
+    /**
+     * @return the accounts that have been loaded, but are still being checked with the server
+     */
+    List<String> getInitializingAccountNumbers();
+
     void addOnManagerAddedHandler(Consumer<Manager> handler);
 
+    /**
+     * Call the handler for all current managers and for every manager that is added later.
+     * Unlike combining {@link #getManagers()} and {@link #addOnManagerAddedHandler(Consumer)}, no manager is missed or
+     * handled twice if it's added concurrently, e.g. when an account finished initializing.
+     */
+    void addManagerHandler(Consumer<Manager> handler);
+
     void addOnManagerRemovedHandler(Consumer<Manager> handler);
 
     Manager getManager(String phoneNumber);
@@ -2,7 +2,30 @@ package org.asamk.signal.manager;
 
 import org.asamk.signal.manager.api.TrustNewIdentity;
 
-public record Settings(TrustNewIdentity trustNewIdentity, boolean disableMessageSendLog) {
+import java.time.Duration;
 
-    public static Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE, false);
+/**
+ * @param outboundCoalescingWindow        maximum time receipts and typing messages are delayed to be merged with
+ *                                        other messages to the same recipient, zero to disable coalescing
+ * @param profileRefreshRequestsPerMinute maximum number of profile requests per minute for refreshing stale
+ *                                        profiles in the background
+ * @param enableMetrics                   collect runtime metrics, available with {@link Manager#getMetrics()}
+ */
+public record Settings(
+        TrustNewIdentity trustNewIdentity,
+        boolean disableMessageSendLog,
+        Duration outboundCoalescingWindow,
+        int profileRefreshRequestsPerMinute,
+        boolean enableMetrics
+) {
+
+    public static final Duration DEFAULT_OUTBOUND_COALESCING_WINDOW = Duration.ofMillis(100);
+
+    public static final int DEFAULT_PROFILE_REFRESH_REQUESTS_PER_MINUTE = 30;
+
+    public static Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE,
+            false,
+            DEFAULT_OUTBOUND_COALESCING_WINDOW,
+            DEFAULT_PROFILE_REFRESH_REQUESTS_PER_MINUTE,
+            false);
 }
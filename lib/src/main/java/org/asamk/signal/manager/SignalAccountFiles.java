@@ -4,13 +4,13 @@ import org.asamk.signal.manager.api.AccountCheckException;
 import org.asamk.signal.manager.api.NotRegisteredException;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.config.ServiceConfig;
-import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
 import org.asamk.signal.manager.internal.AccountFileUpdaterImpl;
 import org.asamk.signal.manager.internal.ManagerImpl;
 import org.asamk.signal.manager.internal.MultiAccountManagerImpl;
 import org.asamk.signal.manager.internal.PathConfig;
 import org.asamk.signal.manager.internal.ProvisioningManagerImpl;
 import org.asamk.signal.manager.internal.RegistrationManagerImpl;
+import org.asamk.signal.manager.internal.SharedDependencies;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.accounts.AccountsStore;
 import org.asamk.signal.manager.util.KeyUtils;
@@ -21,8 +21,10 @@ import org.whispersystems.signalservice.api.push.exceptions.DeprecatedVersionExc
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Objects;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
 public class SignalAccountFiles {
@@ -31,8 +33,7 @@ public class SignalAccountFiles {
 
     private final PathConfig pathConfig;
     private final ServiceEnvironment serviceEnvironment;
-    private final ServiceEnvironmentConfig serviceEnvironmentConfig;
-    private final String userAgent;
+    private final SharedDependencies sharedDependencies;
     private final Settings settings;
     private final AccountsStore accountsStore;
 
@@ -44,8 +45,9 @@ public class SignalAccountFiles {
     ) throws IOException {
         this.pathConfig = PathConfig.createDefault(settingsPath);
         this.serviceEnvironment = serviceEnvironment;
-        this.serviceEnvironmentConfig = ServiceConfig.getServiceEnvironmentConfig(this.serviceEnvironment, userAgent);
-        this.userAgent = userAgent;
+        final var serviceEnvironmentConfig = ServiceConfig.getServiceEnvironmentConfig(this.serviceEnvironment,
+                userAgent);
+        this.sharedDependencies = new SharedDependencies(serviceEnvironmentConfig, userAgent);
         this.settings = settings;
         this.accountsStore = new AccountsStore(pathConfig.dataPath(), serviceEnvironment, accountPath -> {
             if (accountPath == null || !SignalAccount.accountFileExists(pathConfig.dataPath(), accountPath)) {
@@ -65,19 +67,35 @@ public class SignalAccountFiles {
     }
 
     public MultiAccountManager initMultiAccountManager() throws IOException {
-        final var managers = accountsStore.getAllAccounts().parallelStream().map(a -> {
+        return initMultiAccountManager(true);
+    }
+
+    /**
+     * @param waitForAccountChecks if false, accounts are checked in the background and added to the returned
+     *                             manager once they are ready
+     */
+    public MultiAccountManager initMultiAccountManager(final boolean waitForAccountChecks) throws IOException {
+        final var accounts = new LinkedHashMap<String, MultiAccountManagerImpl.ManagerLoader>();
+        for (final var a : accountsStore.getAllAccounts()) {
+            accounts.put(a.number(), () -> initManager(a.number(), a.path()));
+        }
+
+        final var multiAccountManager = new MultiAccountManagerImpl(List.of(), this);
+        final var initialized = multiAccountManager.initializeAccounts(accounts);
+        if (waitForAccountChecks) {
             try {
-                return initManager(a.number(), a.path());
-            } catch (NotRegisteredException | IOException | AccountCheckException e) {
-                logger.warn("Ignoring {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
-                return null;
-            } catch (Throwable e) {
-                logger.error("Failed to load {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
+                initialized.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException re) {
+                    throw re;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
                 throw e;
             }
-        }).filter(Objects::nonNull).toList();
-
-        return new MultiAccountManagerImpl(managers, this);
+        }
+        return multiAccountManager;
     }
 
     public Manager initManager(String number) throws IOException, NotRegisteredException, AccountCheckException {
@@ -115,8 +133,7 @@ public class SignalAccountFiles {
         final var manager = new ManagerImpl(account,
                 pathConfig,
                 new AccountFileUpdaterImpl(accountsStore, accountPath),
-                serviceEnvironmentConfig,
-                userAgent);
+                sharedDependencies);
 
         try {
             manager.checkAccountState();
@@ -142,8 +159,7 @@ public class SignalAccountFiles {
 
     public ProvisioningManager initProvisioningManager(Consumer<Manager> newManagerListener) {
         return new ProvisioningManagerImpl(pathConfig,
-                serviceEnvironmentConfig,
-                userAgent,
+                sharedDependencies,
                 newManagerListener,
                 accountsStore);
     }
@@ -177,8 +193,7 @@ public class SignalAccountFiles {
 
             return new RegistrationManagerImpl(account,
                     pathConfig,
-                    serviceEnvironmentConfig,
-                    userAgent,
+                    sharedDependencies,
                     newManagerListener,
                     new AccountFileUpdaterImpl(accountsStore, newAccountPath));
         }
@@ -191,8 +206,7 @@ public class SignalAccountFiles {
 
         return new RegistrationManagerImpl(account,
                 pathConfig,
-                serviceEnvironmentConfig,
-                userAgent,
+                sharedDependencies,
                 newManagerListener,
                 new AccountFileUpdaterImpl(accountsStore, accountPath));
     }
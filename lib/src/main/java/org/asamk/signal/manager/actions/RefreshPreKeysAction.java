@@ -15,6 +15,6 @@ public class RefreshPreKeysAction implements HandleAction {
 
     @Override
     public void execute(Context context) throws Throwable {
-        context.getPreKeyHelper().refreshPreKeysIfNecessary();
+        context.getPreKeyRefresher().requestRefresh();
     }
 }
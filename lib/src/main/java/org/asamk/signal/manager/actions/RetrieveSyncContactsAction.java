@@ -0,0 +1,23 @@
+package org.asamk.signal.manager.actions;
+
+import org.asamk.signal.manager.helper.Context;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment;
+
+/**
+ * Import the contacts of a contacts sync message after the message is handled, so downloading and storing many
+ * contacts doesn't happen inside the transaction of the received message.
+ */
+public class RetrieveSyncContactsAction implements HandleAction {
+
+    private final SignalServiceAttachment contactsStream;
+
+    public RetrieveSyncContactsAction(final SignalServiceAttachment contactsStream) {
+        this.contactsStream = contactsStream;
+    }
+
+    @Override
+    public void execute(Context context) throws Throwable {
+        context.getAttachmentHelper()
+                .retrieveAttachment(contactsStream, context.getSyncHelper()::handleSyncDeviceContacts);
+    }
+}
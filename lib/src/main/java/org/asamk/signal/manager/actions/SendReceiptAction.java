@@ -24,9 +24,7 @@ public class SendReceiptAction implements HandleAction {
 
     @Override
     public void execute(Context context) throws Throwable {
-        final var receiptMessage = new SignalServiceReceiptMessage(type, timestamps, System.currentTimeMillis());
-
-        context.getSendHelper().sendReceiptMessage(receiptMessage, recipientId);
+        context.getOutboundCoalescer().enqueueReceipt(recipientId, type, timestamps);
     }
 
     @Override
@@ -0,0 +1,8 @@
+package org.asamk.signal.manager.api;
+
+public class AttachmentTooLargeException extends AttachmentInvalidException {
+
+    public AttachmentTooLargeException(long maxSize) {
+        super("Attachment exceeds the maximum size of " + maxSize + " bytes");
+    }
+}
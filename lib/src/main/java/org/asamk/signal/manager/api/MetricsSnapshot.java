@@ -0,0 +1,21 @@
+package org.asamk.signal.manager.api;
+
+import java.util.List;
+
+/**
+ * Current values of the runtime metrics of an account.
+ * Histogram bucket counts are cumulative, like in the Prometheus exposition format.
+ */
+public record MetricsSnapshot(List<Counter> counters, List<Gauge> gauges, List<Histogram> histograms) {
+
+    public static final MetricsSnapshot EMPTY = new MetricsSnapshot(List.of(), List.of(), List.of());
+
+    public record Counter(String name, String help, long value) {}
+
+    public record Gauge(String name, String help, double value) {}
+
+    public record Histogram(String name, String help, List<Bucket> buckets, long count, double sum) {
+
+        public record Bucket(double upperBound, long count) {}
+    }
+}
@@ -3,4 +3,5 @@ package org.asamk.signal.manager.api;
 public enum ServiceEnvironment {
     LIVE,
     STAGING,
+    LOCAL,
 }
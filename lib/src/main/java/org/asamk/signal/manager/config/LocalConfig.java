@@ -0,0 +1,92 @@
+package org.asamk.signal.manager.config;
+
+import org.signal.libsignal.protocol.ecc.ECPublicKey;
+import org.whispersystems.signalservice.api.push.TrustStore;
+import org.whispersystems.signalservice.internal.configuration.SignalCdnUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalCdsiUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalKeyBackupServiceUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalProxy;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalStorageUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalSvr2Url;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import okhttp3.Dns;
+import okhttp3.Interceptor;
+
+/**
+ * Service environment for a locally running mock server, e.g. the one from the test-harness module.
+ * All services are expected at the same base url, which is read from the {@link ServiceConfig#LOCAL_SERVICE_URL_PROPERTY}
+ * system property or the SIGNAL_CLI_LOCAL_SERVICE_URL environment variable.
+ * The zkgroup parameters and enclave values of the staging environment are used, the mock server doesn't verify them.
+ */
+class LocalConfig {
+
+    private final static String URL_ENVIRONMENT_VARIABLE = "SIGNAL_CLI_LOCAL_SERVICE_URL";
+    private final static String DEFAULT_URL = "http://127.0.0.1:8080";
+
+    private final static TrustStore TRUST_STORE = new WhisperTrustStore();
+
+    private final static Optional<Dns> dns = Optional.empty();
+    private final static Optional<SignalProxy> proxy = Optional.empty();
+
+    static SignalServiceConfiguration createDefaultServiceConfiguration(
+            final List<Interceptor> interceptors
+    ) {
+        final var url = getUrl();
+        return new SignalServiceConfiguration(new SignalServiceUrl[]{new SignalServiceUrl(url, TRUST_STORE)},
+                Map.of(0,
+                        new SignalCdnUrl[]{new SignalCdnUrl(url, TRUST_STORE)},
+                        2,
+                        new SignalCdnUrl[]{new SignalCdnUrl(url, TRUST_STORE)}),
+                new SignalKeyBackupServiceUrl[]{new SignalKeyBackupServiceUrl(url, TRUST_STORE)},
+                new SignalStorageUrl[]{new SignalStorageUrl(url, TRUST_STORE)},
+                new SignalCdsiUrl[]{new SignalCdsiUrl(url, TRUST_STORE)},
+                new SignalSvr2Url[]{new SignalSvr2Url(url, TRUST_STORE, null, null)},
+                interceptors,
+                dns,
+                proxy,
+                StagingConfig.getZkGroupServerPublicParams(),
+                StagingConfig.getGenericServerPublicParams());
+    }
+
+    static ECPublicKey getUnidentifiedSenderTrustRoot() {
+        return StagingConfig.getUnidentifiedSenderTrustRoot();
+    }
+
+    static KeyBackupConfig createKeyBackupConfig() {
+        return StagingConfig.createKeyBackupConfig();
+    }
+
+    static Collection<KeyBackupConfig> createFallbackKeyBackupConfigs() {
+        return StagingConfig.createFallbackKeyBackupConfigs();
+    }
+
+    static String getCdsiMrenclave() {
+        return StagingConfig.getCdsiMrenclave();
+    }
+
+    static String getSvr2Mrenclave() {
+        return StagingConfig.getSvr2Mrenclave();
+    }
+
+    private static String getUrl() {
+        final var property = System.getProperty(ServiceConfig.LOCAL_SERVICE_URL_PROPERTY);
+        if (property != null && !property.isEmpty()) {
+            return property;
+        }
+        final var environment = System.getenv(URL_ENVIRONMENT_VARIABLE);
+        if (environment != null && !environment.isEmpty()) {
+            return environment;
+        }
+        return DEFAULT_URL;
+    }
+
+    private LocalConfig() {
+    }
+}
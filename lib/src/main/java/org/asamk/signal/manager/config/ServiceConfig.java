@@ -27,8 +27,14 @@ public class ServiceConfig {
     public final static int MAX_ATTACHMENT_SIZE = 150 * 1024 * 1024;
     public final static long MAX_ENVELOPE_SIZE = 0;
     public final static long AVATAR_DOWNLOAD_FAILSAFE_MAX_SIZE = 10 * 1024 * 1024;
+    public final static long AVATAR_CACHE_MAX_SIZE = 200 * 1024 * 1024;
+    public final static int MEDIA_DOWNLOAD_THREADS = 2;
+    public final static int MEDIA_DOWNLOAD_QUEUE_SIZE = 1000;
+    public final static int STORAGE_READ_BATCH_SIZE = 500;
+    public final static int STORAGE_READ_THREADS = 4;
     public final static boolean AUTOMATIC_NETWORK_RETRY = true;
     public final static int GROUP_MAX_SIZE = 1001;
+    public final static String LOCAL_SERVICE_URL_PROPERTY = "signal-cli.local-service-url";
 
     private final static KeyStore iasKeyStore;
 
@@ -80,6 +86,13 @@ public class ServiceConfig {
                     StagingConfig.createFallbackKeyBackupConfigs(),
                     StagingConfig.getCdsiMrenclave(),
                     StagingConfig.getSvr2Mrenclave());
+            case LOCAL -> new ServiceEnvironmentConfig(serviceEnvironment,
+                    LocalConfig.createDefaultServiceConfiguration(interceptors),
+                    LocalConfig.getUnidentifiedSenderTrustRoot(),
+                    LocalConfig.createKeyBackupConfig(),
+                    LocalConfig.createFallbackKeyBackupConfigs(),
+                    LocalConfig.getCdsiMrenclave(),
+                    LocalConfig.getSvr2Mrenclave());
         };
     }
 }
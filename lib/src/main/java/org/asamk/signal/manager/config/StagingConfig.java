@@ -101,6 +101,14 @@ class StagingConfig {
         return SVR2_MRENCLAVE;
     }
 
+    static byte[] getZkGroupServerPublicParams() {
+        return zkGroupServerPublicParams;
+    }
+
+    static byte[] getGenericServerPublicParams() {
+        return genericServerPublicParams;
+    }
+
     private StagingConfig() {
     }
 }
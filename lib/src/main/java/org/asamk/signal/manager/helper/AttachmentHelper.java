@@ -1,11 +1,13 @@
 package org.asamk.signal.manager.helper;
 
 import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.AttachmentTooLargeException;
 import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.storage.AttachmentStore;
 import org.asamk.signal.manager.util.AttachmentUtils;
 import org.asamk.signal.manager.util.IOUtils;
+import org.asamk.signal.manager.util.MimeUtils;
 import org.signal.libsignal.protocol.InvalidMessageException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,19 +18,31 @@ import org.whispersystems.signalservice.api.push.exceptions.MissingConfiguration
 import org.whispersystems.signalservice.api.util.StreamDetails;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class AttachmentHelper {
 
     private final static Logger logger = LoggerFactory.getLogger(AttachmentHelper.class);
 
+    public static final String UPLOADED_ATTACHMENT_PREFIX = "upload:";
+    private static final long UPLOADED_ATTACHMENT_LIFETIME = TimeUnit.DAYS.toMillis(1);
+
     private final SignalDependencies dependencies;
     private final AttachmentStore attachmentStore;
+    private final Map<String, UploadedAttachment> uploadedAttachments = new ConcurrentHashMap<>();
 
     public AttachmentHelper(final Context context) {
         this.dependencies = context.getDependencies();
@@ -43,22 +57,110 @@ public class AttachmentHelper {
         return attachmentStore.retrieveAttachment(id);
     }
 
+    public FileChannel openAttachment(final String id) throws IOException {
+        return attachmentStore.openAttachment(id);
+    }
+
     public List<SignalServiceAttachment> uploadAttachments(final List<String> attachments) throws AttachmentInvalidException, IOException {
-        var attachmentStreams = AttachmentUtils.createAttachmentStreams(attachments);
+        final var resolvedAttachments = new ArrayList<SignalServiceAttachment>(attachments.size());
+        for (var attachment : attachments) {
+            resolvedAttachments.add(isUploadedAttachment(attachment)
+                    ? getUploadedAttachment(attachment)
+                    : AttachmentUtils.createAttachmentStream(attachment));
+        }
 
         // Upload attachments here, so we only upload once even for multiple recipients
-        var attachmentPointers = new ArrayList<SignalServiceAttachment>(attachmentStreams.size());
-        for (var attachmentStream : attachmentStreams) {
-            attachmentPointers.add(uploadAttachment(attachmentStream));
+        var attachmentPointers = new ArrayList<SignalServiceAttachment>(resolvedAttachments.size());
+        for (var attachment : resolvedAttachments) {
+            attachmentPointers.add(attachment.isStream() ? uploadAttachment(attachment.asStream()) : attachment);
         }
         return attachmentPointers;
     }
 
     public SignalServiceAttachmentPointer uploadAttachment(String attachment) throws IOException, AttachmentInvalidException {
+        if (isUploadedAttachment(attachment)) {
+            return getUploadedAttachment(attachment);
+        }
         var attachmentStream = AttachmentUtils.createAttachmentStream(attachment);
         return uploadAttachment(attachmentStream);
     }
 
+    /**
+     * Upload an attachment ahead of sending a message, directly from the given stream.
+     * Data of unknown size is stored in a temp file first, because the upload needs the size in advance.
+     *
+     * @param size the size of the data in bytes or -1 if it's unknown
+     * @return a reference to the uploaded attachment, that can be used instead of a file path or data URI
+     */
+    public String uploadAttachment(
+            final InputStream data, final long size, final String contentType, final Optional<String> filename
+    ) throws IOException, AttachmentInvalidException {
+        if (size > ServiceConfig.MAX_ATTACHMENT_SIZE) {
+            throw new AttachmentTooLargeException(ServiceConfig.MAX_ATTACHMENT_SIZE);
+        }
+        if (size < 0) {
+            final var tmpFile = IOUtils.createTempFile();
+            try {
+                try (var output = new FileOutputStream(tmpFile)) {
+                    copyAttachmentData(data, output);
+                }
+                try (var input = new FileInputStream(tmpFile)) {
+                    return uploadAttachment(input, tmpFile.length(), contentType, filename);
+                }
+            } finally {
+                try {
+                    Files.delete(tmpFile.toPath());
+                } catch (IOException e) {
+                    logger.warn("Failed to delete uploaded attachment temp file “{}”, ignoring: {}",
+                            tmpFile,
+                            e.getMessage());
+                }
+            }
+        }
+
+        final var attachmentStream = AttachmentUtils.createAttachmentStream(new StreamDetails(data,
+                contentType == null ? MimeUtils.OCTET_STREAM : contentType,
+                size), filename);
+        final var pointer = uploadAttachment(attachmentStream);
+
+        final var now = System.currentTimeMillis();
+        uploadedAttachments.values().removeIf(a -> now - a.uploadTime() > UPLOADED_ATTACHMENT_LIFETIME);
+        final var id = UUID.randomUUID().toString();
+        uploadedAttachments.put(id, new UploadedAttachment(pointer, now));
+        return UPLOADED_ATTACHMENT_PREFIX + id;
+    }
+
+    private static boolean isUploadedAttachment(final String attachment) {
+        return attachment.startsWith(UPLOADED_ATTACHMENT_PREFIX);
+    }
+
+    private SignalServiceAttachmentPointer getUploadedAttachment(
+            final String attachment
+    ) throws AttachmentInvalidException {
+        final var id = attachment.substring(UPLOADED_ATTACHMENT_PREFIX.length());
+        final var uploadedAttachment = uploadedAttachments.get(id);
+        if (uploadedAttachment == null
+                || System.currentTimeMillis() - uploadedAttachment.uploadTime() > UPLOADED_ATTACHMENT_LIFETIME) {
+            throw new AttachmentInvalidException(attachment + ": Unknown or expired uploaded attachment");
+        }
+        return uploadedAttachment.pointer();
+    }
+
+    private static void copyAttachmentData(
+            final InputStream input, final OutputStream output
+    ) throws IOException, AttachmentInvalidException {
+        final var buffer = new byte[4096];
+        long size = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            size += read;
+            if (size > ServiceConfig.MAX_ATTACHMENT_SIZE) {
+                throw new AttachmentTooLargeException(ServiceConfig.MAX_ATTACHMENT_SIZE);
+            }
+            output.write(buffer, 0, read);
+        }
+    }
+
     public SignalServiceAttachmentPointer uploadAttachment(SignalServiceAttachmentStream attachment) throws IOException {
         var messageSender = dependencies.getMessageSender();
         return messageSender.uploadAttachment(attachment);
@@ -81,7 +183,8 @@ public class AttachmentHelper {
         }
 
         try {
-            attachmentStore.storeAttachment(pointer, outputStream -> this.retrieveAttachment(pointer, outputStream));
+            logger.debug("Downloading attachment {} with size {}", pointer.getRemoteId(), pointer.getSize());
+            attachmentStore.storeAttachment(pointer, downloadFile -> downloadAttachment(pointer, downloadFile));
         } catch (IOException e) {
             logger.warn("Failed to download attachment ({}), ignoring: {}", pointer.getRemoteId(), e.getMessage());
         }
@@ -108,7 +211,7 @@ public class AttachmentHelper {
             consumer.handle(input);
         } finally {
             try {
-                Files.delete(tmpFile.toPath());
+                Files.deleteIfExists(tmpFile.toPath());
             } catch (IOException e) {
                 logger.warn("Failed to delete received attachment temp file “{}”, ignoring: {}",
                         tmpFile,
@@ -120,14 +223,29 @@ public class AttachmentHelper {
     private InputStream retrieveAttachmentAsStream(
             SignalServiceAttachmentPointer pointer, File tmpFile
     ) throws IOException {
+        try {
+            return downloadAttachment(pointer, tmpFile);
+        } catch (InvalidMessageException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Download the encrypted attachment to the given file, resuming after the data that's already in the file.
+     */
+    private InputStream downloadAttachment(
+            SignalServiceAttachmentPointer pointer, File downloadFile
+    ) throws IOException, InvalidMessageException {
         try {
             return dependencies.getMessageReceiver()
-                    .retrieveAttachment(pointer, tmpFile, ServiceConfig.MAX_ATTACHMENT_SIZE);
-        } catch (MissingConfigurationException | InvalidMessageException e) {
+                    .retrieveAttachment(pointer, downloadFile, ServiceConfig.MAX_ATTACHMENT_SIZE);
+        } catch (MissingConfigurationException e) {
             throw new IOException(e);
         }
     }
 
+    private record UploadedAttachment(SignalServiceAttachmentPointer pointer, long uploadTime) {}
+
     @FunctionalInterface
     public interface AttachmentHandler {
 
@@ -27,6 +27,7 @@ public class ContactHelper {
             builder.withFamilyName(familyName);
         }
         account.getContactStore().storeContact(recipientId, builder.build());
+        account.getStorageRecordStore().markRecipientDirty(recipientId);
     }
 
     public void setExpirationTimer(RecipientId recipientId, int messageExpirationTimer) {
@@ -46,5 +47,6 @@ public class ContactHelper {
             builder.withProfileSharingEnabled(false);
         }
         account.getContactStore().storeContact(recipientId, builder.withBlocked(blocked).build());
+        account.getStorageRecordStore().markRecipientDirty(recipientId);
     }
 }
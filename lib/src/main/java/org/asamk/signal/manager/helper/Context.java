@@ -28,14 +28,20 @@ public class Context {
     private GroupV2Helper groupV2Helper;
     private IdentityHelper identityHelper;
     private IncomingMessageHandler incomingMessageHandler;
+    private MediaCacheHelper mediaCacheHelper;
+    private OutboundCoalescer outboundCoalescer;
     private PinHelper pinHelper;
     private PreKeyHelper preKeyHelper;
+    private PreKeyRefresher preKeyRefresher;
     private ProfileHelper profileHelper;
+    private ProfileRefresher profileRefresher;
     private ReceiveHelper receiveHelper;
     private RecipientHelper recipientHelper;
     private SendHelper sendHelper;
+    private SendScheduler sendScheduler;
     private StickerHelper stickerHelper;
     private StorageHelper storageHelper;
+    private StorageWriter storageWriter;
     private SyncHelper syncHelper;
     private UnidentifiedAccessHelper unidentifiedAccessHelper;
 
@@ -113,6 +119,16 @@ public class Context {
                 () -> this.incomingMessageHandler = new IncomingMessageHandler(this));
     }
 
+    public MediaCacheHelper getMediaCacheHelper() {
+        return getOrCreate(() -> mediaCacheHelper, () -> mediaCacheHelper = new MediaCacheHelper(avatarStore));
+    }
+
+    public OutboundCoalescer getOutboundCoalescer() {
+        return getOrCreate(() -> outboundCoalescer,
+                () -> outboundCoalescer = new OutboundCoalescer(this,
+                        account.getSettings().outboundCoalescingWindow()));
+    }
+
     PinHelper getPinHelper() {
         return getOrCreate(() -> pinHelper,
                 () -> pinHelper = new PinHelper(dependencies.getKeyBackupService(),
@@ -124,10 +140,20 @@ public class Context {
         return getOrCreate(() -> preKeyHelper, () -> preKeyHelper = new PreKeyHelper(account, dependencies));
     }
 
+    public PreKeyRefresher getPreKeyRefresher() {
+        return getOrCreate(() -> preKeyRefresher, () -> preKeyRefresher = new PreKeyRefresher(this));
+    }
+
     public ProfileHelper getProfileHelper() {
         return getOrCreate(() -> profileHelper, () -> profileHelper = new ProfileHelper(this));
     }
 
+    public ProfileRefresher getProfileRefresher() {
+        return getOrCreate(() -> profileRefresher,
+                () -> profileRefresher = new ProfileRefresher(this,
+                        account.getSettings().profileRefreshRequestsPerMinute()));
+    }
+
     public ReceiveHelper getReceiveHelper() {
         return getOrCreate(() -> receiveHelper, () -> receiveHelper = new ReceiveHelper(this));
     }
@@ -140,6 +166,10 @@ public class Context {
         return getOrCreate(() -> sendHelper, () -> sendHelper = new SendHelper(this));
     }
 
+    public SendScheduler getSendScheduler() {
+        return getOrCreate(() -> sendScheduler, () -> sendScheduler = new SendScheduler(account.getMetrics()));
+    }
+
     public StickerHelper getStickerHelper() {
         return getOrCreate(() -> stickerHelper, () -> stickerHelper = new StickerHelper(this));
     }
@@ -148,6 +178,10 @@ public class Context {
         return getOrCreate(() -> storageHelper, () -> storageHelper = new StorageHelper(this));
     }
 
+    public StorageWriter getStorageWriter() {
+        return getOrCreate(() -> storageWriter, () -> storageWriter = new StorageWriter(this));
+    }
+
     public SyncHelper getSyncHelper() {
         return getOrCreate(() -> syncHelper, () -> syncHelper = new SyncHelper(this));
     }
@@ -157,6 +191,39 @@ public class Context {
                 () -> unidentifiedAccessHelper = new UnidentifiedAccessHelper(this));
     }
 
+    /**
+     * Stop the background work of the helpers, helpers that haven't been created yet are not created for it.
+     */
+    public void close() {
+        final OutboundCoalescer outboundCoalescer;
+        final MediaCacheHelper mediaCacheHelper;
+        final ProfileRefresher profileRefresher;
+        final PreKeyRefresher preKeyRefresher;
+        final StorageWriter storageWriter;
+        synchronized (LOCK) {
+            outboundCoalescer = this.outboundCoalescer;
+            mediaCacheHelper = this.mediaCacheHelper;
+            profileRefresher = this.profileRefresher;
+            preKeyRefresher = this.preKeyRefresher;
+            storageWriter = this.storageWriter;
+        }
+        if (outboundCoalescer != null) {
+            outboundCoalescer.close();
+        }
+        if (mediaCacheHelper != null) {
+            mediaCacheHelper.close();
+        }
+        if (profileRefresher != null) {
+            profileRefresher.close();
+        }
+        if (preKeyRefresher != null) {
+            preKeyRefresher.close();
+        }
+        if (storageWriter != null) {
+            storageWriter.close();
+        }
+    }
+
     private <T> T getOrCreate(Supplier<T> supplier, Callable creator) {
         var value = supplier.get();
         if (value != null) {
@@ -0,0 +1,62 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.internal.SessionLockManager;
+import org.asamk.signal.manager.storage.Database;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decrypts and handles a received envelope in a single unit of work.
+ * If decrypting or handling fails with an unexpected exception, all changes are rolled back, so the envelope can be
+ * handled again from the message cache without any partial state left behind.
+ */
+final class EnvelopeTransaction {
+
+    private final Database database;
+    private final SessionLockManager sessionLock;
+
+    EnvelopeTransaction(final Database database, final SessionLockManager sessionLock) {
+        this.database = database;
+        this.sessionLock = sessionLock;
+    }
+
+    /**
+     * @param sender    the sender of the envelope, or null if it's only known after decrypting the envelope
+     * @param getSender the sender of the decrypted envelope, or null if it couldn't be decrypted
+     * @return the result of handling the decrypted envelope, only returned once the changes are committed
+     */
+    <D, R> R run(
+            final ServiceId sender,
+            final Supplier<D> decrypt,
+            final Function<D, ServiceId> getSender,
+            final Function<D, R> handle
+    ) throws SQLException {
+        // The session lock must be acquired before the transaction, as sending threads hold the session locks of
+        // their recipients while writing
+        if (sender != null) {
+            try (final var ignored = sessionLock.acquire(List.of(sender));
+                 final var unitOfWork = database.beginUnitOfWork()) {
+                final var result = handle.apply(decrypt.get());
+                unitOfWork.commit();
+                return result;
+            }
+        }
+
+        // Decrypt with the sessions of all addresses locked, then handle the envelope holding only the lock of the
+        // sender, so sending to other recipients isn't blocked by fetching groups and profiles
+        try (final var lock = sessionLock.acquireAll(); final var unitOfWork = database.beginUnitOfWork()) {
+            final var decrypted = decrypt.get();
+            final var decryptedSender = getSender.apply(decrypted);
+            if (decryptedSender != null) {
+                lock.limitTo(List.of(decryptedSender));
+            }
+            final var result = handle.apply(decrypted);
+            unitOfWork.commit();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.api.GroupIdV2;
+import org.asamk.signal.manager.api.NotAGroupMemberException;
+import org.asamk.signal.manager.api.Pair;
+import org.signal.libsignal.zkgroup.profiles.ProfileKey;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Brings a local group state up to date by applying the paginated group change log.
+ * The intermediate state is cached after every page, so an interrupted catch-up can resume where it stopped.
+ */
+class GroupChangeLog {
+
+    private final static Logger logger = LoggerFactory.getLogger(GroupChangeLog.class);
+
+    private final Map<GroupIdV2, DecryptedGroup> cachedGroupStates = new ConcurrentHashMap<>();
+
+    /**
+     * @return the updated group with the authoritative profile keys of the applied changes,
+     * or null if the change log couldn't be applied and the full group needs to be fetched
+     */
+    Result apply(
+            final GroupIdV2 groupId, final DecryptedGroup localGroup, final int targetRevision, final Source source
+    ) throws NotAGroupMemberException {
+        var group = localGroup;
+        final var cachedGroup = cachedGroupStates.get(groupId);
+        if (cachedGroup != null && cachedGroup.revision > group.revision) {
+            logger.debug("Resuming group change log for {} from cached revision {}",
+                    groupId.toBase64(),
+                    cachedGroup.revision);
+            group = cachedGroup;
+        }
+
+        final var profileKeys = new ArrayList<Pair<ServiceId, ProfileKey>>();
+        var fromRevision = group.revision + 1;
+        while (true) {
+            final var page = source.getPage(fromRevision);
+            if (page == null) {
+                return null;
+            }
+            for (final var entry : page.entries()) {
+                final var change = entry.change();
+                final var entryRevision = change != null
+                        ? change.revision
+                        : entry.group() != null ? entry.group().revision : -1;
+                if (entryRevision <= group.revision) {
+                    continue;
+                }
+                DecryptedGroup newGroup = null;
+                if (change != null && entryRevision == group.revision + 1) {
+                    newGroup = source.applyChange(group, change);
+                }
+                if (newGroup == null) {
+                    newGroup = entry.group();
+                }
+                if (newGroup == null) {
+                    logger.debug("Failed to apply group change log for {} at revision {}",
+                            groupId.toBase64(),
+                            entryRevision);
+                    cachedGroupStates.remove(groupId);
+                    return null;
+                }
+                if (change != null) {
+                    final var profileKey = source.getAuthoritativeProfileKey(change);
+                    if (profileKey != null) {
+                        profileKeys.add(profileKey);
+                    }
+                }
+                group = newGroup;
+            }
+            cachedGroupStates.put(groupId, group);
+            if (!page.hasMorePages()) {
+                break;
+            }
+            fromRevision = page.nextPageRevision();
+        }
+        cachedGroupStates.remove(groupId);
+
+        if (group.revision < targetRevision) {
+            logger.debug("Group change log for {} ended at revision {}, expected {}",
+                    groupId.toBase64(),
+                    group.revision,
+                    targetRevision);
+            return null;
+        }
+
+        logger.debug("Updated group {} from revision {} to {} using the group change log",
+                groupId.toBase64(),
+                localGroup.revision,
+                group.revision);
+        return new Result(group, profileKeys);
+    }
+
+    record Result(DecryptedGroup group, List<Pair<ServiceId, ProfileKey>> profileKeys) {}
+
+    /**
+     * @param group  the full group state at the revision of the entry, if included by the server
+     * @param change the change to the previous revision, if available
+     */
+    record Entry(DecryptedGroup group, DecryptedGroupChange change) {}
+
+    record Page(List<Entry> entries, boolean hasMorePages, int nextPageRevision) {}
+
+    interface Source {
+
+        /**
+         * @return the change log page starting at the revision, or null if the change log isn't available
+         */
+        Page getPage(int fromRevision) throws NotAGroupMemberException;
+
+        /**
+         * @return the group with the change applied, or null if the change doesn't apply to the group
+         */
+        DecryptedGroup applyChange(DecryptedGroup group, DecryptedGroupChange change);
+
+        Pair<ServiceId, ProfileKey> getAuthoritativeProfileKey(DecryptedGroupChange change);
+    }
+}
@@ -67,6 +67,7 @@ public class GroupHelper {
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
+    private final GroupChangeLog groupChangeLog = new GroupChangeLog();
 
     public GroupHelper(final Context context) {
         this.account = context.getAccount();
@@ -84,13 +85,29 @@ public class GroupHelper {
     }
 
     public void downloadGroupAvatar(GroupIdV1 groupId, SignalServiceAttachment avatar) {
-        try {
-            context.getAvatarStore()
-                    .storeGroupAvatar(groupId,
-                            outputStream -> context.getAttachmentHelper().retrieveAttachment(avatar, outputStream));
-        } catch (IOException e) {
-            logger.warn("Failed to download avatar for group {}, ignoring: {}", groupId.toBase64(), e.getMessage());
+        if (!avatar.isPointer()) {
+            // Inline avatar streams must be consumed before the next group can be read
+            try {
+                context.getAvatarStore()
+                        .storeGroupAvatar(groupId,
+                                outputStream -> context.getAttachmentHelper().retrieveAttachment(avatar, outputStream));
+            } catch (IOException e) {
+                logger.warn("Failed to store avatar for group {}, ignoring: {}", groupId.toBase64(), e.getMessage());
+            }
+            return;
         }
+        final var source = avatar.asPointer().getRemoteId().toString();
+        if (context.getAvatarStore().isGroupAvatarCurrent(groupId, source)) {
+            return;
+        }
+        context.getMediaCacheHelper()
+                .enqueueDownload("group-" + groupId.toBase64(),
+                        source,
+                        () -> context.getAvatarStore()
+                                .storeGroupAvatar(groupId,
+                                        source,
+                                        outputStream -> context.getAttachmentHelper()
+                                                .retrieveAttachment(avatar, outputStream)));
     }
 
     public Optional<SignalServiceAttachmentStream> createGroupAvatarAttachment(GroupIdV1 groupId) throws IOException {
@@ -141,10 +158,15 @@ public class GroupHelper {
             }
             if (group == null) {
                 try {
-                    group = context.getGroupV2Helper().getDecryptedGroup(groupSecretParams);
+                    if (groupInfoV2.getGroup() != null) {
+                        group = getGroupFromChangeLog(groupSecretParams, groupInfoV2, revision);
+                    }
+                    if (group == null) {
+                        group = context.getGroupV2Helper().getDecryptedGroup(groupSecretParams);
 
-                    if (group != null) {
-                        storeProfileKeysFromHistory(groupSecretParams, groupInfoV2, group);
+                        if (group != null) {
+                            storeProfileKeysFromHistory(groupSecretParams, groupInfoV2, group);
+                        }
                     }
                 } catch (NotAGroupMemberException ignored) {
                 }
@@ -349,6 +371,7 @@ public class GroupHelper {
 
         group.setBlocked(blocked);
         account.getGroupStore().updateGroup(group);
+        account.getStorageRecordStore().markGroupDirty(groupId);
     }
 
     public SendGroupMessageResults sendGroupInfoRequest(
@@ -413,13 +436,16 @@ public class GroupHelper {
     }
 
     private void downloadGroupAvatar(GroupIdV2 groupId, GroupSecretParams groupSecretParams, String cdnKey) {
-        try {
-            context.getAvatarStore()
-                    .storeGroupAvatar(groupId,
-                            outputStream -> retrieveGroupV2Avatar(groupSecretParams, cdnKey, outputStream));
-        } catch (IOException e) {
-            logger.warn("Failed to download avatar for group {}, ignoring: {}", groupId.toBase64(), e.getMessage());
+        if (context.getAvatarStore().isGroupAvatarCurrent(groupId, cdnKey)) {
+            return;
         }
+        context.getMediaCacheHelper()
+                .enqueueDownload("group-" + groupId.toBase64(),
+                        cdnKey,
+                        () -> context.getAvatarStore()
+                                .storeGroupAvatar(groupId,
+                                        cdnKey,
+                                        outputStream -> retrieveGroupV2Avatar(groupSecretParams, cdnKey, outputStream)));
     }
 
     private void retrieveGroupV2Avatar(
@@ -473,6 +499,56 @@ public class GroupHelper {
         }
     }
 
+    /**
+     * Bring the local group state up to date by applying the group change log starting from the local revision.
+     *
+     * @return the updated group or null if the change log couldn't be applied and the full group needs to be fetched
+     */
+    private DecryptedGroup getGroupFromChangeLog(
+            final GroupSecretParams groupSecretParams, final GroupInfoV2 localGroup, final int targetRevision
+    ) throws NotAGroupMemberException {
+        final var groupV2Helper = context.getGroupV2Helper();
+        final var result = groupChangeLog.apply(localGroup.getGroupId(),
+                localGroup.getGroup(),
+                targetRevision,
+                new GroupChangeLog.Source() {
+                    @Override
+                    public GroupChangeLog.Page getPage(final int fromRevision) throws NotAGroupMemberException {
+                        final var page = groupV2Helper.getDecryptedGroupHistoryPage(groupSecretParams, fromRevision);
+                        if (page == null) {
+                            return null;
+                        }
+                        final var entries = page.getResults()
+                                .stream()
+                                .map(e -> new GroupChangeLog.Entry(e.getGroup().orElse(null),
+                                        e.getChange().orElse(null)))
+                                .toList();
+                        return new GroupChangeLog.Page(entries,
+                                page.getPagingData().hasMorePages(),
+                                page.getPagingData().getNextPageRevision());
+                    }
+
+                    @Override
+                    public DecryptedGroup applyChange(final DecryptedGroup group, final DecryptedGroupChange change) {
+                        return groupV2Helper.getUpdatedDecryptedGroup(group, change);
+                    }
+
+                    @Override
+                    public Pair<ServiceId, ProfileKey> getAuthoritativeProfileKey(final DecryptedGroupChange change) {
+                        return groupV2Helper.getAuthoritativeProfileKeyFromChange(change);
+                    }
+                });
+        if (result == null) {
+            return null;
+        }
+
+        for (final var profileKey : result.profileKeys()) {
+            final var recipientId = account.getRecipientResolver().resolveRecipient(profileKey.first());
+            account.getProfileStore().storeProfileKey(recipientId, profileKey.second());
+        }
+        return result.group();
+    }
+
     private void storeProfileKeysFromHistory(
             final GroupSecretParams groupSecretParams,
             final GroupInfoV2 localGroup,
@@ -7,6 +7,7 @@ import org.asamk.signal.manager.actions.RenewSessionAction;
 import org.asamk.signal.manager.actions.ResendMessageAction;
 import org.asamk.signal.manager.actions.RetrieveProfileAction;
 import org.asamk.signal.manager.actions.RetrieveStorageDataAction;
+import org.asamk.signal.manager.actions.RetrieveSyncContactsAction;
 import org.asamk.signal.manager.actions.SendGroupInfoAction;
 import org.asamk.signal.manager.actions.SendGroupInfoRequestAction;
 import org.asamk.signal.manager.actions.SendProfileKeyAction;
@@ -30,10 +31,12 @@ import org.asamk.signal.manager.api.UntrustedIdentityException;
 import org.asamk.signal.manager.groups.GroupUtils;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.jobs.RetrieveStickerPackJob;
+import org.asamk.signal.manager.metrics.Histogram;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.groups.GroupInfoV1;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.storage.stickers.StickerPack;
+import org.signal.libsignal.metadata.ProtocolException;
 import org.signal.libsignal.metadata.ProtocolInvalidKeyException;
 import org.signal.libsignal.metadata.ProtocolInvalidKeyIdException;
 import org.signal.libsignal.metadata.ProtocolInvalidMessageException;
@@ -84,130 +87,205 @@ public final class IncomingMessageHandler {
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
+    private final Histogram decryptTime;
 
     public IncomingMessageHandler(final Context context) {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
         this.context = context;
+        this.decryptTime = account.getMetrics()
+                .histogram("signal_receive_decrypt_seconds", "Time to decrypt a received envelope");
     }
 
+    /**
+     * Decrypt a cached envelope that previously failed to decrypt, see {@link #decryptEnvelope(SignalServiceEnvelope)}.
+     */
+    public DecryptedEnvelope decryptRetryEnvelope(final SignalServiceEnvelope envelope) {
+        if (envelope.isReceipt()) {
+            return new DecryptedEnvelope(null, null, false);
+        }
+        final SignalServiceContent content;
+        account.getIdentityKeyStore().setRetryingDecryption(true);
+        try {
+            content = decrypt(envelope);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            return new DecryptedEnvelope(null, e, false);
+        } finally {
+            account.getIdentityKeyStore().setRetryingDecryption(false);
+        }
+        if (content == null) {
+            return new DecryptedEnvelope(null, null, true);
+        }
+        applyProtocolChanges(envelope, content);
+        return new DecryptedEnvelope(content, null, false);
+    }
+
+    /**
+     * Decrypt an envelope and apply the resulting changes to the sessions, identities and the addresses of the sender.
+     * Sender key distribution messages are only processed while handling the envelope, after checking that the
+     * sender isn't blocked and is allowed to send to the group.
+     * Must be called inside a unit of work while holding the session lock of the sender.
+     * Decryption failures are returned to be handled by {@link #handleEnvelope}, unexpected exceptions are thrown so
+     * the unit of work is rolled back.
+     */
+    public DecryptedEnvelope decryptEnvelope(final SignalServiceEnvelope envelope) {
+        Exception exception = null;
+        try {
+            if (envelope.hasSourceServiceId()) {
+                // Store uuid if we don't have it already
+                // uuid in envelope is sent by server
+                account.getRecipientTrustedResolver().resolveRecipientTrusted(envelope.getSourceAddress());
+            }
+        } catch (Exception e) {
+            exception = e;
+        }
+        if (envelope.isReceipt()) {
+            return new DecryptedEnvelope(null, exception, false);
+        }
+        final SignalServiceContent content;
+        try {
+            content = decrypt(envelope);
+        } catch (SelfSendException e) {
+            logger.debug("Dropping unidentified message from self.");
+            return new DecryptedEnvelope(null, null, true);
+        } catch (RuntimeException e) {
+            // Unexpected failure, e.g. of the database, roll back the transaction
+            throw e;
+        } catch (Exception e) {
+            return new DecryptedEnvelope(null, e, false);
+        }
+        if (content == null) {
+            return new DecryptedEnvelope(null, null, true);
+        }
+        applyProtocolChanges(envelope, content);
+        return new DecryptedEnvelope(content, exception, false);
+    }
+
+    /**
+     * Handle an envelope decrypted by {@link #decryptRetryEnvelope(SignalServiceEnvelope)}.
+     */
     public Pair<List<HandleAction>, Exception> handleRetryEnvelope(
             final SignalServiceEnvelope envelope,
+            final DecryptedEnvelope decrypted,
             final ReceiveConfig receiveConfig,
             final Manager.ReceiveMessageHandler handler
     ) {
+        if (decrypted.dropped()) {
+            return new Pair<>(List.of(), null);
+        }
+        final var exception = decrypted.exception();
+        if (exception instanceof ProtocolUntrustedIdentityException e) {
+            final var recipientId = account.getRecipientResolver().resolveRecipient(e.getSender());
+            return new Pair<>(List.of(),
+                    new UntrustedIdentityException(account.getRecipientAddressResolver()
+                            .resolveRecipientAddress(recipientId)
+                            .toApiRecipientAddress(), e.getSenderDevice()));
+        } else if (exception != null) {
+            return new Pair<>(List.of(), exception);
+        }
+
         final List<HandleAction> actions = new ArrayList<>();
         if (envelope.isPreKeySignalMessage()) {
             actions.add(RefreshPreKeysAction.create());
         }
-
-        SignalServiceContent content = null;
-        if (!envelope.isReceipt()) {
-            account.getIdentityKeyStore().setRetryingDecryption(true);
-            try {
-                final var cipherResult = dependencies.getCipher()
-                        .decrypt(envelope.getProto(), envelope.getServerDeliveredTimestamp());
-                content = validate(envelope.getProto(), cipherResult, envelope.getServerDeliveredTimestamp());
-                if (content == null) {
-                    return new Pair<>(List.of(), null);
-                }
-            } catch (ProtocolUntrustedIdentityException e) {
-                final var recipientId = account.getRecipientResolver().resolveRecipient(e.getSender());
-                final var exception = new UntrustedIdentityException(account.getRecipientAddressResolver()
-                        .resolveRecipientAddress(recipientId)
-                        .toApiRecipientAddress(), e.getSenderDevice());
-                return new Pair<>(List.of(), exception);
-            } catch (Exception e) {
-                return new Pair<>(List.of(), e);
-            } finally {
-                account.getIdentityKeyStore().setRetryingDecryption(false);
-            }
-        }
-        actions.addAll(checkAndHandleMessage(envelope, content, receiveConfig, handler, null));
+        actions.addAll(checkAndHandleMessage(envelope, decrypted.content(), receiveConfig, handler, null));
         return new Pair<>(actions, null);
     }
 
+    /**
+     * Handle an envelope decrypted by {@link #decryptEnvelope(SignalServiceEnvelope)}, in the same unit of work.
+     * This may fetch groups and profiles from the server and calls the message handler.
+     */
     public Pair<List<HandleAction>, Exception> handleEnvelope(
             final SignalServiceEnvelope envelope,
+            final DecryptedEnvelope decrypted,
             final ReceiveConfig receiveConfig,
             final Manager.ReceiveMessageHandler handler
     ) {
-        final var actions = new ArrayList<HandleAction>();
-        SignalServiceContent content = null;
-        Exception exception = null;
-        try {
-            if (envelope.hasSourceServiceId()) {
-                // Store uuid if we don't have it already
-                // uuid in envelope is sent by server
-                account.getRecipientTrustedResolver().resolveRecipientTrusted(envelope.getSourceAddress());
-            }
-        } catch (Exception e) {
-            exception = e;
+        if (decrypted.dropped()) {
+            return new Pair<>(List.of(), null);
         }
-        if (!envelope.isReceipt()) {
-            try {
-                final var cipherResult = dependencies.getCipher()
-                        .decrypt(envelope.getProto(), envelope.getServerDeliveredTimestamp());
-                content = validate(envelope.getProto(), cipherResult, envelope.getServerDeliveredTimestamp());
-                if (content == null) {
-                    return new Pair<>(List.of(), null);
+        final var actions = new ArrayList<HandleAction>();
+        var exception = decrypted.exception();
+        if (exception instanceof ProtocolUntrustedIdentityException e) {
+            final var recipientId = account.getRecipientResolver().resolveRecipient(e.getSender());
+            actions.add(new RetrieveProfileAction(recipientId));
+            exception = new UntrustedIdentityException(account.getRecipientAddressResolver()
+                    .resolveRecipientAddress(recipientId)
+                    .toApiRecipientAddress(), e.getSenderDevice());
+        } else if (exception instanceof ProtocolInvalidKeyIdException
+                || exception instanceof ProtocolInvalidKeyException
+                || exception instanceof ProtocolNoSessionException
+                || exception instanceof ProtocolInvalidMessageException) {
+            final var e = (ProtocolException) exception;
+            logger.debug("Failed to decrypt incoming message", e);
+            final var sender = account.getRecipientResolver().resolveRecipient(e.getSender());
+            if (context.getContactHelper().isContactBlocked(sender)) {
+                logger.debug("Received invalid message from blocked contact, ignoring.");
+            } else {
+                final var senderProfile = context.getProfileHelper().getRecipientProfile(sender);
+                final var selfProfile = context.getProfileHelper().getSelfProfile();
+                var serviceId = ServiceId.parseOrNull(e.getSender());
+                if (serviceId == null) {
+                    // Workaround for libsignal-client issue #492
+                    serviceId = account.getRecipientAddressResolver()
+                            .resolveRecipientAddress(sender)
+                            .serviceId()
+                            .orElse(null);
                 }
-            } catch (ProtocolUntrustedIdentityException e) {
-                final var recipientId = account.getRecipientResolver().resolveRecipient(e.getSender());
-                actions.add(new RetrieveProfileAction(recipientId));
-                exception = new UntrustedIdentityException(account.getRecipientAddressResolver()
-                        .resolveRecipientAddress(recipientId)
-                        .toApiRecipientAddress(), e.getSenderDevice());
-            } catch (ProtocolInvalidKeyIdException | ProtocolInvalidKeyException | ProtocolNoSessionException |
-                     ProtocolInvalidMessageException e) {
-                logger.debug("Failed to decrypt incoming message", e);
-                final var sender = account.getRecipientResolver().resolveRecipient(e.getSender());
-                if (context.getContactHelper().isContactBlocked(sender)) {
-                    logger.debug("Received invalid message from blocked contact, ignoring.");
-                } else {
-                    final var senderProfile = context.getProfileHelper().getRecipientProfile(sender);
-                    final var selfProfile = context.getProfileHelper().getSelfProfile();
-                    var serviceId = ServiceId.parseOrNull(e.getSender());
-                    if (serviceId == null) {
-                        // Workaround for libsignal-client issue #492
-                        serviceId = account.getRecipientAddressResolver()
-                                .resolveRecipientAddress(sender)
-                                .serviceId()
-                                .orElse(null);
-                    }
-                    if (serviceId != null) {
-                        final var isSelf = sender.equals(account.getSelfRecipientId())
-                                && e.getSenderDevice() == account.getDeviceId();
-                        final var isSenderSenderKeyCapable = senderProfile != null && senderProfile.getCapabilities()
-                                .contains(Profile.Capability.senderKey);
-                        final var isSelfSenderKeyCapable = selfProfile != null && selfProfile.getCapabilities()
-                                .contains(Profile.Capability.senderKey);
-                        final var destination = getDestination(envelope).serviceId();
-                        if (!isSelf && isSenderSenderKeyCapable && isSelfSenderKeyCapable) {
-                            logger.debug("Received invalid message, requesting message resend.");
-                            actions.add(new SendRetryMessageRequestAction(sender, serviceId, e, envelope, destination));
-                        } else {
-                            logger.debug("Received invalid message, queuing renew session action.");
-                            actions.add(new RenewSessionAction(sender, serviceId, destination));
-                        }
+                if (serviceId != null) {
+                    final var isSelf = sender.equals(account.getSelfRecipientId())
+                            && e.getSenderDevice() == account.getDeviceId();
+                    final var isSenderSenderKeyCapable = senderProfile != null && senderProfile.getCapabilities()
+                            .contains(Profile.Capability.senderKey);
+                    final var isSelfSenderKeyCapable = selfProfile != null && selfProfile.getCapabilities()
+                            .contains(Profile.Capability.senderKey);
+                    final var destination = getDestination(envelope).serviceId();
+                    if (!isSelf && isSenderSenderKeyCapable && isSelfSenderKeyCapable) {
+                        logger.debug("Received invalid message, requesting message resend.");
+                        actions.add(new SendRetryMessageRequestAction(sender, serviceId, e, envelope, destination));
                     } else {
-                        logger.debug("Received invalid message from invalid sender: {}", e.getSender());
+                        logger.debug("Received invalid message, queuing renew session action.");
+                        actions.add(new RenewSessionAction(sender, serviceId, destination));
                     }
+                } else {
+                    logger.debug("Received invalid message from invalid sender: {}", e.getSender());
                 }
-                exception = e;
-            } catch (SelfSendException e) {
-                logger.debug("Dropping unidentified message from self.");
-                return new Pair<>(List.of(), null);
-            } catch (Exception e) {
-                logger.debug("Failed to handle incoming message", e);
-                exception = e;
             }
+        } else if (exception != null) {
+            logger.debug("Failed to handle incoming message", exception);
         }
 
-        actions.addAll(checkAndHandleMessage(envelope, content, receiveConfig, handler, exception));
+        actions.addAll(checkAndHandleMessage(envelope, decrypted.content(), receiveConfig, handler, exception));
         return new Pair<>(actions, exception);
     }
 
+    private SignalServiceContent decrypt(final SignalServiceEnvelope envelope) throws Exception {
+        final var decryptStart = decryptTime.startTimer();
+        final var cipherResult = dependencies.getCipher()
+                .decrypt(envelope.getProto(), envelope.getServerDeliveredTimestamp());
+        decryptTime.observeSince(decryptStart);
+        return validate(envelope.getProto(), cipherResult, envelope.getServerDeliveredTimestamp());
+    }
+
+    private void applyProtocolChanges(final SignalServiceEnvelope envelope, final SignalServiceContent content) {
+        // Store uuid if we don't have it already
+        // address/uuid is validated by unidentified sender certificate
+        boolean handledPniSignature = false;
+        if (content.getPniSignatureMessage().isPresent()) {
+            final var message = content.getPniSignatureMessage().get();
+            final var senderAddress = getSenderAddress(envelope, content);
+            if (senderAddress != null) {
+                handledPniSignature = handlePniSignatureMessage(message, senderAddress);
+            }
+        }
+        if (!handledPniSignature) {
+            account.getRecipientTrustedResolver().resolveRecipientTrusted(content.getSender());
+        }
+    }
+
     private SignalServiceContent validate(
             Envelope envelope, SignalServiceCipherResult cipherResult, long serverDeliveredTimestamp
     ) throws ProtocolInvalidKeyException, ProtocolInvalidMessageException, UnsupportedDataMessageException, InvalidMessageStructureException {
@@ -241,22 +319,6 @@ public final class IncomingMessageHandler {
             final Manager.ReceiveMessageHandler handler,
             final Exception exception
     ) {
-        if (content != null) {
-            // Store uuid if we don't have it already
-            // address/uuid is validated by unidentified sender certificate
-
-            boolean handledPniSignature = false;
-            if (content.getPniSignatureMessage().isPresent()) {
-                final var message = content.getPniSignatureMessage().get();
-                final var senderAddress = getSenderAddress(envelope, content);
-                if (senderAddress != null) {
-                    handledPniSignature = handlePniSignatureMessage(message, senderAddress);
-                }
-            }
-            if (!handledPniSignature) {
-                account.getRecipientTrustedResolver().resolveRecipientTrusted(content.getSender());
-            }
-        }
         if (envelope.isReceipt()) {
             final var senderDeviceAddress = getSender(envelope, content);
             final var sender = senderDeviceAddress.serviceId();
@@ -549,14 +611,8 @@ public final class IncomingMessageHandler {
             }
         }
         if (syncMessage.getContacts().isPresent()) {
-            try {
-                final var contactsMessage = syncMessage.getContacts().get();
-                context.getAttachmentHelper()
-                        .retrieveAttachment(contactsMessage.getContactsStream(),
-                                context.getSyncHelper()::handleSyncDeviceContacts);
-            } catch (Exception e) {
-                logger.warn("Failed to handle received sync contacts, ignoring: {}", e.getMessage());
-            }
+            final var contactsMessage = syncMessage.getContacts().get();
+            actions.add(new RetrieveSyncContactsAction(contactsMessage.getContactsStream()));
         }
         if (syncMessage.getVerified().isPresent()) {
             final var verifiedMessage = syncMessage.getVerified().get();
@@ -975,4 +1031,13 @@ public final class IncomingMessageHandler {
     }
 
     private record DeviceAddress(RecipientId recipientId, ServiceId serviceId, int deviceId) {}
+
+    /**
+     * Result of decrypting an envelope.
+     *
+     * @param content   the decrypted content, null for receipts and if decryption failed
+     * @param exception the reason decryption failed
+     * @param dropped   true if the envelope should be dropped without handling it
+     */
+    public record DecryptedEnvelope(SignalServiceContent content, Exception exception, boolean dropped) {}
 }
@@ -0,0 +1,144 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.config.ServiceConfig;
+import org.asamk.signal.manager.storage.AvatarStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads avatars and sticker packs on a small bounded background pool, so profile, group and contact
+ * refreshes don't block on media I/O.
+ * Downloads for the same target and source are only queued once, and the avatar cache is kept below its size limit.
+ */
+public class MediaCacheHelper {
+
+    private final static Logger logger = LoggerFactory.getLogger(MediaCacheHelper.class);
+
+    private final static int EVICTION_INTERVAL = 50;
+
+    private final AvatarStore avatarStore;
+    private final long avatarCacheMaxSize;
+    private final Map<String, String> pendingSources = new HashMap<>();
+    private final Map<String, QueuedDownload> nextDownloads = new HashMap<>();
+    private final AtomicInteger downloadsSinceEviction = new AtomicInteger();
+
+    private ThreadPoolExecutor executor;
+
+    public MediaCacheHelper(final AvatarStore avatarStore) {
+        this(avatarStore, ServiceConfig.AVATAR_CACHE_MAX_SIZE);
+    }
+
+    MediaCacheHelper(final AvatarStore avatarStore, final long avatarCacheMaxSize) {
+        this.avatarStore = avatarStore;
+        this.avatarCacheMaxSize = avatarCacheMaxSize;
+    }
+
+    /**
+     * Queue a download of immutable media, unless a download with the same key is already pending.
+     */
+    public void enqueueDownload(final String key, final Download download) {
+        enqueueDownload(key, key, download);
+    }
+
+    /**
+     * Queue a download of the given source into the target, unless the same source is already pending for it.
+     * Only one download runs per target, if the source changes while a download is running, the newest source is
+     * downloaded afterwards, so an older download can't overwrite a newer one.
+     */
+    public void enqueueDownload(final String target, final String source, final Download download) {
+        synchronized (pendingSources) {
+            final var pendingSource = pendingSources.get(target);
+            if (pendingSource == null) {
+                pendingSources.put(target, source);
+                submit(target, source, download);
+            } else if (pendingSource.equals(source)) {
+                logger.trace("Media download {} is already queued", target);
+                nextDownloads.remove(target);
+            } else {
+                logger.trace("Media download {} changed while a download is pending, queueing the new source", target);
+                nextDownloads.put(target, new QueuedDownload(source, download));
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (pendingSources) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            pendingSources.clear();
+            nextDownloads.clear();
+        }
+    }
+
+    private void submit(final String target, final String source, final Download download) {
+        try {
+            getExecutor().execute(() -> runDownload(target, download));
+        } catch (RejectedExecutionException e) {
+            pendingSources.remove(target, source);
+            logger.debug("Media download queue is full, skipping {}", target);
+        }
+    }
+
+    private void runDownload(final String target, final Download download) {
+        try {
+            download.run();
+        } catch (Throwable e) {
+            logger.warn("Failed to download media {}, ignoring: {}", target, e.getMessage());
+        } finally {
+            synchronized (pendingSources) {
+                final var next = nextDownloads.remove(target);
+                if (next == null) {
+                    pendingSources.remove(target);
+                } else if (executor != null) {
+                    pendingSources.put(target, next.source());
+                    submit(target, next.source(), next.download());
+                }
+            }
+        }
+        if (downloadsSinceEviction.incrementAndGet() >= EVICTION_INTERVAL) {
+            downloadsSinceEviction.set(0);
+            try {
+                avatarStore.evictAvatars(avatarCacheMaxSize);
+            } catch (IOException e) {
+                logger.warn("Failed to evict cached avatars, ignoring: {}", e.getMessage());
+            }
+        }
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final var threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(ServiceConfig.MEDIA_DOWNLOAD_THREADS,
+                    ServiceConfig.MEDIA_DOWNLOAD_THREADS,
+                    60,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(ServiceConfig.MEDIA_DOWNLOAD_QUEUE_SIZE),
+                    r -> {
+                        final var thread = new Thread(r, "media-download-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    private record QueuedDownload(String source, Download download) {}
+
+    @FunctionalInterface
+    public interface Download {
+
+        void run() throws Exception;
+    }
+}
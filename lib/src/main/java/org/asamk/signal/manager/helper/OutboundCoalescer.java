@@ -0,0 +1,304 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
+import org.whispersystems.signalservice.api.messages.SignalServiceTypingMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delays outgoing receipts and 1:1 typing messages for a short window, so that multiple receipts for the same
+ * recipient and type are sent as a single receipt message and typing START/STOP pairs cancel each other out.
+ */
+public class OutboundCoalescer {
+
+    private final static Logger logger = LoggerFactory.getLogger(OutboundCoalescer.class);
+
+    // Flushes are spread over multiple threads by recipient, so a slow send doesn't delay the other recipients,
+    // while the messages of one recipient are still sent in order
+    private final static int FLUSH_THREADS = 4;
+
+    private final Transport transport;
+    private final Duration window;
+
+    private final Map<ReceiptKey, PendingReceipt> pendingReceipts = new HashMap<>();
+    private final Map<RecipientId, PendingTyping> pendingTyping = new HashMap<>();
+    // Recipients whose last sent typing message was a START, entries are removed once the STOP was sent
+    private final Set<RecipientId> typingStartedSent = new HashSet<>();
+
+    private final ScheduledExecutorService[] schedulers = new ScheduledExecutorService[FLUSH_THREADS];
+    private boolean closed = false;
+
+    public OutboundCoalescer(final Context context, final Duration window) {
+        this(new ContextTransport(context), window);
+    }
+
+    OutboundCoalescer(final Transport transport, final Duration window) {
+        this.transport = transport;
+        this.window = window;
+    }
+
+    /**
+     * Send a receipt, waiting at most for the coalescing window until it is sent together with other receipts.
+     */
+    public SendMessageResult sendReceipt(
+            final RecipientId recipientId, final SignalServiceReceiptMessage.Type type, final List<Long> timestamps
+    ) {
+        return await(addReceipt(recipientId, type, timestamps));
+    }
+
+    /**
+     * Queue a receipt without waiting for the result.
+     */
+    public void enqueueReceipt(
+            final RecipientId recipientId, final SignalServiceReceiptMessage.Type type, final List<Long> timestamps
+    ) {
+        addReceipt(recipientId, type, timestamps);
+    }
+
+    public SendMessageResult sendTyping(final RecipientId recipientId, final SignalServiceTypingMessage.Action action) {
+        return await(addTyping(recipientId, action));
+    }
+
+    /**
+     * Send all pending messages immediately and stop accepting new ones for coalescing.
+     */
+    public void close() {
+        final List<Runnable> flushes = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            pendingReceipts.keySet().forEach(key -> flushes.add(() -> flushReceipt(key)));
+            pendingTyping.keySet().forEach(recipientId -> flushes.add(() -> flushTyping(recipientId)));
+        }
+        flushes.forEach(Runnable::run);
+        synchronized (this) {
+            for (var i = 0; i < schedulers.length; i++) {
+                if (schedulers[i] != null) {
+                    schedulers[i].shutdown();
+                    schedulers[i] = null;
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<SendMessageResult> addReceipt(
+            final RecipientId recipientId, final SignalServiceReceiptMessage.Type type, final List<Long> timestamps
+    ) {
+        final var key = new ReceiptKey(recipientId, type);
+        synchronized (this) {
+            if (isCoalescingEnabled()) {
+                var pending = pendingReceipts.get(key);
+                if (pending == null) {
+                    pending = new PendingReceipt();
+                    pendingReceipts.put(key, pending);
+                    schedule(recipientId, () -> flushReceipt(key));
+                } else {
+                    logger.trace("Coalescing {} receipt for {}", type, recipientId);
+                }
+                pending.timestamps.addAll(timestamps);
+                return pending.future;
+            }
+        }
+        // Sent outside the monitor, so other senders aren't blocked by the network request
+        return sendNow(() -> sendReceiptMessage(key, timestamps));
+    }
+
+    private CompletableFuture<SendMessageResult> addTyping(
+            final RecipientId recipientId, final SignalServiceTypingMessage.Action action
+    ) {
+        final PendingTyping dropped;
+        synchronized (this) {
+            if (!isCoalescingEnabled()) {
+                dropped = null;
+            } else {
+                final var pending = pendingTyping.get(recipientId);
+                if (pending == null) {
+                    final var newPending = new PendingTyping(action);
+                    pendingTyping.put(recipientId, newPending);
+                    schedule(recipientId, () -> flushTyping(recipientId));
+                    return newPending.future;
+                }
+                if (pending.action == action) {
+                    return pending.future;
+                }
+                if (pending.action != SignalServiceTypingMessage.Action.STARTED
+                        || typingStartedSent.contains(recipientId)) {
+                    pending.action = action;
+                    return pending.future;
+                }
+                logger.trace("Dropping typing START/STOP pair for {}", recipientId);
+                pendingTyping.remove(recipientId);
+                dropped = pending;
+            }
+        }
+        if (dropped == null) {
+            // Sent outside the monitor, so other senders aren't blocked by the network request
+            return sendNow(() -> sendTypingMessage(recipientId, action));
+        }
+        complete(dropped.future, () -> transport.skipped(recipientId));
+        return dropped.future;
+    }
+
+    private void flushReceipt(final ReceiptKey key) {
+        final PendingReceipt pending;
+        synchronized (this) {
+            pending = pendingReceipts.remove(key);
+        }
+        if (pending == null) {
+            return;
+        }
+        complete(pending.future, () -> sendReceiptMessage(key, List.copyOf(pending.timestamps)));
+    }
+
+    private void flushTyping(final RecipientId recipientId) {
+        final PendingTyping pending;
+        synchronized (this) {
+            pending = pendingTyping.remove(recipientId);
+        }
+        if (pending == null) {
+            return;
+        }
+        complete(pending.future, () -> sendTypingMessage(recipientId, pending.action));
+    }
+
+    private SendMessageResult sendReceiptMessage(final ReceiptKey key, final List<Long> timestamps) {
+        final var receiptMessage = new SignalServiceReceiptMessage(key.type(),
+                timestamps,
+                System.currentTimeMillis());
+        return transport.sendReceipt(receiptMessage, key.recipientId());
+    }
+
+    private SendMessageResult sendTypingMessage(
+            final RecipientId recipientId, final SignalServiceTypingMessage.Action action
+    ) {
+        final var message = new SignalServiceTypingMessage(action, System.currentTimeMillis(), Optional.empty());
+        final var result = transport.sendTyping(message, recipientId);
+        if (result.isSuccess()) {
+            synchronized (this) {
+                if (action == SignalServiceTypingMessage.Action.STARTED) {
+                    typingStartedSent.add(recipientId);
+                } else {
+                    typingStartedSent.remove(recipientId);
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean isCoalescingEnabled() {
+        return !closed && !window.isZero() && !window.isNegative();
+    }
+
+    private void schedule(final RecipientId recipientId, final Runnable runnable) {
+        final var index = Math.floorMod(recipientId.hashCode(), schedulers.length);
+        if (schedulers[index] == null) {
+            schedulers[index] = Executors.newSingleThreadScheduledExecutor(r -> {
+                final var thread = new Thread(r, "outbound-coalescer-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        schedulers[index].schedule(runnable, window.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static CompletableFuture<SendMessageResult> sendNow(final Sender sender) {
+        final var future = new CompletableFuture<SendMessageResult>();
+        complete(future, sender);
+        return future;
+    }
+
+    private static void complete(final CompletableFuture<SendMessageResult> future, final Sender sender) {
+        try {
+            future.complete(sender.send());
+        } catch (Throwable e) {
+            logger.warn("Failed to send coalesced message: {}", e.getMessage());
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static SendMessageResult await(final CompletableFuture<SendMessageResult> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private interface Sender {
+
+        SendMessageResult send();
+    }
+
+    /**
+     * Sends the coalesced messages.
+     */
+    interface Transport {
+
+        SendMessageResult sendReceipt(SignalServiceReceiptMessage message, RecipientId recipientId);
+
+        SendMessageResult sendTyping(SignalServiceTypingMessage message, RecipientId recipientId);
+
+        /**
+         * @return the result for a message that didn't need to be sent
+         */
+        SendMessageResult skipped(RecipientId recipientId);
+    }
+
+    private record ContextTransport(Context context) implements Transport {
+
+        @Override
+        public SendMessageResult sendReceipt(
+                final SignalServiceReceiptMessage message, final RecipientId recipientId
+        ) {
+            return context.getSendHelper().sendReceiptMessage(message, recipientId);
+        }
+
+        @Override
+        public SendMessageResult sendTyping(final SignalServiceTypingMessage message, final RecipientId recipientId) {
+            return context.getSendHelper().sendTypingMessage(message, recipientId);
+        }
+
+        @Override
+        public SendMessageResult skipped(final RecipientId recipientId) {
+            final var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
+            return SendMessageResult.success(address, List.of(), false, false, 0, Optional.empty());
+        }
+    }
+
+    private record ReceiptKey(RecipientId recipientId, SignalServiceReceiptMessage.Type type) {}
+
+    private static class PendingReceipt {
+
+        private final Set<Long> timestamps = new LinkedHashSet<>();
+        private final CompletableFuture<SendMessageResult> future = new CompletableFuture<>();
+    }
+
+    private static class PendingTyping {
+
+        private SignalServiceTypingMessage.Action action;
+        private final CompletableFuture<SendMessageResult> future = new CompletableFuture<>();
+
+        private PendingTyping(final SignalServiceTypingMessage.Action action) {
+            this.action = action;
+        }
+    }
+}
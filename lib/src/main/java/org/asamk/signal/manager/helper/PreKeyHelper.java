@@ -2,6 +2,7 @@ package org.asamk.signal.manager.helper;
 
 import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.internal.SignalDependencies;
+import org.asamk.signal.manager.metrics.Histogram;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.util.KeyUtils;
 import org.signal.libsignal.protocol.IdentityKeyPair;
@@ -18,6 +19,10 @@ import org.whispersystems.signalservice.internal.push.OneTimePreKeyCounts;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.asamk.signal.manager.config.ServiceConfig.PREKEY_STALE_AGE;
 import static org.asamk.signal.manager.config.ServiceConfig.SIGNED_PREKEY_ROTATE_AGE;
@@ -26,14 +31,42 @@ public class PreKeyHelper {
 
     private final static Logger logger = LoggerFactory.getLogger(PreKeyHelper.class);
 
+    private final static OneTimePreKeyCounts NO_COUNTS = new OneTimePreKeyCounts(0, 0);
+
     private final SignalAccount account;
     private final SignalDependencies dependencies;
 
+    private final PreKeyPool<PreKeyRecord> preKeyPool = new PreKeyPool<>();
+    private final PreKeyPool<KyberPreKeyRecord> kyberPreKeyPool = new PreKeyPool<>();
+    // Only keys of identities that needed new one-time pre keys before are generated ahead of demand
+    private final Set<ServiceIdType> poolServiceIdTypes = ConcurrentHashMap.newKeySet();
+    private final Map<ServiceIdType, OneTimePreKeyCounts> serverPreKeyCounts = new ConcurrentHashMap<>();
+    private final Histogram generateTime;
+
     public PreKeyHelper(
             final SignalAccount account, final SignalDependencies dependencies
     ) {
         this.account = account;
         this.dependencies = dependencies;
+
+        final var metrics = account.getMetrics();
+        this.generateTime = metrics.histogram("signal_prekey_generate_seconds",
+                "Time to generate a batch of one-time pre keys");
+        for (final var serviceIdType : ServiceIdType.values()) {
+            final var name = serviceIdType.name().toLowerCase(Locale.ROOT);
+            metrics.gauge("signal_prekey_pool_" + name + "_ec_keys",
+                    "Pre-generated " + serviceIdType + " one-time ec pre keys, that haven't been uploaded yet",
+                    () -> preKeyPool.size(serviceIdType));
+            metrics.gauge("signal_prekey_pool_" + name + "_kyber_keys",
+                    "Pre-generated " + serviceIdType + " one-time kyber pre keys, that haven't been uploaded yet",
+                    () -> kyberPreKeyPool.size(serviceIdType));
+            metrics.gauge("signal_prekey_server_" + name + "_ec_keys",
+                    serviceIdType + " one-time ec pre keys available on the server at the last check",
+                    () -> serverPreKeyCounts.getOrDefault(serviceIdType, NO_COUNTS).getEcCount());
+            metrics.gauge("signal_prekey_server_" + name + "_kyber_keys",
+                    serviceIdType + " one-time kyber pre keys available on the server at the last check",
+                    () -> serverPreKeyCounts.getOrDefault(serviceIdType, NO_COUNTS).getKyberCount());
+        }
     }
 
     public void refreshPreKeysIfNecessary() throws IOException {
@@ -41,7 +74,7 @@ public class PreKeyHelper {
         refreshPreKeysIfNecessary(ServiceIdType.PNI);
     }
 
-    public void refreshPreKeysIfNecessary(ServiceIdType serviceIdType) throws IOException {
+    public synchronized void refreshPreKeysIfNecessary(ServiceIdType serviceIdType) throws IOException {
         final var identityKeyPair = account.getIdentityKeyPair(serviceIdType);
         if (identityKeyPair == null) {
             return;
@@ -58,6 +91,7 @@ public class PreKeyHelper {
             logger.debug("Failed to get pre key count, ignoring: " + e.getClass().getSimpleName());
             preKeyCounts = new OneTimePreKeyCounts(0, 0);
         }
+        serverPreKeyCounts.put(serviceIdType, preKeyCounts);
 
         SignedPreKeyRecord signedPreKeyRecord = null;
         List<PreKeyRecord> preKeyRecords = null;
@@ -70,7 +104,7 @@ public class PreKeyHelper {
                         serviceIdType,
                         preKeyCounts.getEcCount(),
                         ServiceConfig.PREKEY_MINIMUM_COUNT);
-                preKeyRecords = generatePreKeys(serviceIdType);
+                preKeyRecords = generatePreKeys(serviceIdType, identityKeyPair);
             }
             if (signedPreKeyNeedsRefresh(serviceIdType)) {
                 logger.debug("Refreshing {} signed pre key.", serviceIdType);
@@ -79,7 +113,7 @@ public class PreKeyHelper {
         } catch (Exception e) {
             logger.warn("Failed to store new pre keys, resetting preKey id offset", e);
             account.resetPreKeyOffsets(serviceIdType);
-            preKeyRecords = generatePreKeys(serviceIdType);
+            preKeyRecords = generatePreKeys(serviceIdType, identityKeyPair);
             signedPreKeyRecord = generateSignedPreKey(serviceIdType, identityKeyPair);
         }
 
@@ -113,17 +147,58 @@ public class PreKeyHelper {
                     lastResortKyberPreKeyRecord,
                     kyberPreKeyRecords);
             dependencies.getAccountManager().setPreKeys(preKeyUpload);
+            final var ecCount = preKeyCounts.getEcCount() + (preKeyRecords == null ? 0 : preKeyRecords.size());
+            final var kyberCount = preKeyCounts.getKyberCount() + (
+                    kyberPreKeyRecords == null ? 0 : kyberPreKeyRecords.size()
+            );
+            serverPreKeyCounts.put(serviceIdType, new OneTimePreKeyCounts(ecCount, kyberCount));
         }
 
         cleanSignedPreKeys((serviceIdType));
         cleanOneTimePreKeys(serviceIdType);
     }
 
-    private List<PreKeyRecord> generatePreKeys(ServiceIdType serviceIdType) {
+    /**
+     * Generate the next batch of one-time pre keys ahead of demand, so the next refresh only needs to store and
+     * upload them. Generating kyber keys is slow, so this should be called from a background thread.
+     */
+    public void fillPreKeyPool() {
+        for (final var serviceIdType : poolServiceIdTypes) {
+            final var identityKeyPair = account.getIdentityKeyPair(serviceIdType);
+            if (identityKeyPair == null || account.getAccountId(serviceIdType) == null) {
+                continue;
+            }
+            final var preKeyMetadata = account.getAccountData(serviceIdType).getPreKeyMetadata();
+
+            final var offset = preKeyMetadata.getNextPreKeyId();
+            if (!preKeyPool.contains(serviceIdType, offset, identityKeyPair.getPublicKey())) {
+                final var start = generateTime.startTimer();
+                final var records = KeyUtils.generatePreKeyRecords(offset);
+                generateTime.observeSince(start);
+                preKeyPool.put(serviceIdType, offset, identityKeyPair.getPublicKey(), records);
+            }
+
+            final var kyberOffset = preKeyMetadata.getNextKyberPreKeyId();
+            if (!kyberPreKeyPool.contains(serviceIdType, kyberOffset, identityKeyPair.getPublicKey())) {
+                final var start = generateTime.startTimer();
+                final var records = KeyUtils.generateKyberPreKeyRecords(kyberOffset, identityKeyPair.getPrivateKey());
+                generateTime.observeSince(start);
+                kyberPreKeyPool.put(serviceIdType, kyberOffset, identityKeyPair.getPublicKey(), records);
+            }
+        }
+    }
+
+    private List<PreKeyRecord> generatePreKeys(ServiceIdType serviceIdType, final IdentityKeyPair identityKeyPair) {
         final var accountData = account.getAccountData(serviceIdType);
         final var offset = accountData.getPreKeyMetadata().getNextPreKeyId();
 
-        var records = KeyUtils.generatePreKeyRecords(offset);
+        poolServiceIdTypes.add(serviceIdType);
+        var records = preKeyPool.take(serviceIdType, offset, identityKeyPair.getPublicKey());
+        if (records == null) {
+            final var start = generateTime.startTimer();
+            records = KeyUtils.generatePreKeyRecords(offset);
+            generateTime.observeSince(start);
+        }
         account.addPreKeys(serviceIdType, records);
 
         return records;
@@ -160,7 +235,13 @@ public class PreKeyHelper {
         final var accountData = account.getAccountData(serviceIdType);
         final var offset = accountData.getPreKeyMetadata().getNextKyberPreKeyId();
 
-        var records = KeyUtils.generateKyberPreKeyRecords(offset, identityKeyPair.getPrivateKey());
+        poolServiceIdTypes.add(serviceIdType);
+        var records = kyberPreKeyPool.take(serviceIdType, offset, identityKeyPair.getPublicKey());
+        if (records == null) {
+            final var start = generateTime.startTimer();
+            records = KeyUtils.generateKyberPreKeyRecords(offset, identityKeyPair.getPrivateKey());
+            generateTime.observeSince(start);
+        }
         account.addKyberPreKeys(serviceIdType, records);
 
         return records;
@@ -0,0 +1,49 @@
+package org.asamk.signal.manager.helper;
+
+import org.signal.libsignal.protocol.IdentityKey;
+import org.whispersystems.signalservice.api.push.ServiceIdType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One-time pre keys that were generated ahead of demand, but not stored or uploaded yet.
+ * Pooled keys can only be used if they still start with the next pre key id and belong to the current identity key,
+ * otherwise, e.g. after the pre key offsets were reset or the identity key changed, they are discarded.
+ */
+final class PreKeyPool<T> {
+
+    private final Map<ServiceIdType, PooledPreKeys<T>> pool = new ConcurrentHashMap<>();
+
+    /**
+     * Remove the pooled pre keys of the identity, pre keys that don't match are discarded as well.
+     *
+     * @return the pooled pre keys, if they still start with the next pre key id and belong to the identity key
+     */
+    List<T> take(final ServiceIdType serviceIdType, final int offset, final IdentityKey identityKey) {
+        final var pooled = pool.remove(serviceIdType);
+        return matches(pooled, offset, identityKey) ? pooled.records() : null;
+    }
+
+    boolean contains(final ServiceIdType serviceIdType, final int offset, final IdentityKey identityKey) {
+        return matches(pool.get(serviceIdType), offset, identityKey);
+    }
+
+    void put(
+            final ServiceIdType serviceIdType, final int offset, final IdentityKey identityKey, final List<T> records
+    ) {
+        pool.put(serviceIdType, new PooledPreKeys<>(offset, identityKey, records));
+    }
+
+    int size(final ServiceIdType serviceIdType) {
+        final var pooled = pool.get(serviceIdType);
+        return pooled == null ? 0 : pooled.records().size();
+    }
+
+    private static boolean matches(final PooledPreKeys<?> pooled, final int offset, final IdentityKey identityKey) {
+        return pooled != null && pooled.offset() == offset && pooled.identityKey().equals(identityKey);
+    }
+
+    private record PooledPreKeys<T>(int offset, IdentityKey identityKey, List<T> records) {}
+}
@@ -0,0 +1,98 @@
+package org.asamk.signal.manager.helper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the pre keys on the server in the background, so handling received messages isn't blocked by key
+ * generation and upload.
+ * After a refresh the next batch of keys is generated ahead of demand, so the following refresh only needs to upload.
+ * Multiple refresh requests that arrive while a refresh is running are coalesced into a single one.
+ */
+public class PreKeyRefresher {
+
+    private final static Logger logger = LoggerFactory.getLogger(PreKeyRefresher.class);
+
+    private final Context context;
+    private final Object lock = new Object();
+
+    private Thread thread;
+    private boolean closed = false;
+    private boolean refreshRequested = false;
+
+    public PreKeyRefresher(final Context context) {
+        this.context = context;
+    }
+
+    public void requestRefresh() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            refreshRequested = true;
+            startIfNecessary();
+            lock.notifyAll();
+        }
+    }
+
+    public void close() {
+        final Thread thread;
+        synchronized (lock) {
+            closed = true;
+            refreshRequested = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void startIfNecessary() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run);
+        thread.setName("prekey-refresher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                waitForRequest();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            final var preKeyHelper = context.getPreKeyHelper();
+            try {
+                preKeyHelper.refreshPreKeysIfNecessary();
+            } catch (Exception e) {
+                logger.warn("Failed to refresh pre keys: {}", e.getMessage());
+            }
+            try {
+                preKeyHelper.fillPreKeyPool();
+            } catch (Exception e) {
+                logger.debug("Failed to generate pre keys ahead of demand: {}", e.getMessage());
+            }
+        }
+        logger.debug("Pre key refresher stopped");
+    }
+
+    private void waitForRequest() throws InterruptedException {
+        synchronized (lock) {
+            while (!refreshRequested) {
+                if (closed) {
+                    throw new InterruptedException();
+                }
+                lock.wait();
+            }
+            if (closed) {
+                throw new InterruptedException();
+            }
+            refreshRequested = false;
+        }
+    }
+}
@@ -111,8 +111,8 @@ public final class ProfileHelper {
                 .filter(recipientId -> !ExpiringProfileCredentialUtil.isValid(account.getProfileStore()
                         .getExpiringProfileKeyCredential(recipientId)))
                 .map(recipientId -> retrieveProfile(recipientId,
-                        SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL).onErrorComplete());
-        Maybe.merge(profileFetches, 10).blockingSubscribe();
+                        SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL));
+        Maybe.merge(profileFetches, 10).blockingSubscribe(Runnable::run);
 
         return recipientIds.stream().map(r -> account.getProfileStore().getExpiringProfileKeyCredential(r)).toList();
     }
@@ -124,7 +124,7 @@ public final class ProfileHelper {
         }
 
         try {
-            blockingGetProfile(retrieveProfile(recipientId, SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL));
+            retrieveProfileBlocking(recipientId, SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL);
         } catch (IOException e) {
             logger.warn("Failed to retrieve profile key credential, ignoring: {}", e.getMessage());
             return null;
@@ -230,10 +230,9 @@ public final class ProfileHelper {
     private List<Profile> getRecipientProfiles(Collection<RecipientId> recipientIds, boolean force) {
         final var profileStore = account.getProfileStore();
         final var profileFetches = Flowable.fromIterable(recipientIds)
-                .filter(recipientId -> force || isProfileRefreshRequired(profileStore.getProfile(recipientId)))
-                .map(recipientId -> retrieveProfile(recipientId,
-                        SignalServiceProfile.RequestType.PROFILE).onErrorComplete());
-        Maybe.merge(profileFetches, 10).blockingSubscribe();
+                .filter(recipientId -> force || isProfileFetchRequired(recipientId, profileStore.getProfile(recipientId)))
+                .map(recipientId -> retrieveProfile(recipientId, SignalServiceProfile.RequestType.PROFILE));
+        Maybe.merge(profileFetches, 10).blockingSubscribe(Runnable::run);
 
         return recipientIds.stream().map(profileStore::getProfile).toList();
     }
@@ -241,12 +240,12 @@ public final class ProfileHelper {
     private Profile getRecipientProfile(RecipientId recipientId, boolean force) {
         var profile = account.getProfileStore().getProfile(recipientId);
 
-        if (!force && !isProfileRefreshRequired(profile)) {
+        if (!force && !isProfileFetchRequired(recipientId, profile)) {
             return profile;
         }
 
         try {
-            blockingGetProfile(retrieveProfile(recipientId, SignalServiceProfile.RequestType.PROFILE));
+            retrieveProfileBlocking(recipientId, SignalServiceProfile.RequestType.PROFILE);
         } catch (IOException e) {
             logger.warn("Failed to retrieve profile, ignoring: {}", e.getMessage());
         }
@@ -254,7 +253,21 @@ public final class ProfileHelper {
         return account.getProfileStore().getProfile(recipientId);
     }
 
-    private boolean isProfileRefreshRequired(final Profile profile) {
+    /**
+     * Profiles that were never fetched are retrieved inline, stale profiles are refreshed in the background.
+     * If the background refresher isn't running, e.g. for a single command, stale profiles are retrieved inline too.
+     */
+    private boolean isProfileFetchRequired(final RecipientId recipientId, final Profile profile) {
+        if (profile == null) {
+            return true;
+        }
+        if (!isProfileRefreshRequired(profile)) {
+            return false;
+        }
+        return !context.getProfileRefresher().requestRefresh(recipientId);
+    }
+
+    boolean isProfileRefreshRequired(final Profile profile) {
         if (profile == null) {
             return true;
         }
@@ -276,11 +289,15 @@ public final class ProfileHelper {
             final RecipientId recipientId, final String avatarPath, final ProfileKey profileKey
     ) {
         var profile = account.getProfileStore().getProfile(recipientId);
-        if (profile == null || !Objects.equals(avatarPath, profile.getAvatarUrlPath())) {
+        final var address = account.getRecipientAddressResolver().resolveRecipientAddress(recipientId);
+        if (avatarPath != null && !context.getAvatarStore().isProfileAvatarCurrent(address, avatarPath)) {
             logger.trace("Downloading profile avatar for {}", recipientId);
-            downloadProfileAvatar(account.getRecipientAddressResolver().resolveRecipientAddress(recipientId),
-                    avatarPath,
-                    profileKey);
+            downloadProfileAvatar(address, avatarPath, profileKey);
+        }
+        if (profile == null || !Objects.equals(avatarPath, profile.getAvatarUrlPath())) {
+            if (avatarPath == null) {
+                downloadProfileAvatar(address, null, profileKey);
+            }
             var builder = profile == null ? Profile.newBuilder() : Profile.newBuilder(profile);
             account.getProfileStore().storeProfile(recipientId, builder.withAvatarUrlPath(avatarPath).build());
         }
@@ -300,70 +317,107 @@ public final class ProfileHelper {
         }
     }
 
-    private Single<ProfileAndCredential> retrieveProfile(
+    /**
+     * Retrieve the profile and store the result on the calling thread.
+     * Storing it on the network thread could wait for a unit of work of the calling thread that is still open.
+     */
+    private void retrieveProfileBlocking(
             RecipientId recipientId, SignalServiceProfile.RequestType requestType
+    ) throws IOException {
+        final var profileKey = Optional.ofNullable(account.getProfileStore().getProfileKey(recipientId));
+        final ProfileAndCredential profile;
+        try {
+            profile = blockingGetProfile(retrieveProfile(recipientId, profileKey, requestType));
+        } catch (IOException e) {
+            storeProfileRetrievalFailure(recipientId, e);
+            throw e;
+        }
+        storeRetrievedProfile(recipientId, profileKey, requestType, profile);
+    }
+
+    /**
+     * @return the action that stores the result, to be run on the subscribing thread
+     */
+    private Maybe<Runnable> retrieveProfile(RecipientId recipientId, SignalServiceProfile.RequestType requestType) {
+        final var profileKey = Optional.ofNullable(account.getProfileStore().getProfileKey(recipientId));
+        return retrieveProfile(recipientId, profileKey, requestType)
+                .<Runnable>map(p -> () -> storeRetrievedProfile(recipientId, profileKey, requestType, p))
+                .onErrorReturn(e -> () -> storeProfileRetrievalFailure(recipientId, e))
+                .toMaybe();
+    }
+
+    private Single<ProfileAndCredential> retrieveProfile(
+            RecipientId recipientId, Optional<ProfileKey> profileKey, SignalServiceProfile.RequestType requestType
     ) {
         var unidentifiedAccess = getUnidentifiedAccess(recipientId);
-        var profileKey = Optional.ofNullable(account.getProfileStore().getProfileKey(recipientId));
 
         logger.trace("Retrieving profile for {} {}",
                 recipientId,
                 profileKey.isPresent() ? "with profile key" : "without profile key");
         final var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
-        return retrieveProfile(address, profileKey, unidentifiedAccess, requestType).doOnSuccess(p -> {
-            logger.trace("Got new profile for {}", recipientId);
-            final var encryptedProfile = p.getProfile();
-
-            if (requestType == SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL
-                    || !ExpiringProfileCredentialUtil.isValid(account.getProfileStore()
-                    .getExpiringProfileKeyCredential(recipientId))) {
-                logger.trace("Storing profile credential");
-                final var profileKeyCredential = p.getExpiringProfileKeyCredential().orElse(null);
-                account.getProfileStore().storeExpiringProfileKeyCredential(recipientId, profileKeyCredential);
-            }
-
-            final var profile = account.getProfileStore().getProfile(recipientId);
-
-            Profile newProfile = null;
-            if (profileKey.isPresent()) {
-                logger.trace("Decrypting profile");
-                newProfile = decryptProfileAndDownloadAvatar(recipientId, profileKey.get(), encryptedProfile);
-            }
+        return retrieveProfile(address, profileKey, unidentifiedAccess, requestType);
+    }
 
-            if (newProfile == null) {
-                newProfile = (
-                        profile == null ? Profile.newBuilder() : Profile.newBuilder(profile)
-                ).withLastUpdateTimestamp(System.currentTimeMillis())
-                        .withUnidentifiedAccessMode(ProfileUtils.getUnidentifiedAccessMode(encryptedProfile, null))
-                        .withCapabilities(ProfileUtils.getCapabilities(encryptedProfile))
-                        .build();
-            }
+    private void storeRetrievedProfile(
+            final RecipientId recipientId,
+            final Optional<ProfileKey> profileKey,
+            final SignalServiceProfile.RequestType requestType,
+            final ProfileAndCredential p
+    ) {
+        logger.trace("Got new profile for {}", recipientId);
+        final var encryptedProfile = p.getProfile();
+
+        if (requestType == SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL
+                || !ExpiringProfileCredentialUtil.isValid(account.getProfileStore()
+                .getExpiringProfileKeyCredential(recipientId))) {
+            logger.trace("Storing profile credential");
+            final var profileKeyCredential = p.getExpiringProfileKeyCredential().orElse(null);
+            account.getProfileStore().storeExpiringProfileKeyCredential(recipientId, profileKeyCredential);
+        }
 
-            try {
-                logger.trace("Storing identity");
-                final var identityKey = new IdentityKey(Base64.getDecoder().decode(encryptedProfile.getIdentityKey()));
-                account.getIdentityKeyStore().saveIdentity(p.getProfile().getServiceId(), identityKey);
-            } catch (InvalidKeyException ignored) {
-                logger.warn("Got invalid identity key in profile for {}",
-                        context.getRecipientHelper().resolveSignalServiceAddress(recipientId).getIdentifier());
-            }
+        final var profile = account.getProfileStore().getProfile(recipientId);
 
-            logger.trace("Storing profile");
-            account.getProfileStore().storeProfile(recipientId, newProfile);
+        Profile newProfile = null;
+        if (profileKey.isPresent()) {
+            logger.trace("Decrypting profile");
+            newProfile = decryptProfileAndDownloadAvatar(recipientId, profileKey.get(), encryptedProfile);
+        }
 
-            logger.trace("Done handling retrieved profile");
-        }).doOnError(e -> {
-            logger.warn("Failed to retrieve profile, ignoring: {}", e.getMessage());
-            final var profile = account.getProfileStore().getProfile(recipientId);
-            final var newProfile = (
+        if (newProfile == null) {
+            newProfile = (
                     profile == null ? Profile.newBuilder() : Profile.newBuilder(profile)
             ).withLastUpdateTimestamp(System.currentTimeMillis())
-                    .withUnidentifiedAccessMode(Profile.UnidentifiedAccessMode.UNKNOWN)
-                    .withCapabilities(Set.of())
+                    .withUnidentifiedAccessMode(ProfileUtils.getUnidentifiedAccessMode(encryptedProfile, null))
+                    .withCapabilities(ProfileUtils.getCapabilities(encryptedProfile))
                     .build();
+        }
 
-            account.getProfileStore().storeProfile(recipientId, newProfile);
-        });
+        try {
+            logger.trace("Storing identity");
+            final var identityKey = new IdentityKey(Base64.getDecoder().decode(encryptedProfile.getIdentityKey()));
+            account.getIdentityKeyStore().saveIdentity(p.getProfile().getServiceId(), identityKey);
+        } catch (InvalidKeyException ignored) {
+            logger.warn("Got invalid identity key in profile for {}",
+                    context.getRecipientHelper().resolveSignalServiceAddress(recipientId).getIdentifier());
+        }
+
+        logger.trace("Storing profile");
+        account.getProfileStore().storeProfile(recipientId, newProfile);
+
+        logger.trace("Done handling retrieved profile");
+    }
+
+    private void storeProfileRetrievalFailure(final RecipientId recipientId, final Throwable e) {
+        logger.warn("Failed to retrieve profile, ignoring: {}", e.getMessage());
+        final var profile = account.getProfileStore().getProfile(recipientId);
+        final var newProfile = (
+                profile == null ? Profile.newBuilder() : Profile.newBuilder(profile)
+        ).withLastUpdateTimestamp(System.currentTimeMillis())
+                .withUnidentifiedAccessMode(Profile.UnidentifiedAccessMode.UNKNOWN)
+                .withCapabilities(Set.of())
+                .build();
+
+        account.getProfileStore().storeProfile(recipientId, newProfile);
     }
 
     private Single<ProfileAndCredential> retrieveProfile(
@@ -401,13 +455,13 @@ public final class ProfileHelper {
             return;
         }
 
-        try {
-            context.getAvatarStore()
-                    .storeProfileAvatar(address,
-                            outputStream -> retrieveProfileAvatar(avatarPath, profileKey, outputStream));
-        } catch (Throwable e) {
-            logger.warn("Failed to download profile avatar, ignoring: {}", e.getMessage());
-        }
+        context.getMediaCacheHelper()
+                .enqueueDownload("profile-" + address.getLegacyIdentifier(),
+                        avatarPath,
+                        () -> context.getAvatarStore()
+                                .storeProfileAvatar(address,
+                                        avatarPath,
+                                        outputStream -> retrieveProfileAvatar(avatarPath, profileKey, outputStream)));
     }
 
     private void retrieveProfileAvatar(
@@ -0,0 +1,248 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes stale profiles in the background, so sending and listing contacts can use the stored profiles
+ * without fetching them inline.
+ * Profiles of recipients that were recently used are refreshed first, then the ones that have been stale the longest.
+ * The number of profile requests is limited by a per minute budget.
+ * The refresher only runs after {@link #start()} was called, i.e. while the manager is used by a long-running client.
+ */
+public class ProfileRefresher {
+
+    private final static Logger logger = LoggerFactory.getLogger(ProfileRefresher.class);
+
+    private final static long SEED_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private final Profiles profiles;
+    private final long requestIntervalMillis;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparing((Entry e) -> !e.active)
+            .thenComparingLong(e -> e.lastUpdateTimestamp));
+    private final Map<RecipientId, Entry> queuedEntries = new HashMap<>();
+
+    private Thread thread;
+    private boolean started = false;
+    private boolean closed = false;
+    private long lastSeedTimestamp = 0;
+
+    public ProfileRefresher(final Context context, final int requestsPerMinute) {
+        this(new ContextProfiles(context), TimeUnit.MINUTES.toMillis(1) / Math.max(1, requestsPerMinute));
+    }
+
+    ProfileRefresher(final Profiles profiles, final long requestIntervalMillis) {
+        this.profiles = profiles;
+        this.requestIntervalMillis = requestIntervalMillis;
+    }
+
+    public void start() {
+        synchronized (queue) {
+            if (closed || started) {
+                return;
+            }
+            started = true;
+            startIfNecessary();
+        }
+    }
+
+    /**
+     * Queue a refresh of a stale profile that is currently in use.
+     *
+     * @return false if the refresher isn't running, then the caller needs to refresh the profile itself
+     */
+    public boolean requestRefresh(final RecipientId recipientId) {
+        synchronized (queue) {
+            if (closed || !started) {
+                return false;
+            }
+            final var existing = queuedEntries.get(recipientId);
+            if (existing != null && existing.active) {
+                return true;
+            }
+        }
+        // Read outside the monitor, so the refresher thread isn't blocked by the profile store
+        final var lastUpdateTimestamp = profiles.getLastUpdateTimestamp(recipientId);
+        synchronized (queue) {
+            if (closed) {
+                return false;
+            }
+            final var existing = queuedEntries.get(recipientId);
+            if (existing != null) {
+                if (existing.active) {
+                    return true;
+                }
+                queue.remove(existing);
+            }
+            addEntry(new Entry(recipientId, lastUpdateTimestamp, true));
+            startIfNecessary();
+            queue.notifyAll();
+            return true;
+        }
+    }
+
+    public void close() {
+        final Thread thread;
+        synchronized (queue) {
+            closed = true;
+            queue.clear();
+            queuedEntries.clear();
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void addEntry(final Entry entry) {
+        queuedEntries.put(entry.recipientId, entry);
+        queue.add(entry);
+    }
+
+    private void startIfNecessary() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run);
+        thread.setName("profile-refresher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            final Entry entry;
+            try {
+                entry = takeNext();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (profiles.isRefreshRequired(entry.recipientId)) {
+                logger.trace("Refreshing stale profile of {} in the background", entry.recipientId);
+                try {
+                    profiles.refresh(entry.recipientId);
+                } catch (Exception e) {
+                    logger.debug("Failed to refresh profile of {}: {}", entry.recipientId, e.getMessage());
+                }
+                try {
+                    Thread.sleep(requestIntervalMillis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        logger.debug("Profile refresher stopped");
+    }
+
+    private Entry takeNext() throws InterruptedException {
+        while (true) {
+            synchronized (queue) {
+                if (closed) {
+                    throw new InterruptedException();
+                }
+                final var entry = queue.poll();
+                if (entry != null) {
+                    queuedEntries.remove(entry.recipientId);
+                    return entry;
+                }
+                final var now = System.currentTimeMillis();
+                final var nextSeedMillis = lastSeedTimestamp + SEED_INTERVAL - now;
+                if (nextSeedMillis > 0) {
+                    queue.wait(nextSeedMillis);
+                    continue;
+                }
+                lastSeedTimestamp = now;
+            }
+            seedStaleContacts();
+        }
+    }
+
+    /**
+     * Queue the stale profiles of all contacts.
+     * The contacts are read without holding the queue monitor, so requests for active recipients aren't blocked.
+     */
+    private void seedStaleContacts() {
+        final var staleEntries = new ArrayList<Entry>();
+        for (final var contact : profiles.getStaleContacts()) {
+            staleEntries.add(new Entry(contact.first(), contact.second(), false));
+        }
+        synchronized (queue) {
+            if (closed) {
+                return;
+            }
+            for (final var entry : staleEntries) {
+                if (!queuedEntries.containsKey(entry.recipientId)) {
+                    addEntry(entry);
+                }
+            }
+            logger.debug("Queued {} stale contact profiles for refresh", queue.size());
+        }
+    }
+
+    /**
+     * Access to the stored profiles.
+     */
+    interface Profiles {
+
+        long getLastUpdateTimestamp(RecipientId recipientId);
+
+        boolean isRefreshRequired(RecipientId recipientId);
+
+        void refresh(RecipientId recipientId) throws Exception;
+
+        /**
+         * @return the contacts with stale profiles and the last update timestamp of their profile
+         */
+        List<Pair<RecipientId, Long>> getStaleContacts();
+    }
+
+    private record ContextProfiles(Context context) implements Profiles {
+
+        @Override
+        public long getLastUpdateTimestamp(final RecipientId recipientId) {
+            final var profile = context.getAccount().getProfileStore().getProfile(recipientId);
+            return profile == null ? 0 : profile.getLastUpdateTimestamp();
+        }
+
+        @Override
+        public boolean isRefreshRequired(final RecipientId recipientId) {
+            final var profile = context.getAccount().getProfileStore().getProfile(recipientId);
+            return context.getProfileHelper().isProfileRefreshRequired(profile);
+        }
+
+        @Override
+        public void refresh(final RecipientId recipientId) throws Exception {
+            context.getProfileHelper().refreshRecipientProfile(recipientId);
+        }
+
+        @Override
+        public List<Pair<RecipientId, Long>> getStaleContacts() {
+            final var profileStore = context.getAccount().getProfileStore();
+            final var profileHelper = context.getProfileHelper();
+            final var staleContacts = new ArrayList<Pair<RecipientId, Long>>();
+            for (final var contact : context.getAccount().getRecipientStore().getContacts()) {
+                final var recipientId = contact.first();
+                final var profile = profileStore.getProfile(recipientId);
+                if (profileHelper.isProfileRefreshRequired(profile)) {
+                    staleContacts.add(new Pair<>(recipientId, profile == null ? 0 : profile.getLastUpdateTimestamp()));
+                }
+            }
+            return staleContacts;
+        }
+    }
+
+    private record Entry(RecipientId recipientId, long lastUpdateTimestamp, boolean active) {}
+}
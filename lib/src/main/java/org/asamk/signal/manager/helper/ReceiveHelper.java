@@ -2,9 +2,12 @@ package org.asamk.signal.manager.helper;
 
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.actions.HandleAction;
+import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.ReceiveConfig;
 import org.asamk.signal.manager.api.UntrustedIdentityException;
 import org.asamk.signal.manager.internal.SignalDependencies;
+import org.asamk.signal.manager.metrics.Counter;
+import org.asamk.signal.manager.metrics.Histogram;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.messageCache.CachedMessage;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
@@ -17,7 +20,9 @@ import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState;
 import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException;
 
 import java.io.IOException;
+import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,8 +30,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 
 public class ReceiveHelper {
@@ -37,19 +44,43 @@ public class ReceiveHelper {
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
+    private final EnvelopeTransaction envelopeTransaction;
+
+    private final Counter envelopesReceived;
+    private final Counter envelopeErrors;
+    private final Histogram receiveLag;
+    private final Histogram handleTime;
 
     private ReceiveConfig receiveConfig = new ReceiveConfig(false, false, false);
-    private boolean needsToRetryFailedMessages = false;
-    private boolean hasCaughtUpWithOldMessages = false;
+    private volatile boolean needsToRetryFailedMessages = false;
+    private volatile boolean hasCaughtUpWithOldMessages = false;
     private boolean isWaitingForMessage = false;
     private boolean shouldStop = false;
     private Callable authenticationFailureListener;
     private Callable caughtUpWithOldMessagesListener;
+    private volatile int queuedActionCount = 0;
+    private Disposable webSocketStateDisposable;
+    // Use a Map here because java Set doesn't have a get method ...
+    private final Map<HandleAction, HandleAction> queuedActions = new HashMap<>();
 
     public ReceiveHelper(final Context context) {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
         this.context = context;
+        this.envelopeTransaction = new EnvelopeTransaction(account.getAccountDatabase(), dependencies.getSessionLock());
+
+        final var metrics = account.getMetrics();
+        this.envelopesReceived = metrics.counter("signal_receive_envelopes_total",
+                "Envelopes received from the server");
+        this.envelopeErrors = metrics.counter("signal_receive_errors_total",
+                "Received envelopes that couldn't be decrypted or handled");
+        this.receiveLag = metrics.histogram("signal_receive_lag_seconds",
+                "Time between the server receiving an envelope and retrieving it");
+        this.handleTime = metrics.histogram("signal_receive_handle_seconds",
+                "Time to decrypt and handle a received envelope");
+        metrics.gauge("signal_receive_queued_actions",
+                "Actions queued until the server queue is empty",
+                () -> queuedActionCount);
     }
 
     public void setReceiveConfig(final ReceiveConfig receiveConfig) {
@@ -88,30 +119,97 @@ public class ReceiveHelper {
     public void receiveMessages(
             Duration timeout, boolean returnOnTimeout, Integer maxMessages, Manager.ReceiveMessageHandler handler
     ) throws IOException {
+        startReceiving();
+        try {
+            receiveMessagesInternal(dependencies.getSignalWebSocket(), timeout, returnOnTimeout, maxMessages, handler);
+        } finally {
+            stopReceiving();
+            shouldStop = false;
+        }
+    }
+
+    /**
+     * Connect to the server for receiving messages with {@link #pollMessages(int)}, so the websocket can be read by
+     * an event loop that's shared with other accounts instead of a blocking receive loop.
+     * Must be followed by {@link #stopReceiving()}.
+     *
+     * @param onMessagesAvailable called when the websocket has received new messages, must not block
+     */
+    public void startReceiving(final Runnable onMessagesAvailable) {
+        dependencies.setMessagesAvailableListener(onMessagesAvailable);
+        startReceiving();
+    }
+
+    private void startReceiving() {
         needsToRetryFailedMessages = true;
         hasCaughtUpWithOldMessages = false;
 
-        // Use a Map here because java Set doesn't have a get method ...
-        Map<HandleAction, HandleAction> queuedActions = new HashMap<>();
-
         final var signalWebSocket = dependencies.getSignalWebSocket();
-        final var webSocketStateDisposable = Observable.merge(signalWebSocket.getUnidentifiedWebSocketState(),
+        webSocketStateDisposable = Observable.merge(signalWebSocket.getUnidentifiedWebSocketState(),
                         signalWebSocket.getWebSocketState())
                 .subscribeOn(Schedulers.computation())
                 .observeOn(Schedulers.computation())
                 .distinctUntilChanged()
                 .subscribe(this::onWebSocketStateChange);
         signalWebSocket.connect();
+    }
 
-        try {
-            receiveMessagesInternal(signalWebSocket, timeout, returnOnTimeout, maxMessages, handler, queuedActions);
-        } finally {
-            hasCaughtUpWithOldMessages = false;
-            handleQueuedActions(queuedActions.keySet());
-            queuedActions.clear();
-            signalWebSocket.disconnect();
+    public void stopReceiving() {
+        hasCaughtUpWithOldMessages = false;
+        dependencies.setMessagesAvailableListener(null);
+        handleQueuedActions(queuedActions.keySet());
+        queuedActions.clear();
+        queuedActionCount = 0;
+        dependencies.getSignalWebSocket().disconnect();
+        if (webSocketStateDisposable != null) {
             webSocketStateDisposable.dispose();
-            shouldStop = false;
+            webSocketStateDisposable = null;
+        }
+    }
+
+    /**
+     * Reconnect after {@link #pollMessages(int)} failed because the connection was closed.
+     */
+    public void reconnect() {
+        hasCaughtUpWithOldMessages = false;
+        dependencies.getSignalWebSocket().connect();
+    }
+
+    /**
+     * Read the envelopes that have already been received by the websocket without blocking.
+     * The envelopes are stored in the message cache and acknowledged to the server by
+     * {@link #handleMessages(PolledMessages, Manager.ReceiveMessageHandler)}, so the caller doesn't write to disk or
+     * the database.
+     *
+     * @return the cached messages, or null if no new envelopes are available
+     */
+    public PolledMessages pollMessages(final int maxMessages) throws IOException {
+        updateLastReceiveTimestamp();
+        try {
+            // With a timeout of 0 only requests that are already queued in the websocket are returned
+            return readMessages(dependencies.getSignalWebSocket(), 0, maxMessages);
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Store messages returned by {@link #pollMessages(int)} in the message cache, acknowledge and handle them.
+     * Must not be called concurrently, so messages are handled in the order they were received.
+     */
+    public void handleMessages(final PolledMessages messages, final Manager.ReceiveMessageHandler handler) {
+        if (needsToRetryFailedMessages) {
+            // Messages of the current batch are only cached afterwards, so the retry can't see partially written or
+            // unhandled cache files
+            retryFailedReceivedMessages(handler);
+            needsToRetryFailedMessages = false;
+        }
+        for (final var cachedMessage : cacheMessages(messages)) {
+            handleMessage(cachedMessage, handler);
+        }
+        if (messages.queueEmpty()) {
+            logger.debug("Received indicator that server queue is empty");
+            handleQueueEmpty();
         }
     }
 
@@ -120,8 +218,7 @@ public class ReceiveHelper {
             Duration timeout,
             boolean returnOnTimeout,
             Integer maxMessages,
-            Manager.ReceiveMessageHandler handler,
-            final Map<HandleAction, HandleAction> queuedActions
+            Manager.ReceiveMessageHandler handler
     ) throws IOException {
         int remainingMessages = maxMessages == null ? -1 : maxMessages;
         var backOffCounter = 0;
@@ -132,53 +229,27 @@ public class ReceiveHelper {
                 retryFailedReceivedMessages(handler);
                 needsToRetryFailedMessages = false;
             }
-            SignalServiceEnvelope envelope;
-            final CachedMessage[] cachedMessage = {null};
-            final var nowMillis = System.currentTimeMillis();
-            if (nowMillis - account.getLastReceiveTimestamp() > 60000) {
-                account.setLastReceiveTimestamp(nowMillis);
-            }
+            final CachedMessage cachedMessage;
+            updateLastReceiveTimestamp();
             logger.debug("Checking for new message from server");
             try {
                 isWaitingForMessage = true;
-                var queueNotEmpty = signalWebSocket.readMessageBatch(timeout.toMillis(), 1, batch -> {
-                    logger.debug("Retrieved {} envelopes!", batch.size());
-                    isWaitingForMessage = false;
-                    for (final var it : batch) {
-                        SignalServiceEnvelope envelope1 = new SignalServiceEnvelope(it.getEnvelope(),
-                                it.getServerDeliveredTimestamp());
-                        final var recipientId = envelope1.hasSourceServiceId() ? account.getRecipientResolver()
-                                .resolveRecipient(envelope1.getSourceAddress()) : null;
-                        logger.trace("Storing new message from {}", recipientId);
-                        // store message on disk, before acknowledging receipt to the server
-                        cachedMessage[0] = account.getMessageCache().cacheMessage(envelope1, recipientId);
-                        try {
-                            signalWebSocket.sendAck(it);
-                        } catch (IOException e) {
-                            logger.warn("Failed to ack envelope to server after storing it: {}", e.getMessage());
-                        }
-                    }
-                });
+                final var messages = readMessages(signalWebSocket, timeout.toMillis(), 1);
                 isWaitingForMessage = false;
                 backOffCounter = 0;
 
-                if (queueNotEmpty) {
-                    if (remainingMessages > 0) {
-                        remainingMessages -= 1;
-                    }
-                    envelope = cachedMessage[0].loadEnvelope();
-                    logger.debug("New message received from server");
-                } else {
+                if (messages.queueEmpty()) {
                     logger.debug("Received indicator that server queue is empty");
-                    handleQueuedActions(queuedActions.keySet());
-                    queuedActions.clear();
-
-                    hasCaughtUpWithOldMessages = true;
-                    caughtUpWithOldMessagesListener.call();
+                    handleQueueEmpty();
 
                     // Continue to wait another timeout for new messages
                     continue;
                 }
+                if (remainingMessages > 0) {
+                    remainingMessages -= 1;
+                }
+                cachedMessage = cacheMessages(messages).get(0);
+                logger.debug("New message received from server");
             } catch (AssertionError e) {
                 if (e.getCause() instanceof InterruptedException) {
                     break;
@@ -188,7 +259,7 @@ public class ReceiveHelper {
             } catch (IOException e) {
                 logger.debug("Pipe unexpectedly unavailable: {}", e.getMessage());
                 if (e instanceof WebSocketUnavailableException || "Connection closed!".equals(e.getMessage())) {
-                    final var sleepMilliseconds = 100 * (long) Math.pow(2, backOffCounter);
+                    final var sleepMilliseconds = getReconnectDelay(backOffCounter);
                     backOffCounter = Math.min(backOffCounter + 1, MAX_BACKOFF_COUNTER);
                     logger.warn("Connection closed unexpectedly, reconnecting in {} ms", sleepMilliseconds);
                     try {
@@ -196,8 +267,7 @@ public class ReceiveHelper {
                     } catch (InterruptedException interruptedException) {
                         return;
                     }
-                    hasCaughtUpWithOldMessages = false;
-                    signalWebSocket.connect();
+                    reconnect();
                     continue;
                 }
                 throw e;
@@ -210,45 +280,129 @@ public class ReceiveHelper {
                 continue;
             }
 
+            handleMessage(cachedMessage, handler);
+        }
+    }
+
+    public static long getReconnectDelay(final int backOffCounter) {
+        return 100 * (long) Math.pow(2, Math.min(backOffCounter, MAX_BACKOFF_COUNTER));
+    }
+
+    private void updateLastReceiveTimestamp() {
+        final var nowMillis = System.currentTimeMillis();
+        if (nowMillis - account.getLastReceiveTimestamp() > 60000) {
+            account.setLastReceiveTimestamp(nowMillis);
+        }
+    }
+
+    private PolledMessages readMessages(
+            final SignalWebSocket signalWebSocket, final long timeoutMillis, final int batchSize
+    ) throws TimeoutException, IOException {
+        final var envelopes = new ArrayList<PolledEnvelope>();
+        final var queueNotEmpty = signalWebSocket.readMessageBatch(timeoutMillis, batchSize, batch -> {
+            logger.debug("Retrieved {} envelopes!", batch.size());
+            isWaitingForMessage = false;
+            for (final var it : batch) {
+                SignalServiceEnvelope envelope = new SignalServiceEnvelope(it.getEnvelope(),
+                        it.getServerDeliveredTimestamp());
+                envelopesReceived.increment();
+                receiveLag.observe(Math.max(0, System.currentTimeMillis() - envelope.getServerReceivedTimestamp())
+                        / 1000.0);
+                envelopes.add(new PolledEnvelope(envelope, () -> signalWebSocket.sendAck(it)));
+            }
+        });
+        return new PolledMessages(envelopes, !queueNotEmpty);
+    }
+
+    private List<CachedMessage> cacheMessages(final PolledMessages messages) {
+        final var cachedMessages = new ArrayList<CachedMessage>();
+        for (final var polledEnvelope : messages.envelopes()) {
+            final var envelope = polledEnvelope.envelope();
+            final var recipientId = envelope.hasSourceServiceId() ? account.getRecipientResolver()
+                    .resolveRecipient(envelope.getSourceAddress()) : null;
+            logger.trace("Storing new message from {}", recipientId);
+            // store message on disk, before acknowledging receipt to the server
+            cachedMessages.add(account.getMessageCache().cacheMessage(envelope, recipientId));
             try {
-                final var result = context.getIncomingMessageHandler().handleEnvelope(envelope, receiveConfig, handler);
-                for (final var h : result.first()) {
-                    final var existingAction = queuedActions.get(h);
-                    if (existingAction == null) {
-                        queuedActions.put(h, h);
-                    } else {
-                        existingAction.mergeOther(h);
-                    }
-                }
-                final var exception = result.second();
+                polledEnvelope.acknowledgement().send();
+            } catch (IOException e) {
+                logger.warn("Failed to ack envelope to server after storing it: {}", e.getMessage());
+            }
+        }
+        return cachedMessages;
+    }
+
+    private void handleQueueEmpty() {
+        handleQueuedActions(queuedActions.keySet());
+        queuedActions.clear();
+        queuedActionCount = 0;
+
+        hasCaughtUpWithOldMessages = true;
+        caughtUpWithOldMessagesListener.call();
+    }
 
-                if (hasCaughtUpWithOldMessages) {
-                    handleQueuedActions(queuedActions.keySet());
-                    queuedActions.clear();
+    private void handleMessage(CachedMessage cachedMessage, Manager.ReceiveMessageHandler handler) {
+        try {
+            final var envelope = cachedMessage.loadEnvelope();
+            if (envelope == null) {
+                cachedMessage.delete();
+                return;
+            }
+            final var handleStart = handleTime.startTimer();
+            final var incomingMessageHandler = context.getIncomingMessageHandler();
+            final Pair<List<HandleAction>, Exception> result;
+            try {
+                result = handleInTransaction(envelope,
+                        incomingMessageHandler::decryptEnvelope,
+                        decrypted -> incomingMessageHandler.handleEnvelope(envelope,
+                                decrypted,
+                                receiveConfig,
+                                handler));
+            } catch (Exception e) {
+                logger.warn("Failed to handle received message, keeping it for the next retry: {}",
+                        e.getMessage(),
+                        e);
+                envelopeErrors.increment();
+                return;
+            }
+            handleTime.observeSince(handleStart);
+            for (final var h : result.first()) {
+                final var existingAction = queuedActions.get(h);
+                if (existingAction == null) {
+                    queuedActions.put(h, h);
+                } else {
+                    existingAction.mergeOther(h);
                 }
-                if (cachedMessage[0] != null) {
-                    if (exception instanceof UntrustedIdentityException) {
-                        logger.debug("Keeping message with untrusted identity in message cache");
-                        final var address = ((UntrustedIdentityException) exception).getSender();
-                        if (!envelope.hasSourceServiceId() && address.uuid().isPresent()) {
-                            final var recipientId = account.getRecipientResolver()
-                                    .resolveRecipient(ACI.from(address.uuid().get()));
-                            try {
-                                cachedMessage[0] = account.getMessageCache()
-                                        .replaceSender(cachedMessage[0], recipientId);
-                            } catch (IOException ioException) {
-                                logger.warn("Failed to move cached message to recipient folder: {}",
-                                        ioException.getMessage(),
-                                        ioException);
-                            }
-                        }
-                    } else {
-                        cachedMessage[0].delete();
+            }
+            final var exception = result.second();
+            if (exception != null) {
+                envelopeErrors.increment();
+            }
+
+            if (hasCaughtUpWithOldMessages) {
+                handleQueuedActions(queuedActions.keySet());
+                queuedActions.clear();
+            }
+            queuedActionCount = queuedActions.size();
+            if (exception instanceof UntrustedIdentityException) {
+                logger.debug("Keeping message with untrusted identity in message cache");
+                final var address = ((UntrustedIdentityException) exception).getSender();
+                if (!envelope.hasSourceServiceId() && address.uuid().isPresent()) {
+                    final var recipientId = account.getRecipientResolver()
+                            .resolveRecipient(ACI.from(address.uuid().get()));
+                    try {
+                        account.getMessageCache().replaceSender(cachedMessage, recipientId);
+                    } catch (IOException ioException) {
+                        logger.warn("Failed to move cached message to recipient folder: {}",
+                                ioException.getMessage(),
+                                ioException);
                     }
                 }
-            } catch (Exception e) {
-                logger.error("Unknown error when handling messages", e);
+            } else {
+                cachedMessage.delete();
             }
+        } catch (Exception e) {
+            logger.error("Unknown error when handling messages", e);
         }
     }
 
@@ -272,7 +426,19 @@ public class ReceiveHelper {
             return null;
         }
 
-        final var result = context.getIncomingMessageHandler().handleRetryEnvelope(envelope, receiveConfig, handler);
+        final var incomingMessageHandler = context.getIncomingMessageHandler();
+        final Pair<List<HandleAction>, Exception> result;
+        try {
+            result = handleInTransaction(envelope,
+                    incomingMessageHandler::decryptRetryEnvelope,
+                    decrypted -> incomingMessageHandler.handleRetryEnvelope(envelope,
+                            decrypted,
+                            receiveConfig,
+                            handler));
+        } catch (Exception e) {
+            logger.warn("Failed to handle cached message, keeping it for the next retry: {}", e.getMessage());
+            return null;
+        }
         final var actions = result.first();
         final var exception = result.second();
 
@@ -302,6 +468,25 @@ public class ReceiveHelper {
         return actions;
     }
 
+    /**
+     * Decrypt and handle an envelope in a single database transaction.
+     * Only the sessions of the sender are locked, the sessions of all addresses while decrypting a sealed sender
+     * envelope.
+     * If decrypting or handling fails with an unexpected exception, the changes are rolled back and the exception is
+     * thrown, so the envelope stays in the message cache.
+     */
+    private Pair<List<HandleAction>, Exception> handleInTransaction(
+            final SignalServiceEnvelope envelope,
+            final Function<SignalServiceEnvelope, IncomingMessageHandler.DecryptedEnvelope> decrypt,
+            final Function<IncomingMessageHandler.DecryptedEnvelope, Pair<List<HandleAction>, Exception>> handle
+    ) throws SQLException {
+        final var sender = envelope.hasSourceServiceId() ? envelope.getSourceAddress().getServiceId() : null;
+        return envelopeTransaction.run(sender,
+                () -> decrypt.apply(envelope),
+                decrypted -> decrypted.content() == null ? null : decrypted.content().getSender().getServiceId(),
+                handle);
+    }
+
     private void handleQueuedActions(final Collection<HandleAction> queuedActions) {
         logger.debug("Handling message actions");
         for (var action : queuedActions) {
@@ -325,4 +510,17 @@ public class ReceiveHelper {
 
         void call();
     }
+
+    /**
+     * @param envelopes  envelopes that haven't been stored in the message cache and acknowledged yet
+     * @param queueEmpty if the server indicated that all queued envelopes have been received
+     */
+    public record PolledMessages(List<PolledEnvelope> envelopes, boolean queueEmpty) {}
+
+    public record PolledEnvelope(SignalServiceEnvelope envelope, Acknowledgement acknowledgement) {}
+
+    public interface Acknowledgement {
+
+        void send() throws IOException;
+    }
 }
@@ -9,6 +9,8 @@ import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.UnregisteredRecipientException;
 import org.asamk.signal.manager.groups.GroupUtils;
 import org.asamk.signal.manager.internal.SignalDependencies;
+import org.asamk.signal.manager.metrics.Counter;
+import org.asamk.signal.manager.metrics.Histogram;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.groups.GroupInfo;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
@@ -21,6 +23,7 @@ import org.signal.libsignal.protocol.message.DecryptionErrorMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
+import org.whispersystems.signalservice.api.SignalSessionLock;
 import org.whispersystems.signalservice.api.crypto.ContentHint;
 import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
 import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
@@ -33,6 +36,7 @@ import org.whispersystems.signalservice.api.messages.SignalServiceTypingMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SentTranscriptMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SignalServiceSyncMessage;
 import org.whispersystems.signalservice.api.push.DistributionId;
+import org.whispersystems.signalservice.api.push.ServiceId;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
 import org.whispersystems.signalservice.api.push.exceptions.ProofRequiredException;
@@ -44,6 +48,7 @@ import org.whispersystems.signalservice.internal.push.http.PartialSendCompleteLi
 import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -51,21 +56,38 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import okio.ByteString;
 
 public class SendHelper {
 
     private final static Logger logger = LoggerFactory.getLogger(SendHelper.class);
+    private final static int MAX_RATE_LIMIT_RETRIES = 2;
 
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
 
+    private final Counter messagesSent;
+    private final Counter sendFailures;
+    private final Histogram sendTime;
+    private final Histogram groupSendTime;
+
     public SendHelper(final Context context) {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
         this.context = context;
+
+        final var metrics = account.getMetrics();
+        this.messagesSent = metrics.counter("signal_send_messages_total",
+                "Messages successfully sent, counted per recipient");
+        this.sendFailures = metrics.counter("signal_send_failures_total",
+                "Messages that couldn't be sent, counted per recipient");
+        this.sendTime = metrics.histogram("signal_send_seconds",
+                "Time to send a message to a single recipient, including retries");
+        this.groupSendTime = metrics.histogram("signal_send_group_seconds",
+                "Time to send a message to a group, including retries");
     }
 
     /**
@@ -124,6 +146,7 @@ public class SendHelper {
     ) {
         final var messageSendLogStore = account.getMessageSendLogStore();
         final var result = handleSendMessage(recipientId,
+                SendScheduler.Priority.RECEIPT,
                 (messageSender, address, unidentifiedAccess) -> messageSender.sendReceipt(address,
                         unidentifiedAccess,
                         receiptMessage,
@@ -141,6 +164,7 @@ public class SendHelper {
                 .withProfileKey(profileKey)
                 .build();
         return handleSendMessage(recipientId,
+                SendScheduler.Priority.BACKGROUND,
                 (messageSender, address, unidentifiedAccess) -> messageSender.sendDataMessage(address,
                         unidentifiedAccess,
                         ContentHint.IMPLICIT,
@@ -158,6 +182,7 @@ public class SendHelper {
                 recipientId,
                 errorMessage.getDeviceId());
         final var result = handleSendMessage(recipientId,
+                SendScheduler.Priority.BACKGROUND,
                 (messageSender, address, unidentifiedAccess) -> messageSender.sendRetryReceipt(address,
                         unidentifiedAccess,
                         groupId.map(GroupId::serialize),
@@ -167,7 +192,9 @@ public class SendHelper {
     }
 
     public SendMessageResult sendNullMessage(RecipientId recipientId) {
-        final var result = handleSendMessage(recipientId, SignalServiceMessageSender::sendNullMessage);
+        final var result = handleSendMessage(recipientId,
+                SendScheduler.Priority.BACKGROUND,
+                SignalServiceMessageSender::sendNullMessage);
         handleSendMessageResult(result);
         return result;
     }
@@ -185,12 +212,27 @@ public class SendHelper {
     }
 
     public SendMessageResult sendSyncMessage(SignalServiceSyncMessage message) {
-        var messageSender = dependencies.getMessageSender();
+        return sendSyncMessage(message, SendScheduler.Priority.BACKGROUND);
+    }
+
+    private SendMessageResult sendSyncMessage(SignalServiceSyncMessage message, SendScheduler.Priority priority) {
         if (!account.isMultiDevice()) {
             logger.trace("Not sending sync message because there are no linked devices.");
             return SendMessageResult.success(account.getSelfAddress(), List.of(), false, false, 0, Optional.empty());
         }
+        final SendMessageResult result;
         try {
+            result = context.getSendScheduler().schedule(priority, () -> sendSyncMessageInternal(message));
+        } catch (IOException e) {
+            return getScheduleFailureResult(account.getSelfAddress(), e);
+        }
+        updateSendScheduler(result);
+        return result;
+    }
+
+    private SendMessageResult sendSyncMessageInternal(SignalServiceSyncMessage message) {
+        var messageSender = dependencies.getMessageSender();
+        try (final var ignored = lockSessions(List.of())) {
             return messageSender.sendSyncMessage(message, context.getUnidentifiedAccessHelper().getAccessForSync());
         } catch (UnregisteredUserException e) {
             var address = context.getRecipientHelper().resolveSignalServiceAddress(account.getSelfRecipientId());
@@ -217,6 +259,7 @@ public class SendHelper {
             SignalServiceTypingMessage message, RecipientId recipientId
     ) {
         final var result = handleSendMessage(recipientId,
+                SendScheduler.Priority.TYPING,
                 (messageSender, address, unidentifiedAccess) -> messageSender.sendTyping(List.of(address),
                         List.of(unidentifiedAccess),
                         message,
@@ -244,6 +287,7 @@ public class SendHelper {
         logger.trace("Resending message {} to {}", timestamp, recipientId);
         if (messageSendLogEntry.groupId().isEmpty()) {
             return handleSendMessage(recipientId,
+                    SendScheduler.Priority.BACKGROUND,
                     (messageSender, address, unidentifiedAccess) -> messageSender.resendContent(address,
                             unidentifiedAccess,
                             timestamp,
@@ -274,6 +318,7 @@ public class SendHelper {
                 .build();
 
         final var result = handleSendMessage(recipientId,
+                SendScheduler.Priority.BACKGROUND,
                 (messageSender, address, unidentifiedAccess) -> messageSender.resendContent(address,
                         unidentifiedAccess,
                         timestamp,
@@ -406,7 +451,11 @@ public class SendHelper {
                         }
                     }
                 });
-        final var results = sendGroupMessageInternal(legacySender, senderKeySender, recipientIds, distributionId);
+        final var results = sendGroupMessageInternal(legacySender,
+                senderKeySender,
+                recipientIds,
+                distributionId,
+                SendScheduler.Priority.INTERACTIVE);
 
         for (var r : results) {
             handleSendMessageResult(r);
@@ -431,7 +480,8 @@ public class SendHelper {
                         unidentifiedAccess,
                         message),
                 recipientIds,
-                distributionId);
+                distributionId,
+                SendScheduler.Priority.TYPING);
 
         for (var r : results) {
             handleSendMessageResult(r);
@@ -451,6 +501,48 @@ public class SendHelper {
         return g;
     }
 
+    private List<SendMessageResult> sendGroupMessageInternal(
+            final LegacySenderHandler legacySender,
+            final SenderKeySenderHandler senderKeySender,
+            final Set<RecipientId> recipientIds,
+            final DistributionId distributionId,
+            final SendScheduler.Priority priority
+    ) throws IOException {
+        final var sendStart = groupSendTime.startTimer();
+        final var sendScheduler = context.getSendScheduler();
+        var results = sendScheduler.schedule(priority,
+                () -> sendGroupMessageInternal(legacySender, senderKeySender, recipientIds, distributionId));
+        results.forEach(this::updateSendScheduler);
+
+        for (var retry = 1; retry <= MAX_RATE_LIMIT_RETRIES; retry++) {
+            final var rateLimitedRecipientIds = results.stream()
+                    .filter(this::isRateLimitFailure)
+                    .map(r -> context.getRecipientHelper().resolveRecipient(r.getAddress()))
+                    .collect(Collectors.toSet());
+            if (rateLimitedRecipientIds.isEmpty()) {
+                break;
+            }
+            logger.debug("Retrying rate limited group send to {} recipients ({}/{})",
+                    rateLimitedRecipientIds.size(),
+                    retry,
+                    MAX_RATE_LIMIT_RETRIES);
+            final var retryResults = sendScheduler.schedule(priority,
+                    () -> sendGroupMessageInternalWithLegacy(legacySender, rateLimitedRecipientIds, true));
+            if (retryResults.isEmpty()) {
+                break;
+            }
+            retryResults.forEach(this::updateSendScheduler);
+
+            final var newResults = new ArrayList<SendMessageResult>(results.size());
+            results.stream().filter(r -> !isRateLimitFailure(r)).forEach(newResults::add);
+            newResults.addAll(retryResults);
+            results = newResults;
+        }
+        groupSendTime.observeSince(sendStart);
+        results.forEach(this::countSendResult);
+        return results;
+    }
+
     private List<SendMessageResult> sendGroupMessageInternal(
             final LegacySenderHandler legacySender,
             final SenderKeySenderHandler senderKeySender,
@@ -560,7 +652,7 @@ public class SendHelper {
                 .map(context.getRecipientHelper()::resolveSignalServiceAddress)
                 .toList();
         final var unidentifiedAccesses = context.getUnidentifiedAccessHelper().getAccessFor(recipientIdList);
-        try {
+        try (final var ignored = lockSessions(addresses)) {
             final var results = sender.send(addresses, unidentifiedAccesses, isRecipientUpdate);
 
             final var successCount = results.stream().filter(SendMessageResult::isSuccess).count();
@@ -603,7 +695,7 @@ public class SendHelper {
                 .map(Optional::get)
                 .toList();
 
-        try {
+        try (final var ignored = lockSessions(addresses)) {
             List<SendMessageResult> results = sender.send(distributionId,
                     addresses,
                     unidentifiedAccesses,
@@ -651,6 +743,7 @@ public class SendHelper {
         final var urgent = true;
         final var includePniSignature = false;
         final var result = handleSendMessage(recipientId,
+                SendScheduler.Priority.INTERACTIVE,
                 editTargetTimestamp.isEmpty()
                         ? (messageSender, address, unidentifiedAccess) -> messageSender.sendDataMessage(address,
                         unidentifiedAccess,
@@ -671,12 +764,43 @@ public class SendHelper {
         return result;
     }
 
+    private SendMessageResult handleSendMessage(
+            RecipientId recipientId, SendScheduler.Priority priority, SenderHandler s
+    ) {
+        final var sendStart = sendTime.startTimer();
+        final var sendScheduler = context.getSendScheduler();
+        SendMessageResult result;
+        try {
+            result = sendScheduler.schedule(priority, () -> handleSendMessage(recipientId, s));
+            updateSendScheduler(result);
+            for (var retry = 1; retry <= MAX_RATE_LIMIT_RETRIES && isRateLimitFailure(result); retry++) {
+                logger.debug("Retrying rate limited send to {} ({}/{})", recipientId, retry, MAX_RATE_LIMIT_RETRIES);
+                result = sendScheduler.schedule(priority, () -> handleSendMessage(recipientId, s));
+                updateSendScheduler(result);
+            }
+        } catch (IOException e) {
+            final var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
+            result = getScheduleFailureResult(address, e);
+        }
+        sendTime.observeSince(sendStart);
+        countSendResult(result);
+        return result;
+    }
+
+    private void countSendResult(final SendMessageResult result) {
+        if (result.isSuccess()) {
+            messagesSent.increment();
+        } else {
+            sendFailures.increment();
+        }
+    }
+
     private SendMessageResult handleSendMessage(RecipientId recipientId, SenderHandler s) {
         var messageSender = dependencies.getMessageSender();
 
         var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
         try {
-            try {
+            try (final var ignored = lockSessions(List.of(address))) {
                 return s.send(messageSender, address, context.getUnidentifiedAccessHelper().getAccessFor(recipientId));
             } catch (UnregisteredUserException e) {
                 final RecipientId newRecipientId;
@@ -686,9 +810,11 @@ public class SendHelper {
                     return SendMessageResult.unregisteredFailure(address);
                 }
                 address = context.getRecipientHelper().resolveSignalServiceAddress(newRecipientId);
-                return s.send(messageSender,
-                        address,
-                        context.getUnidentifiedAccessHelper().getAccessFor(newRecipientId));
+                try (final var ignored = lockSessions(List.of(address))) {
+                    return s.send(messageSender,
+                            address,
+                            context.getUnidentifiedAccessHelper().getAccessFor(newRecipientId));
+                }
             }
         } catch (UnregisteredUserException e) {
             return SendMessageResult.unregisteredFailure(address);
@@ -706,6 +832,20 @@ public class SendHelper {
         }
     }
 
+    /**
+     * Lock the sessions of the recipients, so sends to other recipients can run concurrently.
+     * With linked devices the library also encrypts a sync message for our own devices, so our own sessions are
+     * locked as well.
+     */
+    private SignalSessionLock.Lock lockSessions(final Collection<SignalServiceAddress> addresses) {
+        final var serviceIds = new ArrayList<ServiceId>(addresses.size() + 1);
+        addresses.stream().map(SignalServiceAddress::getServiceId).forEach(serviceIds::add);
+        if (account.isMultiDevice()) {
+            serviceIds.add(account.getAci());
+        }
+        return dependencies.getSessionLock().acquire(serviceIds);
+    }
+
     private SendMessageResult sendSelfMessage(SignalServiceDataMessage message, Optional<Long> editTargetTimestamp) {
         var address = account.getSelfAddress();
         var transcript = new SentTranscriptMessage(Optional.of(address),
@@ -719,7 +859,34 @@ public class SendHelper {
                 editTargetTimestamp.map((timestamp) -> new SignalServiceEditMessage(timestamp, message)));
         var syncMessage = SignalServiceSyncMessage.forSentTranscript(transcript);
 
-        return sendSyncMessage(syncMessage);
+        return sendSyncMessage(syncMessage, SendScheduler.Priority.INTERACTIVE);
+    }
+
+    private boolean isRateLimitFailure(final SendMessageResult r) {
+        return r.getRateLimitFailure() != null;
+    }
+
+    /**
+     * Result for a send that wasn't started, because the scheduler didn't hand out a token.
+     * The server wasn't contacted, so the scheduler isn't updated with it.
+     */
+    private SendMessageResult getScheduleFailureResult(final SignalServiceAddress address, final IOException e) {
+        if (e instanceof RateLimitException rateLimitException) {
+            logger.debug("Not sending message, sends are paused due to rate limiting: {}", e.getMessage());
+            return SendMessageResult.rateLimitFailure(address, rateLimitException);
+        }
+        logger.debug("Not sending message, waiting for the send scheduler failed: {}", e.getMessage());
+        return SendMessageResult.networkFailure(address);
+    }
+
+    private void updateSendScheduler(final SendMessageResult r) {
+        if (r.getRateLimitFailure() != null) {
+            context.getSendScheduler().onRateLimited(0);
+        } else if (r.getProofRequiredFailure() != null) {
+            context.getSendScheduler().onRateLimited(r.getProofRequiredFailure().getRetryAfterSeconds() * 1000);
+        } else if (r.isSuccess()) {
+            context.getSendScheduler().onSuccess();
+        }
     }
 
     private void handleSendMessageResult(final SendMessageResult r) {
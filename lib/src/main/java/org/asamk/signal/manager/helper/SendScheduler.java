@@ -0,0 +1,267 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.metrics.Counter;
+import org.asamk.signal.manager.metrics.Histogram;
+import org.asamk.signal.manager.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.push.exceptions.RateLimitException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Central outbound send scheduler for one account.
+ * Every send acquires a token from the bucket of its priority class before hitting the server. When the server
+ * responds with a rate limit, all classes are paused with an exponentially growing backoff.
+ * Sends don't wait for long pauses, they fail with a {@link RateLimitException} instead.
+ */
+public class SendScheduler {
+
+    private final static Logger logger = LoggerFactory.getLogger(SendScheduler.class);
+
+    private final static long MIN_BACKOFF_MILLIS = 1000;
+    private final static long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private final static long MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Priority, TokenBucket> buckets = new EnumMap<>(Priority.class);
+    private final Map<Priority, Deque<Object>> waiting = new EnumMap<>(Priority.class);
+
+    private final Histogram waitTime;
+    private final Counter throttled;
+    private final Counter rateLimited;
+
+    private long backoffMillis = 0;
+    private long backoffUntilNanos = 0;
+
+    public SendScheduler(final Metrics metrics) {
+        for (final var priority : Priority.values()) {
+            buckets.put(priority, new TokenBucket(priority.capacity, priority.tokensPerSecond));
+            waiting.put(priority, new ArrayDeque<>());
+        }
+
+        this.waitTime = metrics.histogram("signal_send_scheduler_wait_seconds",
+                "Time a send waited for a token of its priority class");
+        this.throttled = metrics.counter("signal_send_scheduler_throttled_total",
+                "Sends that had to wait for a token or for a rate limit backoff");
+        this.rateLimited = metrics.counter("signal_send_scheduler_rate_limited_total",
+                "Rate limit responses from the server that paused all sends");
+        for (final var priority : Priority.values()) {
+            final var name = priority.name().toLowerCase(Locale.ROOT);
+            metrics.gauge("signal_send_scheduler_" + name + "_queued",
+                    "Sends with priority " + priority + " waiting for a token",
+                    () -> getQueueDepth(priority));
+        }
+        metrics.gauge("signal_send_scheduler_backoff_remaining_seconds",
+                "Remaining time until sends are resumed after a rate limit",
+                this::getBackoffRemainingSeconds);
+    }
+
+    /**
+     * Wait for a token of the priority class and then run the sender.
+     * The sender is not run if waiting fails with an {@link IOException}.
+     *
+     * @throws RateLimitException     if sends are paused for longer than the maximum wait time
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public <T, E extends Exception> T schedule(Priority priority, Sender<T, E> sender) throws E, IOException {
+        acquire(priority);
+        return sender.send();
+    }
+
+    /**
+     * Notify the scheduler that the server rejected a send due to rate limiting.
+     *
+     * @param retryAfterMillis the minimum delay requested by the server, or 0 if unknown.
+     *                         The pause is capped, as waiting for a long requested delay doesn't help waiting sends.
+     */
+    public void onRateLimited(long retryAfterMillis) {
+        lock.lock();
+        try {
+            backoffMillis = backoffMillis == 0 ? MIN_BACKOFF_MILLIS : Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            final var delayMillis = Math.min(Math.max(backoffMillis, retryAfterMillis), MAX_BACKOFF_MILLIS);
+            final var delayUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            backoffUntilNanos = Math.max(backoffUntilNanos, delayUntilNanos);
+            rateLimited.increment();
+            logger.debug("Rate limited by server, pausing sends for {}ms", delayMillis);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess() {
+        lock.lock();
+        try {
+            if (backoffMillis > 0) {
+                backoffMillis = backoffMillis / 2 < MIN_BACKOFF_MILLIS ? 0 : backoffMillis / 2;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getQueueDepth(Priority priority) {
+        lock.lock();
+        try {
+            return waiting.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double getBackoffRemainingSeconds() {
+        lock.lock();
+        try {
+            return Math.max(0, backoffUntilNanos - System.nanoTime()) / 1e9;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(Priority priority) throws IOException {
+        final var ticket = new Object();
+        final var start = System.nanoTime();
+        lock.lock();
+        try {
+            final var queue = waiting.get(priority);
+            queue.addLast(ticket);
+            try {
+                while (true) {
+                    final var now = System.nanoTime();
+                    final var backoffRemainingNanos = backoffUntilNanos - now;
+                    if (backoffRemainingNanos > TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS)) {
+                        final var backoffRemainingMillis = TimeUnit.NANOSECONDS.toMillis(backoffRemainingNanos);
+                        throw new RateLimitException(413,
+                                "Sends are paused for " + backoffRemainingMillis + "ms",
+                                Optional.of(backoffRemainingMillis));
+                    }
+                    final var waitNanos = getWaitNanos(priority, ticket, now);
+                    if (waitNanos == 0) {
+                        buckets.get(priority).take(now);
+                        break;
+                    }
+                    if (waitNanos > 0) {
+                        changed.awaitNanos(waitNanos);
+                    } else {
+                        changed.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The send didn't get a token, so it must not be sent
+                Thread.currentThread().interrupt();
+                final var interrupted = new InterruptedIOException("Interrupted while waiting to send");
+                interrupted.initCause(e);
+                throw interrupted;
+            } finally {
+                queue.remove(ticket);
+                changed.signalAll();
+            }
+
+            final var waited = System.nanoTime() - start;
+            waitTime.observe(waited / 1e9);
+            if (waited > TimeUnit.MILLISECONDS.toNanos(1)) {
+                throttled.increment();
+                logger.trace("Send with priority {} was throttled for {}ms",
+                        priority,
+                        TimeUnit.NANOSECONDS.toMillis(waited));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 0 if the ticket may be sent now, the time to wait in nanoseconds,
+     * or -1 if it needs to wait for another send to complete
+     */
+    private long getWaitNanos(Priority priority, Object ticket, long now) {
+        if (waiting.get(priority).peekFirst() != ticket) {
+            return -1;
+        }
+        if (backoffUntilNanos - now > 0) {
+            return backoffUntilNanos - now;
+        }
+        for (final var other : Priority.values()) {
+            if (other == priority) {
+                break;
+            }
+            // Higher priority classes that are able to send go first
+            if (!waiting.get(other).isEmpty() && buckets.get(other).nanosUntilAvailable(now) == 0) {
+                return -1;
+            }
+        }
+        return buckets.get(priority).nanosUntilAvailable(now);
+    }
+
+    /**
+     * Priority classes for outbound sends, ordered from highest to lowest priority.
+     */
+    public enum Priority {
+        INTERACTIVE(30, 5),
+        RECEIPT(20, 3),
+        TYPING(10, 2),
+        BACKGROUND(10, 1);
+
+        private final int capacity;
+        private final double tokensPerSecond;
+
+        Priority(final int capacity, final double tokensPerSecond) {
+            this.capacity = capacity;
+            this.tokensPerSecond = tokensPerSecond;
+        }
+    }
+
+    public interface Sender<T, E extends Exception> {
+
+        T send() throws E;
+    }
+
+    private static class TokenBucket {
+
+        private final int capacity;
+        private final double tokensPerNano;
+
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(final int capacity, final double tokensPerSecond) {
+            this.capacity = capacity;
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        private long nanosUntilAvailable(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+        }
+
+        private void take(long now) {
+            refill(now);
+            tokens -= 1;
+        }
+
+        private void refill(long now) {
+            final var elapsed = now - lastRefillNanos;
+            if (elapsed > 0) {
+                tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+                lastRefillNanos = now;
+            }
+        }
+    }
+}
@@ -5,9 +5,13 @@ import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.PhoneNumberSharingMode;
 import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.TrustLevel;
+import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.storageRecords.StorageRecordStore;
+import org.asamk.signal.manager.util.KeyUtils;
 import org.signal.libsignal.protocol.IdentityKey;
 import org.signal.libsignal.protocol.InvalidKeyException;
 import org.signal.libsignal.zkgroup.InvalidInputException;
@@ -16,23 +20,32 @@ import org.signal.libsignal.zkgroup.profiles.ProfileKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.storage.SignalAccountRecord;
+import org.whispersystems.signalservice.api.storage.SignalContactRecord;
+import org.whispersystems.signalservice.api.storage.SignalGroupV2Record;
 import org.whispersystems.signalservice.api.storage.SignalStorageManifest;
 import org.whispersystems.signalservice.api.storage.SignalStorageRecord;
 import org.whispersystems.signalservice.api.storage.StorageId;
+import org.whispersystems.signalservice.internal.storage.protos.ContactRecord;
+import org.whispersystems.signalservice.internal.storage.protos.GroupV2Record;
 import org.whispersystems.signalservice.internal.storage.protos.ManifestRecord;
 
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class StorageHelper {
 
     private final static Logger logger = LoggerFactory.getLogger(StorageHelper.class);
 
+    private static final int MAX_STORAGE_WRITE_ATTEMPTS = 3;
+
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
@@ -67,43 +80,240 @@ public class StorageHelper {
         }
 
         logger.trace("Remote storage manifest has {} records", manifest.get().getStorageIds().size());
-        final var storageIds = manifest.get()
+        final var remoteStorageIds = manifest.get()
                 .getStorageIds()
                 .stream()
                 .filter(id -> !id.isUnknown())
                 .collect(Collectors.toSet());
+        final var localStorageIds = account.getStorageRecordStore().getStorageIds();
+        final var newStorageIds = remoteStorageIds.stream().filter(id -> !localStorageIds.contains(id)).toList();
+        final var removedStorageIds = localStorageIds.stream().filter(id -> !remoteStorageIds.contains(id)).toList();
+
+        logger.trace("Reading {} new records, {} records were removed", newStorageIds.size(), removedStorageIds.size());
+        final var start = System.nanoTime();
+        final var records = getSignalStorageRecords(newStorageIds);
+        logger.debug("Read {} records from remote storage in {}ms",
+                records.size(),
+                (System.nanoTime() - start) / 1_000_000);
+
+        applyStorageRecords(records, removedStorageIds);
+        account.setStorageManifestVersion(manifest.get().getVersion());
+        account.setStorageManifest(manifest.get());
+        logger.debug("Done reading data from remote storage");
+    }
+
+    /**
+     * Upload local changes of contacts and groups, that are already part of the remote storage.
+     * Only records marked as dirty by local changes are compared with the last known remote state, and only records
+     * that differ are written.
+     */
+    public void writeDataToStorage() throws IOException {
+        for (var attempt = 1; ; attempt++) {
+            readDataFromStorage();
+            final var storageKey = account.getStorageKey();
+            final var manifest = account.getStorageManifest();
+            if (storageKey == null || manifest.isEmpty()) {
+                logger.debug("Remote storage hasn't been read yet, not writing local changes");
+                return;
+            }
+
+            final var updates = new ArrayList<StorageRecordUpdate>();
+            final var unchangedStorageIds = new ArrayList<StorageId>();
+            updates.addAll(getContactRecordUpdates(unchangedStorageIds));
+            updates.addAll(getGroupV2RecordUpdates(unchangedStorageIds));
+            if (updates.isEmpty()) {
+                logger.debug("No local changes for remote storage");
+                account.getStorageRecordStore().clearDirty(unchangedStorageIds);
+                return;
+            }
+
+            final var oldStorageIds = updates.stream()
+                    .map(StorageRecordUpdate::oldStorageId)
+                    .collect(Collectors.toSet());
+            final var storageIds = new ArrayList<>(manifest.get()
+                    .getStorageIds()
+                    .stream()
+                    .filter(id -> !oldStorageIds.contains(id))
+                    .toList());
+            updates.stream().map(u -> u.newRecord().storageId()).forEach(storageIds::add);
+            final var newManifest = new SignalStorageManifest(manifest.get().getVersion() + 1,
+                    account.getDeviceId(),
+                    storageIds);
+
+            logger.debug("Writing {} changed records to remote storage", updates.size());
+            final Optional<SignalStorageManifest> conflictManifest;
+            try {
+                conflictManifest = dependencies.getAccountManager()
+                        .writeStorageRecords(storageKey,
+                                newManifest,
+                                updates.stream().map(StorageRecordUpdate::signalStorageRecord).toList(),
+                                oldStorageIds.stream().map(StorageId::getRaw).toList());
+            } catch (InvalidKeyException e) {
+                logger.warn("Failed to write storage records, ignoring.");
+                return;
+            }
+
+            if (conflictManifest.isPresent()) {
+                if (attempt >= MAX_STORAGE_WRITE_ATTEMPTS) {
+                    logger.warn("Remote storage was changed concurrently, giving up writing local changes.");
+                    return;
+                }
+                logger.debug("Remote storage was changed concurrently, retrying.");
+                continue;
+            }
 
-        Optional<SignalStorageManifest> localManifest = account.getStorageManifest();
-        localManifest.ifPresent(m -> m.getStorageIds().forEach(storageIds::remove));
+            try (final var unitOfWork = account.getAccountDatabase().beginUnitOfWork()) {
+                final var storageRecordStore = account.getStorageRecordStore();
+                storageRecordStore.clearDirty(unchangedStorageIds);
+                storageRecordStore.deleteStorageRecords(oldStorageIds);
+                for (final var update : updates) {
+                    storageRecordStore.storeStorageRecord(update.newRecord());
+                }
+                unitOfWork.commit();
+            } catch (SQLException e) {
+                throw new IOException("Failed to store storage records", e);
+            }
+            account.setStorageManifestVersion(newManifest.getVersion());
+            account.setStorageManifest(newManifest);
+            context.getSyncHelper().sendSyncFetchStorageManifestMessage();
+            logger.debug("Done writing data to remote storage");
+            return;
+        }
+    }
 
-        logger.trace("Reading {} new records", manifest.get().getStorageIds().size());
-        for (final var record : getSignalStorageRecords(storageIds)) {
-            logger.debug("Reading record of type {}", record.getType());
+    private void applyStorageRecords(
+            final List<SignalStorageRecord> records, final List<StorageId> removedStorageIds
+    ) throws IOException {
+        final var storageRecords = new ArrayList<StorageRecordStore.StorageRecord>();
+        // Account and group records may need network requests, so they are applied outside the transaction
+        for (final var record : records) {
             if (record.getType() == ManifestRecord.Identifier.Type.ACCOUNT.getValue()) {
+                logger.debug("Reading record of type {}", record.getType());
                 readAccountRecord(record);
+                storageRecords.add(new StorageRecordStore.StorageRecord(record.getId(), null, null, null));
             } else if (record.getType() == ManifestRecord.Identifier.Type.GROUPV2.getValue()) {
-                readGroupV2Record(record);
+                logger.debug("Reading record of type {}", record.getType());
+                final var groupId = readGroupV2Record(record);
+                final var groupRecord = record.getGroupV2().map(r -> r.toProto().encode()).orElse(null);
+                storageRecords.add(new StorageRecordStore.StorageRecord(record.getId(), null, groupId, groupRecord));
             } else if (record.getType() == ManifestRecord.Identifier.Type.GROUPV1.getValue()) {
-                readGroupV1Record(record);
-            } else if (record.getType() == ManifestRecord.Identifier.Type.CONTACT.getValue()) {
-                readContactRecord(record);
+                logger.debug("Reading record of type {}", record.getType());
+                final var groupId = readGroupV1Record(record);
+                storageRecords.add(new StorageRecordStore.StorageRecord(record.getId(), null, groupId, null));
             }
         }
-        account.setStorageManifestVersion(manifest.get().getVersion());
-        account.setStorageManifest(manifest.get());
-        logger.debug("Done reading data from remote storage");
+
+        try (final var unitOfWork = account.getAccountDatabase().beginUnitOfWork()) {
+            final var storageRecordStore = account.getStorageRecordStore();
+            storageRecordStore.deleteStorageRecords(removedStorageIds);
+            for (final var record : records) {
+                if (record.getType() == ManifestRecord.Identifier.Type.CONTACT.getValue()) {
+                    final var recipientId = readContactRecord(record);
+                    final var contactRecord = record.getContact().map(r -> r.toProto().encode()).orElse(null);
+                    storageRecords.add(new StorageRecordStore.StorageRecord(record.getId(),
+                            recipientId,
+                            null,
+                            recipientId == null ? null : contactRecord));
+                } else if (record.getType() != ManifestRecord.Identifier.Type.ACCOUNT.getValue()
+                        && record.getType() != ManifestRecord.Identifier.Type.GROUPV2.getValue()
+                        && record.getType() != ManifestRecord.Identifier.Type.GROUPV1.getValue()) {
+                    // Remember records that aren't supported yet, so they aren't read again with every change
+                    storageRecords.add(new StorageRecordStore.StorageRecord(record.getId(), null, null, null));
+                }
+            }
+            for (final var storageRecord : storageRecords) {
+                storageRecordStore.storeStorageRecord(storageRecord);
+            }
+            unitOfWork.commit();
+        } catch (SQLException e) {
+            throw new IOException("Failed to store storage records", e);
+        }
+    }
+
+    private List<StorageRecordUpdate> getContactRecordUpdates(final List<StorageId> unchangedStorageIds) {
+        final var updates = new ArrayList<StorageRecordUpdate>();
+        final var type = ManifestRecord.Identifier.Type.CONTACT.getValue();
+        for (final var storageRecord : account.getStorageRecordStore().getDirtyStorageRecords(type)) {
+            if (storageRecord.recipientId() == null) {
+                continue;
+            }
+            final ContactRecord remoteRecord;
+            try {
+                remoteRecord = ContactRecord.ADAPTER.decode(storageRecord.record());
+            } catch (IOException e) {
+                logger.warn("Failed to decode stored contact record, ignoring: {}", e.getMessage());
+                continue;
+            }
+
+            final var contact = account.getContactStore().getContact(storageRecord.recipientId());
+            final var givenName = contact == null ? null : contact.getGivenName();
+            final var familyName = contact == null ? null : contact.getFamilyName();
+            final var localRecord = remoteRecord.newBuilder()
+                    .blocked(contact != null && contact.isBlocked())
+                    .whitelisted(contact != null && contact.isProfileSharingEnabled())
+                    .archived(contact != null && contact.isArchived())
+                    .systemGivenName(givenName == null ? "" : givenName)
+                    .systemFamilyName(familyName == null ? "" : familyName)
+                    .build();
+            if (localRecord.equals(remoteRecord)) {
+                unchangedStorageIds.add(storageRecord.storageId());
+                continue;
+            }
+
+            final var storageId = StorageId.forContact(KeyUtils.createRawStorageId());
+            updates.add(new StorageRecordUpdate(storageRecord.storageId(),
+                    new StorageRecordStore.StorageRecord(storageId,
+                            storageRecord.recipientId(),
+                            null,
+                            localRecord.encode()),
+                    SignalStorageRecord.forContact(storageId, new SignalContactRecord(storageId, localRecord))));
+        }
+        return updates;
+    }
+
+    private List<StorageRecordUpdate> getGroupV2RecordUpdates(final List<StorageId> unchangedStorageIds) {
+        final var updates = new ArrayList<StorageRecordUpdate>();
+        final var type = ManifestRecord.Identifier.Type.GROUPV2.getValue();
+        for (final var storageRecord : account.getStorageRecordStore().getDirtyStorageRecords(type)) {
+            if (storageRecord.groupId() == null) {
+                continue;
+            }
+            final var group = account.getGroupStore().getGroup(storageRecord.groupId());
+            if (group == null) {
+                continue;
+            }
+            final GroupV2Record remoteRecord;
+            try {
+                remoteRecord = GroupV2Record.ADAPTER.decode(storageRecord.record());
+            } catch (IOException e) {
+                logger.warn("Failed to decode stored group record, ignoring: {}", e.getMessage());
+                continue;
+            }
+
+            final var localRecord = remoteRecord.newBuilder().blocked(group.isBlocked()).build();
+            if (localRecord.equals(remoteRecord)) {
+                unchangedStorageIds.add(storageRecord.storageId());
+                continue;
+            }
+
+            final var storageId = StorageId.forGroupV2(KeyUtils.createRawStorageId());
+            updates.add(new StorageRecordUpdate(storageRecord.storageId(),
+                    new StorageRecordStore.StorageRecord(storageId, null, group.getGroupId(), localRecord.encode()),
+                    SignalStorageRecord.forGroupV2(storageId, new SignalGroupV2Record(storageId, localRecord))));
+        }
+        return updates;
     }
 
-    private void readContactRecord(final SignalStorageRecord record) {
+    private RecipientId readContactRecord(final SignalStorageRecord record) {
         if (record == null || record.getContact().isEmpty()) {
-            return;
+            return null;
         }
 
         final var contactRecord = record.getContact().get();
         final var aci = contactRecord.getAci().orElse(null);
         final var pni = contactRecord.getPni().orElse(null);
         if (contactRecord.getNumber().isEmpty() && aci == null && pni == null) {
-            return;
+            return null;
         }
         final var address = new RecipientAddress(aci, pni, contactRecord.getNumber().orElse(null));
         var recipientId = account.getRecipientResolver().resolveRecipient(address);
@@ -184,11 +394,12 @@ public class StorageHelper {
                 logger.warn("Received invalid contact identity key from storage");
             }
         }
+        return recipientId;
     }
 
-    private void readGroupV1Record(final SignalStorageRecord record) {
+    private GroupId readGroupV1Record(final SignalStorageRecord record) {
         if (record == null || record.getGroupV1().isEmpty()) {
-            return;
+            return null;
         }
 
         final var groupV1Record = record.getGroupV1().get();
@@ -207,16 +418,17 @@ public class StorageHelper {
             group.setBlocked(groupV1Record.isBlocked());
             account.getGroupStore().updateGroup(group);
         }
+        return groupIdV1;
     }
 
-    private void readGroupV2Record(final SignalStorageRecord record) {
+    private GroupId readGroupV2Record(final SignalStorageRecord record) {
         if (record == null || record.getGroupV2().isEmpty()) {
-            return;
+            return null;
         }
 
         final var groupV2Record = record.getGroupV2().get();
         if (groupV2Record.isArchived()) {
-            return;
+            return null;
         }
 
         final GroupMasterKey groupMasterKey;
@@ -224,7 +436,7 @@ public class StorageHelper {
             groupMasterKey = new GroupMasterKey(groupV2Record.getMasterKeyBytes());
         } catch (InvalidInputException e) {
             logger.warn("Received invalid group master key from storage");
-            return;
+            return null;
         }
 
         final var group = context.getGroupHelper().getOrMigrateGroup(groupMasterKey, 0, null);
@@ -232,6 +444,7 @@ public class StorageHelper {
             group.setBlocked(groupV2Record.isBlocked());
             account.getGroupStore().updateGroup(group);
         }
+        return group.getGroupId();
     }
 
     private void readAccountRecord(final SignalStorageRecord record) throws IOException {
@@ -289,27 +502,81 @@ public class StorageHelper {
                         null);
     }
 
-    private SignalStorageRecord getSignalStorageRecord(final StorageId accountId) throws IOException {
-        List<SignalStorageRecord> records;
+    /**
+     * Read the records in batches, with a few requests in parallel.
+     */
+    private List<SignalStorageRecord> getSignalStorageRecords(final List<StorageId> storageIds) throws IOException {
+        return readInBatches(storageIds,
+                ServiceConfig.STORAGE_READ_BATCH_SIZE,
+                ServiceConfig.STORAGE_READ_THREADS,
+                this::readSignalStorageRecords);
+    }
+
+    /**
+     * @return the results of all batches, in the order of the ids
+     */
+    static <T, R> List<R> readInBatches(
+            final List<T> ids, final int batchSize, final int maxThreads, final BatchReader<T, R> reader
+    ) throws IOException {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        final var batches = new ArrayList<List<T>>();
+        for (var i = 0; i < ids.size(); i += batchSize) {
+            batches.add(ids.subList(i, Math.min(i + batchSize, ids.size())));
+        }
+        if (batches.size() == 1) {
+            return reader.read(batches.get(0));
+        }
+
+        final var threadCount = new AtomicInteger();
+        final var executor = Executors.newFixedThreadPool(Math.min(batches.size(), maxThreads), r -> {
+            final var thread = new Thread(r, "storage-read-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
-            records = dependencies.getAccountManager()
-                    .readStorageRecords(account.getStorageKey(), Collections.singletonList(accountId));
-        } catch (InvalidKeyException e) {
-            logger.warn("Failed to read storage records, ignoring.");
-            return null;
+            final var futures = new ArrayList<Future<List<R>>>();
+            for (final var batch : batches) {
+                futures.add(executor.submit(() -> reader.read(batch)));
+            }
+            final var results = new ArrayList<R>(ids.size());
+            for (final var future : futures) {
+                results.addAll(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading storage records", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Failed to read storage records", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-        return records.size() > 0 ? records.get(0) : null;
     }
 
-    private List<SignalStorageRecord> getSignalStorageRecords(final Collection<StorageId> storageIds) throws IOException {
+    private List<SignalStorageRecord> readSignalStorageRecords(final List<StorageId> storageIds) throws IOException {
         List<SignalStorageRecord> records;
         try {
-            records = dependencies.getAccountManager()
-                    .readStorageRecords(account.getStorageKey(), new ArrayList<>(storageIds));
+            records = dependencies.getAccountManager().readStorageRecords(account.getStorageKey(), storageIds);
         } catch (InvalidKeyException e) {
             logger.warn("Failed to read storage records, ignoring.");
             return List.of();
         }
         return records;
     }
+
+    interface BatchReader<T, R> {
+
+        List<R> read(List<T> batch) throws IOException;
+    }
+
+    private record StorageRecordUpdate(
+            StorageId oldStorageId,
+            StorageRecordStore.StorageRecord newRecord,
+            SignalStorageRecord signalStorageRecord
+    ) {}
 }
@@ -0,0 +1,145 @@
+package org.asamk.signal.manager.helper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes local changes back to the storage service in the background.
+ * Requests are debounced, so a burst of changes, e.g. blocking several contacts one by one, results in a single
+ * read and write of the remote storage, without delaying the command that made the change.
+ * A pending write is done when the writer is closed, so changes made shortly before exiting aren't lost.
+ */
+public class StorageWriter {
+
+    private final static Logger logger = LoggerFactory.getLogger(StorageWriter.class);
+
+    private final static long DEBOUNCE_DELAY = TimeUnit.SECONDS.toMillis(2);
+
+    private final Storage storage;
+    private final long debounceDelayMillis;
+
+    private final Object lock = new Object();
+
+    private Thread thread;
+    private boolean pending = false;
+    private long writeTimestamp = 0;
+    private boolean closed = false;
+
+    public StorageWriter(final Context context) {
+        this(new ContextStorage(context), DEBOUNCE_DELAY);
+    }
+
+    StorageWriter(final Storage storage, final long debounceDelayMillis) {
+        this.storage = storage;
+        this.debounceDelayMillis = debounceDelayMillis;
+    }
+
+    /**
+     * Request a write of the local changes, the write is delayed until no further requests arrive for a short time.
+     */
+    public void requestWrite() {
+        if (!storage.hasStorageKey()) {
+            logger.debug("No storage key available, not writing local changes to remote storage");
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            pending = true;
+            writeTimestamp = System.currentTimeMillis() + debounceDelayMillis;
+            if (thread == null) {
+                thread = new Thread(this::run);
+                thread.setName("storage-writer");
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stop the writer, waiting for a pending write to finish.
+     */
+    public void close() {
+        final Thread thread;
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted while waiting for pending storage write");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                if (!awaitWrite()) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                storage.write();
+            } catch (Exception e) {
+                logger.warn("Failed to update remote storage: {}", e.getMessage());
+            }
+        }
+        logger.debug("Storage writer stopped");
+    }
+
+    /**
+     * @return false if the writer was closed without a pending write
+     */
+    private boolean awaitWrite() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                final var delay = writeTimestamp - System.currentTimeMillis();
+                if (pending && (closed || delay <= 0)) {
+                    pending = false;
+                    return true;
+                }
+                if (closed) {
+                    return false;
+                }
+                lock.wait(pending ? delay : 0);
+            }
+        }
+    }
+
+    /**
+     * Access to the remote storage.
+     */
+    interface Storage {
+
+        boolean hasStorageKey();
+
+        void write() throws Exception;
+    }
+
+    private record ContextStorage(Context context) implements Storage {
+
+        @Override
+        public boolean hasStorageKey() {
+            return context.getAccount().getStorageKey() != null;
+        }
+
+        @Override
+        public void write() throws Exception {
+            context.getStorageHelper().writeDataToStorage();
+        }
+    }
+}
@@ -5,7 +5,9 @@ import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.TrustLevel;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.groups.GroupInfoV1;
+import org.asamk.signal.manager.storage.identities.IdentityInfo;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.storage.stickers.StickerPack;
 import org.asamk.signal.manager.util.AttachmentUtils;
 import org.asamk.signal.manager.util.IOUtils;
@@ -38,9 +40,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -48,6 +53,8 @@ public class SyncHelper {
 
     private final static Logger logger = LoggerFactory.getLogger(SyncHelper.class);
 
+    private final static int CONTACTS_CHUNK_SIZE = 500;
+
     private final Context context;
     private final SignalAccount account;
 
@@ -78,6 +85,11 @@ public class SyncHelper {
                 .sendSyncMessage(SignalServiceSyncMessage.forFetchLatest(SignalServiceSyncMessage.FetchType.LOCAL_PROFILE));
     }
 
+    public void sendSyncFetchStorageManifestMessage() {
+        context.getSendHelper()
+                .sendSyncMessage(SignalServiceSyncMessage.forFetchLatest(SignalServiceSyncMessage.FetchType.STORAGE_MANIFEST));
+    }
+
     public void sendGroups() throws IOException {
         var groupsFile = IOUtils.createTempFile();
 
@@ -129,12 +141,20 @@ public class SyncHelper {
         try {
             try (OutputStream fos = new FileOutputStream(contactsFile)) {
                 var out = new DeviceContactsOutputStream(fos);
-                for (var contactPair : account.getContactStore().getContacts()) {
-                    final var recipientId = contactPair.first();
-                    final var contact = contactPair.second();
-                    final var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
-
-                    var currentIdentity = account.getIdentityKeyStore().getIdentityInfo(address.getServiceId());
+                // Contacts with their addresses and profile keys and all identities are each read with one query
+                final var identities = account.getIdentityKeyStore()
+                        .getIdentities()
+                        .stream()
+                        .collect(Collectors.toMap(IdentityInfo::getAddress, i -> i, (i1, i2) -> i1));
+                final var recipients = account.getRecipientStore()
+                        .getRecipients(true, Optional.empty(), Set.of(), Optional.empty());
+                for (var recipient : recipients) {
+                    final var contact = recipient.getContact();
+                    final var address = recipient.getAddress().serviceId().isPresent()
+                            ? recipient.getAddress().toSignalServiceAddress()
+                            : context.getRecipientHelper().resolveSignalServiceAddress(recipient.getRecipientId());
+
+                    var currentIdentity = identities.get(address.getServiceId().toString());
                     VerifiedMessage verifiedMessage = null;
                     if (currentIdentity != null) {
                         verifiedMessage = new VerifiedMessage(address,
@@ -143,13 +163,12 @@ public class SyncHelper {
                                 currentIdentity.getDateAddedTimestamp());
                     }
 
-                    var profileKey = account.getProfileStore().getProfileKey(recipientId);
                     out.write(new DeviceContact(address,
                             Optional.ofNullable(contact.getName()),
                             createContactAvatarAttachment(new RecipientAddress(address)),
                             Optional.ofNullable(contact.getColor()),
                             Optional.ofNullable(verifiedMessage),
-                            Optional.ofNullable(profileKey),
+                            Optional.ofNullable(recipient.getProfileKey()),
                             contact.isBlocked(),
                             Optional.of(contact.getMessageExpirationTime()),
                             Optional.empty(),
@@ -291,10 +310,36 @@ public class SyncHelper {
         }
     }
 
+    /**
+     * Import the contacts of a contacts sync message.
+     * Contacts are stored in chunks, each with its recipients resolved in one batch and written in one transaction,
+     * so a sync with thousands of contacts neither commits every contact separately nor blocks other writers until
+     * the whole sync is stored. Avatars are stored or queued while reading the contacts, outside the transactions.
+     */
     public void handleSyncDeviceContacts(final InputStream input) throws IOException {
+        readDeviceContacts(input, CONTACTS_CHUNK_SIZE, c -> {
+            if (c.getAvatar().isPresent()) {
+                downloadContactAvatar(c.getAvatar().get(), new RecipientAddress(c.getAddress()));
+            }
+        }, this::storeSyncContacts);
+    }
+
+    /**
+     * Read the contacts of a contacts sync in chunks.
+     *
+     * @param onContact called for every contact as soon as it's read, before the next contact is read
+     * @param onChunk   called with at most chunkSize contacts
+     */
+    static void readDeviceContacts(
+            final InputStream input,
+            final int chunkSize,
+            final Consumer<DeviceContact> onContact,
+            final ContactsChunkHandler onChunk
+    ) throws IOException {
         final var s = new DeviceContactsInputStream(input);
-        DeviceContact c;
+        final var chunk = new ArrayList<DeviceContact>(chunkSize);
         while (true) {
+            final DeviceContact c;
             try {
                 c = s.read();
             } catch (IOException e) {
@@ -308,39 +353,64 @@ public class SyncHelper {
             if (c == null) {
                 break;
             }
-            if (c.getAddress().matches(account.getSelfAddress()) && c.getProfileKey().isPresent()) {
-                account.setProfileKey(c.getProfileKey().get());
-            }
-            final var recipientId = account.getRecipientTrustedResolver().resolveRecipientTrusted(c.getAddress());
-            var contact = account.getContactStore().getContact(recipientId);
-            final var builder = contact == null ? Contact.newBuilder() : Contact.newBuilder(contact);
-            if (c.getName().isPresent()) {
-                builder.withGivenName(c.getName().get());
-                builder.withFamilyName(null);
-            }
-            if (c.getColor().isPresent()) {
-                builder.withColor(c.getColor().get());
-            }
-            if (c.getProfileKey().isPresent()) {
-                account.getProfileStore().storeProfileKey(recipientId, c.getProfileKey().get());
+            onContact.accept(c);
+            chunk.add(c);
+            if (chunk.size() >= chunkSize) {
+                onChunk.handle(List.copyOf(chunk));
+                chunk.clear();
             }
-            if (c.getVerified().isPresent()) {
-                final var verifiedMessage = c.getVerified().get();
-                account.getIdentityKeyStore()
-                        .setIdentityTrustLevel(verifiedMessage.getDestination().getServiceId(),
-                                verifiedMessage.getIdentityKey(),
-                                TrustLevel.fromVerifiedState(verifiedMessage.getVerified()));
-            }
-            if (c.getExpirationTimer().isPresent()) {
-                builder.withMessageExpirationTime(c.getExpirationTimer().get());
-            }
-            builder.withBlocked(c.isBlocked());
-            builder.withArchived(c.isArchived());
-            account.getContactStore().storeContact(recipientId, builder.build());
+        }
+        if (!chunk.isEmpty()) {
+            onChunk.handle(List.copyOf(chunk));
+        }
+    }
 
-            if (c.getAvatar().isPresent()) {
-                downloadContactAvatar(c.getAvatar().get(), new RecipientAddress(c.getAddress()));
+    private void storeSyncContacts(final List<DeviceContact> contacts) throws IOException {
+        try (final var unitOfWork = account.getAccountDatabase().beginUnitOfWork()) {
+            final var recipientIds = account.getRecipientStore()
+                    .resolveRecipientsTrusted(contacts.stream()
+                            .map(c -> new RecipientAddress(c.getAddress()))
+                            .toList());
+            for (var i = 0; i < contacts.size(); i++) {
+                storeSyncContact(contacts.get(i), recipientIds.get(i));
             }
+            unitOfWork.commit();
+        } catch (SQLException e) {
+            throw new IOException("Failed to store sync contacts", e);
+        }
+    }
+
+    private void storeSyncContact(final DeviceContact c, final RecipientId recipientId) {
+        if (c.getAddress().matches(account.getSelfAddress()) && c.getProfileKey().isPresent()) {
+            account.setProfileKey(c.getProfileKey().get());
+        }
+        final var contact = account.getContactStore().getContact(recipientId);
+        final var builder = contact == null ? Contact.newBuilder() : Contact.newBuilder(contact);
+        if (c.getName().isPresent()) {
+            builder.withGivenName(c.getName().get());
+            builder.withFamilyName(null);
+        }
+        if (c.getColor().isPresent()) {
+            builder.withColor(c.getColor().get());
+        }
+        if (c.getProfileKey().isPresent()) {
+            account.getProfileStore().storeProfileKey(recipientId, c.getProfileKey().get());
+        }
+        if (c.getVerified().isPresent()) {
+            final var verifiedMessage = c.getVerified().get();
+            account.getIdentityKeyStore()
+                    .setIdentityTrustLevel(verifiedMessage.getDestination().getServiceId(),
+                            verifiedMessage.getIdentityKey(),
+                            TrustLevel.fromVerifiedState(verifiedMessage.getVerified()));
+        }
+        if (c.getExpirationTimer().isPresent()) {
+            builder.withMessageExpirationTime(c.getExpirationTimer().get());
+        }
+        builder.withBlocked(c.isBlocked());
+        builder.withArchived(c.isArchived());
+        final var newContact = builder.build();
+        if (!newContact.equals(contact)) {
+            account.getContactStore().storeContact(recipientId, newContact);
         }
     }
 
@@ -360,12 +430,33 @@ public class SyncHelper {
     }
 
     private void downloadContactAvatar(SignalServiceAttachment avatar, RecipientAddress address) {
-        try {
-            context.getAvatarStore()
-                    .storeContactAvatar(address,
-                            outputStream -> context.getAttachmentHelper().retrieveAttachment(avatar, outputStream));
-        } catch (IOException e) {
-            logger.warn("Failed to download avatar for contact {}, ignoring: {}", address, e.getMessage());
+        if (!avatar.isPointer()) {
+            // Inline avatar streams must be consumed before the next contact can be read
+            try {
+                context.getAvatarStore()
+                        .storeContactAvatar(address,
+                                outputStream -> context.getAttachmentHelper().retrieveAttachment(avatar, outputStream));
+            } catch (IOException e) {
+                logger.warn("Failed to store avatar for contact {}, ignoring: {}", address, e.getMessage());
+            }
+            return;
         }
+        final var source = avatar.asPointer().getRemoteId().toString();
+        if (context.getAvatarStore().isContactAvatarCurrent(address, source)) {
+            return;
+        }
+        context.getMediaCacheHelper()
+                .enqueueDownload("contact-" + address.getLegacyIdentifier(),
+                        source,
+                        () -> context.getAvatarStore()
+                                .storeContactAvatar(address,
+                                        source,
+                                        outputStream -> context.getAttachmentHelper()
+                                                .retrieveAttachment(avatar, outputStream)));
+    }
+
+    interface ContactsChunkHandler {
+
+        void handle(List<DeviceContact> contacts) throws IOException;
     }
 }
@@ -36,6 +36,7 @@ import org.asamk.signal.manager.api.InvalidUsernameException;
 import org.asamk.signal.manager.api.LastGroupAdminException;
 import org.asamk.signal.manager.api.Message;
 import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.MetricsSnapshot;
 import org.asamk.signal.manager.api.NotAGroupMemberException;
 import org.asamk.signal.manager.api.NotPrimaryDeviceException;
 import org.asamk.signal.manager.api.Pair;
@@ -56,7 +57,6 @@ import org.asamk.signal.manager.api.UnregisteredRecipientException;
 import org.asamk.signal.manager.api.UpdateGroup;
 import org.asamk.signal.manager.api.UpdateProfile;
 import org.asamk.signal.manager.api.UserStatus;
-import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
 import org.asamk.signal.manager.helper.AccountFileUpdater;
 import org.asamk.signal.manager.helper.Context;
 import org.asamk.signal.manager.storage.AttachmentStore;
@@ -76,7 +76,6 @@ import org.signal.libsignal.protocol.InvalidMessageException;
 import org.signal.libsignal.usernames.BaseUsernameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.whispersystems.signalservice.api.SignalSessionLock;
 import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
 import org.whispersystems.signalservice.api.messages.SignalServicePreview;
 import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
@@ -95,6 +94,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
@@ -109,7 +109,6 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -127,6 +126,8 @@ public class ManagerImpl implements Manager {
     private final ExecutorService executor = Executors.newCachedThreadPool();
 
     private Thread receiveThread;
+    private ReceiveMultiplexer receiveMultiplexer;
+    private ReceiveMultiplexer.Registration receiveRegistration;
     private boolean isReceivingSynchronous;
     private final Set<ReceiveMessageHandler> weakHandlers = new HashSet<>();
     private final Set<ReceiveMessageHandler> messageHandlers = new HashSet<>();
@@ -138,22 +139,12 @@ public class ManagerImpl implements Manager {
             SignalAccount account,
             PathConfig pathConfig,
             AccountFileUpdater accountFileUpdater,
-            ServiceEnvironmentConfig serviceEnvironmentConfig,
-            String userAgent
+            SharedDependencies sharedDependencies
     ) {
         this.account = account;
 
-        final var sessionLock = new SignalSessionLock() {
-            private final ReentrantLock LEGACY_LOCK = new ReentrantLock();
-
-            @Override
-            public Lock acquire() {
-                LEGACY_LOCK.lock();
-                return LEGACY_LOCK::unlock;
-            }
-        };
-        this.dependencies = new SignalDependencies(serviceEnvironmentConfig,
-                userAgent,
+        final var sessionLock = new SessionLockManager(account.getMetrics());
+        this.dependencies = new SignalDependencies(sharedDependencies,
                 account.getCredentialsProvider(),
                 account.getSignalServiceDataStore(),
                 executor,
@@ -183,6 +174,15 @@ public class ManagerImpl implements Manager {
                 this.notifyAll();
             }
         });
+        account.getMetrics()
+                .gauge("signal_message_cache_messages",
+                        "Received messages cached for retrying decryption",
+                        () -> account.getMessageCache().countCachedMessages());
+        account.getMetrics().gauge("signal_receive_handlers", "Registered receive message handlers", () -> {
+            synchronized (messageHandlers) {
+                return messageHandlers.size() + weakHandlers.size();
+            }
+        });
         disposable.add(account.getIdentityKeyStore().getIdentityChanges().subscribe(serviceId -> {
             logger.trace("Archiving old sessions for {}", serviceId);
             account.getAccountData(ServiceIdType.ACI).getSessionStore().archiveSessions(serviceId);
@@ -516,10 +516,9 @@ public class ManagerImpl implements Manager {
         final var timestamp = System.currentTimeMillis();
         for (var recipient : recipients) {
             if (recipient instanceof RecipientIdentifier.Single single) {
-                final var message = new SignalServiceTypingMessage(action, timestamp, Optional.empty());
                 try {
                     final var recipientId = context.getRecipientHelper().resolveRecipient(single);
-                    final var result = context.getSendHelper().sendTypingMessage(message, recipientId);
+                    final var result = context.getOutboundCoalescer().sendTyping(recipientId, action);
                     results.put(recipient, List.of(toSendMessageResult(result)));
                 } catch (UnregisteredRecipientException e) {
                     results.put(recipient,
@@ -546,34 +545,25 @@ public class ManagerImpl implements Manager {
     public SendMessageResults sendReadReceipt(
             RecipientIdentifier.Single sender, List<Long> messageIds
     ) {
-        final var timestamp = System.currentTimeMillis();
-        var receiptMessage = new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.READ,
-                messageIds,
-                timestamp);
-
-        return sendReceiptMessage(sender, timestamp, receiptMessage);
+        return sendReceiptMessage(sender, SignalServiceReceiptMessage.Type.READ, messageIds);
     }
 
     @Override
     public SendMessageResults sendViewedReceipt(
             RecipientIdentifier.Single sender, List<Long> messageIds
     ) {
-        final var timestamp = System.currentTimeMillis();
-        var receiptMessage = new SignalServiceReceiptMessage(SignalServiceReceiptMessage.Type.VIEWED,
-                messageIds,
-                timestamp);
-
-        return sendReceiptMessage(sender, timestamp, receiptMessage);
+        return sendReceiptMessage(sender, SignalServiceReceiptMessage.Type.VIEWED, messageIds);
     }
 
     private SendMessageResults sendReceiptMessage(
             final RecipientIdentifier.Single sender,
-            final long timestamp,
-            final SignalServiceReceiptMessage receiptMessage
+            final SignalServiceReceiptMessage.Type type,
+            final List<Long> messageIds
     ) {
+        final var timestamp = System.currentTimeMillis();
         try {
-            final var result = context.getSendHelper()
-                    .sendReceiptMessage(receiptMessage, context.getRecipientHelper().resolveRecipient(sender));
+            final var result = context.getOutboundCoalescer()
+                    .sendReceipt(context.getRecipientHelper().resolveRecipient(sender), type, messageIds);
             return new SendMessageResults(timestamp, Map.of(sender, List.of(toSendMessageResult(result))));
         } catch (UnregisteredRecipientException e) {
             return new SendMessageResults(timestamp,
@@ -818,6 +808,7 @@ public class ManagerImpl implements Manager {
         }
         context.getContactHelper()
                 .setContactName(context.getRecipientHelper().resolveRecipient(recipient), givenName, familyName);
+        updateRemoteStorage();
     }
 
     @Override
@@ -850,6 +841,7 @@ public class ManagerImpl implements Manager {
             context.getProfileHelper().rotateProfileKey();
         }
         context.getSyncHelper().sendBlockedList();
+        updateRemoteStorage();
     }
 
     @Override
@@ -874,6 +866,7 @@ public class ManagerImpl implements Manager {
             context.getProfileHelper().rotateProfileKey();
         }
         context.getSyncHelper().sendBlockedList();
+        updateRemoteStorage();
     }
 
     @Override
@@ -954,8 +947,14 @@ public class ManagerImpl implements Manager {
         context.getStorageHelper().readDataFromStorage();
     }
 
+    private void updateRemoteStorage() {
+        context.getStorageWriter().requestWrite();
+    }
+
     @Override
     public void addReceiveHandler(final ReceiveMessageHandler handler, final boolean isWeakListener) {
+        // A receive handler means a long-running client, also when it doesn't receive continuously
+        context.getProfileRefresher().start();
         synchronized (messageHandlers) {
             if (isWeakListener) {
                 weakHandlers.add(handler);
@@ -966,10 +965,26 @@ public class ManagerImpl implements Manager {
         }
     }
 
+    /**
+     * Receive messages with the given multiplexer instead of a separate receive thread.
+     * Only applies when receiving is started the next time.
+     */
+    void setReceiveMultiplexer(final ReceiveMultiplexer receiveMultiplexer) {
+        synchronized (messageHandlers) {
+            this.receiveMultiplexer = receiveMultiplexer;
+        }
+    }
+
     private static final AtomicInteger threadNumber = new AtomicInteger(0);
 
     private void startReceiveThreadIfRequired() {
-        if (receiveThread != null || isReceivingSynchronous) {
+        if (receiveThread != null || receiveRegistration != null || isReceivingSynchronous) {
+            return;
+        }
+        if (receiveMultiplexer != null) {
+            logger.debug("Starting receiving messages with shared receive threads");
+            receiveRegistration = receiveMultiplexer.register(context.getReceiveHelper(),
+                    this::passReceivedMessageToHandlers);
             return;
         }
         receiveThread = new Thread(() -> {
@@ -1006,17 +1021,31 @@ public class ManagerImpl implements Manager {
     @Override
     public void removeReceiveHandler(final ReceiveMessageHandler handler) {
         final Thread thread;
+        final ReceiveMultiplexer.Registration registration;
         synchronized (messageHandlers) {
             weakHandlers.remove(handler);
             messageHandlers.remove(handler);
-            if (!messageHandlers.isEmpty() || receiveThread == null || isReceivingSynchronous) {
+            if (!messageHandlers.isEmpty()
+                    || (receiveThread == null && receiveRegistration == null)
+                    || isReceivingSynchronous) {
                 return;
             }
             thread = receiveThread;
             receiveThread = null;
+            registration = receiveRegistration;
+            receiveRegistration = null;
         }
 
-        stopReceiveThread(thread);
+        stopReceiving(thread, registration);
+    }
+
+    private void stopReceiving(final Thread thread, final ReceiveMultiplexer.Registration registration) {
+        if (registration != null) {
+            registration.close();
+        }
+        if (thread != null) {
+            stopReceiveThread(thread);
+        }
     }
 
     private void stopReceiveThread(final Thread thread) {
@@ -1254,18 +1283,37 @@ public class ManagerImpl implements Manager {
         return context.getAttachmentHelper().retrieveAttachment(id).getStream();
     }
 
+    @Override
+    public FileChannel openAttachment(final String id) throws IOException {
+        return context.getAttachmentHelper().openAttachment(id);
+    }
+
+    @Override
+    public String uploadAttachment(
+            final InputStream data, final long size, final String contentType, final Optional<String> filename
+    ) throws IOException, AttachmentInvalidException {
+        return context.getAttachmentHelper().uploadAttachment(data, size, contentType, filename);
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        return account.getMetrics().snapshot();
+    }
+
     @Override
     public void close() {
         Thread thread;
+        ReceiveMultiplexer.Registration registration;
         synchronized (messageHandlers) {
             weakHandlers.clear();
             messageHandlers.clear();
             thread = receiveThread;
             receiveThread = null;
+            registration = receiveRegistration;
+            receiveRegistration = null;
         }
-        if (thread != null) {
-            stopReceiveThread(thread);
-        }
+        stopReceiving(thread, registration);
+        context.close();
         executor.shutdown();
 
         dependencies.getSignalWebSocket().disconnect();
@@ -5,6 +5,8 @@ import org.asamk.signal.manager.MultiAccountManager;
 import org.asamk.signal.manager.ProvisioningManager;
 import org.asamk.signal.manager.RegistrationManager;
 import org.asamk.signal.manager.SignalAccountFiles;
+import org.asamk.signal.manager.api.AccountCheckException;
+import org.asamk.signal.manager.api.NotRegisteredException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,26 +16,43 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class MultiAccountManagerImpl implements MultiAccountManager {
 
     private final static Logger logger = LoggerFactory.getLogger(MultiAccountManagerImpl.class);
 
+    // Account initialization mostly waits for the server, but shouldn't send too many requests at once
+    private static final int MAX_CONCURRENT_ACCOUNT_INITIALIZATIONS = 4;
+    // Reading the websockets doesn't block, so a few threads can receive for many accounts
+    private static final int RECEIVE_EVENT_LOOP_THREADS = 2;
+
     private final Set<Consumer<Manager>> onManagerAddedHandlers = new HashSet<>();
     private final Set<Consumer<Manager>> onManagerRemovedHandlers = new HashSet<>();
     private final Set<Manager> managers = new HashSet<>();
+    private final Set<String> initializingAccounts = new LinkedHashSet<>();
     private final Map<URI, ProvisioningManager> provisioningManagers = new HashMap<>();
     private final SignalAccountFiles signalAccountFiles;
+    private final ReceiveMultiplexer receiveMultiplexer = new ReceiveMultiplexer(RECEIVE_EVENT_LOOP_THREADS,
+            Runtime.getRuntime().availableProcessors());
+
+    private boolean closed = false;
 
     public MultiAccountManagerImpl(final Collection<Manager> managers, final SignalAccountFiles signalAccountFiles) {
         this.signalAccountFiles = signalAccountFiles;
         this.managers.addAll(managers);
-        managers.forEach(m -> m.addClosedListener(() -> this.removeManager(m)));
+        managers.forEach(m -> {
+            useReceiveMultiplexer(m);
+            m.addClosedListener(() -> this.removeManager(m));
+        });
     }
 
     @Override
@@ -50,19 +69,99 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         }
     }
 
+    @Override
+    public List<String> getInitializingAccountNumbers() {
+        synchronized (managers) {
+            return new ArrayList<>(initializingAccounts);
+        }
+    }
+
+    /**
+     * Load and check the given accounts in the background, with bounded concurrency.
+     * Each account is added to this manager as soon as it's ready, until then it's reported as initializing.
+     * Accounts that can't be loaded are ignored.
+     *
+     * @return a future that completes when all accounts have been initialized
+     */
+    public CompletableFuture<Void> initializeAccounts(final Map<String, ManagerLoader> accounts) {
+        synchronized (managers) {
+            initializingAccounts.addAll(accounts.keySet());
+        }
+        if (accounts.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final var threadCount = new AtomicInteger();
+        final var executor = Executors.newFixedThreadPool(Math.min(accounts.size(),
+                MAX_CONCURRENT_ACCOUNT_INITIALIZATIONS), r -> {
+            final var thread = new Thread(r, "account-init-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var start = System.nanoTime();
+        final var futures = accounts.entrySet()
+                .stream()
+                .map(a -> CompletableFuture.runAsync(() -> initializeAccount(a.getKey(), a.getValue()), executor))
+                .toArray(CompletableFuture[]::new);
+        executor.shutdown();
+        return CompletableFuture.allOf(futures)
+                .whenComplete((r, e) -> logger.debug("Initialized {} accounts in {}ms",
+                        accounts.size(),
+                        (System.nanoTime() - start) / 1_000_000));
+    }
+
+    private void initializeAccount(final String number, final ManagerLoader loader) {
+        final var start = System.nanoTime();
+        final Manager m;
+        try {
+            m = loader.load();
+        } catch (NotRegisteredException | IOException | AccountCheckException e) {
+            logger.warn("Ignoring {}: {} ({})", number, e.getMessage(), e.getClass().getSimpleName());
+            removeInitializingAccount(number);
+            return;
+        } catch (Throwable e) {
+            logger.error("Failed to load {}: {} ({})", number, e.getMessage(), e.getClass().getSimpleName());
+            removeInitializingAccount(number);
+            throw e;
+        }
+        logger.info("Account {} initialized in {}ms", number, (System.nanoTime() - start) / 1_000_000);
+        addManager(number, m);
+    }
+
+    private void removeInitializingAccount(final String number) {
+        synchronized (managers) {
+            initializingAccounts.remove(number);
+        }
+    }
+
     void addManager(final Manager m) {
+        addManager(null, m);
+    }
+
+    private void addManager(final String initializedAccount, final Manager m) {
+        final List<Consumer<Manager>> handlers;
         synchronized (managers) {
+            if (initializedAccount != null) {
+                initializingAccounts.remove(initializedAccount);
+            }
+            if (closed) {
+                closeManager(m);
+                return;
+            }
             if (managers.contains(m)) {
                 return;
             }
             managers.add(m);
+            useReceiveMultiplexer(m);
             m.addClosedListener(() -> this.removeManager(m));
-        }
-        synchronized (onManagerAddedHandlers) {
-            for (final var handler : onManagerAddedHandlers) {
-                handler.accept(m);
+            // Copied while holding the managers lock, so handlers registered concurrently see the manager once
+            synchronized (onManagerAddedHandlers) {
+                handlers = new ArrayList<>(onManagerAddedHandlers);
             }
         }
+        for (final var handler : handlers) {
+            handler.accept(m);
+        }
     }
 
     @Override
@@ -72,6 +171,24 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         }
     }
 
+    @Override
+    public void addManagerHandler(final Consumer<Manager> handler) {
+        final List<Manager> currentManagers;
+        synchronized (managers) {
+            synchronized (onManagerAddedHandlers) {
+                onManagerAddedHandlers.add(handler);
+            }
+            currentManagers = new ArrayList<>(managers);
+        }
+        currentManagers.forEach(handler);
+    }
+
+    private void useReceiveMultiplexer(final Manager m) {
+        if (m instanceof ManagerImpl managerImpl) {
+            managerImpl.setReceiveMultiplexer(receiveMultiplexer);
+        }
+    }
+
     void removeManager(final Manager m) {
         synchronized (managers) {
             if (!managers.remove(m)) {
@@ -124,14 +241,25 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
     @Override
     public void close() {
         synchronized (managers) {
+            closed = true;
             for (var m : new ArrayList<>(managers)) {
-                try {
-                    m.close();
-                } catch (IOException e) {
-                    logger.warn("Cleanup failed", e);
-                }
+                closeManager(m);
             }
             managers.clear();
         }
+        receiveMultiplexer.close();
+    }
+
+    private static void closeManager(final Manager m) {
+        try {
+            m.close();
+        } catch (IOException e) {
+            logger.warn("Cleanup failed", e);
+        }
+    }
+
+    public interface ManagerLoader {
+
+        Manager load() throws IOException, NotRegisteredException, AccountCheckException;
     }
 }
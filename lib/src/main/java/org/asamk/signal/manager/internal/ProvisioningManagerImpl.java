@@ -31,7 +31,6 @@ import org.signal.libsignal.protocol.util.KeyHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.SignalServiceAccountManager;
-import org.whispersystems.signalservice.api.groupsv2.ClientZkOperations;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.push.exceptions.AuthorizationFailedException;
@@ -52,6 +51,7 @@ public class ProvisioningManagerImpl implements ProvisioningManager {
     private final static Logger logger = LoggerFactory.getLogger(ProvisioningManagerImpl.class);
 
     private final PathConfig pathConfig;
+    private final SharedDependencies sharedDependencies;
     private final ServiceEnvironmentConfig serviceEnvironmentConfig;
     private final String userAgent;
     private final Consumer<Manager> newManagerListener;
@@ -65,14 +65,14 @@ public class ProvisioningManagerImpl implements ProvisioningManager {
 
     public ProvisioningManagerImpl(
             PathConfig pathConfig,
-            ServiceEnvironmentConfig serviceEnvironmentConfig,
-            String userAgent,
+            SharedDependencies sharedDependencies,
             final Consumer<Manager> newManagerListener,
             final AccountsStore accountsStore
     ) {
         this.pathConfig = pathConfig;
-        this.serviceEnvironmentConfig = serviceEnvironmentConfig;
-        this.userAgent = userAgent;
+        this.sharedDependencies = sharedDependencies;
+        this.serviceEnvironmentConfig = sharedDependencies.getServiceEnvironmentConfig();
+        this.userAgent = sharedDependencies.getUserAgent();
         this.newManagerListener = newManagerListener;
         this.accountsStore = accountsStore;
 
@@ -82,8 +82,7 @@ public class ProvisioningManagerImpl implements ProvisioningManager {
         password = KeyUtils.createPassword();
         GroupsV2Operations groupsV2Operations;
         try {
-            groupsV2Operations = new GroupsV2Operations(ClientZkOperations.create(serviceEnvironmentConfig.signalServiceConfiguration()),
-                    ServiceConfig.GROUP_MAX_SIZE);
+            groupsV2Operations = sharedDependencies.getGroupsV2Operations();
         } catch (Throwable ignored) {
             groupsV2Operations = null;
         }
@@ -165,8 +164,7 @@ public class ProvisioningManagerImpl implements ProvisioningManager {
                 m = new ManagerImpl(account,
                         pathConfig,
                         new AccountFileUpdaterImpl(accountsStore, accountPath),
-                        serviceEnvironmentConfig,
-                        userAgent);
+                        sharedDependencies);
                 account = null;
 
                 logger.debug("Refreshing pre keys");
@@ -230,8 +228,7 @@ public class ProvisioningManagerImpl implements ProvisioningManager {
             final var m = new ManagerImpl(signalAccount,
                     pathConfig,
                     new AccountFileUpdaterImpl(accountsStore, accountPath),
-                    serviceEnvironmentConfig,
-                    userAgent);
+                    sharedDependencies);
             try (m) {
                 m.checkAccountState();
             } catch (AuthorizationFailedException ignored) {
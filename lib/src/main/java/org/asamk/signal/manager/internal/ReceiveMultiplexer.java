@@ -0,0 +1,398 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.helper.ReceiveHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Receives messages for multiple accounts with a fixed number of threads, so the thread count doesn't grow with the
+ * number of accounts.
+ * <p>
+ * Event loop threads poll the websockets of their accounts for envelopes that have already arrived, and sleep until a
+ * websocket notifies them that new envelopes are available. A shared worker pool then stores the envelopes in the
+ * message cache, acknowledges them and decrypts and handles them, so the event loops never wait for the disk or the
+ * database.
+ * Each account is handled by at most one worker at a time, so its envelopes are handled in the order they were
+ * received, and after each batch the account is queued behind the other accounts with pending envelopes.
+ * The number of pending batches per account is limited, further envelopes stay on the server until the account has
+ * caught up.
+ */
+final class ReceiveMultiplexer implements AutoCloseable {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReceiveMultiplexer.class);
+
+    private static final int RECEIVE_BATCH_SIZE = 16;
+    private static final int MAX_PENDING_BATCHES = 4;
+    // Event loops are woken up by the websockets, polling when idle is only a fallback for a missed notification
+    private static final long IDLE_POLL_INTERVAL = 1000;
+
+    private final EventLoop[] eventLoops;
+    private final ExecutorService workers;
+
+    ReceiveMultiplexer(final int eventLoopCount, final int workerCount) {
+        this.eventLoops = new EventLoop[eventLoopCount];
+        for (var i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new EventLoop("receive-loop-" + i);
+        }
+        final var threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            final var thread = new Thread(r, "receive-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start receiving messages of an account, until the returned registration is closed.
+     */
+    Registration register(final ReceiveHelper receiveHelper, final Manager.ReceiveMessageHandler handler) {
+        return register(new ReceiveHelperSource(receiveHelper), handler);
+    }
+
+    Registration register(final MessageSource source, final Manager.ReceiveMessageHandler handler) {
+        final var eventLoop = Arrays.stream(eventLoops).min(Comparator.comparingInt(EventLoop::size)).orElseThrow();
+        source.startReceiving(eventLoop::wakeUp);
+        final var receiver = new AccountReceiver(source, handler, eventLoop);
+        // Retry the messages left in the message cache right away, instead of waiting for the first new envelope
+        receiver.enqueue(new ReceiveHelper.PolledMessages(List.of(), false));
+        eventLoop.add(receiver);
+        return receiver;
+    }
+
+    @Override
+    public void close() {
+        for (final var eventLoop : eventLoops) {
+            eventLoop.close();
+        }
+        workers.shutdown();
+    }
+
+    interface Registration extends AutoCloseable {
+
+        /**
+         * Stop receiving messages and wait until the already received envelopes have been handled.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * The receive operations of one account, see {@link ReceiveHelper}.
+     */
+    interface MessageSource {
+
+        /**
+         * @param onMessagesAvailable called when new envelopes can be polled, must not block
+         */
+        void startReceiving(Runnable onMessagesAvailable);
+
+        void reconnect();
+
+        /**
+         * Must not block, returns null if no new envelopes have arrived.
+         */
+        ReceiveHelper.PolledMessages pollMessages(int maxMessages) throws IOException;
+
+        void handleMessages(ReceiveHelper.PolledMessages messages, Manager.ReceiveMessageHandler handler);
+
+        void stopReceiving();
+    }
+
+    private record ReceiveHelperSource(ReceiveHelper receiveHelper) implements MessageSource {
+
+        @Override
+        public void startReceiving(final Runnable onMessagesAvailable) {
+            receiveHelper.startReceiving(onMessagesAvailable);
+        }
+
+        @Override
+        public void reconnect() {
+            receiveHelper.reconnect();
+        }
+
+        @Override
+        public ReceiveHelper.PolledMessages pollMessages(final int maxMessages) throws IOException {
+            return receiveHelper.pollMessages(maxMessages);
+        }
+
+        @Override
+        public void handleMessages(
+                final ReceiveHelper.PolledMessages messages, final Manager.ReceiveMessageHandler handler
+        ) {
+            receiveHelper.handleMessages(messages, handler);
+        }
+
+        @Override
+        public void stopReceiving() {
+            receiveHelper.stopReceiving();
+        }
+    }
+
+    private static final class EventLoop {
+
+        private final String name;
+        private final List<AccountReceiver> receivers = new ArrayList<>();
+
+        private Thread thread;
+        private boolean closed = false;
+        private boolean wakeUpRequested = false;
+
+        private EventLoop(final String name) {
+            this.name = name;
+        }
+
+        synchronized int size() {
+            return receivers.size();
+        }
+
+        synchronized void add(final AccountReceiver receiver) {
+            receivers.add(receiver);
+            if (thread == null && !closed) {
+                thread = new Thread(this::run);
+                thread.setName(name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notifyAll();
+        }
+
+        synchronized void remove(final AccountReceiver receiver) {
+            receivers.remove(receiver);
+        }
+
+        synchronized void wakeUp() {
+            wakeUpRequested = true;
+            notifyAll();
+        }
+
+        void close() {
+            final Thread thread;
+            synchronized (this) {
+                closed = true;
+                receivers.clear();
+                thread = this.thread;
+                this.thread = null;
+            }
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private void run() {
+            while (true) {
+                final List<AccountReceiver> currentReceivers;
+                try {
+                    currentReceivers = waitForReceivers();
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                synchronized (this) {
+                    // Notifications that arrive while polling lead to another poll
+                    wakeUpRequested = false;
+                }
+                var received = false;
+                var nextReconnectTimestamp = Long.MAX_VALUE;
+                for (final var receiver : currentReceivers) {
+                    received |= receiver.poll();
+                    nextReconnectTimestamp = Math.min(nextReconnectTimestamp, receiver.getReconnectTimestamp());
+                }
+                if (!received) {
+                    try {
+                        waitForMessages(nextReconnectTimestamp);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            logger.debug("Receive event loop {} stopped", name);
+        }
+
+        private synchronized void waitForMessages(final long nextReconnectTimestamp) throws InterruptedException {
+            final var timeout = Math.min(IDLE_POLL_INTERVAL, nextReconnectTimestamp - System.currentTimeMillis());
+            if (!closed && !wakeUpRequested && timeout > 0) {
+                wait(timeout);
+            }
+        }
+
+        private synchronized List<AccountReceiver> waitForReceivers() throws InterruptedException {
+            while (receivers.isEmpty()) {
+                if (closed) {
+                    throw new InterruptedException();
+                }
+                wait();
+            }
+            if (closed) {
+                throw new InterruptedException();
+            }
+            return new ArrayList<>(receivers);
+        }
+    }
+
+    private final class AccountReceiver implements Registration {
+
+        private final MessageSource source;
+        private final Manager.ReceiveMessageHandler handler;
+        private final EventLoop eventLoop;
+        private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+        // Guarded by pending
+        private final Deque<ReceiveHelper.PolledMessages> pending = new ArrayDeque<>();
+        private boolean scheduled = false;
+        private boolean stopRequested = false;
+        private Thread workerThread;
+
+        // Only accessed by the event loop
+        private int backOffCounter = 0;
+        private long reconnectTimestamp = 0;
+
+        private AccountReceiver(
+                final MessageSource source,
+                final Manager.ReceiveMessageHandler handler,
+                final EventLoop eventLoop
+        ) {
+            this.source = source;
+            this.handler = handler;
+            this.eventLoop = eventLoop;
+        }
+
+        /**
+         * Called by the event loop, must not block.
+         *
+         * @return true if new envelopes were received
+         */
+        synchronized boolean poll() {
+            synchronized (pending) {
+                if (stopRequested || pending.size() >= MAX_PENDING_BATCHES) {
+                    return false;
+                }
+            }
+            if (reconnectTimestamp != 0) {
+                if (System.currentTimeMillis() < reconnectTimestamp) {
+                    return false;
+                }
+                reconnectTimestamp = 0;
+                source.reconnect();
+            }
+
+            final ReceiveHelper.PolledMessages messages;
+            try {
+                messages = source.pollMessages(RECEIVE_BATCH_SIZE);
+            } catch (IOException e) {
+                final var sleepMilliseconds = ReceiveHelper.getReconnectDelay(backOffCounter++);
+                logger.warn("Connection closed unexpectedly, reconnecting in {} ms: {}",
+                        sleepMilliseconds,
+                        e.getMessage());
+                reconnectTimestamp = System.currentTimeMillis() + sleepMilliseconds;
+                return false;
+            } catch (Exception e) {
+                logger.error("Unknown error when receiving messages", e);
+                return false;
+            }
+            if (messages == null) {
+                return false;
+            }
+            backOffCounter = 0;
+
+            enqueue(messages);
+            return true;
+        }
+
+        /**
+         * @return the time of the next reconnect attempt, or Long.MAX_VALUE if connected
+         */
+        long getReconnectTimestamp() {
+            return reconnectTimestamp == 0 ? Long.MAX_VALUE : reconnectTimestamp;
+        }
+
+        private void enqueue(final ReceiveHelper.PolledMessages messages) {
+            synchronized (pending) {
+                pending.add(messages);
+                if (!scheduled) {
+                    scheduled = true;
+                    workers.execute(this::handlePending);
+                }
+            }
+        }
+
+        private void handlePending() {
+            final ReceiveHelper.PolledMessages messages;
+            synchronized (pending) {
+                messages = pending.poll();
+                workerThread = Thread.currentThread();
+            }
+            if (messages != null) {
+                // There's room for another batch now
+                eventLoop.wakeUp();
+                try {
+                    source.handleMessages(messages, handler);
+                } catch (Throwable e) {
+                    logger.error("Unknown error when handling messages", e);
+                }
+            }
+
+            final boolean stopNow;
+            synchronized (pending) {
+                workerThread = null;
+                if (!pending.isEmpty()) {
+                    // Queue behind the other accounts, so one busy account can't occupy a worker
+                    workers.execute(this::handlePending);
+                    return;
+                }
+                scheduled = false;
+                stopNow = stopRequested;
+            }
+            if (stopNow) {
+                stop();
+            }
+        }
+
+        @Override
+        public void close() {
+            eventLoop.remove(this);
+            final boolean stopNow;
+            final boolean isWorkerThread;
+            // Wait until a running poll has finished
+            synchronized (this) {
+                synchronized (pending) {
+                    if (stopRequested) {
+                        stopNow = false;
+                    } else {
+                        stopRequested = true;
+                        stopNow = !scheduled;
+                    }
+                    isWorkerThread = workerThread == Thread.currentThread();
+                }
+            }
+            if (stopNow) {
+                stop();
+            } else if (!isWorkerThread) {
+                stopped.join();
+            }
+            // When called by a message handler, the worker stops receiving after the current batch
+        }
+
+        private void stop() {
+            try {
+                source.stopReceiving();
+            } catch (Throwable e) {
+                logger.warn("Failed to stop receiving messages: {}", e.getMessage());
+            } finally {
+                stopped.complete(null);
+            }
+        }
+    }
+}
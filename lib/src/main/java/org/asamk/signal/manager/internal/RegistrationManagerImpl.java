@@ -37,7 +37,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.SignalServiceAccountManager;
 import org.whispersystems.signalservice.api.account.PreKeyCollection;
-import org.whispersystems.signalservice.api.groupsv2.ClientZkOperations;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
 import org.whispersystems.signalservice.api.push.ServiceId.ACI;
 import org.whispersystems.signalservice.api.push.ServiceId.PNI;
@@ -57,6 +56,7 @@ public class RegistrationManagerImpl implements RegistrationManager {
 
     private SignalAccount account;
     private final PathConfig pathConfig;
+    private final SharedDependencies sharedDependencies;
     private final ServiceEnvironmentConfig serviceEnvironmentConfig;
     private final String userAgent;
     private final Consumer<Manager> newManagerListener;
@@ -68,22 +68,21 @@ public class RegistrationManagerImpl implements RegistrationManager {
     public RegistrationManagerImpl(
             SignalAccount account,
             PathConfig pathConfig,
-            ServiceEnvironmentConfig serviceEnvironmentConfig,
-            String userAgent,
+            SharedDependencies sharedDependencies,
             Consumer<Manager> newManagerListener,
             AccountFileUpdater accountFileUpdater
     ) {
         this.account = account;
         this.pathConfig = pathConfig;
         this.accountFileUpdater = accountFileUpdater;
-        this.serviceEnvironmentConfig = serviceEnvironmentConfig;
-        this.userAgent = userAgent;
+        this.sharedDependencies = sharedDependencies;
+        this.serviceEnvironmentConfig = sharedDependencies.getServiceEnvironmentConfig();
+        this.userAgent = sharedDependencies.getUserAgent();
         this.newManagerListener = newManagerListener;
 
         GroupsV2Operations groupsV2Operations;
         try {
-            groupsV2Operations = new GroupsV2Operations(ClientZkOperations.create(serviceEnvironmentConfig.signalServiceConfiguration()),
-                    ServiceConfig.GROUP_MAX_SIZE);
+            groupsV2Operations = sharedDependencies.getGroupsV2Operations();
         } catch (Throwable ignored) {
             groupsV2Operations = null;
         }
@@ -171,7 +170,7 @@ public class RegistrationManagerImpl implements RegistrationManager {
 
         ManagerImpl m = null;
         try {
-            m = new ManagerImpl(account, pathConfig, accountFileUpdater, serviceEnvironmentConfig, userAgent);
+            m = new ManagerImpl(account, pathConfig, accountFileUpdater, sharedDependencies);
             account = null;
 
             m.refreshPreKeys();
@@ -228,8 +227,7 @@ public class RegistrationManagerImpl implements RegistrationManager {
                 final var m = new ManagerImpl(account,
                         pathConfig,
                         accountFileUpdater,
-                        serviceEnvironmentConfig,
-                        userAgent);
+                        sharedDependencies);
                 account = null;
                 newManagerListener.accept(m);
             }
@@ -0,0 +1,164 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.metrics.Histogram;
+import org.asamk.signal.manager.metrics.Metrics;
+import org.whispersystems.signalservice.api.SignalSessionLock;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Session lock with a lock per address, so messages for unrelated conversations can be encrypted concurrently.
+ * <p>
+ * The library acquires the session lock without telling which address it's going to use. So operations that only
+ * touch the sessions of known addresses first lock these addresses with {@link #acquire(Collection)}, the session
+ * lock acquired by the library on the same thread is then limited to these addresses.
+ * This is used both for sending and for handling received messages.
+ * Without such a scope {@link #acquire()} locks the sessions of all addresses. The sender of a sealed sender message
+ * is only known after decrypting it, so it's decrypted with {@link #acquireAll()} and the lock is then limited to
+ * the sender with {@link ExclusiveLock#limitTo(Collection)}.
+ * <p>
+ * Addresses are mapped to a fixed number of lock stripes, that are always locked in ascending order, so locking
+ * multiple addresses for a group message can't deadlock.
+ */
+public class SessionLockManager implements SignalSessionLock {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final ReentrantReadWriteLock accountLock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] addressLocks = new ReentrantLock[LOCK_STRIPES];
+    private final ThreadLocal<int[]> lockedStripes = new ThreadLocal<>();
+    private final Histogram lockWaitTime;
+    private final Histogram exclusiveLockWaitTime;
+
+    public SessionLockManager(final Metrics metrics) {
+        for (var i = 0; i < addressLocks.length; i++) {
+            addressLocks[i] = new ReentrantLock();
+        }
+        this.lockWaitTime = metrics.histogram("signal_session_lock_wait_seconds",
+                "Time waiting for the session locks of the addresses of a message");
+        this.exclusiveLockWaitTime = metrics.histogram("signal_session_lock_exclusive_wait_seconds",
+                "Time waiting for the session lock of all addresses");
+    }
+
+    /**
+     * Lock the sessions of all addresses, or only of the addresses locked by the current thread with
+     * {@link #acquire(Collection)}.
+     */
+    @Override
+    public Lock acquire() {
+        final var stripes = lockedStripes.get();
+        if (stripes != null) {
+            return lockStripes(stripes);
+        }
+
+        return lockAll();
+    }
+
+    /**
+     * Lock the sessions of all addresses, until the lock is limited to some addresses once they are known.
+     */
+    public ExclusiveLock acquireAll() {
+        if (lockedStripes.get() != null) {
+            throw new IllegalStateException("Can't lock all addresses while holding address locks");
+        }
+        return new ExclusiveLock(lockAll());
+    }
+
+    /**
+     * Lock the sessions of the given addresses.
+     * Until the returned lock is released, session locks acquired by the current thread are limited to these
+     * addresses. If the current thread already holds address locks, the addresses must be a subset of them.
+     */
+    public Lock acquire(final Collection<ServiceId> addresses) {
+        if (accountLock.isWriteLockedByCurrentThread()) {
+            // Already holds the sessions of all addresses
+            final var writeLock = accountLock.writeLock();
+            writeLock.lock();
+            return writeLock::unlock;
+        }
+
+        final var stripes = getStripes(addresses);
+        final var previousStripes = lockedStripes.get();
+        if (previousStripes != null && !Arrays.stream(stripes)
+                .allMatch(s -> Arrays.binarySearch(previousStripes, s) >= 0)) {
+            throw new IllegalStateException("Can't lock additional addresses while holding address locks");
+        }
+
+        final var lock = lockStripes(stripes);
+        lockedStripes.set(stripes);
+        return () -> {
+            lockedStripes.set(previousStripes);
+            lock.unlock();
+        };
+    }
+
+    private static int[] getStripes(final Collection<ServiceId> addresses) {
+        return addresses.stream()
+                .mapToInt(address -> Math.floorMod(address.toString().hashCode(), LOCK_STRIPES))
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    private Lock lockAll() {
+        final var writeLock = accountLock.writeLock();
+        final var waitStart = exclusiveLockWaitTime.startTimer();
+        writeLock.lock();
+        exclusiveLockWaitTime.observeSince(waitStart);
+        return writeLock::unlock;
+    }
+
+    private Lock lockStripes(final int[] stripes) {
+        final var readLock = accountLock.readLock();
+        final var waitStart = lockWaitTime.startTimer();
+        readLock.lock();
+        for (final var stripe : stripes) {
+            addressLocks[stripe].lock();
+        }
+        lockWaitTime.observeSince(waitStart);
+        return () -> {
+            for (var i = stripes.length - 1; i >= 0; i--) {
+                addressLocks[stripes[i]].unlock();
+            }
+            readLock.unlock();
+        };
+    }
+
+    /**
+     * Lock of the sessions of all addresses, that can be limited to some addresses while it's held.
+     */
+    public final class ExclusiveLock implements Lock {
+
+        private Lock lock;
+
+        private ExclusiveLock(final Lock lock) {
+            this.lock = lock;
+        }
+
+        /**
+         * Keep only the sessions of the given addresses locked, as if they were locked with
+         * {@link #acquire(Collection)}. Locking them can't block, as other threads only hold address locks together
+         * with the read lock.
+         */
+        public void limitTo(final Collection<ServiceId> addresses) {
+            final var stripes = getStripes(addresses);
+            final var stripesLock = lockStripes(stripes);
+            lockedStripes.set(stripes);
+            final var exclusiveLock = lock;
+            lock = () -> {
+                lockedStripes.remove();
+                stripesLock.unlock();
+            };
+            exclusiveLock.unlock();
+        }
+
+        @Override
+        public void unlock() {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.config.ServiceConfig;
+import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
+import org.signal.libsignal.metadata.certificate.CertificateValidator;
+import org.whispersystems.signalservice.api.groupsv2.ClientZkOperations;
+import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
+
+import java.util.function.Supplier;
+
+/**
+ * Dependencies that don't depend on the credentials of an account, so they are created once and shared by all
+ * accounts of the same service environment.
+ * Parsing the zk server parameters is expensive and the resulting objects are immutable.
+ */
+public class SharedDependencies {
+
+    private final Object LOCK = new Object();
+
+    private final ServiceEnvironmentConfig serviceEnvironmentConfig;
+    private final String userAgent;
+
+    // Volatile, as the dependencies are read without holding the lock by the threads of all accounts
+    private volatile ClientZkOperations clientZkOperations;
+    private volatile GroupsV2Operations groupsV2Operations;
+    private volatile CertificateValidator certificateValidator;
+
+    public SharedDependencies(final ServiceEnvironmentConfig serviceEnvironmentConfig, final String userAgent) {
+        this.serviceEnvironmentConfig = serviceEnvironmentConfig;
+        this.userAgent = userAgent;
+    }
+
+    public ServiceEnvironmentConfig getServiceEnvironmentConfig() {
+        return serviceEnvironmentConfig;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public ClientZkOperations getClientZkOperations() {
+        return getOrCreate(() -> clientZkOperations,
+                () -> clientZkOperations = ClientZkOperations.create(serviceEnvironmentConfig.signalServiceConfiguration()));
+    }
+
+    public GroupsV2Operations getGroupsV2Operations() {
+        return getOrCreate(() -> groupsV2Operations,
+                () -> groupsV2Operations = new GroupsV2Operations(getClientZkOperations(),
+                        ServiceConfig.GROUP_MAX_SIZE));
+    }
+
+    public CertificateValidator getCertificateValidator() {
+        return getOrCreate(() -> certificateValidator,
+                () -> certificateValidator = new CertificateValidator(serviceEnvironmentConfig.unidentifiedSenderTrustRoot()));
+    }
+
+    private <T> T getOrCreate(Supplier<T> supplier, Callable creator) {
+        var value = supplier.get();
+        if (value != null) {
+            return value;
+        }
+
+        synchronized (LOCK) {
+            value = supplier.get();
+            if (value != null) {
+                return value;
+            }
+            creator.call();
+            return supplier.get();
+        }
+    }
+
+    private interface Callable {
+
+        void call();
+    }
+}
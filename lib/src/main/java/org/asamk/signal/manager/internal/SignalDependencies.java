@@ -2,17 +2,14 @@ package org.asamk.signal.manager.internal;
 
 import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
-import org.signal.libsignal.metadata.certificate.CertificateValidator;
 import org.signal.libsignal.zkgroup.profiles.ClientZkProfileOperations;
 import org.whispersystems.signalservice.api.KeyBackupService;
 import org.whispersystems.signalservice.api.SignalServiceAccountManager;
 import org.whispersystems.signalservice.api.SignalServiceDataStore;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
-import org.whispersystems.signalservice.api.SignalSessionLock;
 import org.whispersystems.signalservice.api.SignalWebSocket;
 import org.whispersystems.signalservice.api.crypto.SignalServiceCipher;
-import org.whispersystems.signalservice.api.groupsv2.ClientZkOperations;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Api;
 import org.whispersystems.signalservice.api.groupsv2.GroupsV2Operations;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
@@ -28,23 +25,26 @@ import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Supplier;
 
+import okhttp3.WebSocket;
+import okio.ByteString;
+
 public class SignalDependencies {
 
     private final Object LOCK = new Object();
 
+    private final SharedDependencies sharedDependencies;
     private final ServiceEnvironmentConfig serviceEnvironmentConfig;
     private final String userAgent;
     private final CredentialsProvider credentialsProvider;
     private final SignalServiceDataStore dataStore;
     private final ExecutorService executor;
-    private final SignalSessionLock sessionLock;
+    private final SessionLockManager sessionLock;
 
     private boolean allowStories = true;
+    private volatile Runnable messagesAvailableListener;
 
     private SignalServiceAccountManager accountManager;
     private GroupsV2Api groupsV2Api;
-    private GroupsV2Operations groupsV2Operations;
-    private ClientZkOperations clientZkOperations;
 
     private SignalWebSocket signalWebSocket;
     private SignalServiceMessageReceiver messageReceiver;
@@ -56,15 +56,15 @@ public class SignalDependencies {
     private SignalServiceCipher cipher;
 
     SignalDependencies(
-            final ServiceEnvironmentConfig serviceEnvironmentConfig,
-            final String userAgent,
+            final SharedDependencies sharedDependencies,
             final CredentialsProvider credentialsProvider,
             final SignalServiceDataStore dataStore,
             final ExecutorService executor,
-            final SignalSessionLock sessionLock
+            final SessionLockManager sessionLock
     ) {
-        this.serviceEnvironmentConfig = serviceEnvironmentConfig;
-        this.userAgent = userAgent;
+        this.sharedDependencies = sharedDependencies;
+        this.serviceEnvironmentConfig = sharedDependencies.getServiceEnvironmentConfig();
+        this.userAgent = sharedDependencies.getUserAgent();
         this.credentialsProvider = credentialsProvider;
         this.dataStore = dataStore;
         this.executor = executor;
@@ -88,7 +88,7 @@ public class SignalDependencies {
         return serviceEnvironmentConfig;
     }
 
-    public SignalSessionLock getSessionLock() {
+    public SessionLockManager getSessionLock() {
         return sessionLock;
     }
 
@@ -118,21 +118,21 @@ public class SignalDependencies {
     }
 
     public GroupsV2Operations getGroupsV2Operations() {
-        return getOrCreate(() -> groupsV2Operations,
-                () -> groupsV2Operations = new GroupsV2Operations(ClientZkOperations.create(serviceEnvironmentConfig.signalServiceConfiguration()),
-                        ServiceConfig.GROUP_MAX_SIZE));
-    }
-
-    private ClientZkOperations getClientZkOperations() {
-        return getOrCreate(() -> clientZkOperations,
-                () -> clientZkOperations = ClientZkOperations.create(serviceEnvironmentConfig.signalServiceConfiguration()));
+        return sharedDependencies.getGroupsV2Operations();
     }
 
     private ClientZkProfileOperations getClientZkProfileOperations() {
-        final var clientZkOperations = getClientZkOperations();
+        final var clientZkOperations = sharedDependencies.getClientZkOperations();
         return clientZkOperations == null ? null : clientZkOperations.getProfileOperations();
     }
 
+    /**
+     * Set a listener that's called when the websocket has received a message, so it doesn't need to be polled.
+     */
+    public void setMessagesAvailableListener(final Runnable listener) {
+        this.messagesAvailableListener = listener;
+    }
+
     public SignalWebSocket getSignalWebSocket() {
         return getOrCreate(() -> signalWebSocket, () -> {
             final var timer = new UptimeSleepTimer();
@@ -145,7 +145,16 @@ public class SignalDependencies {
                             Optional.of(credentialsProvider),
                             userAgent,
                             healthMonitor,
-                            allowStories);
+                            allowStories) {
+                        @Override
+                        public void onMessage(final WebSocket webSocket, final ByteString payload) {
+                            super.onMessage(webSocket, payload);
+                            final var listener = messagesAvailableListener;
+                            if (listener != null) {
+                                listener.run();
+                            }
+                        }
+                    };
                 }
 
                 @Override
@@ -221,7 +230,7 @@ public class SignalDependencies {
 
     public SignalServiceCipher getCipher() {
         return getOrCreate(() -> cipher, () -> {
-            final var certificateValidator = new CertificateValidator(serviceEnvironmentConfig.unidentifiedSenderTrustRoot());
+            final var certificateValidator = sharedDependencies.getCertificateValidator();
             final var address = new SignalServiceAddress(credentialsProvider.getAci(), credentialsProvider.getE164());
             final var deviceId = credentialsProvider.getDeviceId();
             cipher = new SignalServiceCipher(address, deviceId, dataStore.aci(), sessionLock, certificateValidator);
@@ -23,6 +23,15 @@ public class RetrieveStickerPackJob implements Job {
 
     @Override
     public void run(Context context) {
+        if (context.getStickerPackStore().existsStickerPack(packId)) {
+            return;
+        }
+        context.getMediaCacheHelper()
+                .enqueueDownload("sticker-" + Hex.toStringCondensed(packId.serialize()),
+                        () -> retrieveStickerPack(context));
+    }
+
+    private void retrieveStickerPack(final Context context) {
         try {
             context.getStickerHelper().retrieveStickerPack(packId, packKey);
         } catch (IOException e) {
@@ -0,0 +1,29 @@
+package org.asamk.signal.manager.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter {
+
+    private final boolean enabled;
+    private final LongAdder value = new LongAdder();
+
+    Counter(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void increment() {
+        if (enabled) {
+            value.increment();
+        }
+    }
+
+    public void add(final long amount) {
+        if (enabled) {
+            value.add(amount);
+        }
+    }
+
+    long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,73 @@
+package org.asamk.signal.manager.metrics;
+
+import org.asamk.signal.manager.api.MetricsSnapshot;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in seconds with fixed buckets.
+ * Use {@link #startTimer()} and {@link #observeSince(long)} to time a section of code, both are no-ops when metrics
+ * are disabled.
+ */
+public final class Histogram {
+
+    private final static double[] BUCKETS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    public static final Histogram DISABLED = new Histogram(false);
+
+    private final boolean enabled;
+    private final LongAdder[] bucketCounts;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(final boolean enabled) {
+        this.enabled = enabled;
+        this.bucketCounts = new LongAdder[enabled ? BUCKETS.length : 0];
+        for (var i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the start time to pass to {@link #observeSince(long)}
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void observeSince(final long startTimer) {
+        if (enabled) {
+            observe((System.nanoTime() - startTimer) / 1e9);
+        }
+    }
+
+    public void observe(final double seconds) {
+        if (!enabled) {
+            return;
+        }
+        count.increment();
+        sum.add(seconds);
+        for (var i = 0; i < BUCKETS.length; i++) {
+            if (seconds <= BUCKETS[i]) {
+                bucketCounts[i].increment();
+                break;
+            }
+        }
+    }
+
+    MetricsSnapshot.Histogram snapshot(final String name, final String help) {
+        final var buckets = new ArrayList<MetricsSnapshot.Histogram.Bucket>(bucketCounts.length + 1);
+        var cumulative = 0L;
+        for (var i = 0; i < bucketCounts.length; i++) {
+            cumulative += bucketCounts[i].sum();
+            buckets.add(new MetricsSnapshot.Histogram.Bucket(BUCKETS[i], cumulative));
+        }
+        final var total = count.sum();
+        buckets.add(new MetricsSnapshot.Histogram.Bucket(Double.POSITIVE_INFINITY, total));
+        return new MetricsSnapshot.Histogram(name, help, buckets, total, sum.sum());
+    }
+}
@@ -0,0 +1,79 @@
+package org.asamk.signal.manager.metrics;
+
+import org.asamk.signal.manager.api.MetricsSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry for the runtime metrics of an account.
+ * Instruments are created once by the instrumented classes and can be updated without locking.
+ * When metrics are disabled, the instruments don't record anything and gauges are never evaluated.
+ */
+public class Metrics {
+
+    private final static Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    public static final Metrics DISABLED = new Metrics(false);
+
+    private final boolean enabled;
+    private final Map<String, Entry<Counter>> counters = new LinkedHashMap<>();
+    private final Map<String, Entry<Histogram>> histograms = new LinkedHashMap<>();
+    private final Map<String, Entry<DoubleSupplier>> gauges = new LinkedHashMap<>();
+
+    public Metrics(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized Counter counter(final String name, final String help) {
+        return counters.computeIfAbsent(name, n -> new Entry<>(help, new Counter(enabled))).instrument();
+    }
+
+    public synchronized Histogram histogram(final String name, final String help) {
+        return histograms.computeIfAbsent(name, n -> new Entry<>(help, new Histogram(enabled))).instrument();
+    }
+
+    /**
+     * Register a gauge, the supplier is only called when a snapshot is taken.
+     * A gauge with the same name replaces the previous one.
+     */
+    public synchronized void gauge(final String name, final String help, final DoubleSupplier supplier) {
+        if (enabled) {
+            gauges.put(name, new Entry<>(help, supplier));
+        }
+    }
+
+    public synchronized MetricsSnapshot snapshot() {
+        if (!enabled) {
+            return MetricsSnapshot.EMPTY;
+        }
+        final var counterSnapshots = new ArrayList<MetricsSnapshot.Counter>(counters.size());
+        counters.forEach((name, entry) -> counterSnapshots.add(new MetricsSnapshot.Counter(name,
+                entry.help(),
+                entry.instrument().get())));
+
+        final var gaugeSnapshots = new ArrayList<MetricsSnapshot.Gauge>(gauges.size());
+        gauges.forEach((name, entry) -> {
+            try {
+                gaugeSnapshots.add(new MetricsSnapshot.Gauge(name, entry.help(), entry.instrument().getAsDouble()));
+            } catch (Exception e) {
+                logger.debug("Failed to read gauge {}: {}", name, e.getMessage());
+            }
+        });
+
+        final var histogramSnapshots = new ArrayList<MetricsSnapshot.Histogram>(histograms.size());
+        histograms.forEach((name, entry) -> histogramSnapshots.add(entry.instrument().snapshot(name, entry.help())));
+
+        return new MetricsSnapshot(counterSnapshots, gaugeSnapshots, histogramSnapshots);
+    }
+
+    private record Entry<T>(String help, T instrument) {}
+}
@@ -5,6 +5,7 @@ import com.zaxxer.hikari.HikariDataSource;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.storage.groups.GroupStore;
 import org.asamk.signal.manager.storage.identities.IdentityKeyStore;
+import org.asamk.signal.manager.storage.keyValue.KeyValueStore;
 import org.asamk.signal.manager.storage.prekeys.KyberPreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.PreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.SignedPreKeyStore;
@@ -14,6 +15,7 @@ import org.asamk.signal.manager.storage.senderKeys.SenderKeyRecordStore;
 import org.asamk.signal.manager.storage.senderKeys.SenderKeySharedStore;
 import org.asamk.signal.manager.storage.sessions.SessionStore;
 import org.asamk.signal.manager.storage.stickers.StickerStore;
+import org.asamk.signal.manager.storage.storageRecords.StorageRecordStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.push.ServiceId;
@@ -30,7 +32,7 @@ import java.util.UUID;
 public class AccountDatabase extends Database {
 
     private final static Logger logger = LoggerFactory.getLogger(AccountDatabase.class);
-    private static final long DATABASE_VERSION = 17;
+    private static final long DATABASE_VERSION = 18;
 
     private AccountDatabase(final HikariDataSource dataSource) {
         super(logger, DATABASE_VERSION, dataSource);
@@ -53,6 +55,8 @@ public class AccountDatabase extends Database {
         IdentityKeyStore.createSql(connection);
         SenderKeyRecordStore.createSql(connection);
         SenderKeySharedStore.createSql(connection);
+        KeyValueStore.createSql(connection);
+        StorageRecordStore.createSql(connection);
     }
 
     @Override
@@ -515,5 +519,25 @@ public class AccountDatabase extends Database {
                                         """);
             }
         }
+        if (oldVersion < 18) {
+            logger.debug("Updating database: Creating storage record table");
+            try (final var statement = connection.createStatement()) {
+                statement.executeUpdate("""
+                                        CREATE TABLE storage_record (
+                                          _id INTEGER PRIMARY KEY,
+                                          storage_id BLOB UNIQUE NOT NULL,
+                                          type INTEGER NOT NULL,
+                                          recipient_id INTEGER UNIQUE REFERENCES recipient (_id) ON DELETE CASCADE,
+                                          group_id BLOB UNIQUE,
+                                          record BLOB,
+                                          dirty INTEGER NOT NULL DEFAULT FALSE
+                                        ) STRICT;
+                                        """);
+                // The storage records are mapped when they are read, so read the whole manifest again
+                statement.executeUpdate("""
+                                        DELETE FROM key_value WHERE key = 'storage-manifest-version';
+                                        """);
+            }
+        }
     }
 }
@@ -3,18 +3,33 @@ package org.asamk.signal.manager.storage;
 import org.asamk.signal.manager.util.IOUtils;
 import org.asamk.signal.manager.util.MimeUtils;
 import org.asamk.signal.manager.util.Utils;
+import org.signal.libsignal.protocol.InvalidMessageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPointer;
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentRemoteId;
 import org.whispersystems.signalservice.api.util.StreamDetails;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Optional;
 
 public class AttachmentStore {
 
+    private final static Logger logger = LoggerFactory.getLogger(AttachmentStore.class);
+
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
     private final File attachmentsPath;
 
     public AttachmentStore(final File attachmentsPath) {
@@ -29,10 +44,51 @@ public class AttachmentStore {
                 Optional.ofNullable(pointer.getContentType())), storer);
     }
 
+    /**
+     * Store a downloaded attachment, the attachment file only appears once it has been downloaded and decrypted
+     * completely.
+     * The encrypted data is downloaded to a partial file next to the attachment and kept if the download fails, so
+     * the next attempt only needs to download the rest.
+     */
     public void storeAttachment(
-            final SignalServiceAttachmentPointer pointer, final AttachmentStorer storer
+            final SignalServiceAttachmentPointer pointer, final AttachmentDownloader downloader
     ) throws IOException {
-        storeAttachment(getAttachmentFile(pointer), storer);
+        storeAttachment(getAttachmentFile(pointer), downloader);
+    }
+
+    void storeAttachment(final File attachmentFile, final AttachmentDownloader downloader) throws IOException {
+        createAttachmentsDir();
+        final var downloadFile = new File(attachmentsPath, attachmentFile.getName() + ".part");
+
+        final var resumeOffset = downloadFile.length();
+        if (resumeOffset > 0) {
+            logger.debug("Resuming download of attachment {} after {} bytes", attachmentFile.getName(), resumeOffset);
+        }
+        final InputStream input;
+        try {
+            input = downloader.download(downloadFile);
+        } catch (InvalidMessageException e) {
+            // The downloaded data doesn't match the digest, so it can't be resumed
+            Files.deleteIfExists(downloadFile.toPath());
+            throw new IOException(e);
+        } catch (IOException e) {
+            if (resumeOffset > 0 && downloadFile.length() <= resumeOffset) {
+                // Resuming didn't make any progress, e.g. because the download was already complete
+                Files.deleteIfExists(downloadFile.toPath());
+            }
+            throw e;
+        }
+        try (input) {
+            writeAttachmentFile(attachmentFile, output -> {
+                final var source = Channels.newChannel(input);
+                var position = 0L;
+                long count;
+                while ((count = output.transferFrom(source, position, TRANSFER_SIZE)) > 0) {
+                    position += count;
+                }
+            });
+        }
+        Files.deleteIfExists(downloadFile.toPath());
     }
 
     public File getAttachmentFile(final SignalServiceAttachmentPointer pointer) {
@@ -42,14 +98,46 @@ public class AttachmentStore {
     }
 
     public StreamDetails retrieveAttachment(final String id) throws IOException {
+        return Utils.createStreamDetailsFromFile(getAttachmentFile(id));
+    }
+
+    public FileChannel openAttachment(final String id) throws IOException {
+        return new FileInputStream(getAttachmentFile(id)).getChannel();
+    }
+
+    private File getAttachmentFile(final String id) throws FileNotFoundException {
         final var attachmentFile = new File(attachmentsPath, id);
-        return Utils.createStreamDetailsFromFile(attachmentFile);
+        // The id is provided by clients, it must not refer to a file outside the attachments directory
+        if (!attachmentsPath.equals(attachmentFile.getParentFile()) || id.equals(".") || id.equals("..")) {
+            throw new FileNotFoundException("Invalid attachment id: " + id);
+        }
+        return attachmentFile;
     }
 
     private void storeAttachment(final File attachmentFile, final AttachmentStorer storer) throws IOException {
         createAttachmentsDir();
-        try (OutputStream output = new FileOutputStream(attachmentFile)) {
-            storer.store(output);
+        writeAttachmentFile(attachmentFile, output -> storer.store(Channels.newOutputStream(output)));
+    }
+
+    /**
+     * Write the attachment to a temporary file first, so it's never read partially written.
+     */
+    private void writeAttachmentFile(final File attachmentFile, final ChannelStorer storer) throws IOException {
+        final var tmpFile = new File(attachmentsPath, attachmentFile.getName() + ".tmp").toPath();
+        try {
+            try (final var output = FileChannel.open(tmpFile,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                storer.store(output);
+            }
+            try {
+                Files.move(tmpFile, attachmentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, attachmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile);
         }
     }
 
@@ -86,4 +174,22 @@ public class AttachmentStore {
 
         void store(OutputStream outputStream) throws IOException;
     }
+
+    @FunctionalInterface
+    public interface AttachmentDownloader {
+
+        /**
+         * Download the encrypted attachment to the given file, continuing after the data that's already in the file.
+         *
+         * @return the decrypted and verified attachment data
+         * @throws InvalidMessageException if the downloaded data doesn't match the attachment digest
+         */
+        InputStream download(File destination) throws IOException, InvalidMessageException;
+    }
+
+    @FunctionalInterface
+    private interface ChannelStorer {
+
+        void store(FileChannel output) throws IOException;
+    }
 }
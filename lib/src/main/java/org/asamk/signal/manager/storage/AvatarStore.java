@@ -11,9 +11,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
 
 public class AvatarStore {
 
+    private final static String SOURCE_SUFFIX = ".source";
+
     private final File avatarsPath;
 
     public AvatarStore(final File avatarsPath) {
@@ -34,15 +39,42 @@ public class AvatarStore {
     }
 
     public void storeContactAvatar(RecipientAddress address, AvatarStorer storer) throws IOException {
-        storeAvatar(getContactAvatarFile(address), storer);
+        storeContactAvatar(address, null, storer);
+    }
+
+    public void storeContactAvatar(RecipientAddress address, String source, AvatarStorer storer) throws IOException {
+        storeAvatar(getContactAvatarFile(address), source, storer);
     }
 
     public void storeProfileAvatar(RecipientAddress address, AvatarStorer storer) throws IOException {
-        storeAvatar(getProfileAvatarFile(address), storer);
+        storeProfileAvatar(address, null, storer);
+    }
+
+    public void storeProfileAvatar(RecipientAddress address, String source, AvatarStorer storer) throws IOException {
+        storeAvatar(getProfileAvatarFile(address), source, storer);
     }
 
     public void storeGroupAvatar(GroupId groupId, AvatarStorer storer) throws IOException {
-        storeAvatar(getGroupAvatarFile(groupId), storer);
+        storeGroupAvatar(groupId, null, storer);
+    }
+
+    public void storeGroupAvatar(GroupId groupId, String source, AvatarStorer storer) throws IOException {
+        storeAvatar(getGroupAvatarFile(groupId), source, storer);
+    }
+
+    /**
+     * @return true if the stored contact avatar was downloaded from the given source (CDN path or attachment id)
+     */
+    public boolean isContactAvatarCurrent(RecipientAddress address, String source) {
+        return isAvatarCurrent(getContactAvatarFile(address), source);
+    }
+
+    public boolean isProfileAvatarCurrent(RecipientAddress address, String source) {
+        return isAvatarCurrent(getProfileAvatarFile(address), source);
+    }
+
+    public boolean isGroupAvatarCurrent(GroupId groupId, String source) {
+        return isAvatarCurrent(getGroupAvatarFile(groupId), source);
     }
 
     public void deleteProfileAvatar(RecipientAddress address) throws IOException {
@@ -53,17 +85,69 @@ public class AvatarStore {
         deleteAvatar(getGroupAvatarFile(groupId));
     }
 
+    /**
+     * Delete the least recently used avatars until the total size of all avatars is below the given limit.
+     */
+    public void evictAvatars(long maxTotalSize) throws IOException {
+        final var files = avatarsPath.listFiles(f -> f.isFile()
+                && !f.getName().endsWith(SOURCE_SUFFIX)
+                && !f.getName().endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        var totalSize = Arrays.stream(files).mapToLong(File::length).sum();
+        if (totalSize <= maxTotalSize) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (final var file : files) {
+            if (totalSize <= maxTotalSize) {
+                break;
+            }
+            totalSize -= file.length();
+            deleteAvatar(file);
+        }
+    }
+
     private StreamDetails retrieveAvatar(final File avatarFile) throws IOException {
         if (!avatarFile.exists()) {
             return null;
         }
+        // Mark as recently used for eviction
+        avatarFile.setLastModified(System.currentTimeMillis());
         return Utils.createStreamDetailsFromFile(avatarFile);
     }
 
-    private void storeAvatar(final File avatarFile, final AvatarStorer storer) throws IOException {
+    private void storeAvatar(final File avatarFile, final String source, final AvatarStorer storer) throws IOException {
         createAvatarsDir();
-        try (OutputStream output = new FileOutputStream(avatarFile)) {
-            storer.store(output);
+        final var tmpFile = new File(avatarsPath, avatarFile.getName() + ".tmp");
+        try {
+            try (OutputStream output = new FileOutputStream(tmpFile)) {
+                storer.store(output);
+            }
+            Files.move(tmpFile.toPath(),
+                    avatarFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        final var sourceFile = getSourceFile(avatarFile);
+        if (source == null) {
+            Files.deleteIfExists(sourceFile.toPath());
+        } else {
+            Files.writeString(sourceFile.toPath(), source);
+        }
+    }
+
+    private boolean isAvatarCurrent(final File avatarFile, final String source) {
+        if (source == null || !avatarFile.exists()) {
+            return false;
+        }
+        try {
+            return source.equals(Files.readString(getSourceFile(avatarFile).toPath()));
+        } catch (IOException e) {
+            return false;
         }
     }
 
@@ -71,6 +155,11 @@ public class AvatarStore {
         if (avatarFile.exists()) {
             Files.delete(avatarFile.toPath());
         }
+        Files.deleteIfExists(getSourceFile(avatarFile).toPath());
+    }
+
+    private File getSourceFile(final File avatarFile) {
+        return new File(avatarFile.getParentFile(), avatarFile.getName() + SOURCE_SUFFIX);
     }
 
     private File getGroupAvatarFile(GroupId groupId) {
@@ -3,12 +3,17 @@ package org.asamk.signal.manager.storage;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
+import org.asamk.signal.manager.metrics.Histogram;
+import org.asamk.signal.manager.metrics.Metrics;
 import org.slf4j.Logger;
 import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.function.Function;
 
 public abstract class Database implements AutoCloseable {
@@ -17,6 +22,11 @@ public abstract class Database implements AutoCloseable {
     private final long databaseVersion;
     private final HikariDataSource dataSource;
 
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
+    private final ThreadLocal<UnitOfWork> currentUnitOfWork = new ThreadLocal<>();
+
+    private Histogram connectionWaitTime = Histogram.DISABLED;
+
     protected Database(final Logger logger, final long databaseVersion, final HikariDataSource dataSource) {
         this.logger = logger;
         this.databaseVersion = databaseVersion;
@@ -42,8 +52,100 @@ public abstract class Database implements AutoCloseable {
         }
     }
 
+    /**
+     * Get a connection for a single store operation.
+     * If a unit of work is active on the current thread, the returned connection takes part in its transaction.
+     */
     public final Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        final var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null) {
+            return unitOfWork.openConnection();
+        }
+        return borrowConnection();
+    }
+
+    /**
+     * Start a unit of work on the current thread, all store operations until it's closed use the same connection and
+     * transaction. If a unit of work is already active, a nested unit of work is started.
+     */
+    public UnitOfWork beginUnitOfWork() throws SQLException {
+        final var parent = currentUnitOfWork.get();
+        final var connection = parent == null ? borrowConnection() : parent.openConnection();
+        final UnitOfWork unitOfWork;
+        try {
+            unitOfWork = new UnitOfWork(this, connection, parent);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        currentUnitOfWork.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * Register an action that's run if the changes of the current unit of work are rolled back.
+     * Does nothing if no unit of work is active, as the changes are then already committed.
+     */
+    public void onRollback(Runnable action) {
+        final var unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork != null) {
+            unitOfWork.onRollback(action);
+        }
+    }
+
+    void endUnitOfWork(UnitOfWork unitOfWork) {
+        final var parent = unitOfWork.getParent();
+        if (parent == null) {
+            currentUnitOfWork.remove();
+        } else {
+            currentUnitOfWork.set(parent);
+        }
+    }
+
+    private Connection borrowConnection() throws SQLException {
+        final var start = connectionWaitTime.startTimer();
+        final var connection = dataSource.getConnection();
+        connectionWaitTime.observeSince(start);
+        try {
+            return PooledConnectionHandler.wrap(connection, getStatementCache(connection));
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private StatementCache getStatementCache(final Connection connection) throws SQLException {
+        final var physicalConnection = connection.unwrap(SQLiteConnection.class);
+        synchronized (statementCaches) {
+            var statementCache = statementCaches.get(physicalConnection);
+            if (statementCache == null) {
+                // Connections are only replaced occasionally by the pool, remove the caches of closed connections
+                final var iterator = statementCaches.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().isClosed()) {
+                        iterator.remove();
+                    }
+                }
+                statementCache = new StatementCache(physicalConnection);
+                statementCaches.put(physicalConnection, statementCache);
+            }
+            return statementCache;
+        }
+    }
+
+    public void registerMetrics(final Metrics metrics) {
+        connectionWaitTime = metrics.histogram("signal_db_connection_wait_seconds",
+                "Time spent waiting for a database connection from the pool");
+        final var pool = dataSource.getHikariPoolMXBean();
+        if (pool != null) {
+            metrics.gauge("signal_db_pool_active_connections",
+                    "Database connections currently in use",
+                    pool::getActiveConnections);
+            metrics.gauge("signal_db_pool_idle_connections", "Idle database connections", pool::getIdleConnections);
+            metrics.gauge("signal_db_pool_pending_threads",
+                    "Threads waiting for a database connection",
+                    pool::getThreadsAwaitingConnection);
+        }
     }
 
     @Override
@@ -0,0 +1,93 @@
+package org.asamk.signal.manager.storage;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * Wraps a connection borrowed from the pool, so statements prepared with {@link Connection#prepareStatement(String)}
+ * are taken from the statement cache of the underlying physical connection.
+ * The pool only rolls back uncommitted changes made with its own statements, so this keeps track of changes made
+ * with cached statements and rolls them back when the connection is returned without commit.
+ */
+final class PooledConnectionHandler implements InvocationHandler {
+
+    private final Connection delegate;
+    private final StatementCache statementCache;
+    private final Connection proxy;
+
+    private boolean dirty = false;
+    private boolean closed = false;
+
+    private PooledConnectionHandler(final Connection delegate, final StatementCache statementCache) {
+        this.delegate = delegate;
+        this.statementCache = statementCache;
+        this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                this);
+    }
+
+    static Connection wrap(final Connection delegate, final StatementCache statementCache) {
+        return new PooledConnectionHandler(delegate, statementCache).proxy;
+    }
+
+    Connection getProxy() {
+        return proxy;
+    }
+
+    void markDirty() {
+        dirty = true;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final var argCount = args == null ? 0 : args.length;
+        switch (method.getName()) {
+            case "prepareStatement" -> {
+                if (argCount == 1 && !closed) {
+                    final var statement = statementCache.prepare((String) args[0], this);
+                    if (statement != null) {
+                        return statement;
+                    }
+                }
+            }
+            case "commit", "rollback" -> {
+                if (argCount == 0) {
+                    dirty = false;
+                }
+            }
+            case "setAutoCommit" -> {
+                if ((boolean) args[0]) {
+                    dirty = false;
+                }
+            }
+            case "isClosed" -> {
+                return closed || delegate.isClosed();
+            }
+            case "close" -> {
+                if (closed) {
+                    return null;
+                }
+                closed = true;
+                statementCache.releaseAll();
+                try {
+                    if (dirty && !delegate.getAutoCommit()) {
+                        delegate.rollback();
+                    }
+                } finally {
+                    delegate.close();
+                }
+                return null;
+            }
+            default -> {
+            }
+        }
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.api.TrustLevel;
 import org.asamk.signal.manager.helper.RecipientAddressResolver;
+import org.asamk.signal.manager.metrics.Metrics;
 import org.asamk.signal.manager.storage.configuration.ConfigurationStore;
 import org.asamk.signal.manager.storage.configuration.LegacyConfigurationStore;
 import org.asamk.signal.manager.storage.contacts.ContactsStore;
@@ -49,6 +50,7 @@ import org.asamk.signal.manager.storage.sessions.LegacySessionStore;
 import org.asamk.signal.manager.storage.sessions.SessionStore;
 import org.asamk.signal.manager.storage.stickers.LegacyStickerStore;
 import org.asamk.signal.manager.storage.stickers.StickerStore;
+import org.asamk.signal.manager.storage.storageRecords.StorageRecordStore;
 import org.asamk.signal.manager.storage.threads.LegacyJsonThreadStore;
 import org.asamk.signal.manager.util.IOUtils;
 import org.asamk.signal.manager.util.KeyUtils;
@@ -158,6 +160,7 @@ public class SignalAccount implements Closeable {
     private GroupStore groupStore;
     private RecipientStore recipientStore;
     private StickerStore stickerStore;
+    private StorageRecordStore storageRecordStore;
     private ConfigurationStore configurationStore;
     private KeyValueStore keyValueStore;
 
@@ -165,6 +168,7 @@ public class SignalAccount implements Closeable {
     private MessageSendLogStore messageSendLogStore;
 
     private AccountDatabase accountDatabase;
+    private Metrics metrics;
 
     private SignalAccount(final FileChannel fileChannel, final FileLock lock) {
         this.fileChannel = fileChannel;
@@ -1083,16 +1087,23 @@ public class SignalAccount implements Closeable {
                 records.size(),
                 serviceIdType,
                 preKeyMetadata.nextPreKeyId);
-        accountData.getSignalServiceAccountDataStore()
-                .markAllOneTimeEcPreKeysStaleIfNecessary(System.currentTimeMillis());
+        var nextPreKeyId = preKeyMetadata.nextPreKeyId;
         for (var record : records) {
-            if (preKeyMetadata.nextPreKeyId != record.getId()) {
-                logger.error("Invalid pre key id {}, expected {}", record.getId(), preKeyMetadata.nextPreKeyId);
+            if (nextPreKeyId != record.getId()) {
+                logger.error("Invalid pre key id {}, expected {}", record.getId(), nextPreKeyId);
                 throw new AssertionError("Invalid pre key id");
             }
-            accountData.getPreKeyStore().storePreKey(record.getId(), record);
-            preKeyMetadata.nextPreKeyId = (preKeyMetadata.nextPreKeyId + 1) % PREKEY_MAXIMUM_ID;
+            nextPreKeyId = (nextPreKeyId + 1) % PREKEY_MAXIMUM_ID;
         }
+        try (final var unitOfWork = getAccountDatabase().beginUnitOfWork()) {
+            accountData.getSignalServiceAccountDataStore()
+                    .markAllOneTimeEcPreKeysStaleIfNecessary(System.currentTimeMillis());
+            accountData.getPreKeyStore().storePreKeys(records);
+            unitOfWork.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to store pre keys", e);
+        }
+        preKeyMetadata.nextPreKeyId = nextPreKeyId;
         save();
     }
 
@@ -1126,18 +1137,23 @@ public class SignalAccount implements Closeable {
                 records.size(),
                 serviceIdType,
                 preKeyMetadata.nextKyberPreKeyId);
-        accountData.getSignalServiceAccountDataStore()
-                .markAllOneTimeEcPreKeysStaleIfNecessary(System.currentTimeMillis());
+        var nextKyberPreKeyId = preKeyMetadata.nextKyberPreKeyId;
         for (var record : records) {
-            if (preKeyMetadata.nextKyberPreKeyId != record.getId()) {
-                logger.error("Invalid kyber pre key id {}, expected {}",
-                        record.getId(),
-                        preKeyMetadata.nextKyberPreKeyId);
+            if (nextKyberPreKeyId != record.getId()) {
+                logger.error("Invalid kyber pre key id {}, expected {}", record.getId(), nextKyberPreKeyId);
                 throw new AssertionError("Invalid kyber pre key id");
             }
-            accountData.getKyberPreKeyStore().storeKyberPreKey(record.getId(), record);
-            preKeyMetadata.nextKyberPreKeyId = (preKeyMetadata.nextKyberPreKeyId + 1) % PREKEY_MAXIMUM_ID;
+            nextKyberPreKeyId = (nextKyberPreKeyId + 1) % PREKEY_MAXIMUM_ID;
+        }
+        try (final var unitOfWork = getAccountDatabase().beginUnitOfWork()) {
+            accountData.getSignalServiceAccountDataStore()
+                    .markAllOneTimeEcPreKeysStaleIfNecessary(System.currentTimeMillis());
+            accountData.getKyberPreKeyStore().storeKyberPreKeys(records);
+            unitOfWork.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to store kyber pre keys", e);
         }
+        preKeyMetadata.nextKyberPreKeyId = nextKyberPreKeyId;
         save();
     }
 
@@ -1163,6 +1179,10 @@ public class SignalAccount implements Closeable {
         return previousStorageVersion;
     }
 
+    public Settings getSettings() {
+        return settings;
+    }
+
     public AccountData<? extends ServiceId> getAccountData(ServiceIdType serviceIdType) {
         return switch (serviceIdType) {
             case ACI -> aciAccountData;
@@ -1206,7 +1226,9 @@ public class SignalAccount implements Closeable {
 
     public IdentityKeyStore getIdentityKeyStore() {
         return getOrCreate(() -> identityKeyStore,
-                () -> identityKeyStore = new IdentityKeyStore(getAccountDatabase(), settings.trustNewIdentity()));
+                () -> identityKeyStore = new IdentityKeyStore(getAccountDatabase(),
+                        settings.trustNewIdentity(),
+                        getMetrics()));
     }
 
     public GroupStore getGroupStore() {
@@ -1251,6 +1273,11 @@ public class SignalAccount implements Closeable {
         return getOrCreate(() -> stickerStore, () -> stickerStore = new StickerStore(getAccountDatabase()));
     }
 
+    public StorageRecordStore getStorageRecordStore() {
+        return getOrCreate(() -> storageRecordStore,
+                () -> storageRecordStore = new StorageRecordStore(getAccountDatabase(), getRecipientIdCreator()));
+    }
+
     public SenderKeyStore getSenderKeyStore() {
         return getOrCreate(() -> senderKeyStore, () -> senderKeyStore = new SenderKeyStore(getAccountDatabase()));
     }
@@ -1272,13 +1299,22 @@ public class SignalAccount implements Closeable {
     public AccountDatabase getAccountDatabase() {
         return getOrCreate(() -> accountDatabase, () -> {
             try {
-                accountDatabase = AccountDatabase.init(getDatabaseFile(dataPath, accountPath));
+                final var database = AccountDatabase.init(getDatabaseFile(dataPath, accountPath));
+                database.registerMetrics(getMetrics());
+                accountDatabase = database;
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
         });
     }
 
+    public Metrics getMetrics() {
+        return getOrCreate(() -> metrics,
+                () -> metrics = settings != null && settings.enableMetrics()
+                        ? new Metrics(true)
+                        : Metrics.DISABLED);
+    }
+
     public MessageSendLogStore getMessageSendLogStore() {
         return getOrCreate(() -> messageSendLogStore,
                 () -> messageSendLogStore = new MessageSendLogStore(getAccountDatabase(),
@@ -1550,6 +1586,7 @@ public class SignalAccount implements Closeable {
     public void setStorageManifest(SignalStorageManifest manifest) {
         final var storageManifestFile = getStorageManifestFile(dataPath, accountPath);
         if (manifest == null) {
+            getStorageRecordStore().deleteAllStorageRecords();
             if (storageManifestFile.exists()) {
                 try {
                     Files.delete(storageManifestFile.toPath());
@@ -0,0 +1,162 @@
+package org.asamk.signal.manager.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prepared statements of one physical database connection, reused across borrows of that connection from the pool.
+ * Only accessed by the thread that currently borrowed the connection.
+ */
+final class StatementCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private static final int MAX_SIZE = 64;
+
+    private final Connection physicalConnection;
+    private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedStatement> eldest) {
+            if (size() <= MAX_SIZE || eldest.getValue().inUse) {
+                return false;
+            }
+            eldest.getValue().closeDelegate();
+            return true;
+        }
+    };
+
+    StatementCache(final Connection physicalConnection) {
+        this.physicalConnection = physicalConnection;
+    }
+
+    boolean isClosed() throws SQLException {
+        return physicalConnection.isClosed();
+    }
+
+    /**
+     * Returns a prepared statement for the sql, closing it makes it available for reuse.
+     *
+     * @return the statement or null, if the cached statement for this sql is currently in use
+     */
+    PreparedStatement prepare(final String sql, final PooledConnectionHandler owner) throws SQLException {
+        var statement = statements.get(sql);
+        if (statement == null) {
+            statement = new CachedStatement(physicalConnection.prepareStatement(sql));
+            statements.put(sql, statement);
+        } else if (statement.inUse) {
+            return null;
+        }
+        return statement.checkout(owner);
+    }
+
+    /**
+     * Release the statements that weren't closed by the previous user of the connection.
+     */
+    void releaseAll() {
+        for (final var statement : statements.values()) {
+            if (statement.inUse) {
+                statement.release();
+            }
+        }
+    }
+
+    private static final class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement delegate;
+        private final PreparedStatement proxy;
+
+        private boolean inUse;
+        private PooledConnectionHandler owner;
+        private ResultSet resultSet;
+
+        private CachedStatement(final PreparedStatement delegate) {
+            this.delegate = delegate;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    this);
+        }
+
+        private PreparedStatement checkout(final PooledConnectionHandler owner) {
+            this.inUse = true;
+            this.owner = owner;
+            return proxy;
+        }
+
+        private void release() {
+            try {
+                if (resultSet != null) {
+                    // Resets the statement, so it doesn't keep a read lock on the database
+                    resultSet.close();
+                }
+                delegate.clearParameters();
+            } catch (SQLException e) {
+                logger.debug("Failed to reset cached statement: {}", e.getMessage());
+            }
+            resultSet = null;
+            owner = null;
+            inUse = false;
+        }
+
+        private void closeDelegate() {
+            try {
+                delegate.close();
+            } catch (SQLException e) {
+                logger.debug("Failed to close cached statement: {}", e.getMessage());
+            }
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (inUse) {
+                        release();
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return !inUse;
+                }
+                default -> {
+                }
+            }
+            if (!inUse) {
+                throw new SQLException("Statement is closed");
+            }
+            switch (method.getName()) {
+                case "getConnection" -> {
+                    return owner.getProxy();
+                }
+                case "executeQuery" -> {
+                    final var result = (ResultSet) invokeDelegate(method, args);
+                    resultSet = result;
+                    return result;
+                }
+                case "execute", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch" ->
+                        owner.markDirty();
+                default -> {
+                }
+            }
+            return invokeDelegate(method, args);
+        }
+
+        private Object invokeDelegate(final Method method, final Object[] args) throws Throwable {
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.asamk.signal.manager.storage;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A database transaction pinned to the current thread.
+ * While the unit of work is open, all store operations of this thread use the same connection and their changes
+ * are only persisted when the unit of work is committed.
+ * Closing the unit of work without commit rolls back all changes made since it was started.
+ * <p>
+ * Units of work can be nested, a nested unit of work uses a savepoint of the enclosing transaction.
+ * Stores that cache database contents should register an action with {@link Database#onRollback(Runnable)} to
+ * invalidate their cache, if their changes are rolled back.
+ * <p>
+ * The database stays locked for writing until the unit of work is finished. To avoid deadlocks, locks that are held
+ * while writing to the database must be taken after the transaction has been started, and the unit of work must not
+ * wait for other threads that write to the database.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private final Database database;
+    private final Connection connection;
+    private final UnitOfWork parent;
+    private final Savepoint savepoint;
+    private final List<Runnable> rollbackActions = new ArrayList<>();
+
+    private boolean committed = false;
+    private boolean closed = false;
+
+    UnitOfWork(final Database database, final Connection connection, final UnitOfWork parent) throws SQLException {
+        this.database = database;
+        this.connection = connection;
+        this.parent = parent;
+        if (parent == null) {
+            connection.setAutoCommit(false);
+            this.savepoint = null;
+        } else {
+            this.savepoint = connection.setSavepoint();
+        }
+    }
+
+    UnitOfWork getParent() {
+        return parent;
+    }
+
+    /**
+     * @return a connection for a single store operation, closing it doesn't affect the unit of work
+     */
+    Connection openConnection() {
+        return new PinnedConnectionHandler().proxy;
+    }
+
+    void onRollback(Runnable action) {
+        rollbackActions.add(action);
+    }
+
+    public void commit() throws SQLException {
+        if (closed || committed) {
+            throw new SQLException("Unit of work is already finished");
+        }
+        if (parent == null) {
+            connection.commit();
+        } else {
+            connection.releaseSavepoint(savepoint);
+            // The changes are only persisted if the enclosing unit of work is committed
+            parent.rollbackActions.addAll(rollbackActions);
+        }
+        rollbackActions.clear();
+        committed = true;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        database.endUnitOfWork(this);
+        try {
+            if (!committed) {
+                if (parent == null) {
+                    connection.rollback();
+                } else {
+                    connection.rollback(savepoint);
+                    connection.releaseSavepoint(savepoint);
+                }
+                rollbackActions.forEach(Runnable::run);
+            }
+        } finally {
+            if (parent == null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Changes made through the pinned connection become part of the unit of work.
+     * If the store operation uses its own transaction, it's mapped to a savepoint.
+     */
+    private final class PinnedConnectionHandler implements InvocationHandler {
+
+        private final Connection proxy;
+
+        private Savepoint transaction;
+        private boolean closed = false;
+
+        private PinnedConnectionHandler() {
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    this);
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final var argCount = args == null ? 0 : args.length;
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        closed = true;
+                        endTransaction(false);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed;
+                }
+                case "getAutoCommit" -> {
+                    return transaction == null;
+                }
+                case "setAutoCommit" -> {
+                    final var autoCommit = (boolean) args[0];
+                    if (!autoCommit && transaction == null) {
+                        transaction = connection.setSavepoint();
+                    } else if (autoCommit && transaction != null) {
+                        endTransaction(true);
+                    }
+                    return null;
+                }
+                case "commit" -> {
+                    if (transaction != null) {
+                        endTransaction(true);
+                        transaction = connection.setSavepoint();
+                    }
+                    return null;
+                }
+                case "rollback" -> {
+                    if (argCount == 0) {
+                        if (transaction != null) {
+                            connection.rollback(transaction);
+                        }
+                        return null;
+                    }
+                }
+                default -> {
+                }
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void endTransaction(boolean commit) throws SQLException {
+            if (transaction == null) {
+                return;
+            }
+            if (!commit) {
+                connection.rollback(transaction);
+            }
+            connection.releaseSavepoint(transaction);
+            transaction = null;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.asamk.signal.manager.storage.identities;
 
 import org.asamk.signal.manager.api.TrustLevel;
 import org.asamk.signal.manager.api.TrustNewIdentity;
+import org.asamk.signal.manager.metrics.Counter;
+import org.asamk.signal.manager.metrics.Metrics;
 import org.asamk.signal.manager.storage.Database;
 import org.asamk.signal.manager.storage.Utils;
 import org.signal.libsignal.protocol.IdentityKey;
@@ -15,8 +17,13 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.subjects.PublishSubject;
@@ -25,10 +32,26 @@ public class IdentityKeyStore {
 
     private final static Logger logger = LoggerFactory.getLogger(IdentityKeyStore.class);
     private static final String TABLE_IDENTITY = "identity";
+    private static final int CACHE_SIZE = 5000;
+    private static final int LOCK_STRIPES = 64;
     private final Database database;
     private final TrustNewIdentity trustNewIdentity;
     private final PublishSubject<ServiceId> identityChanges = PublishSubject.create();
 
+    // Caches the stored identity per address, an empty value means that no identity is stored
+    private final Map<String, Optional<IdentityInfo>> cachedIdentities = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Optional<IdentityInfo>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    // Incremented with every change of the cache by a writer, so a concurrent fill after a cache miss can't insert
+    // a value that was read before the change
+    private final AtomicLong cacheVersion = new AtomicLong();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+
     private boolean isRetryingDecryption = false;
 
     public static void createSql(Connection connection) throws SQLException {
@@ -46,9 +69,22 @@ public class IdentityKeyStore {
         }
     }
 
-    public IdentityKeyStore(final Database database, final TrustNewIdentity trustNewIdentity) {
+    public IdentityKeyStore(
+            final Database database, final TrustNewIdentity trustNewIdentity, final Metrics metrics
+    ) {
         this.database = database;
         this.trustNewIdentity = trustNewIdentity;
+        for (var i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.cacheHits = metrics.counter("signal_identity_cache_hits_total", "Identity lookups answered by the cache");
+        this.cacheMisses = metrics.counter("signal_identity_cache_misses_total",
+                "Identity lookups that read the database");
+        metrics.gauge("signal_identity_cache_size", "Identities in the identity cache", () -> {
+            synchronized (cachedIdentities) {
+                return cachedIdentities.size();
+            }
+        });
     }
 
     public Observable<ServiceId> getIdentityChanges() {
@@ -63,16 +99,26 @@ public class IdentityKeyStore {
         if (isRetryingDecryption) {
             return false;
         }
-        try (final var connection = database.getConnection()) {
-            final var identityInfo = loadIdentity(connection, address);
-            if (identityInfo != null && identityInfo.getIdentityKey().equals(identityKey)) {
-                // Identity already exists, not updating the trust level
+        try {
+            // Only start a unit of work if the identity needs to be stored
+            final var knownIdentityInfo = loadIdentityCached(address);
+            if (knownIdentityInfo != null && knownIdentityInfo.getIdentityKey().equals(identityKey)) {
                 logger.trace("Not storing new identity for recipient {}, identity already stored", address);
                 return false;
             }
+            return runLocked(address, () -> {
+                final var identityInfo = loadIdentityCached(address);
+                if (identityInfo != null && identityInfo.getIdentityKey().equals(identityKey)) {
+                    // Identity already exists, not updating the trust level
+                    logger.trace("Not storing new identity for recipient {}, identity already stored", address);
+                    return false;
+                }
 
-            saveNewIdentity(connection, address, identityKey, identityInfo == null);
-            return true;
+                try (final var connection = database.getConnection()) {
+                    saveNewIdentity(connection, address, identityKey, identityInfo == null);
+                }
+                return true;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update identity store", e);
         }
@@ -83,29 +129,42 @@ public class IdentityKeyStore {
     }
 
     public boolean setIdentityTrustLevel(ServiceId serviceId, IdentityKey identityKey, TrustLevel trustLevel) {
-        try (final var connection = database.getConnection()) {
-            final var address = serviceId.toString();
-            final var identityInfo = loadIdentity(connection, address);
-            if (identityInfo == null) {
-                logger.debug("Not updating trust level for recipient {}, identity not found", serviceId);
-                return false;
-            }
-            if (!identityInfo.getIdentityKey().equals(identityKey)) {
-                logger.debug("Not updating trust level for recipient {}, different identity found", serviceId);
-                return false;
-            }
-            if (identityInfo.getTrustLevel() == trustLevel) {
+        final var address = serviceId.toString();
+        try {
+            // Only start a unit of work if the trust level needs to be updated
+            final var knownIdentityInfo = loadIdentityCached(address);
+            if (knownIdentityInfo != null
+                    && knownIdentityInfo.getIdentityKey().equals(identityKey)
+                    && knownIdentityInfo.getTrustLevel() == trustLevel) {
                 logger.trace("Not updating trust level for recipient {}, trust level already matches", serviceId);
                 return false;
             }
+            return runLocked(address, () -> {
+                final var identityInfo = loadIdentityCached(address);
+                if (identityInfo == null) {
+                    logger.debug("Not updating trust level for recipient {}, identity not found", serviceId);
+                    return false;
+                }
+                if (!identityInfo.getIdentityKey().equals(identityKey)) {
+                    logger.debug("Not updating trust level for recipient {}, different identity found", serviceId);
+                    return false;
+                }
+                if (identityInfo.getTrustLevel() == trustLevel) {
+                    logger.trace("Not updating trust level for recipient {}, trust level already matches",
+                            serviceId);
+                    return false;
+                }
 
-            logger.debug("Updating trust level for recipient {} with trust {}", serviceId, trustLevel);
-            final var newIdentityInfo = new IdentityInfo(address,
-                    identityKey,
-                    trustLevel,
-                    identityInfo.getDateAddedTimestamp());
-            storeIdentity(connection, newIdentityInfo);
-            return true;
+                logger.debug("Updating trust level for recipient {} with trust {}", serviceId, trustLevel);
+                final var newIdentityInfo = new IdentityInfo(address,
+                        identityKey,
+                        trustLevel,
+                        identityInfo.getDateAddedTimestamp());
+                try (final var connection = database.getConnection()) {
+                    storeIdentity(connection, newIdentityInfo);
+                }
+                return true;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update identity store", e);
         }
@@ -120,28 +179,44 @@ public class IdentityKeyStore {
             return true;
         }
 
-        try (final var connection = database.getConnection()) {
-            // TODO implement possibility for different handling of incoming/outgoing trust decisions
-            var identityInfo = loadIdentity(connection, address);
-            if (identityInfo == null) {
-                logger.debug("Initial identity found for {}, saving.", address);
-                saveNewIdentity(connection, address, identityKey, true);
-                identityInfo = loadIdentity(connection, address);
-            } else if (!identityInfo.getIdentityKey().equals(identityKey)) {
-                // Identity found, but different
-                if (direction == Direction.SENDING) {
-                    logger.debug("Changed identity found for {}, saving.", address);
-                    saveNewIdentity(connection, address, identityKey, false);
-                    identityInfo = loadIdentity(connection, address);
-                } else {
-                    logger.trace("Trusting identity for {} for {}: {}", address, direction, false);
-                    return false;
-                }
+        try {
+            // Usually the identity is already known, a unit of work is only needed to store a new identity
+            final var knownIdentityInfo = loadIdentityCached(address);
+            if (knownIdentityInfo != null && knownIdentityInfo.getIdentityKey().equals(identityKey)) {
+                final var isTrusted = knownIdentityInfo.isTrusted();
+                logger.trace("Trusting identity for {} for {}: {}", address, direction, isTrusted);
+                return isTrusted;
+            } else if (knownIdentityInfo != null && direction != Direction.SENDING) {
+                logger.trace("Trusting identity for {} for {}: {}", address, direction, false);
+                return false;
             }
+            return runLocked(address, () -> {
+                // TODO implement possibility for different handling of incoming/outgoing trust decisions
+                var identityInfo = loadIdentityCached(address);
+                if (identityInfo == null) {
+                    logger.debug("Initial identity found for {}, saving.", address);
+                    try (final var connection = database.getConnection()) {
+                        saveNewIdentity(connection, address, identityKey, true);
+                    }
+                    identityInfo = loadIdentityCached(address);
+                } else if (!identityInfo.getIdentityKey().equals(identityKey)) {
+                    // Identity found, but different
+                    if (direction == Direction.SENDING) {
+                        logger.debug("Changed identity found for {}, saving.", address);
+                        try (final var connection = database.getConnection()) {
+                            saveNewIdentity(connection, address, identityKey, false);
+                        }
+                        identityInfo = loadIdentityCached(address);
+                    } else {
+                        logger.trace("Trusting identity for {} for {}: {}", address, direction, false);
+                        return false;
+                    }
+                }
 
-            final var isTrusted = identityInfo != null && identityInfo.isTrusted();
-            logger.trace("Trusting identity for {} for {}: {}", address, direction, isTrusted);
-            return isTrusted;
+                final var isTrusted = identityInfo != null && identityInfo.isTrusted();
+                logger.trace("Trusting identity for {} for {}: {}", address, direction, isTrusted);
+                return isTrusted;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed read from identity store", e);
         }
@@ -152,8 +227,8 @@ public class IdentityKeyStore {
     }
 
     public IdentityInfo getIdentityInfo(String address) {
-        try (final var connection = database.getConnection()) {
-            return loadIdentity(connection, address);
+        try {
+            return loadIdentityCached(address);
         } catch (SQLException e) {
             throw new RuntimeException("Failed read from identity store", e);
         }
@@ -178,8 +253,14 @@ public class IdentityKeyStore {
     }
 
     public void deleteIdentity(final ServiceId serviceId) {
-        try (final var connection = database.getConnection()) {
-            deleteIdentity(connection, serviceId.toString());
+        final var address = serviceId.toString();
+        try {
+            runLocked(address, () -> {
+                try (final var connection = database.getConnection()) {
+                    deleteIdentity(connection, address);
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update identity store", e);
         }
@@ -196,10 +277,64 @@ public class IdentityKeyStore {
             connection.commit();
         } catch (SQLException e) {
             throw new RuntimeException("Failed update identity store", e);
+        } finally {
+            synchronized (cachedIdentities) {
+                cacheVersion.incrementAndGet();
+                cachedIdentities.clear();
+            }
         }
         logger.debug("Complete identities migration took {}ms", (System.nanoTime() - start) / 1000000);
     }
 
+    private ReentrantLock getLock(final String address) {
+        return locks[Math.floorMod(address.hashCode(), locks.length)];
+    }
+
+    /**
+     * Runs a mutation with the address lock held in a unit of work.
+     * The lock is only taken after the transaction has been started, otherwise it could deadlock with the unit of
+     * work of another thread that keeps the database locked while waiting for the address lock.
+     * Identity change listeners are called on the same thread and so take part in the transaction.
+     */
+    private <T> T runLocked(final String address, final LockedOperation<T> operation) throws SQLException {
+        final var lock = getLock(address);
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            final T result;
+            lock.lock();
+            try {
+                result = operation.run();
+            } finally {
+                lock.unlock();
+            }
+            unitOfWork.commit();
+            return result;
+        }
+    }
+
+    private IdentityInfo loadIdentityCached(final String address) throws SQLException {
+        final long version;
+        synchronized (cachedIdentities) {
+            final var cached = cachedIdentities.get(address);
+            if (cached != null) {
+                cacheHits.increment();
+                return cached.orElse(null);
+            }
+            version = cacheVersion.get();
+        }
+        cacheMisses.increment();
+        final IdentityInfo identityInfo;
+        try (final var connection = database.getConnection()) {
+            identityInfo = loadIdentity(connection, address);
+        }
+        synchronized (cachedIdentities) {
+            // Skip the fill if a writer changed the cache in the meantime, the value may already be outdated
+            if (cacheVersion.get() == version) {
+                cachedIdentities.putIfAbsent(address, Optional.ofNullable(identityInfo));
+            }
+        }
+        return identityInfo;
+    }
+
     private IdentityInfo loadIdentity(
             final Connection connection, final String address
     ) throws SQLException {
@@ -252,6 +387,11 @@ public class IdentityKeyStore {
             statement.setInt(4, identityInfo.getTrustLevel().ordinal());
             statement.executeUpdate();
         }
+        synchronized (cachedIdentities) {
+            cacheVersion.incrementAndGet();
+            cachedIdentities.put(identityInfo.getAddress(), Optional.of(identityInfo));
+        }
+        database.onRollback(() -> invalidateCachedIdentity(identityInfo.getAddress()));
     }
 
     private void deleteIdentity(final Connection connection, final String address) throws SQLException {
@@ -265,6 +405,23 @@ public class IdentityKeyStore {
             statement.setString(1, address);
             statement.executeUpdate();
         }
+        synchronized (cachedIdentities) {
+            cacheVersion.incrementAndGet();
+            cachedIdentities.put(address, Optional.empty());
+        }
+        database.onRollback(() -> invalidateCachedIdentity(address));
+    }
+
+    private void invalidateCachedIdentity(final String address) {
+        synchronized (cachedIdentities) {
+            cacheVersion.incrementAndGet();
+            cachedIdentities.remove(address);
+        }
+    }
+
+    private interface LockedOperation<T> {
+
+        T run() throws SQLException;
     }
 
     private IdentityInfo getIdentityInfoFromResultSet(ResultSet resultSet) throws SQLException {
@@ -14,6 +14,23 @@ import java.sql.Types;
 public class KeyValueStore {
 
     private static final String TABLE_KEY_VALUE = "key_value";
+
+    private static final String SQL_GET_ENTRY = (
+            """
+            SELECT key, value
+            FROM %s p
+            WHERE p.key = ?
+            """
+    ).formatted(TABLE_KEY_VALUE);
+
+    private static final String SQL_STORE_ENTRY = (
+            """
+            INSERT INTO %s (key, value)
+            VALUES (?1, ?2)
+            ON CONFLICT (key) DO UPDATE SET value=excluded.value
+            """
+    ).formatted(TABLE_KEY_VALUE);
+
     private final static Logger logger = LoggerFactory.getLogger(KeyValueStore.class);
 
     private final Database database;
@@ -36,15 +53,8 @@ public class KeyValueStore {
     }
 
     public <T> T getEntry(KeyValueEntry<T> key) {
-        final var sql = (
-                """
-                SELECT key, value
-                FROM %s p
-                WHERE p.key = ?
-                """
-        ).formatted(TABLE_KEY_VALUE);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_GET_ENTRY)) {
                 statement.setString(1, key.key());
 
                 final var result = Utils.executeQueryForOptional(statement,
@@ -61,15 +71,8 @@ public class KeyValueStore {
     }
 
     public <T> void storeEntry(KeyValueEntry<T> key, T value) {
-        final var sql = (
-                """
-                INSERT INTO %s (key, value)
-                VALUES (?1, ?2)
-                ON CONFLICT (key) DO UPDATE SET value=excluded.value
-                """
-        ).formatted(TABLE_KEY_VALUE);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_STORE_ENTRY)) {
                 statement.setString(1, key.key());
                 setParameterValue(statement, 2, key.clazz(), value);
                 statement.executeUpdate();
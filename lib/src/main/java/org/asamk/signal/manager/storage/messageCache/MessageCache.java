@@ -48,6 +48,27 @@ public class MessageCache {
         }).map(CachedMessage::new).toList();
     }
 
+    /**
+     * Count the cached messages without loading them.
+     */
+    public int countCachedMessages() {
+        final var entries = messageCachePath.listFiles();
+        if (entries == null) {
+            return 0;
+        }
+
+        var count = 0;
+        for (final var entry : entries) {
+            if (entry.isFile()) {
+                count++;
+            } else {
+                final var files = entry.listFiles(File::isFile);
+                count += files == null ? 0 : files.length;
+            }
+        }
+        return count;
+    }
+
     public CachedMessage cacheMessage(SignalServiceEnvelope envelope, RecipientId recipientId) {
         final var now = System.currentTimeMillis();
 
@@ -126,6 +126,32 @@ public class KyberPreKeyStore implements SignalServiceKyberPreKeyStore {
         }
     }
 
+    /**
+     * Store multiple one-time kyber pre keys with a single batched statement.
+     */
+    public void storeKyberPreKeys(final List<KyberPreKeyRecord> records) {
+        final var sql = (
+                """
+                INSERT INTO %s (account_id_type, key_id, serialized, is_last_resort, timestamp)
+                VALUES (?, ?, ?, FALSE, ?)
+                """
+        ).formatted(TABLE_KYBER_PRE_KEY);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                for (final var record : records) {
+                    statement.setInt(1, accountIdType);
+                    statement.setInt(2, record.getId());
+                    statement.setBytes(3, record.serialize());
+                    statement.setLong(4, record.getTimestamp());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update kyber_pre_key store", e);
+        }
+    }
+
     @Override
     public boolean containsKyberPreKey(final int keyId) {
         return getPreKey(keyId) != null;
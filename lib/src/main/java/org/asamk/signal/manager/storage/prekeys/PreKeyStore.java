@@ -20,6 +20,69 @@ import java.util.Collection;
 public class PreKeyStore implements SignalServicePreKeyStore {
 
     private static final String TABLE_PRE_KEY = "pre_key";
+
+    private static final String SQL_STORE_PRE_KEY = (
+            """
+            INSERT INTO %s (account_id_type, key_id, public_key, private_key)
+            VALUES (?, ?, ?, ?)
+            """
+    ).formatted(TABLE_PRE_KEY);
+
+    private static final String SQL_REMOVE_PRE_KEY = (
+            """
+            DELETE FROM %s AS p
+            WHERE p.account_id_type = ? AND p.key_id = ?
+            """
+    ).formatted(TABLE_PRE_KEY);
+
+    private static final String SQL_REMOVE_ALL_PRE_KEYS = (
+            """
+            DELETE FROM %s AS p
+            WHERE p.account_id_type = ?
+            """
+    ).formatted(TABLE_PRE_KEY);
+
+    private static final String SQL_ADD_LEGACY_PRE_KEYS = (
+            """
+            INSERT INTO %s (account_id_type, key_id, public_key, private_key)
+            VALUES (?, ?, ?, ?)
+            """
+    ).formatted(TABLE_PRE_KEY);
+
+    private static final String SQL_GET_PRE_KEY = (
+            """
+            SELECT p.key_id, p.public_key, p.private_key
+            FROM %s p
+            WHERE p.account_id_type = ? AND p.key_id = ?
+            """
+    ).formatted(TABLE_PRE_KEY);
+
+    private static final String SQL_DELETE_ALL_STALE_ONE_TIME_EC_PRE_KEYS = (
+            """
+            DELETE FROM %s AS p
+            WHERE p.account_id_type = ?1
+                AND p.stale_timestamp < ?2
+                AND p._id NOT IN (
+                    SELECT _id
+                    FROM %s AS p2
+                    WHERE p2.account_id_type = ?1
+                    ORDER BY
+                      CASE WHEN p2.stale_timestamp IS NULL THEN 1 ELSE 0 END DESC,
+                      p2.stale_timestamp DESC,
+                      p2._id DESC
+                    LIMIT ?3
+                )
+            """
+    ).formatted(TABLE_PRE_KEY, TABLE_PRE_KEY);
+
+    private static final String SQL_MARK_ONE_TIME_EC_PRE_KEYS_STALE = (
+            """
+            UPDATE %s
+            SET stale_timestamp = ?
+            WHERE account_id_type = ? AND stale_timestamp IS NULL
+            """
+    ).formatted(TABLE_PRE_KEY);
+
     private final static Logger logger = LoggerFactory.getLogger(PreKeyStore.class);
 
     private final Database database;
@@ -58,14 +121,8 @@ public class PreKeyStore implements SignalServicePreKeyStore {
 
     @Override
     public void storePreKey(int preKeyId, PreKeyRecord record) {
-        final var sql = (
-                """
-                INSERT INTO %s (account_id_type, key_id, public_key, private_key)
-                VALUES (?, ?, ?, ?)
-                """
-        ).formatted(TABLE_PRE_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_STORE_PRE_KEY)) {
                 statement.setInt(1, accountIdType);
                 statement.setInt(2, preKeyId);
                 final var keyPair = record.getKeyPair();
@@ -79,6 +136,28 @@ public class PreKeyStore implements SignalServicePreKeyStore {
         }
     }
 
+    /**
+     * Store multiple pre keys with a single batched statement.
+     */
+    public void storePreKeys(Collection<PreKeyRecord> records) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_STORE_PRE_KEY)) {
+                for (final var record : records) {
+                    statement.setInt(1, accountIdType);
+                    statement.setInt(2, record.getId());
+                    final var keyPair = record.getKeyPair();
+                    statement.setBytes(3, keyPair.getPublicKey().serialize());
+                    statement.setBytes(4, keyPair.getPrivateKey().serialize());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } catch (InvalidKeyException ignored) {
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update pre_key store", e);
+        }
+    }
+
     @Override
     public boolean containsPreKey(int preKeyId) {
         return getPreKey(preKeyId) != null;
@@ -86,14 +165,8 @@ public class PreKeyStore implements SignalServicePreKeyStore {
 
     @Override
     public void removePreKey(int preKeyId) {
-        final var sql = (
-                """
-                DELETE FROM %s AS p
-                WHERE p.account_id_type = ? AND p.key_id = ?
-                """
-        ).formatted(TABLE_PRE_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_REMOVE_PRE_KEY)) {
                 statement.setInt(1, accountIdType);
                 statement.setInt(2, preKeyId);
                 statement.executeUpdate();
@@ -104,14 +177,8 @@ public class PreKeyStore implements SignalServicePreKeyStore {
     }
 
     public void removeAllPreKeys() {
-        final var sql = (
-                """
-                DELETE FROM %s AS p
-                WHERE p.account_id_type = ?
-                """
-        ).formatted(TABLE_PRE_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_REMOVE_ALL_PRE_KEYS)) {
                 statement.setInt(1, accountIdType);
                 statement.executeUpdate();
             }
@@ -123,12 +190,6 @@ public class PreKeyStore implements SignalServicePreKeyStore {
     void addLegacyPreKeys(final Collection<PreKeyRecord> preKeys) {
         logger.debug("Migrating legacy preKeys to database");
         long start = System.nanoTime();
-        final var sql = (
-                """
-                INSERT INTO %s (account_id_type, key_id, public_key, private_key)
-                VALUES (?, ?, ?, ?)
-                """
-        ).formatted(TABLE_PRE_KEY);
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
             final var deleteSql = "DELETE FROM %s AS p WHERE p.account_id_type = ?".formatted(TABLE_PRE_KEY);
@@ -136,7 +197,7 @@ public class PreKeyStore implements SignalServicePreKeyStore {
                 statement.setInt(1, accountIdType);
                 statement.executeUpdate();
             }
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_ADD_LEGACY_PRE_KEYS)) {
                 for (final var record : preKeys) {
                     statement.setInt(1, accountIdType);
                     statement.setInt(2, record.getId());
@@ -155,15 +216,8 @@ public class PreKeyStore implements SignalServicePreKeyStore {
     }
 
     private PreKeyRecord getPreKey(int preKeyId) {
-        final var sql = (
-                """
-                SELECT p.key_id, p.public_key, p.private_key
-                FROM %s p
-                WHERE p.account_id_type = ? AND p.key_id = ?
-                """
-        ).formatted(TABLE_PRE_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_GET_PRE_KEY)) {
                 statement.setInt(1, accountIdType);
                 statement.setInt(2, preKeyId);
                 return Utils.executeQueryForOptional(statement, this::getPreKeyRecordFromResultSet).orElse(null);
@@ -186,25 +240,8 @@ public class PreKeyStore implements SignalServicePreKeyStore {
 
     @Override
     public void deleteAllStaleOneTimeEcPreKeys(final long threshold, final int minCount) {
-        final var sql = (
-                """
-                DELETE FROM %s AS p
-                WHERE p.account_id_type = ?1
-                    AND p.stale_timestamp < ?2
-                    AND p._id NOT IN (
-                        SELECT _id
-                        FROM %s AS p2
-                        WHERE p2.account_id_type = ?1
-                        ORDER BY
-                          CASE WHEN p2.stale_timestamp IS NULL THEN 1 ELSE 0 END DESC,
-                          p2.stale_timestamp DESC,
-                          p2._id DESC
-                        LIMIT ?3
-                    )
-                """
-        ).formatted(TABLE_PRE_KEY, TABLE_PRE_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_DELETE_ALL_STALE_ONE_TIME_EC_PRE_KEYS)) {
                 statement.setInt(1, accountIdType);
                 statement.setLong(2, threshold);
                 statement.setInt(3, minCount);
@@ -220,15 +257,8 @@ public class PreKeyStore implements SignalServicePreKeyStore {
 
     @Override
     public void markAllOneTimeEcPreKeysStaleIfNecessary(final long staleTime) {
-        final var sql = (
-                """
-                UPDATE %s
-                SET stale_timestamp = ?
-                WHERE account_id_type = ? AND stale_timestamp IS NULL
-                """
-        ).formatted(TABLE_PRE_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_MARK_ONE_TIME_EC_PRE_KEYS_STALE)) {
                 statement.setLong(1, staleTime);
                 statement.setInt(2, accountIdType);
                 statement.executeUpdate();
@@ -40,10 +40,187 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private static final String TABLE_RECIPIENT = "recipient";
     private static final String SQL_IS_CONTACT = "r.given_name IS NOT NULL OR r.family_name IS NOT NULL OR r.expiration_time > 0 OR r.profile_sharing = TRUE OR r.color IS NOT NULL OR r.blocked = TRUE OR r.archived = TRUE";
 
+    private static final String SQL_RESOLVE_RECIPIENT_ADDRESS = (
+            """
+            SELECT r.number, r.uuid, r.pni, r.username
+            FROM %s r
+            WHERE r._id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_GET_PROFILE_SHARING_RECIPIENT_IDS = (
+            """
+            SELECT r._id
+            FROM %s r
+            WHERE r.blocked = FALSE AND r.profile_sharing = TRUE
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_RESOLVE_RECIPIENT = (
+            """
+            SELECT r._id
+            FROM %s r
+            WHERE r._id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_GET_CONTACTS = (
+            """
+            SELECT r._id, r.given_name, r.family_name, r.expiration_time, r.profile_sharing, r.color, r.blocked, r.archived
+            FROM %s r
+            WHERE (r.number IS NOT NULL OR r.uuid IS NOT NULL) AND %s
+            """
+    ).formatted(TABLE_RECIPIENT, SQL_IS_CONTACT);
+
+    private static final String SQL_GET_SERVICE_ID_TO_PROFILE_KEY_MAP = (
+            """
+            SELECT r.uuid, r.profile_key
+            FROM %s r
+            WHERE r.uuid IS NOT NULL AND r.profile_key IS NOT NULL
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_ADD_LEGACY_RECIPIENTS = (
+            """
+            INSERT INTO %s (_id, number, uuid)
+            VALUES (?, ?, ?)
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_STORE_CONTACT = (
+            """
+            UPDATE %s
+            SET given_name = ?, family_name = ?, expiration_time = ?, profile_sharing = ?, color = ?, blocked = ?, archived = ?
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_STORE_EXPIRING_PROFILE_KEY_CREDENTIAL = (
+            """
+            UPDATE %s
+            SET profile_key_credential = ?
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_STORE_PROFILE = (
+            """
+            UPDATE %s
+            SET profile_last_update_timestamp = ?, profile_given_name = ?, profile_family_name = ?, profile_about = ?, profile_about_emoji = ?, profile_avatar_url_path = ?, profile_mobile_coin_address = ?, profile_unidentified_access_mode = ?, profile_capabilities = ?
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_ADD_NEW_RECIPIENT = (
+            """
+            INSERT INTO %s (number, uuid, pni)
+            VALUES (?, ?, ?)
+            RETURNING _id
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_REMOVE_RECIPIENT_ADDRESS = (
+            """
+            UPDATE %s
+            SET number = NULL, uuid = NULL, pni = NULL
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_UPDATE_RECIPIENT_ADDRESS = (
+            """
+            UPDATE %s
+            SET number = ?, uuid = ?, pni = ?, username = ?
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_DELETE_RECIPIENT = (
+            """
+            DELETE FROM %s
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_FIND_BY_NUMBER = (
+            """
+            SELECT r._id, r.number, r.uuid, r.pni, r.username
+            FROM %s r
+            WHERE r.number = ?
+            LIMIT 1
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_FIND_BY_USERNAME = (
+            """
+            SELECT r._id, r.number, r.uuid, r.pni, r.username
+            FROM %s r
+            WHERE r.username = ?
+            LIMIT 1
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_FIND_BY_SERVICE_ID = (
+            """
+            SELECT r._id, r.number, r.uuid, r.pni, r.username
+            FROM %s r
+            WHERE r.uuid = ?1 OR r.pni = ?1
+            LIMIT 1
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_FIND_ALL_BY_ADDRESS = (
+            """
+            SELECT r._id, r.number, r.uuid, r.pni, r.username
+            FROM %s r
+            WHERE r.uuid = ?1 OR r.pni = ?1 OR
+                  r.uuid = ?2 OR r.pni = ?2 OR
+                  r.number = ?3 OR
+                  r.username = ?4
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_GET_CONTACT = (
+            """
+            SELECT r.given_name, r.family_name, r.expiration_time, r.profile_sharing, r.color, r.blocked, r.archived
+            FROM %s r
+            WHERE r._id = ? AND (%s)
+            """
+    ).formatted(TABLE_RECIPIENT, SQL_IS_CONTACT);
+
+    private static final String SQL_GET_PROFILE_KEY = (
+            """
+            SELECT r.profile_key
+            FROM %s r
+            WHERE r._id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_GET_EXPIRING_PROFILE_KEY_CREDENTIAL = (
+            """
+            SELECT r.profile_key_credential
+            FROM %s r
+            WHERE r._id = ?
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+    private static final String SQL_GET_PROFILE = (
+            """
+            SELECT r.profile_last_update_timestamp, r.profile_given_name, r.profile_family_name, r.profile_about, r.profile_about_emoji, r.profile_avatar_url_path, r.profile_mobile_coin_address, r.profile_unidentified_access_mode, r.profile_capabilities
+            FROM %s r
+            WHERE r._id = ? AND r.profile_capabilities IS NOT NULL
+            """
+    ).formatted(TABLE_RECIPIENT);
+
+
     private final RecipientMergeHandler recipientMergeHandler;
     private final SelfAddressProvider selfAddressProvider;
     private final Database database;
 
+    /**
+     * Only taken after the write transaction has been started, otherwise it could deadlock with a unit of work,
+     * which keeps the database locked while resolving recipients.
+     */
     private final Object recipientsLock = new Object();
     private final Map<Long, Long> recipientsMerged = new HashMap<>();
 
@@ -94,15 +271,8 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     public RecipientAddress resolveRecipientAddress(RecipientId recipientId) {
-        final var sql = (
-                """
-                SELECT r.number, r.uuid, r.pni, r.username
-                FROM %s r
-                WHERE r._id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_RESOLVE_RECIPIENT_ADDRESS)) {
                 statement.setLong(1, recipientId.id());
                 return Utils.executeQuerySingleRow(statement, this::getRecipientAddressFromResultSet);
             }
@@ -112,15 +282,8 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     public Collection<RecipientId> getRecipientIdsWithEnabledProfileSharing() {
-        final var sql = (
-                """
-                SELECT r._id
-                FROM %s r
-                WHERE r.blocked = FALSE AND r.profile_sharing = TRUE
-                """
-        ).formatted(TABLE_RECIPIENT);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_GET_PROFILE_SHARING_RECIPIENT_IDS)) {
                 try (var result = Utils.executeQueryForStream(statement, this::getRecipientIdFromResultSet)) {
                     return result.toList();
                 }
@@ -132,15 +295,8 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     @Override
     public RecipientId resolveRecipient(final long rawRecipientId) {
-        final var sql = (
-                """
-                SELECT r._id
-                FROM %s r
-                WHERE r._id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_RESOLVE_RECIPIENT)) {
                 statement.setLong(1, rawRecipientId);
                 return Utils.executeQueryForOptional(statement, this::getRecipientIdFromResultSet).orElse(null);
             }
@@ -160,31 +316,29 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     private RecipientId resolveRecipientByNumber(final String number) {
-        synchronized (recipientsLock) {
-            final RecipientId recipientId;
-            try (final var connection = database.getConnection()) {
-                connection.setAutoCommit(false);
-                recipientId = resolveRecipientLocked(connection, number);
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            synchronized (recipientsLock) {
+                final var recipientId = resolveRecipientLocked(connection, number);
                 connection.commit();
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed read recipient store", e);
+                return recipientId;
             }
-            return recipientId;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read recipient store", e);
         }
     }
 
     @Override
     public RecipientId resolveRecipient(final ServiceId serviceId) {
-        synchronized (recipientsLock) {
-            final RecipientId recipientId;
-            try (final var connection = database.getConnection()) {
-                connection.setAutoCommit(false);
-                recipientId = resolveRecipientLocked(connection, serviceId);
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            synchronized (recipientsLock) {
+                final var recipientId = resolveRecipientLocked(connection, serviceId);
                 connection.commit();
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed read recipient store", e);
+                return recipientId;
             }
-            return recipientId;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read recipient store", e);
         }
     }
 
@@ -251,16 +405,15 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     public RecipientId resolveRecipient(RecipientAddress address) {
-        synchronized (recipientsLock) {
-            final RecipientId recipientId;
-            try (final var connection = database.getConnection()) {
-                connection.setAutoCommit(false);
-                recipientId = resolveRecipientLocked(connection, address);
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            synchronized (recipientsLock) {
+                final var recipientId = resolveRecipientLocked(connection, address);
                 connection.commit();
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed read recipient store", e);
+                return recipientId;
             }
-            return recipientId;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read recipient store", e);
         }
     }
 
@@ -320,15 +473,8 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     @Override
     public List<Pair<RecipientId, Contact>> getContacts() {
-        final var sql = (
-                """
-                SELECT r._id, r.given_name, r.family_name, r.expiration_time, r.profile_sharing, r.color, r.blocked, r.archived
-                FROM %s r
-                WHERE (r.number IS NOT NULL OR r.uuid IS NOT NULL) AND %s
-                """
-        ).formatted(TABLE_RECIPIENT, SQL_IS_CONTACT);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_GET_CONTACTS)) {
                 try (var result = Utils.executeQueryForStream(statement,
                         resultSet -> new Pair<>(getRecipientIdFromResultSet(resultSet),
                                 getContactFromResultSet(resultSet)))) {
@@ -384,15 +530,8 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     public Map<ServiceId, ProfileKey> getServiceIdToProfileKeyMap() {
-        final var sql = (
-                """
-                SELECT r.uuid, r.profile_key
-                FROM %s r
-                WHERE r.uuid IS NOT NULL AND r.profile_key IS NOT NULL
-                """
-        ).formatted(TABLE_RECIPIENT);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_GET_SERVICE_ID_TO_PROFILE_KEY_MAP)) {
                 return Utils.executeQueryForStream(statement, resultSet -> {
                     final var serviceId = ServiceId.parseOrThrow(resultSet.getBytes("uuid"));
                     final var profileKey = getProfileKeyFromResultSet(resultSet);
@@ -492,18 +631,12 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     void addLegacyRecipients(final Map<RecipientId, Recipient> recipients) {
         logger.debug("Migrating legacy recipients to database");
         long start = System.nanoTime();
-        final var sql = (
-                """
-                INSERT INTO %s (_id, number, uuid)
-                VALUES (?, ?, ?)
-                """
-        ).formatted(TABLE_RECIPIENT);
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
             try (final var statement = connection.prepareStatement("DELETE FROM %s".formatted(TABLE_RECIPIENT))) {
                 statement.executeUpdate();
             }
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_ADD_LEGACY_RECIPIENTS)) {
                 for (final var recipient : recipients.values()) {
                     statement.setLong(1, recipient.getRecipientId().id());
                     statement.setString(2, recipient.getAddress().number().orElse(null));
@@ -553,14 +686,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private void storeContact(
             final Connection connection, final RecipientId recipientId, final Contact contact
     ) throws SQLException {
-        final var sql = (
-                """
-                UPDATE %s
-                SET given_name = ?, family_name = ?, expiration_time = ?, profile_sharing = ?, color = ?, blocked = ?, archived = ?
-                WHERE _id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_STORE_CONTACT)) {
             statement.setString(1, contact == null ? null : contact.getGivenName());
             statement.setString(2, contact == null ? null : contact.getFamilyName());
             statement.setInt(3, contact == null ? 0 : contact.getMessageExpirationTime());
@@ -578,14 +704,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             final RecipientId recipientId,
             final ExpiringProfileKeyCredential profileKeyCredential
     ) throws SQLException {
-        final var sql = (
-                """
-                UPDATE %s
-                SET profile_key_credential = ?
-                WHERE _id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_STORE_EXPIRING_PROFILE_KEY_CREDENTIAL)) {
             statement.setBytes(1, profileKeyCredential == null ? null : profileKeyCredential.serialize());
             statement.setLong(2, recipientId.id());
             statement.executeUpdate();
@@ -595,14 +714,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private void storeProfile(
             final Connection connection, final RecipientId recipientId, final Profile profile
     ) throws SQLException {
-        final var sql = (
-                """
-                UPDATE %s
-                SET profile_last_update_timestamp = ?, profile_given_name = ?, profile_family_name = ?, profile_about = ?, profile_about_emoji = ?, profile_avatar_url_path = ?, profile_mobile_coin_address = ?, profile_unidentified_access_mode = ?, profile_capabilities = ?
-                WHERE _id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_STORE_PROFILE)) {
             statement.setLong(1, profile == null ? 0 : profile.getLastUpdateTimestamp());
             statement.setString(2, profile == null ? null : profile.getGivenName());
             statement.setString(3, profile == null ? null : profile.getFamilyName());
@@ -651,27 +763,54 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
     }
 
-    private RecipientId resolveRecipientTrusted(RecipientAddress address, boolean isSelf) {
-        final Pair<RecipientId, List<RecipientId>> pair;
-        synchronized (recipientsLock) {
-            try (final var connection = database.getConnection()) {
-                connection.setAutoCommit(false);
-                if (address.hasSingleIdentifier() || (
-                        !isSelf && selfAddressProvider.getSelfAddress().matches(address)
-                )) {
-                    pair = new Pair<>(resolveRecipientLocked(connection, address), List.of());
-                } else {
-                    pair = MergeRecipientHelper.resolveRecipientTrustedLocked(new HelperStore(connection), address);
-
+    /**
+     * Resolve the addresses of many trusted recipients, e.g. of a contacts sync, in a single transaction.
+     * Resolving a later address can merge the recipient of an earlier address, the returned ids then refer to the
+     * recipient they were merged into.
+     */
+    public List<RecipientId> resolveRecipientsTrusted(final List<RecipientAddress> addresses) {
+        final var recipientIds = new ArrayList<RecipientId>(addresses.size());
+        final var merges = new ArrayList<Pair<RecipientId, RecipientId>>();
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            synchronized (recipientsLock) {
+                for (final var address : addresses) {
+                    final var pair = resolveRecipientTrustedLocked(connection, address, false);
+                    recipientIds.add(pair.first());
                     for (final var toBeMergedRecipientId : pair.second()) {
-                        mergeRecipientsLocked(connection, pair.first(), toBeMergedRecipientId);
+                        merges.add(new Pair<>(pair.first(), toBeMergedRecipientId));
                     }
                 }
                 connection.commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update recipient store", e);
+        }
+
+        if (merges.size() > 0) {
+            try (final var connection = database.getConnection()) {
+                for (final var merge : merges) {
+                    recipientMergeHandler.mergeRecipients(connection, merge.first(), merge.second());
+                    deleteRecipient(connection, merge.second());
+                }
             } catch (SQLException e) {
                 throw new RuntimeException("Failed update recipient store", e);
             }
         }
+        return recipientIds;
+    }
+
+    private RecipientId resolveRecipientTrusted(RecipientAddress address, boolean isSelf) {
+        final Pair<RecipientId, List<RecipientId>> pair;
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            synchronized (recipientsLock) {
+                pair = resolveRecipientTrustedLocked(connection, address, isSelf);
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update recipient store", e);
+        }
 
         if (pair.second().size() > 0) {
             try (final var connection = database.getConnection()) {
@@ -686,6 +825,19 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         return pair.first();
     }
 
+    private Pair<RecipientId, List<RecipientId>> resolveRecipientTrustedLocked(
+            final Connection connection, final RecipientAddress address, final boolean isSelf
+    ) throws SQLException {
+        if (address.hasSingleIdentifier() || (!isSelf && selfAddressProvider.getSelfAddress().matches(address))) {
+            return new Pair<>(resolveRecipientLocked(connection, address), List.of());
+        }
+        final var pair = MergeRecipientHelper.resolveRecipientTrustedLocked(new HelperStore(connection), address);
+        for (final var toBeMergedRecipientId : pair.second()) {
+            mergeRecipientsLocked(connection, pair.first(), toBeMergedRecipientId);
+        }
+        return pair;
+    }
+
     private RecipientId resolveRecipientLocked(
             Connection connection, RecipientAddress address
     ) throws SQLException {
@@ -747,14 +899,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private RecipientId addNewRecipient(
             final Connection connection, final RecipientAddress address
     ) throws SQLException {
-        final var sql = (
-                """
-                INSERT INTO %s (number, uuid, pni)
-                VALUES (?, ?, ?)
-                RETURNING _id
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_ADD_NEW_RECIPIENT)) {
             statement.setString(1, address.number().orElse(null));
             statement.setBytes(2,
                     address.serviceId().map(ServiceId::getRawUuid).map(UuidUtil::toByteArray).orElse(null));
@@ -771,14 +916,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     private void removeRecipientAddress(Connection connection, RecipientId recipientId) throws SQLException {
-        final var sql = (
-                """
-                UPDATE %s
-                SET number = NULL, uuid = NULL, pni = NULL
-                WHERE _id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_REMOVE_RECIPIENT_ADDRESS)) {
             statement.setLong(1, recipientId.id());
             statement.executeUpdate();
         }
@@ -787,14 +925,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private void updateRecipientAddress(
             Connection connection, RecipientId recipientId, final RecipientAddress address
     ) throws SQLException {
-        final var sql = (
-                """
-                UPDATE %s
-                SET number = ?, uuid = ?, pni = ?, username = ?
-                WHERE _id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_UPDATE_RECIPIENT_ADDRESS)) {
             statement.setString(1, address.number().orElse(null));
             statement.setBytes(2,
                     address.serviceId().map(ServiceId::getRawUuid).map(UuidUtil::toByteArray).orElse(null));
@@ -806,13 +937,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     private void deleteRecipient(final Connection connection, final RecipientId recipientId) throws SQLException {
-        final var sql = (
-                """
-                DELETE FROM %s
-                WHERE _id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_DELETE_RECIPIENT)) {
             statement.setLong(1, recipientId.id());
             statement.executeUpdate();
         }
@@ -847,18 +972,17 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
 
         recipientsMerged.put(toBeMergedRecipientId.id(), recipientId.id());
+        database.onRollback(() -> {
+            synchronized (recipientsLock) {
+                recipientsMerged.remove(toBeMergedRecipientId.id());
+            }
+        });
     }
 
     private Optional<RecipientWithAddress> findByNumber(
             final Connection connection, final String number
     ) throws SQLException {
-        final var sql = """
-                        SELECT r._id, r.number, r.uuid, r.pni, r.username
-                        FROM %s r
-                        WHERE r.number = ?
-                        LIMIT 1
-                        """.formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_FIND_BY_NUMBER)) {
             statement.setString(1, number);
             return Utils.executeQueryForOptional(statement, this::getRecipientWithAddressFromResultSet);
         }
@@ -867,13 +991,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private Optional<RecipientWithAddress> findByUsername(
             final Connection connection, final String username
     ) throws SQLException {
-        final var sql = """
-                        SELECT r._id, r.number, r.uuid, r.pni, r.username
-                        FROM %s r
-                        WHERE r.username = ?
-                        LIMIT 1
-                        """.formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_FIND_BY_USERNAME)) {
             statement.setString(1, username);
             return Utils.executeQueryForOptional(statement, this::getRecipientWithAddressFromResultSet);
         }
@@ -882,13 +1000,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private Optional<RecipientWithAddress> findByServiceId(
             final Connection connection, final ServiceId serviceId
     ) throws SQLException {
-        final var sql = """
-                        SELECT r._id, r.number, r.uuid, r.pni, r.username
-                        FROM %s r
-                        WHERE r.uuid = ?1 OR r.pni = ?1
-                        LIMIT 1
-                        """.formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_FIND_BY_SERVICE_ID)) {
             statement.setBytes(1, UuidUtil.toByteArray(serviceId.getRawUuid()));
             return Utils.executeQueryForOptional(statement, this::getRecipientWithAddressFromResultSet);
         }
@@ -897,15 +1009,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private Set<RecipientWithAddress> findAllByAddress(
             final Connection connection, final RecipientAddress address
     ) throws SQLException {
-        final var sql = """
-                        SELECT r._id, r.number, r.uuid, r.pni, r.username
-                        FROM %s r
-                        WHERE r.uuid = ?1 OR r.pni = ?1 OR
-                              r.uuid = ?2 OR r.pni = ?2 OR
-                              r.number = ?3 OR
-                              r.username = ?4
-                        """.formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_FIND_ALL_BY_ADDRESS)) {
             statement.setBytes(1,
                     address.serviceId().map(ServiceId::getRawUuid).map(UuidUtil::toByteArray).orElse(null));
             statement.setBytes(2, address.pni().map(ServiceId::getRawUuid).map(UuidUtil::toByteArray).orElse(null));
@@ -917,28 +1021,14 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     private Contact getContact(final Connection connection, final RecipientId recipientId) throws SQLException {
-        final var sql = (
-                """
-                SELECT r.given_name, r.family_name, r.expiration_time, r.profile_sharing, r.color, r.blocked, r.archived
-                FROM %s r
-                WHERE r._id = ? AND (%s)
-                """
-        ).formatted(TABLE_RECIPIENT, SQL_IS_CONTACT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_GET_CONTACT)) {
             statement.setLong(1, recipientId.id());
             return Utils.executeQueryForOptional(statement, this::getContactFromResultSet).orElse(null);
         }
     }
 
     private ProfileKey getProfileKey(final Connection connection, final RecipientId recipientId) throws SQLException {
-        final var sql = (
-                """
-                SELECT r.profile_key
-                FROM %s r
-                WHERE r._id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_GET_PROFILE_KEY)) {
             statement.setLong(1, recipientId.id());
             return Utils.executeQueryForOptional(statement, this::getProfileKeyFromResultSet).orElse(null);
         }
@@ -947,14 +1037,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     private ExpiringProfileKeyCredential getExpiringProfileKeyCredential(
             final Connection connection, final RecipientId recipientId
     ) throws SQLException {
-        final var sql = (
-                """
-                SELECT r.profile_key_credential
-                FROM %s r
-                WHERE r._id = ?
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_GET_EXPIRING_PROFILE_KEY_CREDENTIAL)) {
             statement.setLong(1, recipientId.id());
             return Utils.executeQueryForOptional(statement, this::getExpiringProfileKeyCredentialFromResultSet)
                     .orElse(null);
@@ -962,14 +1045,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     private Profile getProfile(final Connection connection, final RecipientId recipientId) throws SQLException {
-        final var sql = (
-                """
-                SELECT r.profile_last_update_timestamp, r.profile_given_name, r.profile_family_name, r.profile_about, r.profile_about_emoji, r.profile_avatar_url_path, r.profile_mobile_coin_address, r.profile_unidentified_access_mode, r.profile_capabilities
-                FROM %s r
-                WHERE r._id = ? AND r.profile_capabilities IS NOT NULL
-                """
-        ).formatted(TABLE_RECIPIENT);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_GET_PROFILE)) {
             statement.setLong(1, recipientId.id());
             return Utils.executeQueryForOptional(statement, this::getProfileFromResultSet).orElse(null);
         }
@@ -23,6 +23,58 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     private final static Logger logger = LoggerFactory.getLogger(SenderKeyRecordStore.class);
     private final static String TABLE_SENDER_KEY = "sender_key";
 
+    private static final String SQL_GET_CREATE_TIME_FOR_KEY = (
+            """
+            SELECT s.created_timestamp
+            FROM %s AS s
+            WHERE s.address = ? AND s.device_id = ? AND s.distribution_id = ?
+            """
+    ).formatted(TABLE_SENDER_KEY);
+
+    private static final String SQL_DELETE_SENDER_KEY = (
+            """
+            DELETE FROM %s AS s
+            WHERE s.address = ? AND s.distribution_id = ?
+            """
+    ).formatted(TABLE_SENDER_KEY);
+
+    private static final String SQL_DELETE_ALL = (
+            """
+            DELETE FROM %s AS s
+            """
+    ).formatted(TABLE_SENDER_KEY);
+
+    private static final String SQL_LOAD_SENDER_KEY = (
+            """
+            SELECT s.record
+            FROM %s AS s
+            WHERE s.address = ? AND s.device_id = ? AND s.distribution_id = ?
+            """
+    ).formatted(TABLE_SENDER_KEY);
+
+    private static final String SQL_STORE_SENDER_KEY_UPDATE = (
+            """
+            UPDATE %s
+            SET record = ?
+            WHERE address = ? AND device_id = ? and distribution_id = ?
+            """
+    ).formatted(TABLE_SENDER_KEY);
+
+    private static final String SQL_STORE_SENDER_KEY_INSERT = (
+            """
+            INSERT OR REPLACE INTO %s (address, device_id, distribution_id, record, created_timestamp)
+            VALUES (?, ?, ?, ?, ?)
+            """
+    ).formatted(TABLE_SENDER_KEY);
+
+    private static final String SQL_DELETE_ALL_FOR = (
+            """
+            DELETE FROM %s AS s
+            WHERE s.address = ?
+            """
+    ).formatted(TABLE_SENDER_KEY);
+
+
     private final Database database;
 
     public static void createSql(Connection connection) throws SQLException {
@@ -71,15 +123,8 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     }
 
     long getCreateTimeForKey(final ServiceId selfServiceId, final int selfDeviceId, final UUID distributionId) {
-        final var sql = (
-                """
-                SELECT s.created_timestamp
-                FROM %s AS s
-                WHERE s.address = ? AND s.device_id = ? AND s.distribution_id = ?
-                """
-        ).formatted(TABLE_SENDER_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_GET_CREATE_TIME_FOR_KEY)) {
                 statement.setString(1, selfServiceId.toString());
                 statement.setInt(2, selfDeviceId);
                 statement.setBytes(3, UuidUtil.toByteArray(distributionId));
@@ -91,14 +136,8 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     }
 
     void deleteSenderKey(final ServiceId serviceId, final UUID distributionId) {
-        final var sql = (
-                """
-                DELETE FROM %s AS s
-                WHERE s.address = ? AND s.distribution_id = ?
-                """
-        ).formatted(TABLE_SENDER_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_DELETE_SENDER_KEY)) {
                 statement.setString(1, serviceId.toString());
                 statement.setBytes(2, UuidUtil.toByteArray(distributionId));
                 statement.executeUpdate();
@@ -109,11 +148,8 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     }
 
     void deleteAll() {
-        final var sql = """
-                        DELETE FROM %s AS s
-                        """.formatted(TABLE_SENDER_KEY);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_DELETE_ALL)) {
                 statement.executeUpdate();
             }
         } catch (SQLException e) {
@@ -149,14 +185,7 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     }
 
     private SenderKeyRecord loadSenderKey(final Connection connection, final Key key) throws SQLException {
-        final var sql = (
-                """
-                SELECT s.record
-                FROM %s AS s
-                WHERE s.address = ? AND s.device_id = ? AND s.distribution_id = ?
-                """
-        ).formatted(TABLE_SENDER_KEY);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_LOAD_SENDER_KEY)) {
             statement.setString(1, key.address());
             statement.setInt(2, key.deviceId());
             statement.setBytes(3, UuidUtil.toByteArray(key.distributionId()));
@@ -167,12 +196,7 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     private void storeSenderKey(
             final Connection connection, final Key key, final SenderKeyRecord senderKeyRecord
     ) throws SQLException {
-        final var sqlUpdate = """
-                              UPDATE %s
-                              SET record = ?
-                              WHERE address = ? AND device_id = ? and distribution_id = ?
-                              """.formatted(TABLE_SENDER_KEY);
-        try (final var statement = connection.prepareStatement(sqlUpdate)) {
+        try (final var statement = connection.prepareStatement(SQL_STORE_SENDER_KEY_UPDATE)) {
             statement.setBytes(1, senderKeyRecord.serialize());
             statement.setString(2, key.address());
             statement.setLong(3, key.deviceId());
@@ -184,13 +208,7 @@ public class SenderKeyRecordStore implements SenderKeyStore {
         }
 
         // Record doesn't exist yet, creating a new one
-        final var sqlInsert = (
-                """
-                INSERT OR REPLACE INTO %s (address, device_id, distribution_id, record, created_timestamp)
-                VALUES (?, ?, ?, ?, ?)
-                """
-        ).formatted(TABLE_SENDER_KEY);
-        try (final var statement = connection.prepareStatement(sqlInsert)) {
+        try (final var statement = connection.prepareStatement(SQL_STORE_SENDER_KEY_INSERT)) {
             statement.setString(1, key.address());
             statement.setInt(2, key.deviceId());
             statement.setBytes(3, UuidUtil.toByteArray(key.distributionId()));
@@ -201,13 +219,7 @@ public class SenderKeyRecordStore implements SenderKeyStore {
     }
 
     private void deleteAllFor(final Connection connection, final ServiceId serviceId) throws SQLException {
-        final var sql = (
-                """
-                DELETE FROM %s AS s
-                WHERE s.address = ?
-                """
-        ).formatted(TABLE_SENDER_KEY);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_DELETE_ALL_FOR)) {
             statement.setString(1, serviceId.toString());
             statement.executeUpdate();
         }
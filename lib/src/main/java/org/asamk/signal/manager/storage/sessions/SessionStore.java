@@ -28,6 +28,60 @@ import java.util.stream.Collectors;
 public class SessionStore implements SignalServiceSessionStore {
 
     private static final String TABLE_SESSION = "session";
+
+    private static final String SQL_GET_SUB_DEVICE_SESSIONS = (
+            """
+            SELECT s.device_id
+            FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ? AND s.device_id != 1
+            """
+    ).formatted(TABLE_SESSION);
+
+    private static final String SQL_ARCHIVE_ALL_SESSIONS = (
+            """
+            SELECT s.address, s.device_id, s.record
+            FROM %s AS s
+            WHERE s.account_id_type = ?
+            """
+    ).formatted(TABLE_SESSION);
+
+    private static final String SQL_ARCHIVE_SESSIONS = (
+            """
+            SELECT s.address, s.device_id, s.record
+            FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ?
+            """
+    ).formatted(TABLE_SESSION);
+
+    private static final String SQL_LOAD_SESSION = (
+            """
+            SELECT s.record
+            FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
+            """
+    ).formatted(TABLE_SESSION);
+
+    private static final String SQL_STORE_SESSION = (
+            """
+            INSERT OR REPLACE INTO %s (account_id_type, address, device_id, record)
+            VALUES (?, ?, ?, ?)
+            """
+    ).formatted(TABLE_SESSION);
+
+    private static final String SQL_DELETE_ALL_SESSIONS = (
+            """
+            DELETE FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ?
+            """
+    ).formatted(TABLE_SESSION);
+
+    private static final String SQL_DELETE_SESSION = (
+            """
+            DELETE FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
+            """
+    ).formatted(TABLE_SESSION);
+
     private final static Logger logger = LoggerFactory.getLogger(SessionStore.class);
 
     private final Map<Key, SessionRecord> cachedSessions = new HashMap<>();
@@ -100,15 +154,8 @@ public class SessionStore implements SignalServiceSessionStore {
     public List<Integer> getSubDeviceSessions(String name) {
         final var serviceId = ServiceId.parseOrThrow(name);
         // get all sessions for recipient except primary device session
-        final var sql = (
-                """
-                SELECT s.device_id
-                FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ? AND s.device_id != 1
-                """
-        ).formatted(TABLE_SESSION);
         try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_GET_SUB_DEVICE_SESSIONS)) {
                 statement.setInt(1, accountIdType);
                 statement.setString(2, serviceId.toString());
                 return Utils.executeQueryForStream(statement, res -> res.getInt("device_id")).toList();
@@ -225,17 +272,10 @@ public class SessionStore implements SignalServiceSessionStore {
     }
 
     public void archiveAllSessions() {
-        final var sql = (
-                """
-                SELECT s.address, s.device_id, s.record
-                FROM %s AS s
-                WHERE s.account_id_type = ?
-                """
-        ).formatted(TABLE_SESSION);
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
             final List<Pair<Key, SessionRecord>> records;
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_ARCHIVE_ALL_SESSIONS)) {
                 statement.setInt(1, accountIdType);
                 records = Utils.executeQueryForStream(statement,
                                 res -> new Pair<>(getKeyFromResultSet(res), getSessionRecordFromResultSet(res)))
@@ -253,17 +293,10 @@ public class SessionStore implements SignalServiceSessionStore {
     }
 
     public void archiveSessions(final ServiceId serviceId) {
-        final var sql = (
-                """
-                SELECT s.address, s.device_id, s.record
-                FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ?
-                """
-        ).formatted(TABLE_SESSION);
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
             final List<Pair<Key, SessionRecord>> records;
-            try (final var statement = connection.prepareStatement(sql)) {
+            try (final var statement = connection.prepareStatement(SQL_ARCHIVE_SESSIONS)) {
                 statement.setInt(1, accountIdType);
                 statement.setString(2, serviceId.toString());
                 records = Utils.executeQueryForStream(statement,
@@ -307,14 +340,7 @@ public class SessionStore implements SignalServiceSessionStore {
                 return session;
             }
         }
-        final var sql = (
-                """
-                SELECT s.record
-                FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
-                """
-        ).formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_LOAD_SESSION)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, key.address());
             statement.setInt(3, key.deviceId());
@@ -344,12 +370,14 @@ public class SessionStore implements SignalServiceSessionStore {
         synchronized (cachedSessions) {
             cachedSessions.put(key, session);
         }
+        // Reload the session from the database, if the enclosing unit of work is rolled back
+        database.onRollback(() -> {
+            synchronized (cachedSessions) {
+                cachedSessions.remove(key);
+            }
+        });
 
-        final var sql = """
-                        INSERT OR REPLACE INTO %s (account_id_type, address, device_id, record)
-                        VALUES (?, ?, ?, ?)
-                        """.formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_STORE_SESSION)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, key.address());
             statement.setInt(3, key.deviceId());
@@ -363,13 +391,7 @@ public class SessionStore implements SignalServiceSessionStore {
             cachedSessions.clear();
         }
 
-        final var sql = (
-                """
-                DELETE FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ?
-                """
-        ).formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_DELETE_ALL_SESSIONS)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, address);
             statement.executeUpdate();
@@ -381,13 +403,7 @@ public class SessionStore implements SignalServiceSessionStore {
             cachedSessions.remove(key);
         }
 
-        final var sql = (
-                """
-                DELETE FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
-                """
-        ).formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_DELETE_SESSION)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, key.address());
             statement.setInt(3, key.deviceId());
@@ -0,0 +1,280 @@
+package org.asamk.signal.manager.storage.storageRecords;
+
+import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.Utils;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.recipients.RecipientIdCreator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.storage.StorageId;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Maps the ids of the records in the remote storage manifest to the local recipients and groups they were applied to.
+ * Records that are written back to the storage service are also kept, so local changes can be detected.
+ * Local changes of a recipient or group mark its record as dirty, only dirty records are compared and uploaded.
+ */
+public class StorageRecordStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(StorageRecordStore.class);
+
+    private static final String TABLE_STORAGE_RECORD = "storage_record";
+
+    private static final String SQL_SELECT_STORAGE_IDS = (
+            """
+            SELECT s.storage_id, s.type
+            FROM %s s
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_SELECT_DIRTY_STORAGE_RECORDS = (
+            """
+            SELECT s.storage_id, s.type, s.recipient_id, s.group_id, s.record
+            FROM %s s
+            WHERE s.type = ? AND s.dirty = TRUE AND s.record IS NOT NULL
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_UPSERT_STORAGE_RECORD = (
+            """
+            INSERT INTO %s (storage_id, type, recipient_id, group_id, record)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (storage_id) DO UPDATE SET
+              recipient_id=excluded.recipient_id, group_id=excluded.group_id, record=excluded.record, dirty=FALSE
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_MARK_RECIPIENT_DIRTY = (
+            """
+            UPDATE %s
+            SET dirty = TRUE
+            WHERE recipient_id = ?
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_MARK_GROUP_DIRTY = (
+            """
+            UPDATE %s
+            SET dirty = TRUE
+            WHERE group_id = ?
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_CLEAR_DIRTY = (
+            """
+            UPDATE %s
+            SET dirty = FALSE
+            WHERE storage_id = ?
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_DELETE_STORAGE_RECORD = (
+            """
+            DELETE FROM %s
+            WHERE storage_id = ?
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_SELECT_OTHER_STORAGE_ID = (
+            """
+            SELECT s.storage_id
+            FROM %s s
+            WHERE (s.recipient_id = ? OR s.group_id = ?) AND s.storage_id != ?
+            """
+    ).formatted(TABLE_STORAGE_RECORD);
+
+    private static final String SQL_DELETE_ALL_STORAGE_RECORDS = "DELETE FROM %s".formatted(TABLE_STORAGE_RECORD);
+
+    private final Database database;
+    private final RecipientIdCreator recipientIdCreator;
+
+    public static void createSql(Connection connection) throws SQLException {
+        // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
+        try (final var statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                                    CREATE TABLE storage_record (
+                                      _id INTEGER PRIMARY KEY,
+                                      storage_id BLOB UNIQUE NOT NULL,
+                                      type INTEGER NOT NULL,
+                                      recipient_id INTEGER UNIQUE REFERENCES recipient (_id) ON DELETE CASCADE,
+                                      group_id BLOB UNIQUE,
+                                      record BLOB,
+                                      dirty INTEGER NOT NULL DEFAULT FALSE
+                                    ) STRICT;
+                                    """);
+        }
+    }
+
+    public StorageRecordStore(final Database database, final RecipientIdCreator recipientIdCreator) {
+        this.database = database;
+        this.recipientIdCreator = recipientIdCreator;
+    }
+
+    public Set<StorageId> getStorageIds() {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_SELECT_STORAGE_IDS)) {
+                try (var result = Utils.executeQueryForStream(statement, this::getStorageIdFromResultSet)) {
+                    return result.collect(Collectors.toSet());
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from storage record store", e);
+        }
+    }
+
+    /**
+     * Get the records of the given type, whose recipient or group was changed locally since the record was stored.
+     */
+    public List<StorageRecord> getDirtyStorageRecords(final int type) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_SELECT_DIRTY_STORAGE_RECORDS)) {
+                statement.setInt(1, type);
+                try (var result = Utils.executeQueryForStream(statement, this::getStorageRecordFromResultSet)) {
+                    return result.toList();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from storage record store", e);
+        }
+    }
+
+    /**
+     * Store the mapping of a storage id.
+     * If the recipient or group is already mapped to another storage id, because the remote storage contains
+     * duplicate records, only the storage id is stored, so the record isn't read again.
+     */
+    public void storeStorageRecord(final StorageRecord storageRecord) {
+        try (final var connection = database.getConnection()) {
+            final var isMapped = isMappedToOtherStorageId(connection, storageRecord);
+            if (isMapped) {
+                logger.debug("Remote storage contains duplicate records for {}, ignoring {}",
+                        storageRecord.recipientId() != null ? storageRecord.recipientId() : storageRecord.groupId(),
+                        storageRecord.storageId());
+            }
+            try (final var statement = connection.prepareStatement(SQL_UPSERT_STORAGE_RECORD)) {
+                statement.setBytes(1, storageRecord.storageId().getRaw());
+                statement.setInt(2, storageRecord.storageId().getType());
+                if (storageRecord.recipientId() == null || isMapped) {
+                    statement.setNull(3, Types.INTEGER);
+                } else {
+                    statement.setLong(3, storageRecord.recipientId().id());
+                }
+                statement.setBytes(4,
+                        storageRecord.groupId() == null || isMapped ? null : storageRecord.groupId().serialize());
+                statement.setBytes(5, isMapped ? null : storageRecord.record());
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update storage record store", e);
+        }
+    }
+
+    /**
+     * Mark the record of the recipient as changed locally.
+     */
+    public void markRecipientDirty(final RecipientId recipientId) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_MARK_RECIPIENT_DIRTY)) {
+                statement.setLong(1, recipientId.id());
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update storage record store", e);
+        }
+    }
+
+    /**
+     * Mark the record of the group as changed locally.
+     */
+    public void markGroupDirty(final GroupId groupId) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_MARK_GROUP_DIRTY)) {
+                statement.setBytes(1, groupId.serialize());
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update storage record store", e);
+        }
+    }
+
+    public void clearDirty(final Collection<StorageId> storageIds) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_CLEAR_DIRTY)) {
+                for (final var storageId : storageIds) {
+                    statement.setBytes(1, storageId.getRaw());
+                    statement.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update storage record store", e);
+        }
+    }
+
+    public void deleteStorageRecords(final Collection<StorageId> storageIds) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_DELETE_STORAGE_RECORD)) {
+                for (final var storageId : storageIds) {
+                    statement.setBytes(1, storageId.getRaw());
+                    statement.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update storage record store", e);
+        }
+    }
+
+    public void deleteAllStorageRecords() {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_DELETE_ALL_STORAGE_RECORDS)) {
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update storage record store", e);
+        }
+    }
+
+    private boolean isMappedToOtherStorageId(
+            final Connection connection, final StorageRecord storageRecord
+    ) throws SQLException {
+        if (storageRecord.recipientId() == null && storageRecord.groupId() == null) {
+            return false;
+        }
+        try (final var statement = connection.prepareStatement(SQL_SELECT_OTHER_STORAGE_ID)) {
+            if (storageRecord.recipientId() == null) {
+                statement.setNull(1, Types.INTEGER);
+            } else {
+                statement.setLong(1, storageRecord.recipientId().id());
+            }
+            statement.setBytes(2, storageRecord.groupId() == null ? null : storageRecord.groupId().serialize());
+            statement.setBytes(3, storageRecord.storageId().getRaw());
+            try (final var result = statement.executeQuery()) {
+                return result.next();
+            }
+        }
+    }
+
+    private StorageId getStorageIdFromResultSet(ResultSet resultSet) throws SQLException {
+        return StorageId.forType(resultSet.getBytes("storage_id"), resultSet.getInt("type"));
+    }
+
+    private StorageRecord getStorageRecordFromResultSet(ResultSet resultSet) throws SQLException {
+        final var recipientId = resultSet.getLong("recipient_id");
+        final var recipientIdNull = resultSet.wasNull();
+        final var groupId = resultSet.getBytes("group_id");
+        return new StorageRecord(getStorageIdFromResultSet(resultSet),
+                recipientIdNull ? null : recipientIdCreator.create(recipientId),
+                groupId == null ? null : GroupId.unknownVersion(groupId),
+                resultSet.getBytes("record"));
+    }
+
+    public record StorageRecord(StorageId storageId, RecipientId recipientId, GroupId groupId, byte[] record) {}
+}
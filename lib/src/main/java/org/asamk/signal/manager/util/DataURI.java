@@ -1,5 +1,7 @@
 package org.asamk.signal.manager.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
@@ -15,6 +17,9 @@ public record DataURI(String mediaType, Map<String, String> parameter, byte[] da
     public static final Pattern DATA_URI_PATTERN = Pattern.compile(
             "\\Adata:(?<type>.+?/.+?)?(?<parameters>;.+?=.+?)?(?<base64>;base64)?,(?<data>.+)\\z",
             Pattern.CASE_INSENSITIVE);
+    private static final Pattern HEADER_PATTERN = Pattern.compile(
+            "\\Adata:(?<type>.+?/.+?)?(?<parameters>;.+?=.+?)?(?<base64>;base64)?,",
+            Pattern.CASE_INSENSITIVE);
     public static final Pattern PARAMETER_PATTERN = Pattern.compile("\\G;(?<key>.+)=(?<value>.+)",
             Pattern.CASE_INSENSITIVE);
 
@@ -45,8 +50,47 @@ public record DataURI(String mediaType, Map<String, String> parameter, byte[] da
             throw new IllegalArgumentException("The given string is not a valid data URI.");
         }
 
+        final var parameters = parseParameters(matcher.group("parameters"));
+        final boolean isBase64 = matcher.group("base64") != null;
+        final byte[] data;
+        if (isBase64) {
+            data = Base64.getDecoder().decode(matcher.group("data").getBytes(StandardCharsets.UTF_8));
+        } else {
+            data = URLDecoder.decode(matcher.group("data"), StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
+        }
+
+        return new DataURI(Optional.ofNullable(matcher.group("type")).orElse(MimeUtils.PLAIN_TEXT), parameters, data);
+    }
+
+    /**
+     * Like {@link #of(String)}, but base64 encoded data is only decoded while the returned stream is read.
+     * Large attachments are then not copied into intermediate strings and byte arrays.
+     *
+     * @param dataURI the data URI
+     * @return a data URI with a stream of the decoded data
+     * @throws IllegalArgumentException if the given string is not a valid data URI
+     */
+    public static Streaming ofStreaming(final String dataURI) {
+        final var matcher = HEADER_PATTERN.matcher(dataURI);
+        if (!matcher.lookingAt() || matcher.group("base64") == null) {
+            final var uri = of(dataURI);
+            return new Streaming(uri.mediaType(),
+                    uri.parameter(),
+                    new ByteArrayInputStream(uri.data()),
+                    uri.data().length);
+        }
+
+        final var dataStart = matcher.end();
+        final var size = getBase64DecodedSize(dataURI, dataStart);
+        final var data = Base64.getDecoder().wrap(new AsciiInputStream(dataURI, dataStart));
+        return new Streaming(Optional.ofNullable(matcher.group("type")).orElse(MimeUtils.PLAIN_TEXT),
+                parseParameters(matcher.group("parameters")),
+                data,
+                size);
+    }
+
+    private static Map<String, String> parseParameters(final String params) {
         final Map<String, String> parameters = new HashMap<>();
-        final var params = matcher.group("parameters");
         if (params != null) {
             final Matcher paramsMatcher = PARAMETER_PATTERN.matcher(params);
             while (paramsMatcher.find()) {
@@ -55,15 +99,70 @@ public record DataURI(String mediaType, Map<String, String> parameter, byte[] da
                 parameters.put(key, value);
             }
         }
+        return parameters;
+    }
 
-        final boolean isBase64 = matcher.group("base64") != null;
-        final byte[] data;
-        if (isBase64) {
-            data = Base64.getDecoder().decode(matcher.group("data").getBytes(StandardCharsets.UTF_8));
-        } else {
-            data = URLDecoder.decode(matcher.group("data"), StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
+    /**
+     * Validates the base64 data without decoding it, with the same rules as {@link Base64#getDecoder()}.
+     */
+    private static long getBase64DecodedSize(final String value, final int start) {
+        var end = value.length();
+        var padding = 0;
+        while (end > start && padding < 2 && value.charAt(end - 1) == '=') {
+            end--;
+            padding++;
         }
+        final var length = end - start;
+        if (length == 0 || length % 4 == 1 || (padding > 0 && (length + padding) % 4 != 0)) {
+            throw new IllegalArgumentException("The given string is not a valid data URI.");
+        }
+        for (var i = start; i < end; i++) {
+            final var c = value.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/')) {
+                throw new IllegalArgumentException("The given data URI contains invalid base64 data.");
+            }
+        }
+        return length / 4 * 3L + Math.max(0, length % 4 - 1);
+    }
 
-        return new DataURI(Optional.ofNullable(matcher.group("type")).orElse(MimeUtils.PLAIN_TEXT), parameters, data);
+    public record Streaming(String mediaType, Map<String, String> parameter, InputStream data, long size) {}
+
+    /**
+     * Reads the characters of a string as bytes, only valid for ASCII characters.
+     */
+    private static final class AsciiInputStream extends InputStream {
+
+        private final String value;
+        private int position;
+
+        private AsciiInputStream(final String value, final int start) {
+            this.value = value;
+            this.position = start;
+        }
+
+        @Override
+        public int read() {
+            return position < value.length() ? value.charAt(position++) & 0x7f : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            final var count = Math.min(len, value.length() - position);
+            if (count <= 0) {
+                return -1;
+            }
+            for (var i = 0; i < count; i++) {
+                b[off + i] = (byte) value.charAt(position++);
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return value.length() - position;
+        }
     }
 }
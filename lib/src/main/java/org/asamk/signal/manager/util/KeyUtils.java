@@ -18,6 +18,7 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import static org.asamk.signal.manager.config.ServiceConfig.PREKEY_BATCH_SIZE;
 import static org.asamk.signal.manager.config.ServiceConfig.PREKEY_MAXIMUM_ID;
@@ -73,15 +74,16 @@ public class KeyUtils {
         return new SignedPreKeyRecord(signedPreKeyId, System.currentTimeMillis(), keyPair, signature);
     }
 
+    /**
+     * Kyber key generation is CPU heavy, so the keys of a batch are generated in parallel.
+     */
     public static List<KyberPreKeyRecord> generateKyberPreKeyRecords(
             final int offset, final ECPrivateKey privateKey
     ) {
-        var records = new ArrayList<KyberPreKeyRecord>(PREKEY_BATCH_SIZE);
-        for (var i = 0; i < PREKEY_BATCH_SIZE; i++) {
-            var preKeyId = (offset + i) % PREKEY_MAXIMUM_ID;
-            records.add(generateKyberPreKeyRecord(preKeyId, privateKey));
-        }
-        return records;
+        return IntStream.range(0, PREKEY_BATCH_SIZE)
+                .parallel()
+                .mapToObj(i -> generateKyberPreKeyRecord((offset + i) % PREKEY_MAXIMUM_ID, privateKey))
+                .toList();
     }
 
     public static KyberPreKeyRecord generateKyberPreKeyRecord(final int preKeyId, final ECPrivateKey privateKey) {
@@ -107,6 +109,10 @@ public class KeyUtils {
         return getSecretBytes(32);
     }
 
+    public static byte[] createRawStorageId() {
+        return getSecretBytes(16);
+    }
+
     public static MasterKey createMasterKey() {
         return MasterKey.createNew(secureRandom);
     }
@@ -10,7 +10,6 @@ import org.whispersystems.signalservice.api.push.ServiceId;
 import org.whispersystems.signalservice.api.util.StreamDetails;
 import org.whispersystems.signalservice.internal.ServiceResponse;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -33,9 +32,9 @@ public class Utils {
     private final static Logger logger = LoggerFactory.getLogger(Utils.class);
 
     public static Pair<StreamDetails, Optional<String>> createStreamDetailsFromDataURI(final String dataURI) {
-        final DataURI uri = DataURI.of(dataURI);
+        final var uri = DataURI.ofStreaming(dataURI);
 
-        return new Pair<>(new StreamDetails(new ByteArrayInputStream(uri.data()), uri.mediaType(), uri.data().length),
+        return new Pair<>(new StreamDetails(uri.data(), uri.mediaType(), uri.size()),
                 Optional.ofNullable(uri.parameter().get("filename")));
     }
 
@@ -0,0 +1,148 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.internal.SessionLockManager;
+import org.asamk.signal.manager.metrics.Metrics;
+import org.asamk.signal.manager.storage.TestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EnvelopeTransactionTest {
+
+    // Must match the stripe count of the SessionLockManager
+    private static final int LOCK_STRIPES = 64;
+
+    static final ServiceId SENDER = ServiceId.ACI.from(UUID.randomUUID());
+    static final ServiceId OTHER = serviceIdWithOtherStripe(SENDER);
+
+    @TempDir
+    File tempDir;
+
+    final SessionLockManager sessionLock = new SessionLockManager(Metrics.DISABLED);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+
+    TestDatabase database;
+    EnvelopeTransaction envelopeTransaction;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = TestDatabase.init(new File(tempDir, "test.db"));
+        envelopeTransaction = new EnvelopeTransaction(database, sessionLock);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        executor.shutdownNow();
+        database.close();
+    }
+
+    @Test
+    void decryptAndHandleAreCommittedTogether() throws SQLException {
+        final var result = envelopeTransaction.run(SENDER,
+                () -> insertItem("session"),
+                decrypted -> SENDER,
+                decrypted -> {
+                    insertItem("message");
+                    return decrypted + " handled";
+                });
+
+        assertEquals("session handled", result);
+        assertEquals(List.of("session", "message"), database.getItems());
+    }
+
+    @Test
+    void failingHandlerLeavesNoPartialState() throws SQLException {
+        assertThrows(IllegalStateException.class,
+                () -> envelopeTransaction.run(SENDER, () -> insertItem("session"), decrypted -> SENDER, decrypted -> {
+                    insertItem("message");
+                    throw new IllegalStateException("Handler failed");
+                }));
+
+        assertEquals(List.of(), database.getItems());
+    }
+
+    @Test
+    void failingDecryptSkipsHandler() throws SQLException {
+        final var handled = new boolean[1];
+        assertThrows(IllegalStateException.class, () -> envelopeTransaction.run(null, () -> {
+            insertItem("session");
+            throw new IllegalStateException("Decrypt failed");
+        }, decrypted -> SENDER, decrypted -> handled[0] = true));
+
+        assertFalse(handled[0]);
+        assertEquals(List.of(), database.getItems());
+    }
+
+    @Test
+    void sealedSenderEnvelopeIsHandledHoldingOnlyTheSenderLock() throws SQLException {
+        final var locks = envelopeTransaction.run(null,
+                () -> "decrypted",
+                decrypted -> SENDER,
+                decrypted -> List.of(tryLock(OTHER), tryLock(SENDER)));
+
+        assertEquals(List.of(true, false), locks);
+    }
+
+    @Test
+    void undecryptableSealedSenderEnvelopeIsHandledHoldingAllLocks() throws SQLException {
+        final var locked = envelopeTransaction.run(null,
+                () -> "failed",
+                decrypted -> null,
+                decrypted -> tryLock(OTHER));
+
+        assertFalse(locked);
+    }
+
+    /**
+     * Try to lock the sessions of an address from another thread, without waiting for the lock.
+     */
+    private boolean tryLock(final ServiceId address) {
+        final var lock = CompletableFuture.runAsync(() -> sessionLock.acquire(List.of(address)).unlock(), executor);
+        try {
+            lock.get(200, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private String insertItem(final String name) {
+        try {
+            database.insertItem(name);
+        } catch (SQLException e) {
+            throw new AssertionError(e);
+        }
+        return name;
+    }
+
+    private static ServiceId serviceIdWithOtherStripe(final ServiceId serviceId) {
+        while (true) {
+            final var other = ServiceId.ACI.from(UUID.randomUUID());
+            if (getStripe(other) != getStripe(serviceId)) {
+                return other;
+            }
+        }
+    }
+
+    private static int getStripe(final ServiceId serviceId) {
+        return Math.floorMod(serviceId.toString().hashCode(), LOCK_STRIPES);
+    }
+}
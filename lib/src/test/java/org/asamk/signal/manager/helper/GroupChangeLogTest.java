@@ -0,0 +1,175 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.api.GroupIdV2;
+import org.asamk.signal.manager.api.Pair;
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.zkgroup.profiles.ProfileKey;
+import org.signal.storageservice.protos.groups.local.DecryptedGroup;
+import org.signal.storageservice.protos.groups.local.DecryptedGroupChange;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GroupChangeLogTest {
+
+    static final GroupIdV2 GROUP_ID = GroupId.v2(new byte[32]);
+    static final ServiceId EDITOR = ServiceId.ACI.from(UUID.randomUUID());
+
+    final GroupChangeLog changeLog = new GroupChangeLog();
+    final FakeSource source = new FakeSource();
+
+    @Test
+    void changesAreAppliedAcrossPages() throws Exception {
+        source.pages.add(page(true, 4, change(2), change(3)));
+        source.pages.add(page(false, -1, change(4), change(5)));
+
+        final var result = changeLog.apply(GROUP_ID, group(1), 5, source);
+
+        assertNotNull(result);
+        assertEquals(5, result.group().revision);
+        assertEquals(List.of(2, 4), source.requestedRevisions);
+        assertEquals(List.of(2, 3, 4, 5), source.appliedRevisions);
+    }
+
+    @Test
+    void alreadyAppliedEntriesAreSkipped() throws Exception {
+        source.pages.add(page(false, -1, change(1), change(2), change(3)));
+
+        final var result = changeLog.apply(GROUP_ID, group(2), 3, source);
+
+        assertNotNull(result);
+        assertEquals(3, result.group().revision);
+        assertEquals(List.of(3), source.appliedRevisions);
+    }
+
+    @Test
+    void revisionGapUsesIncludedGroupState() throws Exception {
+        source.pages.add(page(false, -1, change(2), new GroupChangeLog.Entry(group(4), change(4)), change(5)));
+
+        final var result = changeLog.apply(GROUP_ID, group(1), 5, source);
+
+        assertNotNull(result);
+        assertEquals(5, result.group().revision);
+        assertEquals(List.of(2, 5), source.appliedRevisions);
+    }
+
+    @Test
+    void changeThatDoesNotApplyUsesIncludedGroupState() throws Exception {
+        source.unappliableRevisions.add(3);
+        source.pages.add(page(false, -1, change(2), new GroupChangeLog.Entry(group(3), change(3))));
+
+        final var result = changeLog.apply(GROUP_ID, group(1), 3, source);
+
+        assertNotNull(result);
+        assertEquals(3, result.group().revision);
+    }
+
+    @Test
+    void revisionGapWithoutGroupStateFails() throws Exception {
+        source.pages.add(page(false, -1, change(2), change(4)));
+
+        assertNull(changeLog.apply(GROUP_ID, group(1), 4, source));
+    }
+
+    @Test
+    void unavailableChangeLogFails() throws Exception {
+        assertNull(changeLog.apply(GROUP_ID, group(1), 3, source));
+        assertEquals(List.of(2), source.requestedRevisions);
+    }
+
+    @Test
+    void changeLogEndingBeforeTargetRevisionFails() throws Exception {
+        source.pages.add(page(false, -1, change(2), change(3)));
+
+        assertNull(changeLog.apply(GROUP_ID, group(1), 5, source));
+    }
+
+    @Test
+    void interruptedCatchUpResumesFromCachedState() throws Exception {
+        source.pages.add(page(true, 4, change(2), change(3)));
+        assertNull(changeLog.apply(GROUP_ID, group(1), 5, source));
+
+        source.requestedRevisions.clear();
+        source.pages.add(page(false, -1, change(4), change(5)));
+        final var result = changeLog.apply(GROUP_ID, group(1), 5, source);
+
+        assertNotNull(result);
+        assertEquals(5, result.group().revision);
+        assertEquals(List.of(4), source.requestedRevisions);
+    }
+
+    @Test
+    void failedCatchUpDiscardsCachedState() throws Exception {
+        source.pages.add(page(true, 3, change(2)));
+        source.pages.add(page(false, -1, change(4)));
+        assertNull(changeLog.apply(GROUP_ID, group(1), 4, source));
+
+        source.requestedRevisions.clear();
+        assertNull(changeLog.apply(GROUP_ID, group(1), 4, source));
+        assertEquals(List.of(2), source.requestedRevisions);
+    }
+
+    @Test
+    void profileKeysOfAppliedChangesAreReturned() throws Exception {
+        source.profileKeyRevisions.add(3);
+        source.pages.add(page(false, -1, change(2), change(3)));
+
+        final var result = changeLog.apply(GROUP_ID, group(1), 3, source);
+
+        assertNotNull(result);
+        assertEquals(1, result.profileKeys().size());
+        assertEquals(EDITOR, result.profileKeys().get(0).first());
+    }
+
+    private static DecryptedGroup group(final int revision) {
+        return new DecryptedGroup.Builder().revision(revision).build();
+    }
+
+    private static GroupChangeLog.Entry change(final int revision) {
+        return new GroupChangeLog.Entry(null, new DecryptedGroupChange.Builder().revision(revision).build());
+    }
+
+    private static GroupChangeLog.Page page(
+            final boolean hasMorePages, final int nextPageRevision, final GroupChangeLog.Entry... entries
+    ) {
+        return new GroupChangeLog.Page(List.of(entries), hasMorePages, nextPageRevision);
+    }
+
+    private static class FakeSource implements GroupChangeLog.Source {
+
+        final List<GroupChangeLog.Page> pages = new ArrayList<>();
+        final List<Integer> requestedRevisions = new ArrayList<>();
+        final List<Integer> appliedRevisions = new ArrayList<>();
+        final Set<Integer> unappliableRevisions = new HashSet<>();
+        final Set<Integer> profileKeyRevisions = new HashSet<>();
+
+        @Override
+        public GroupChangeLog.Page getPage(final int fromRevision) {
+            requestedRevisions.add(fromRevision);
+            return pages.isEmpty() ? null : pages.remove(0);
+        }
+
+        @Override
+        public DecryptedGroup applyChange(final DecryptedGroup group, final DecryptedGroupChange change) {
+            if (unappliableRevisions.contains(change.revision)) {
+                return null;
+            }
+            appliedRevisions.add(change.revision);
+            return group.newBuilder().revision(change.revision).build();
+        }
+
+        @Override
+        public Pair<ServiceId, ProfileKey> getAuthoritativeProfileKey(final DecryptedGroupChange change) {
+            return profileKeyRevisions.contains(change.revision) ? new Pair<>(EDITOR, null) : null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.storage.AvatarStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaCacheHelperTest {
+
+    // Must match the eviction interval of the MediaCacheHelper
+    private static final int EVICTION_INTERVAL = 50;
+
+    @TempDir
+    File tempDir;
+
+    AvatarStore avatarStore;
+    MediaCacheHelper mediaCacheHelper;
+
+    final List<String> downloaded = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        avatarStore = new AvatarStore(tempDir);
+        mediaCacheHelper = new MediaCacheHelper(avatarStore, 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mediaCacheHelper.close();
+    }
+
+    @Test
+    void pendingDownloadIsQueuedOnce() throws InterruptedException {
+        final var release = new CountDownLatch(1);
+        final var done = new CountDownLatch(1);
+        mediaCacheHelper.enqueueDownload("target", "a", () -> {
+            release.await();
+            record("a");
+            done.countDown();
+        });
+        mediaCacheHelper.enqueueDownload("target", "a", () -> record("a-duplicate"));
+        mediaCacheHelper.enqueueDownload("target", "a", () -> record("a-duplicate"));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitIdle("target");
+        assertEquals(List.of("a"), getDownloaded());
+    }
+
+    @Test
+    void newestSourceIsDownloadedAfterRunningDownload() throws InterruptedException {
+        final var started = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        final var done = new CountDownLatch(1);
+        mediaCacheHelper.enqueueDownload("target", "a", () -> {
+            started.countDown();
+            release.await();
+            record("a");
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        mediaCacheHelper.enqueueDownload("target", "b", () -> record("b"));
+        mediaCacheHelper.enqueueDownload("target", "c", () -> {
+            record("c");
+            done.countDown();
+        });
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitIdle("target");
+        assertEquals(List.of("a", "c"), getDownloaded());
+    }
+
+    @Test
+    void requeuedRunningSourceDropsQueuedSource() throws InterruptedException {
+        final var started = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        mediaCacheHelper.enqueueDownload("target", "a", () -> {
+            started.countDown();
+            release.await();
+            record("a");
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        mediaCacheHelper.enqueueDownload("target", "b", () -> record("b"));
+        mediaCacheHelper.enqueueDownload("target", "a", () -> record("a-duplicate"));
+
+        release.countDown();
+        awaitDownloaded(1);
+        Thread.sleep(200);
+        assertEquals(List.of("a"), getDownloaded());
+    }
+
+    @Test
+    void failedDownloadCanBeQueuedAgain() throws InterruptedException {
+        mediaCacheHelper.enqueueDownload("target", "a", () -> {
+            throw new Exception("Download failed");
+        });
+        awaitIdle("target");
+
+        final var done = new CountDownLatch(1);
+        mediaCacheHelper.enqueueDownload("target", "a", () -> {
+            record("a");
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void avatarsAreEvictedPeriodically() throws Exception {
+        final var groupA = GroupId.v2(new byte[32]);
+        final var groupBytes = new byte[32];
+        groupBytes[0] = 1;
+        final var groupB = GroupId.v2(groupBytes);
+        avatarStore.storeGroupAvatar(groupA, "cdn/a", output -> output.write(new byte[100]));
+        avatarStore.storeGroupAvatar(groupB, "cdn/b", output -> output.write(new byte[100]));
+
+        for (var i = 0; i < EVICTION_INTERVAL; i++) {
+            final var target = "target-" + i;
+            mediaCacheHelper.enqueueDownload(target, () -> record(target));
+        }
+        awaitDownloaded(EVICTION_INTERVAL);
+
+        final var deadline = System.currentTimeMillis() + 5000;
+        while (avatarStore.isGroupAvatarCurrent(groupA, "cdn/a") && avatarStore.isGroupAvatarCurrent(groupB, "cdn/b")
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(avatarStore.isGroupAvatarCurrent(groupA, "cdn/a")
+                && avatarStore.isGroupAvatarCurrent(groupB, "cdn/b"));
+    }
+
+    private synchronized void record(final String download) {
+        downloaded.add(download);
+        notifyAll();
+    }
+
+    private synchronized List<String> getDownloaded() {
+        return List.copyOf(downloaded);
+    }
+
+    private synchronized void awaitDownloaded(final int count) throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + 5000;
+        while (downloaded.size() < count && System.currentTimeMillis() < deadline) {
+            wait(100);
+        }
+        assertTrue(downloaded.size() >= count, "Timed out waiting for downloads");
+    }
+
+    /**
+     * Wait until no download is pending for the target, by queueing a marker download behind it.
+     */
+    private void awaitIdle(final String target) throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            final var marker = new CountDownLatch(1);
+            mediaCacheHelper.enqueueDownload(target, "idle-marker", marker::countDown);
+            if (marker.await(100, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+        throw new AssertionError("Timed out waiting for downloads of " + target);
+    }
+}
@@ -0,0 +1,222 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.recipients.TestRecipientIds;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
+import org.whispersystems.signalservice.api.messages.SignalServiceTypingMessage;
+import org.whispersystems.signalservice.api.push.ServiceId;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundCoalescerTest {
+
+    static final RecipientId RECIPIENT_A = TestRecipientIds.of(1);
+    static final RecipientId RECIPIENT_B = TestRecipientIds.of(2);
+
+    final RecordingTransport transport = new RecordingTransport();
+    OutboundCoalescer coalescer;
+
+    @AfterEach
+    void tearDown() {
+        if (coalescer != null) {
+            coalescer.close();
+        }
+    }
+
+    @Test
+    void receiptsForSameRecipientAndTypeAreCoalesced() {
+        coalescer = new OutboundCoalescer(transport, Duration.ofMillis(100));
+
+        coalescer.enqueueReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(1L));
+        coalescer.enqueueReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(2L, 1L));
+        final var result = coalescer.sendReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(3L));
+
+        assertTrue(result.isSuccess());
+        assertEquals(List.of(new SentReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(1L, 2L, 3L))),
+                transport.getReceipts());
+    }
+
+    @Test
+    void receiptsOfDifferentTypesOrRecipientsAreSentSeparately() {
+        coalescer = new OutboundCoalescer(transport, Duration.ofMillis(100));
+
+        coalescer.enqueueReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.DELIVERY, List.of(1L));
+        coalescer.enqueueReceipt(RECIPIENT_B, SignalServiceReceiptMessage.Type.READ, List.of(2L));
+        coalescer.sendReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(3L));
+        coalescer.close();
+
+        assertEquals(3, transport.getReceipts().size());
+        assertTrue(transport.getReceipts()
+                .contains(new SentReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.DELIVERY, List.of(1L))));
+        assertTrue(transport.getReceipts()
+                .contains(new SentReceipt(RECIPIENT_B, SignalServiceReceiptMessage.Type.READ, List.of(2L))));
+        assertTrue(transport.getReceipts()
+                .contains(new SentReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(3L))));
+    }
+
+    @Test
+    void zeroWindowSendsImmediately() {
+        coalescer = new OutboundCoalescer(transport, Duration.ZERO);
+
+        coalescer.enqueueReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(1L));
+        coalescer.enqueueReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(2L));
+
+        assertEquals(List.of(new SentReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(1L)),
+                        new SentReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(2L))),
+                transport.getReceipts());
+    }
+
+    @Test
+    void closeFlushesPendingMessages() {
+        coalescer = new OutboundCoalescer(transport, Duration.ofMinutes(1));
+
+        coalescer.enqueueReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(1L));
+        assertEquals(List.of(), transport.getReceipts());
+        coalescer.close();
+        assertEquals(List.of(new SentReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(1L))),
+                transport.getReceipts());
+
+        // Messages after close aren't coalesced anymore
+        coalescer.sendReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(2L));
+        assertEquals(2, transport.getReceipts().size());
+    }
+
+    @Test
+    void sendFailureIsPassedToCaller() {
+        coalescer = new OutboundCoalescer(transport, Duration.ofMillis(50));
+        final var failure = new IllegalStateException("send failed");
+        transport.failure = failure;
+
+        final var e = assertThrows(IllegalStateException.class,
+                () -> coalescer.sendReceipt(RECIPIENT_A, SignalServiceReceiptMessage.Type.READ, List.of(1L)));
+        assertSame(failure, e);
+    }
+
+    @Test
+    void unsentTypingStartStopPairIsDropped() throws InterruptedException {
+        coalescer = new OutboundCoalescer(transport, Duration.ofMinutes(1));
+
+        final var started = CompletableFuture.supplyAsync(() -> coalescer.sendTyping(RECIPIENT_A,
+                SignalServiceTypingMessage.Action.STARTED));
+        Thread.sleep(100);
+        final var stopped = coalescer.sendTyping(RECIPIENT_A, SignalServiceTypingMessage.Action.STOPPED);
+
+        assertSame(transport.skippedResult, stopped);
+        assertSame(transport.skippedResult, started.join());
+        assertEquals(List.of(), transport.getTyping());
+    }
+
+    @Test
+    void typingStopIsSentAfterSentStart() throws InterruptedException {
+        coalescer = new OutboundCoalescer(transport, Duration.ofMillis(200));
+
+        coalescer.sendTyping(RECIPIENT_A, SignalServiceTypingMessage.Action.STARTED);
+        final var started = CompletableFuture.supplyAsync(() -> coalescer.sendTyping(RECIPIENT_A,
+                SignalServiceTypingMessage.Action.STARTED));
+        Thread.sleep(50);
+        coalescer.sendTyping(RECIPIENT_A, SignalServiceTypingMessage.Action.STOPPED);
+        started.join();
+
+        assertEquals(List.of(SignalServiceTypingMessage.Action.STARTED, SignalServiceTypingMessage.Action.STOPPED),
+                transport.getTyping());
+    }
+
+    @Test
+    void slowSendDoesNotDelayOtherRecipients() throws Exception {
+        coalescer = new OutboundCoalescer(transport, Duration.ofMillis(50));
+        transport.blockedRecipientId = RECIPIENT_A;
+
+        final var sentA = CompletableFuture.supplyAsync(() -> coalescer.sendReceipt(RECIPIENT_A,
+                SignalServiceReceiptMessage.Type.READ,
+                List.of(1L)));
+        assertTrue(transport.blockedSendStarted.await(5, TimeUnit.SECONDS));
+
+        final var resultB = coalescer.sendReceipt(RECIPIENT_B, SignalServiceReceiptMessage.Type.READ, List.of(2L));
+        assertTrue(resultB.isSuccess());
+        assertEquals(List.of(new SentReceipt(RECIPIENT_B, SignalServiceReceiptMessage.Type.READ, List.of(2L))),
+                transport.getReceipts());
+
+        transport.unblock.countDown();
+        assertTrue(sentA.get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(2, transport.getReceipts().size());
+    }
+
+    record SentReceipt(RecipientId recipientId, SignalServiceReceiptMessage.Type type, List<Long> timestamps) {}
+
+    static class RecordingTransport implements OutboundCoalescer.Transport {
+
+        final SignalServiceAddress address = new SignalServiceAddress(ServiceId.ACI.from(UUID.randomUUID()));
+        final SendMessageResult skippedResult = success();
+
+        private final List<SentReceipt> receipts = new ArrayList<>();
+        private final List<SignalServiceTypingMessage.Action> typing = new ArrayList<>();
+
+        final CountDownLatch blockedSendStarted = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+
+        volatile RuntimeException failure;
+        volatile RecipientId blockedRecipientId;
+
+        @Override
+        public SendMessageResult sendReceipt(
+                final SignalServiceReceiptMessage message, final RecipientId recipientId
+        ) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (recipientId.equals(blockedRecipientId)) {
+                blockedSendStarted.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            synchronized (this) {
+                receipts.add(new SentReceipt(recipientId, message.getType(), message.getTimestamps()));
+            }
+            return success();
+        }
+
+        @Override
+        public synchronized SendMessageResult sendTyping(
+                final SignalServiceTypingMessage message, final RecipientId recipientId
+        ) {
+            typing.add(message.getAction());
+            return success();
+        }
+
+        @Override
+        public SendMessageResult skipped(final RecipientId recipientId) {
+            return skippedResult;
+        }
+
+        synchronized List<SentReceipt> getReceipts() {
+            return List.copyOf(receipts);
+        }
+
+        synchronized List<SignalServiceTypingMessage.Action> getTyping() {
+            return List.copyOf(typing);
+        }
+
+        private SendMessageResult success() {
+            return SendMessageResult.success(address, List.of(), false, false, 0, Optional.empty());
+        }
+    }
+}
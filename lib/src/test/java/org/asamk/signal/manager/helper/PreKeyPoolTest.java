@@ -0,0 +1,73 @@
+package org.asamk.signal.manager.helper;
+
+import org.junit.jupiter.api.Test;
+import org.signal.libsignal.protocol.IdentityKey;
+import org.signal.libsignal.protocol.IdentityKeyPair;
+import org.whispersystems.signalservice.api.push.ServiceIdType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreKeyPoolTest {
+
+    static final IdentityKey IDENTITY_KEY_1 = IdentityKeyPair.generate().getPublicKey();
+    static final IdentityKey IDENTITY_KEY_2 = IdentityKeyPair.generate().getPublicKey();
+    static final List<String> RECORDS = List.of("key 1", "key 2", "key 3");
+
+    final PreKeyPool<String> pool = new PreKeyPool<>();
+
+    @Test
+    void pooledKeysAreReusedOnce() {
+        pool.put(ServiceIdType.ACI, 10, IDENTITY_KEY_1, RECORDS);
+
+        assertTrue(pool.contains(ServiceIdType.ACI, 10, IDENTITY_KEY_1));
+        assertEquals(3, pool.size(ServiceIdType.ACI));
+        assertEquals(RECORDS, pool.take(ServiceIdType.ACI, 10, IDENTITY_KEY_1));
+
+        assertNull(pool.take(ServiceIdType.ACI, 10, IDENTITY_KEY_1));
+        assertEquals(0, pool.size(ServiceIdType.ACI));
+    }
+
+    @Test
+    void pooledKeysAreDiscardedAfterOffsetReset() {
+        pool.put(ServiceIdType.ACI, 10, IDENTITY_KEY_1, RECORDS);
+
+        assertFalse(pool.contains(ServiceIdType.ACI, 1, IDENTITY_KEY_1));
+        assertNull(pool.take(ServiceIdType.ACI, 1, IDENTITY_KEY_1));
+
+        // The stale batch is removed, even if the offset later matches again
+        assertNull(pool.take(ServiceIdType.ACI, 10, IDENTITY_KEY_1));
+        assertEquals(0, pool.size(ServiceIdType.ACI));
+    }
+
+    @Test
+    void pooledKeysAreDiscardedAfterIdentityChange() {
+        pool.put(ServiceIdType.ACI, 10, IDENTITY_KEY_1, RECORDS);
+
+        assertFalse(pool.contains(ServiceIdType.ACI, 10, IDENTITY_KEY_2));
+        assertNull(pool.take(ServiceIdType.ACI, 10, IDENTITY_KEY_2));
+        assertEquals(0, pool.size(ServiceIdType.ACI));
+    }
+
+    @Test
+    void identitiesArePooledSeparately() {
+        pool.put(ServiceIdType.ACI, 10, IDENTITY_KEY_1, RECORDS);
+        pool.put(ServiceIdType.PNI, 20, IDENTITY_KEY_2, List.of("pni key"));
+
+        assertNull(pool.take(ServiceIdType.PNI, 10, IDENTITY_KEY_1));
+        assertEquals(RECORDS, pool.take(ServiceIdType.ACI, 10, IDENTITY_KEY_1));
+    }
+
+    @Test
+    void newerBatchReplacesPooledKeys() {
+        pool.put(ServiceIdType.ACI, 10, IDENTITY_KEY_1, RECORDS);
+        pool.put(ServiceIdType.ACI, 1, IDENTITY_KEY_1, List.of("new key"));
+
+        assertFalse(pool.contains(ServiceIdType.ACI, 10, IDENTITY_KEY_1));
+        assertEquals(List.of("new key"), pool.take(ServiceIdType.ACI, 1, IDENTITY_KEY_1));
+    }
+}
@@ -0,0 +1,176 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.recipients.TestRecipientIds;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProfileRefresherTest {
+
+    static final RecipientId RECIPIENT_A = TestRecipientIds.of(1);
+    static final RecipientId RECIPIENT_B = TestRecipientIds.of(2);
+    static final RecipientId RECIPIENT_C = TestRecipientIds.of(3);
+
+    final FakeProfiles profiles = new FakeProfiles();
+    final ProfileRefresher refresher = new ProfileRefresher(profiles, 0);
+
+    @AfterEach
+    void tearDown() {
+        refresher.close();
+    }
+
+    @Test
+    void requestsAreRejectedUntilStarted() {
+        assertFalse(refresher.requestRefresh(RECIPIENT_A));
+
+        refresher.start();
+        assertTrue(refresher.requestRefresh(RECIPIENT_A));
+    }
+
+    @Test
+    void longestStaleContactsAreRefreshedFirst() throws InterruptedException {
+        profiles.staleContacts.add(new Pair<>(RECIPIENT_A, 200L));
+        profiles.staleContacts.add(new Pair<>(RECIPIENT_B, 100L));
+
+        refresher.start();
+
+        profiles.awaitRefreshed(2);
+        assertEquals(List.of(RECIPIENT_B, RECIPIENT_A), profiles.getRefreshed());
+    }
+
+    @Test
+    void requestedProfilesAreRefreshedBeforeStaleContacts() throws InterruptedException {
+        profiles.staleContacts.add(new Pair<>(RECIPIENT_A, 100L));
+        profiles.staleContacts.add(new Pair<>(RECIPIENT_B, 200L));
+        profiles.blockedRecipientId = RECIPIENT_A;
+
+        refresher.start();
+        assertTrue(profiles.blockedRefreshStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(refresher.requestRefresh(RECIPIENT_C));
+        profiles.unblock.countDown();
+
+        profiles.awaitRefreshed(3);
+        assertEquals(List.of(RECIPIENT_A, RECIPIENT_C, RECIPIENT_B), profiles.getRefreshed());
+    }
+
+    @Test
+    void seedingDoesNotBlockRequests() throws Exception {
+        final var seeding = new CountDownLatch(1);
+        final var releaseSeeding = new CountDownLatch(1);
+        profiles.onGetStaleContacts = () -> {
+            seeding.countDown();
+            releaseSeeding.await();
+        };
+
+        refresher.start();
+        assertTrue(seeding.await(5, TimeUnit.SECONDS));
+        try {
+            final var requested = CompletableFuture.supplyAsync(() -> refresher.requestRefresh(RECIPIENT_A));
+            assertTrue(requested.get(5, TimeUnit.SECONDS));
+        } finally {
+            releaseSeeding.countDown();
+        }
+
+        profiles.awaitRefreshed(1);
+        assertEquals(List.of(RECIPIENT_A), profiles.getRefreshed());
+    }
+
+    @Test
+    void freshProfilesAreNotRefreshed() throws InterruptedException {
+        profiles.freshRecipientIds.add(RECIPIENT_A);
+
+        refresher.start();
+        refresher.requestRefresh(RECIPIENT_A);
+        refresher.requestRefresh(RECIPIENT_B);
+
+        profiles.awaitRefreshed(1);
+        Thread.sleep(100);
+        assertEquals(List.of(RECIPIENT_B), profiles.getRefreshed());
+    }
+
+    @Test
+    void closeStopsRefreshing() throws InterruptedException {
+        refresher.start();
+        refresher.close();
+
+        assertFalse(refresher.requestRefresh(RECIPIENT_A));
+        Thread.sleep(100);
+        assertEquals(List.of(), profiles.getRefreshed());
+    }
+
+    private interface Action {
+
+        void run() throws Exception;
+    }
+
+    private static class FakeProfiles implements ProfileRefresher.Profiles {
+
+        final List<Pair<RecipientId, Long>> staleContacts = new ArrayList<>();
+        final Set<RecipientId> freshRecipientIds = new HashSet<>();
+        final CountDownLatch blockedRefreshStarted = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+
+        volatile RecipientId blockedRecipientId;
+        volatile Action onGetStaleContacts = () -> {
+        };
+
+        private final List<RecipientId> refreshed = new ArrayList<>();
+
+        @Override
+        public long getLastUpdateTimestamp(final RecipientId recipientId) {
+            return 0;
+        }
+
+        @Override
+        public synchronized boolean isRefreshRequired(final RecipientId recipientId) {
+            return !freshRecipientIds.contains(recipientId) && !refreshed.contains(recipientId);
+        }
+
+        @Override
+        public void refresh(final RecipientId recipientId) throws Exception {
+            if (recipientId.equals(blockedRecipientId)) {
+                blockedRefreshStarted.countDown();
+                unblock.await();
+            }
+            synchronized (this) {
+                refreshed.add(recipientId);
+                notifyAll();
+            }
+        }
+
+        @Override
+        public List<Pair<RecipientId, Long>> getStaleContacts() {
+            try {
+                onGetStaleContacts.run();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            return List.copyOf(staleContacts);
+        }
+
+        synchronized List<RecipientId> getRefreshed() {
+            return List.copyOf(refreshed);
+        }
+
+        synchronized void awaitRefreshed(final int count) throws InterruptedException {
+            final var deadline = System.currentTimeMillis() + 5000;
+            while (refreshed.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue(refreshed.size() >= count, "Timed out waiting for profile refreshes");
+        }
+    }
+}
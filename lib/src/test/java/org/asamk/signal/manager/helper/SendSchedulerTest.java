@@ -0,0 +1,192 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.api.MetricsSnapshot;
+import org.asamk.signal.manager.metrics.Metrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.whispersystems.signalservice.api.push.exceptions.RateLimitException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SendSchedulerTest {
+
+    // Capacity of the BACKGROUND bucket, that is refilled with one token per second
+    private static final int BACKGROUND_CAPACITY = 10;
+
+    Metrics metrics;
+    SendScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new Metrics(true);
+        scheduler = new SendScheduler(metrics);
+    }
+
+    @Test
+    void sendsImmediatelyWhileTokensAreAvailable() throws IOException {
+        final var start = System.nanoTime();
+        for (var i = 0; i < BACKGROUND_CAPACITY; i++) {
+            final var value = i;
+            final int result = scheduler.schedule(SendScheduler.Priority.BACKGROUND, () -> value);
+            assertEquals(value, result);
+        }
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, getCounter("signal_send_scheduler_throttled_total"));
+        assertEquals(BACKGROUND_CAPACITY, getHistogram("signal_send_scheduler_wait_seconds").count());
+    }
+
+    @Test
+    void throttlesWhenBucketIsEmpty() throws IOException {
+        drainBackgroundBucket();
+
+        final var start = System.nanoTime();
+        scheduler.schedule(SendScheduler.Priority.BACKGROUND, () -> null);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(1, getCounter("signal_send_scheduler_throttled_total"));
+    }
+
+    @Test
+    void emptyBucketDoesNotThrottleOtherPriorities() throws IOException {
+        drainBackgroundBucket();
+
+        final var start = System.nanoTime();
+        scheduler.schedule(SendScheduler.Priority.INTERACTIVE, () -> null);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, getCounter("signal_send_scheduler_throttled_total"));
+    }
+
+    @Test
+    void rateLimitPausesAllPriorities() throws IOException {
+        scheduler.onRateLimited(0);
+        assertEquals(1, getCounter("signal_send_scheduler_rate_limited_total"));
+        assertTrue(getGauge("signal_send_scheduler_backoff_remaining_seconds") > 0);
+
+        final var start = System.nanoTime();
+        scheduler.schedule(SendScheduler.Priority.INTERACTIVE, () -> null);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(0, getGauge("signal_send_scheduler_backoff_remaining_seconds"));
+    }
+
+    @Test
+    void interruptedWaitAbortsSend() {
+        scheduler.onRateLimited(TimeUnit.SECONDS.toMillis(20));
+
+        final var sent = new AtomicBoolean(false);
+        Thread.currentThread().interrupt();
+        try {
+            final var e = assertThrows(InterruptedIOException.class,
+                    () -> scheduler.schedule(SendScheduler.Priority.BACKGROUND, () -> {
+                        sent.set(true);
+                        return null;
+                    }));
+            assertInstanceOf(InterruptedException.class, e.getCause());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertFalse(sent.get());
+        assertEquals(0, getGauge("signal_send_scheduler_background_queued"));
+    }
+
+    @Test
+    void queueDepthIsExported() throws InterruptedException {
+        scheduler.onRateLimited(TimeUnit.SECONDS.toMillis(20));
+
+        final var failure = new AtomicReference<Throwable>();
+        final var thread = new Thread(() -> {
+            try {
+                scheduler.schedule(SendScheduler.Priority.BACKGROUND, () -> null);
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (getGauge("signal_send_scheduler_background_queued") == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, getGauge("signal_send_scheduler_background_queued"));
+        assertEquals(0, getGauge("signal_send_scheduler_interactive_queued"));
+
+        thread.interrupt();
+        thread.join();
+        assertEquals(0, getGauge("signal_send_scheduler_background_queued"));
+        assertInstanceOf(InterruptedIOException.class, failure.get());
+    }
+
+    @Test
+    void proofRequiredRetryAfterIsCapped() {
+        // Proof required failures can request a retry after multiple hours
+        scheduler.onRateLimited(TimeUnit.DAYS.toMillis(1));
+
+        assertTrue(getGauge("signal_send_scheduler_backoff_remaining_seconds") <= TimeUnit.MINUTES.toSeconds(5));
+    }
+
+    @Test
+    void longPauseFailsFastWithoutSending() {
+        scheduler.onRateLimited(TimeUnit.DAYS.toMillis(1));
+
+        final var sent = new AtomicBoolean(false);
+        final var start = System.nanoTime();
+        assertThrows(RateLimitException.class,
+                () -> scheduler.schedule(SendScheduler.Priority.INTERACTIVE, () -> {
+                    sent.set(true);
+                    return null;
+                }));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertFalse(sent.get());
+        assertEquals(0, getGauge("signal_send_scheduler_interactive_queued"));
+    }
+
+    private void drainBackgroundBucket() throws IOException {
+        for (var i = 0; i < BACKGROUND_CAPACITY; i++) {
+            scheduler.schedule(SendScheduler.Priority.BACKGROUND, () -> null);
+        }
+    }
+
+    private long getCounter(final String name) {
+        return metrics.snapshot()
+                .counters()
+                .stream()
+                .filter(c -> c.name().equals(name))
+                .findFirst()
+                .orElseThrow()
+                .value();
+    }
+
+    private double getGauge(final String name) {
+        return metrics.snapshot()
+                .gauges()
+                .stream()
+                .filter(g -> g.name().equals(name))
+                .findFirst()
+                .orElseThrow()
+                .value();
+    }
+
+    private MetricsSnapshot.Histogram getHistogram(final String name) {
+        return metrics.snapshot()
+                .histograms()
+                .stream()
+                .filter(h -> h.name().equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,81 @@
+package org.asamk.signal.manager.helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageHelperTest {
+
+    @Test
+    void batchesAreReadInParallelAndResultsKeepTheOrder() throws IOException {
+        final var ids = IntStream.range(0, 25).boxed().toList();
+        final var batches = new ArrayList<List<Integer>>();
+        final var threads = new ArrayList<String>();
+
+        final var results = StorageHelper.readInBatches(ids, 10, 4, batch -> {
+            synchronized (batches) {
+                batches.add(batch);
+                threads.add(Thread.currentThread().getName());
+            }
+            if (batch.get(0) == 0) {
+                // Let the later batches finish first
+                sleep();
+            }
+            return batch.stream().map(i -> "record-" + i).toList();
+        });
+
+        assertEquals(ids.stream().map(i -> "record-" + i).toList(), results);
+        assertEquals(3, batches.size());
+        assertEquals(List.of(5, 10, 10), batches.stream().map(List::size).sorted().toList());
+        threads.forEach(name -> assertTrue(name.startsWith("storage-read-")));
+    }
+
+    @Test
+    void singleBatchIsReadOnTheCallingThread() throws IOException {
+        final var caller = Thread.currentThread();
+
+        final var results = StorageHelper.readInBatches(List.of(1, 2, 3), 10, 4, batch -> {
+            assertEquals(caller, Thread.currentThread());
+            return batch;
+        });
+
+        assertEquals(List.of(1, 2, 3), results);
+    }
+
+    @Test
+    void noIdsAreNotRead() throws IOException {
+        final List<Integer> results = StorageHelper.readInBatches(List.<Integer>of(), 10, 4, batch -> {
+            throw new AssertionError("Nothing to read");
+        });
+
+        assertEquals(List.of(), results);
+    }
+
+    @Test
+    void failedBatchFailsTheRead() {
+        final var e = assertThrows(IOException.class,
+                () -> StorageHelper.readInBatches(List.of(1, 2, 3), 1, 4, batch -> {
+                    if (batch.get(0) == 2) {
+                        throw new IOException("Rate limited");
+                    }
+                    return batch;
+                }));
+
+        assertEquals("Rate limited", e.getMessage());
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.asamk.signal.manager.helper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageWriterTest {
+
+    final FakeStorage storage = new FakeStorage();
+    final StorageWriter writer = new StorageWriter(storage, 100);
+
+    @AfterEach
+    void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    void requestsAreDebouncedIntoOneWrite() throws InterruptedException {
+        for (var i = 0; i < 5; i++) {
+            writer.requestWrite();
+            Thread.sleep(20);
+        }
+        assertEquals(0, storage.getWrites());
+
+        storage.awaitWrites(1);
+        Thread.sleep(200);
+        assertEquals(1, storage.getWrites());
+    }
+
+    @Test
+    void laterRequestIsWrittenAgain() throws InterruptedException {
+        writer.requestWrite();
+        storage.awaitWrites(1);
+
+        writer.requestWrite();
+        storage.awaitWrites(2);
+    }
+
+    @Test
+    void nothingIsWrittenWithoutStorageKey() throws InterruptedException {
+        storage.hasStorageKey = false;
+
+        writer.requestWrite();
+        Thread.sleep(200);
+        writer.close();
+
+        assertEquals(0, storage.getWrites());
+    }
+
+    @Test
+    void closeWritesPendingChanges() {
+        final var slowWriter = new StorageWriter(storage, 60_000);
+        slowWriter.requestWrite();
+        slowWriter.close();
+
+        assertEquals(1, storage.getWrites());
+    }
+
+    @Test
+    void failedWriteDoesNotStopTheWriter() throws InterruptedException {
+        storage.failNextWrite = true;
+
+        writer.requestWrite();
+        storage.awaitWrites(1);
+        writer.requestWrite();
+        storage.awaitWrites(2);
+    }
+
+    @Test
+    void requestsAfterCloseAreIgnored() throws InterruptedException {
+        writer.close();
+
+        writer.requestWrite();
+        Thread.sleep(200);
+        assertEquals(0, storage.getWrites());
+    }
+
+    private static class FakeStorage implements StorageWriter.Storage {
+
+        volatile boolean hasStorageKey = true;
+        volatile boolean failNextWrite = false;
+
+        private int writes = 0;
+
+        @Override
+        public boolean hasStorageKey() {
+            return hasStorageKey;
+        }
+
+        @Override
+        public void write() throws IOException {
+            synchronized (this) {
+                writes++;
+                notifyAll();
+            }
+            if (failNextWrite) {
+                failNextWrite = false;
+                throw new IOException("Storage service unavailable");
+            }
+        }
+
+        synchronized int getWrites() {
+            return writes;
+        }
+
+        synchronized void awaitWrites(final int count) throws InterruptedException {
+            final var deadline = System.currentTimeMillis() + 5000;
+            while (writes < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue(writes >= count, "Timed out waiting for storage writes");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.asamk.signal.manager.helper;
+
+import org.junit.jupiter.api.Test;
+import org.whispersystems.signalservice.api.messages.multidevice.DeviceContact;
+import org.whispersystems.signalservice.api.messages.multidevice.DeviceContactsOutputStream;
+import org.whispersystems.signalservice.api.push.ServiceId;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SyncHelperTest {
+
+    @Test
+    void contactsAreReadInChunks() throws IOException {
+        final var names = List.of("a", "b", "c", "d", "e");
+        final var events = new ArrayList<String>();
+
+        SyncHelper.readDeviceContacts(writeContacts(names),
+                2,
+                c -> events.add(c.getName().orElseThrow()),
+                chunk -> events.add(chunk.stream().map(c -> c.getName().orElseThrow()).toList().toString()));
+
+        assertEquals(List.of("a", "b", "[a, b]", "c", "d", "[c, d]", "e", "[e]"), events);
+    }
+
+    @Test
+    void emptyContactsHaveNoChunk() throws IOException {
+        final var chunks = new ArrayList<List<DeviceContact>>();
+
+        SyncHelper.readDeviceContacts(writeContacts(List.of()), 2, c -> {}, chunks::add);
+
+        assertEquals(List.of(), chunks);
+    }
+
+    private static ByteArrayInputStream writeContacts(final List<String> names) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        final var out = new DeviceContactsOutputStream(output);
+        for (final var name : names) {
+            out.write(new DeviceContact(new SignalServiceAddress(ServiceId.ACI.from(UUID.randomUUID())),
+                    Optional.of(name),
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.empty(),
+                    false,
+                    Optional.empty(),
+                    Optional.empty(),
+                    false));
+        }
+        return new ByteArrayInputStream(output.toByteArray());
+    }
+}
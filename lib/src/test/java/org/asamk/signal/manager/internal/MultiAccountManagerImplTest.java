@@ -0,0 +1,170 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.Manager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiAccountManagerImplTest {
+
+    // Must match the concurrency limit of the MultiAccountManagerImpl
+    private static final int MAX_CONCURRENT_ACCOUNT_INITIALIZATIONS = 4;
+
+    final MultiAccountManagerImpl multiAccountManager = new MultiAccountManagerImpl(List.of(), null);
+
+    @AfterEach
+    void tearDown() {
+        multiAccountManager.close();
+    }
+
+    @Test
+    void accountsAreInitializingUntilLoaded() throws Exception {
+        final var release = new CountDownLatch(1);
+        final var initialized = multiAccountManager.initializeAccounts(Map.of("+1", () -> {
+            await(release);
+            return createManager("+1", new AtomicBoolean());
+        }));
+
+        assertEquals(List.of("+1"), multiAccountManager.getInitializingAccountNumbers());
+        assertEquals(List.of(), multiAccountManager.getAccountNumbers());
+
+        release.countDown();
+        initialized.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(), multiAccountManager.getInitializingAccountNumbers());
+        assertEquals(List.of("+1"), multiAccountManager.getAccountNumbers());
+    }
+
+    @Test
+    void failedAccountsAreIgnored() throws Exception {
+        final var accounts = new LinkedHashMap<String, MultiAccountManagerImpl.ManagerLoader>();
+        accounts.put("+1", () -> {
+            throw new IOException("Account check failed");
+        });
+        accounts.put("+2", () -> createManager("+2", new AtomicBoolean()));
+
+        multiAccountManager.initializeAccounts(accounts).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(), multiAccountManager.getInitializingAccountNumbers());
+        assertEquals(List.of("+2"), multiAccountManager.getAccountNumbers());
+    }
+
+    @Test
+    void accountsAreInitializedConcurrentlyWithBoundedConcurrency() throws Exception {
+        final var running = new AtomicInteger();
+        final var maxRunning = new AtomicInteger();
+        final var allStarted = new CountDownLatch(MAX_CONCURRENT_ACCOUNT_INITIALIZATIONS);
+        final var accounts = new LinkedHashMap<String, MultiAccountManagerImpl.ManagerLoader>();
+        for (var i = 0; i < 10; i++) {
+            final var number = "+" + i;
+            accounts.put(number, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                allStarted.countDown();
+                // The first accounts only finish once the concurrency limit has been reached
+                await(allStarted);
+                running.decrementAndGet();
+                return createManager(number, new AtomicBoolean());
+            });
+        }
+
+        multiAccountManager.initializeAccounts(accounts).get(10, TimeUnit.SECONDS);
+
+        assertEquals(MAX_CONCURRENT_ACCOUNT_INITIALIZATIONS, maxRunning.get());
+        assertEquals(10, multiAccountManager.getAccountNumbers().size());
+    }
+
+    @Test
+    void handlerSeesEachManagerOnce() throws Exception {
+        final var release = new CountDownLatch(1);
+        final var accounts = new LinkedHashMap<String, MultiAccountManagerImpl.ManagerLoader>();
+        accounts.put("+1", () -> createManager("+1", new AtomicBoolean()));
+        accounts.put("+2", () -> {
+            await(release);
+            return createManager("+2", new AtomicBoolean());
+        });
+        final var initialized = multiAccountManager.initializeAccounts(accounts);
+        while (multiAccountManager.getAccountNumbers().isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        final var handled = new ArrayList<String>();
+        multiAccountManager.addManagerHandler(m -> {
+            synchronized (handled) {
+                handled.add(m.getSelfNumber());
+            }
+        });
+        release.countDown();
+        initialized.get(5, TimeUnit.SECONDS);
+
+        synchronized (handled) {
+            assertEquals(List.of("+1", "+2"), handled);
+        }
+    }
+
+    @Test
+    void accountsLoadedAfterCloseAreClosed() throws Exception {
+        final var release = new CountDownLatch(1);
+        final var closed = new AtomicBoolean();
+        final var initialized = multiAccountManager.initializeAccounts(Map.of("+1", () -> {
+            await(release);
+            return createManager("+1", closed);
+        }));
+
+        multiAccountManager.close();
+        release.countDown();
+        initialized.get(5, TimeUnit.SECONDS);
+
+        assertTrue(closed.get());
+        assertEquals(List.of(), multiAccountManager.getAccountNumbers());
+    }
+
+    @Test
+    void loadedAccountIsNotClosed() throws Exception {
+        final var closed = new AtomicBoolean();
+        multiAccountManager.initializeAccounts(Map.of("+1", () -> createManager("+1", closed)))
+                .get(5, TimeUnit.SECONDS);
+
+        assertFalse(closed.get());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Manager that only supports the methods used by the multi account manager.
+     */
+    private static Manager createManager(final String number, final AtomicBoolean closed) {
+        return (Manager) Proxy.newProxyInstance(Manager.class.getClassLoader(),
+                new Class<?>[]{Manager.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getSelfNumber" -> number;
+                    case "addClosedListener" -> null;
+                    case "close" -> {
+                        closed.set(true);
+                        yield null;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "TestManager " + number;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
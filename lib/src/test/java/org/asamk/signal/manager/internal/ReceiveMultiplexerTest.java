@@ -0,0 +1,301 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.helper.ReceiveHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReceiveMultiplexerTest {
+
+    // Must match the pending batch limit of the ReceiveMultiplexer
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    ReceiveMultiplexer multiplexer;
+
+    @AfterEach
+    void tearDown() {
+        if (multiplexer != null) {
+            multiplexer.close();
+        }
+    }
+
+    @Test
+    void cachedMessagesAreRetriedOnRegister() throws InterruptedException {
+        multiplexer = new ReceiveMultiplexer(1, 1);
+        final var source = new FakeSource();
+
+        try (final var ignored = multiplexer.register(source, Manager.ReceiveMessageHandler.EMPTY)) {
+            source.awaitHandled(1);
+            assertEquals(1, source.startCount.get());
+            assertTrue(source.getHandled().get(0).envelopes().isEmpty());
+        }
+        assertEquals(1, source.stopCount.get());
+    }
+
+    @Test
+    void batchesAreHandledInOrderOneAtATime() throws InterruptedException {
+        multiplexer = new ReceiveMultiplexer(1, 4);
+        final var source = new FakeSource();
+        source.handleDelayMillis = 5;
+        final var batches = new ArrayList<ReceiveHelper.PolledMessages>();
+        for (var i = 0; i < 10; i++) {
+            final var batch = newBatch();
+            batches.add(batch);
+            source.batches.add(batch);
+        }
+
+        try (final var ignored = multiplexer.register(source, Manager.ReceiveMessageHandler.EMPTY)) {
+            source.awaitHandled(batches.size() + 1);
+        }
+
+        final var handled = source.getHandled();
+        assertEquals(batches.size() + 1, handled.size());
+        for (var i = 0; i < batches.size(); i++) {
+            assertSame(batches.get(i), handled.get(i + 1));
+        }
+        assertEquals(1, source.maxConcurrentHandling.get());
+    }
+
+    @Test
+    void accountsAreHandledConcurrently() throws Exception {
+        multiplexer = new ReceiveMultiplexer(1, 2);
+        final var bothHandling = new CountDownLatch(2);
+        final var sourceA = new FakeSource();
+        final var sourceB = new FakeSource();
+        for (final var source : List.of(sourceA, sourceB)) {
+            source.onHandle = () -> {
+                bothHandling.countDown();
+                bothHandling.await();
+            };
+        }
+
+        try (final var ignoredA = multiplexer.register(sourceA, Manager.ReceiveMessageHandler.EMPTY)) {
+            try (final var ignoredB = multiplexer.register(sourceB, Manager.ReceiveMessageHandler.EMPTY)) {
+                assertTrue(bothHandling.await(5, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    void pendingBatchesAreLimited() throws InterruptedException {
+        multiplexer = new ReceiveMultiplexer(1, 1);
+        final var source = new FakeSource();
+        source.endless = true;
+        final var release = new Semaphore(0);
+        source.onHandle = release::acquire;
+
+        final var registration = multiplexer.register(source, Manager.ReceiveMessageHandler.EMPTY);
+        source.awaitHandling(1);
+        Thread.sleep(300);
+        assertEquals(MAX_PENDING_BATCHES, source.polledCount.get());
+
+        release.release(Integer.MAX_VALUE);
+        source.awaitHandled(MAX_PENDING_BATCHES + 1);
+        registration.close();
+    }
+
+    @Test
+    void closeWaitsForRunningHandler() throws Exception {
+        multiplexer = new ReceiveMultiplexer(1, 1);
+        final var source = new FakeSource();
+        final var release = new CountDownLatch(1);
+        source.onHandle = release::await;
+
+        final var registration = multiplexer.register(source, Manager.ReceiveMessageHandler.EMPTY);
+        source.awaitHandling(1);
+        final var closed = CompletableFuture.runAsync(registration::close);
+        assertThrows(TimeoutException.class, () -> closed.get(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, source.stopCount.get());
+
+        release.countDown();
+        closed.get(5, TimeUnit.SECONDS);
+        assertEquals(1, source.stopCount.get());
+    }
+
+    @Test
+    void closeFromHandlerStopsAfterCurrentBatch() throws Exception {
+        multiplexer = new ReceiveMultiplexer(1, 1);
+        final var source = new FakeSource();
+        source.endless = true;
+        final var registration = new AtomicReference<ReceiveMultiplexer.Registration>();
+        final var registered = new CountDownLatch(1);
+        source.onHandle = () -> {
+            registered.await();
+            registration.get().close();
+        };
+
+        registration.set(multiplexer.register(source, Manager.ReceiveMessageHandler.EMPTY));
+        registered.countDown();
+
+        source.awaitStopped();
+        final var handledCount = source.getHandled().size();
+        Thread.sleep(100);
+        assertEquals(handledCount, source.getHandled().size());
+        assertEquals(1, source.stopCount.get());
+    }
+
+    @Test
+    void eventLoopIsWokenUpByNewMessages() throws InterruptedException {
+        multiplexer = new ReceiveMultiplexer(1, 1);
+        final var source = new FakeSource();
+
+        try (final var ignored = multiplexer.register(source, Manager.ReceiveMessageHandler.EMPTY)) {
+            source.awaitHandled(1);
+
+            // Without a notification, new messages are only polled by the idle fallback
+            final var batch = newBatch();
+            source.batches.add(batch);
+            Thread.sleep(200);
+            assertEquals(1, source.getHandled().size());
+
+            source.onMessagesAvailable.run();
+            source.awaitHandled(2);
+            assertSame(batch, source.getHandled().get(1));
+        }
+    }
+
+    @Test
+    void reconnectsAfterConnectionFailure() throws InterruptedException {
+        multiplexer = new ReceiveMultiplexer(1, 1);
+        final var source = new FakeSource();
+        source.failures.set(1);
+        final var batch = newBatch();
+        source.batches.add(batch);
+
+        try (final var ignored = multiplexer.register(source, Manager.ReceiveMessageHandler.EMPTY)) {
+            source.awaitHandled(2);
+        }
+
+        assertEquals(1, source.reconnectCount.get());
+        assertSame(batch, source.getHandled().get(1));
+    }
+
+    private static ReceiveHelper.PolledMessages newBatch() {
+        return new ReceiveHelper.PolledMessages(new ArrayList<>(), false);
+    }
+
+    private interface HandleAction {
+
+        void run() throws Exception;
+    }
+
+    private static class FakeSource implements ReceiveMultiplexer.MessageSource {
+
+        final ConcurrentLinkedQueue<ReceiveHelper.PolledMessages> batches = new ConcurrentLinkedQueue<>();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger startCount = new AtomicInteger();
+        final AtomicInteger stopCount = new AtomicInteger();
+        final AtomicInteger reconnectCount = new AtomicInteger();
+        final AtomicInteger polledCount = new AtomicInteger();
+        final AtomicInteger maxConcurrentHandling = new AtomicInteger();
+
+        volatile boolean endless = false;
+        volatile long handleDelayMillis = 0;
+        volatile HandleAction onHandle = () -> {
+        };
+        volatile Runnable onMessagesAvailable;
+
+        private final AtomicInteger concurrentHandling = new AtomicInteger();
+        private final List<ReceiveHelper.PolledMessages> handled = new ArrayList<>();
+        private int handling = 0;
+
+        @Override
+        public void startReceiving(final Runnable onMessagesAvailable) {
+            this.onMessagesAvailable = onMessagesAvailable;
+            startCount.incrementAndGet();
+        }
+
+        @Override
+        public void reconnect() {
+            reconnectCount.incrementAndGet();
+        }
+
+        @Override
+        public ReceiveHelper.PolledMessages pollMessages(final int maxMessages) throws IOException {
+            if (failures.getAndUpdate(f -> Math.max(0, f - 1)) > 0) {
+                throw new IOException("Connection closed");
+            }
+            final var batch = endless ? newBatch() : batches.poll();
+            if (batch != null) {
+                polledCount.incrementAndGet();
+            }
+            return batch;
+        }
+
+        @Override
+        public void handleMessages(
+                final ReceiveHelper.PolledMessages messages, final Manager.ReceiveMessageHandler handler
+        ) {
+            maxConcurrentHandling.accumulateAndGet(concurrentHandling.incrementAndGet(), Math::max);
+            synchronized (this) {
+                handling++;
+                notifyAll();
+            }
+            try {
+                onHandle.run();
+                if (handleDelayMillis > 0) {
+                    Thread.sleep(handleDelayMillis);
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                concurrentHandling.decrementAndGet();
+                synchronized (this) {
+                    handled.add(messages);
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void stopReceiving() {
+            stopCount.incrementAndGet();
+            notifyAll();
+        }
+
+        synchronized List<ReceiveHelper.PolledMessages> getHandled() {
+            return List.copyOf(handled);
+        }
+
+        synchronized void awaitHandling(final int count) throws InterruptedException {
+            final var deadline = System.currentTimeMillis() + 5000;
+            while (handling < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue(handling >= count, "Timed out waiting for handling to start");
+        }
+
+        synchronized void awaitHandled(final int count) throws InterruptedException {
+            final var deadline = System.currentTimeMillis() + 5000;
+            while (handled.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue(handled.size() >= count, "Timed out waiting for handled batches");
+        }
+
+        synchronized void awaitStopped() throws InterruptedException {
+            final var deadline = System.currentTimeMillis() + 5000;
+            while (stopCount.get() == 0 && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue(stopCount.get() > 0, "Timed out waiting for stop");
+        }
+    }
+}
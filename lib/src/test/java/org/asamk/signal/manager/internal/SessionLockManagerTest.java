@@ -0,0 +1,193 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.whispersystems.signalservice.api.SignalSessionLock;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SessionLockManagerTest {
+
+    // Must match the stripe count of the SessionLockManager
+    private static final int LOCK_STRIPES = 64;
+
+    static final ServiceId SERVICE_ID_A = ServiceId.ACI.from(UUID.randomUUID());
+    static final ServiceId SERVICE_ID_B = serviceIdWithOtherStripe(SERVICE_ID_A);
+
+    final SessionLockManager sessionLock = new SessionLockManager(Metrics.DISABLED);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void differentAddressesDontBlock() throws Exception {
+        final var lock = sessionLock.acquire(List.of(SERVICE_ID_A));
+        try {
+            assertAcquired(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B))));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    void sameAddressBlocks() throws Exception {
+        final var lock = sessionLock.acquire(List.of(SERVICE_ID_A));
+        final CompletableFuture<Void> other;
+        try {
+            other = lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B, SERVICE_ID_A)));
+            assertBlocked(other);
+        } finally {
+            lock.unlock();
+        }
+        assertAcquired(other);
+    }
+
+    @Test
+    void exclusiveLockBlocksAddressLocks() throws Exception {
+        final var lock = sessionLock.acquire();
+        final CompletableFuture<Void> other;
+        try {
+            other = lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B)));
+            assertBlocked(other);
+        } finally {
+            lock.unlock();
+        }
+        assertAcquired(other);
+    }
+
+    @Test
+    void addressLockBlocksExclusiveLock() throws Exception {
+        final var lock = sessionLock.acquire(List.of(SERVICE_ID_A));
+        final CompletableFuture<Void> other;
+        try {
+            other = lockInOtherThread(sessionLock::acquire);
+            assertBlocked(other);
+        } finally {
+            lock.unlock();
+        }
+        assertAcquired(other);
+    }
+
+    @Test
+    void sessionLockIsLimitedToScopedAddresses() throws Exception {
+        final var scope = sessionLock.acquire(List.of(SERVICE_ID_A));
+        try {
+            // Session lock acquired by the library while encrypting for the scoped address
+            final var lock = sessionLock.acquire();
+            try {
+                assertAcquired(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B))));
+                assertBlocked(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_A))));
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            scope.unlock();
+        }
+
+        // Without a scope the session lock is exclusive again
+        final var lock = sessionLock.acquire();
+        try {
+            assertBlocked(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B))));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    void nestedScopeMustBeSubset() {
+        final var scope = sessionLock.acquire(List.of(SERVICE_ID_A));
+        try {
+            sessionLock.acquire(List.of(SERVICE_ID_A)).unlock();
+            assertThrows(IllegalStateException.class, () -> sessionLock.acquire(List.of(SERVICE_ID_B)));
+        } finally {
+            scope.unlock();
+        }
+    }
+
+    @Test
+    void addressLocksWhileHoldingExclusiveLock() throws Exception {
+        final var lock = sessionLock.acquire();
+        try {
+            sessionLock.acquire(List.of(SERVICE_ID_A, SERVICE_ID_B)).unlock();
+        } finally {
+            lock.unlock();
+        }
+        assertAcquired(lockInOtherThread(sessionLock::acquire));
+    }
+
+    @Test
+    void exclusiveLockCanBeLimitedToAddresses() throws Exception {
+        final var lock = sessionLock.acquireAll();
+        try {
+            assertBlocked(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B))));
+
+            lock.limitTo(List.of(SERVICE_ID_A));
+            assertAcquired(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B))));
+            assertBlocked(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_A))));
+
+            // Session lock acquired by the library while handling the message of the limited address
+            sessionLock.acquire().unlock();
+            assertThrows(IllegalStateException.class, () -> sessionLock.acquire(List.of(SERVICE_ID_B)));
+        } finally {
+            lock.unlock();
+        }
+
+        assertAcquired(lockInOtherThread(sessionLock::acquire));
+        // Without a scope the session lock is exclusive again
+        final var exclusiveLock = sessionLock.acquire();
+        try {
+            assertBlocked(lockInOtherThread(() -> sessionLock.acquire(List.of(SERVICE_ID_B))));
+        } finally {
+            exclusiveLock.unlock();
+        }
+    }
+
+    @Test
+    void exclusiveLockCantBeAcquiredWhileHoldingAddressLocks() {
+        final var scope = sessionLock.acquire(List.of(SERVICE_ID_A));
+        try {
+            assertThrows(IllegalStateException.class, sessionLock::acquireAll);
+        } finally {
+            scope.unlock();
+        }
+    }
+
+    private CompletableFuture<Void> lockInOtherThread(final Supplier<SignalSessionLock.Lock> acquire) {
+        return CompletableFuture.runAsync(() -> acquire.get().unlock(), executor);
+    }
+
+    private static void assertAcquired(final CompletableFuture<Void> future) throws Exception {
+        future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void assertBlocked(final CompletableFuture<Void> future) {
+        assertThrows(TimeoutException.class, () -> future.get(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static ServiceId serviceIdWithOtherStripe(final ServiceId serviceId) {
+        while (true) {
+            final var other = ServiceId.ACI.from(UUID.randomUUID());
+            if (getStripe(other) != getStripe(serviceId)) {
+                return other;
+            }
+        }
+    }
+
+    private static int getStripe(final ServiceId serviceId) {
+        return Math.floorMod(serviceId.toString().hashCode(), LOCK_STRIPES);
+    }
+}
@@ -0,0 +1,87 @@
+package org.asamk.signal.manager.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountDatabaseTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void newDatabaseContainsAllTables() throws SQLException {
+        final var databaseFile = new File(tempDir, "account.db");
+        AccountDatabase.init(databaseFile).close();
+
+        try (final var connection = connect(databaseFile)) {
+            assertEquals(18, getUserVersion(connection));
+            assertTrue(hasTable(connection, "key_value"));
+            assertTrue(hasTable(connection, "storage_record"));
+        }
+    }
+
+    @Test
+    void storageRecordMigrationResetsManifestVersion() throws SQLException {
+        final var databaseFile = new File(tempDir, "account.db");
+        AccountDatabase.init(databaseFile).close();
+        try (final var connection = connect(databaseFile)) {
+            try (final var statement = connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE storage_record");
+                statement.executeUpdate("""
+                                        INSERT INTO key_value (key, value)
+                                        VALUES ('storage-manifest-version', 42), ('other', 1)
+                                        """);
+                statement.executeUpdate("PRAGMA user_version = 17");
+            }
+        }
+
+        AccountDatabase.init(databaseFile).close();
+
+        try (final var connection = connect(databaseFile)) {
+            assertEquals(18, getUserVersion(connection));
+            assertTrue(hasTable(connection, "storage_record"));
+            assertFalse(hasKey(connection, "storage-manifest-version"));
+            assertTrue(hasKey(connection, "other"));
+        }
+    }
+
+    private static Connection connect(final File databaseFile) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+    }
+
+    private static long getUserVersion(final Connection connection) throws SQLException {
+        try (final var statement = connection.createStatement()) {
+            try (final var resultSet = statement.executeQuery("PRAGMA user_version")) {
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private static boolean hasTable(final Connection connection, final String table) throws SQLException {
+        try (final var statement = connection.prepareStatement(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, table);
+            try (final var resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private static boolean hasKey(final Connection connection, final String key) throws SQLException {
+        try (final var statement = connection.prepareStatement("SELECT value FROM key_value WHERE key = ?")) {
+            statement.setString(1, key);
+            try (final var resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.asamk.signal.manager.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.signal.libsignal.protocol.InvalidMessageException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AttachmentStoreTest {
+
+    static final byte[] ENCRYPTED = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+    static final byte[] DECRYPTED = new byte[]{10, 20, 30};
+
+    @TempDir
+    File tempDir;
+
+    AttachmentStore attachmentStore;
+    File attachmentFile;
+    File downloadFile;
+
+    @BeforeEach
+    void setUp() {
+        attachmentStore = new AttachmentStore(tempDir);
+        attachmentFile = new File(tempDir, "attachment.jpg");
+        downloadFile = new File(tempDir, "attachment.jpg.part");
+    }
+
+    @Test
+    void downloadedAttachmentIsStored() throws IOException {
+        final var downloader = new TestDownloader();
+        attachmentStore.storeAttachment(attachmentFile, downloader);
+
+        assertEquals(List.of(0L), downloader.resumeOffsets);
+        assertArrayEquals(DECRYPTED, Files.readAllBytes(attachmentFile.toPath()));
+        assertFalse(downloadFile.exists());
+        assertFalse(new File(tempDir, "attachment.jpg.tmp").exists());
+    }
+
+    @Test
+    void failedDownloadIsResumed() throws IOException {
+        final var downloader = new TestDownloader();
+        downloader.failAfter = 3;
+        assertThrows(IOException.class, () -> attachmentStore.storeAttachment(attachmentFile, downloader));
+
+        assertFalse(attachmentFile.exists());
+        assertEquals(3, downloadFile.length());
+
+        downloader.failAfter = -1;
+        attachmentStore.storeAttachment(attachmentFile, downloader);
+
+        assertEquals(List.of(0L, 3L), downloader.resumeOffsets);
+        assertArrayEquals(DECRYPTED, Files.readAllBytes(attachmentFile.toPath()));
+        assertFalse(downloadFile.exists());
+    }
+
+    @Test
+    void partialDownloadIsDiscardedIfDigestDoesNotMatch() throws IOException {
+        final var downloader = new TestDownloader();
+        downloader.invalidDigest = true;
+        final var e = assertThrows(IOException.class,
+                () -> attachmentStore.storeAttachment(attachmentFile, downloader));
+
+        assertInstanceOf(InvalidMessageException.class, e.getCause());
+        assertFalse(attachmentFile.exists());
+        assertFalse(downloadFile.exists());
+    }
+
+    @Test
+    void partialDownloadIsDiscardedIfResumingMakesNoProgress() throws IOException {
+        Files.write(downloadFile.toPath(), ENCRYPTED);
+        final var downloader = new TestDownloader();
+        downloader.failAfter = ENCRYPTED.length;
+        assertThrows(IOException.class, () -> attachmentStore.storeAttachment(attachmentFile, downloader));
+
+        assertEquals(List.of((long) ENCRYPTED.length), downloader.resumeOffsets);
+        assertFalse(downloadFile.exists());
+
+        downloader.failAfter = -1;
+        attachmentStore.storeAttachment(attachmentFile, downloader);
+
+        assertEquals(List.of((long) ENCRYPTED.length, 0L), downloader.resumeOffsets);
+        assertArrayEquals(DECRYPTED, Files.readAllBytes(attachmentFile.toPath()));
+    }
+
+    @Test
+    void failedResumeWithProgressKeepsPartialDownload() throws IOException {
+        Files.write(downloadFile.toPath(), new byte[]{1, 2});
+        final var downloader = new TestDownloader();
+        downloader.failAfter = 5;
+        assertThrows(IOException.class, () -> attachmentStore.storeAttachment(attachmentFile, downloader));
+
+        assertEquals(5, downloadFile.length());
+    }
+
+    @Test
+    void failedWriteKeepsExistingAttachment() throws IOException {
+        Files.write(attachmentFile.toPath(), new byte[]{42});
+        final AttachmentStore.AttachmentDownloader downloader = destination -> new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Decrypting failed");
+            }
+        };
+        assertThrows(IOException.class, () -> attachmentStore.storeAttachment(attachmentFile, downloader));
+
+        assertArrayEquals(new byte[]{42}, Files.readAllBytes(attachmentFile.toPath()));
+        assertArrayEquals(new String[]{"attachment.jpg"}, tempDir.list());
+    }
+
+    /**
+     * Appends the missing part of the encrypted data to the destination, like a ranged download.
+     */
+    private static class TestDownloader implements AttachmentStore.AttachmentDownloader {
+
+        final List<Long> resumeOffsets = new ArrayList<>();
+        int failAfter = -1;
+        boolean invalidDigest = false;
+
+        @Override
+        public ByteArrayInputStream download(final File destination) throws IOException, InvalidMessageException {
+            final var offset = (int) destination.length();
+            resumeOffsets.add((long) offset);
+            final var end = failAfter >= 0 ? Math.min(failAfter, ENCRYPTED.length) : ENCRYPTED.length;
+            if (end > offset) {
+                try (final var output = new FileOutputStream(destination, true)) {
+                    output.write(ENCRYPTED, offset, end - offset);
+                }
+            }
+            if (failAfter >= 0) {
+                throw new IOException("Connection lost");
+            }
+            if (invalidDigest) {
+                throw new InvalidMessageException("Digest mismatch");
+            }
+            return new ByteArrayInputStream(DECRYPTED);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.asamk.signal.manager.storage;
+
+import org.asamk.signal.manager.api.GroupId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvatarStoreTest {
+
+    static final GroupId GROUP_A = groupId(1);
+    static final GroupId GROUP_B = groupId(2);
+    static final GroupId GROUP_C = groupId(3);
+
+    @TempDir
+    File tempDir;
+
+    AvatarStore avatarStore;
+
+    @BeforeEach
+    void setUp() {
+        avatarStore = new AvatarStore(tempDir);
+    }
+
+    @Test
+    void avatarIsCurrentForItsSource() throws IOException {
+        storeGroupAvatar(GROUP_A, "cdn/a", 10);
+
+        assertTrue(avatarStore.isGroupAvatarCurrent(GROUP_A, "cdn/a"));
+        assertFalse(avatarStore.isGroupAvatarCurrent(GROUP_A, "cdn/b"));
+        assertFalse(avatarStore.isGroupAvatarCurrent(GROUP_A, null));
+        assertFalse(avatarStore.isGroupAvatarCurrent(GROUP_B, "cdn/a"));
+    }
+
+    @Test
+    void storingWithoutSourceRequiresRevalidation() throws IOException {
+        storeGroupAvatar(GROUP_A, "cdn/a", 10);
+        storeGroupAvatar(GROUP_A, null, 10);
+
+        assertFalse(avatarStore.isGroupAvatarCurrent(GROUP_A, "cdn/a"));
+    }
+
+    @Test
+    void storeReplacesAvatar() throws IOException {
+        storeGroupAvatar(GROUP_A, "cdn/a", 10);
+        avatarStore.storeGroupAvatar(GROUP_A, "cdn/b", output -> output.write(new byte[]{1, 2, 3}));
+
+        assertTrue(avatarStore.isGroupAvatarCurrent(GROUP_A, "cdn/b"));
+        final var streamDetails = avatarStore.retrieveGroupAvatar(GROUP_A);
+        try (final var stream = streamDetails.getStream()) {
+            assertArrayEquals(new byte[]{1, 2, 3}, stream.readAllBytes());
+        }
+        assertFalse(new File(tempDir, getAvatarFile(GROUP_A).getName() + ".tmp").exists());
+    }
+
+    @Test
+    void failedStoreKeepsPreviousAvatar() throws IOException {
+        storeGroupAvatar(GROUP_A, "cdn/a", 10);
+
+        try {
+            avatarStore.storeGroupAvatar(GROUP_A, "cdn/b", output -> {
+                output.write(1);
+                throw new IOException("Download failed");
+            });
+        } catch (IOException ignored) {
+        }
+
+        assertTrue(avatarStore.isGroupAvatarCurrent(GROUP_A, "cdn/a"));
+        assertEquals(10, getAvatarFile(GROUP_A).length());
+    }
+
+    @Test
+    void evictionDeletesLeastRecentlyUsedAvatars() throws IOException {
+        storeGroupAvatar(GROUP_A, "cdn/a", 100);
+        storeGroupAvatar(GROUP_B, "cdn/b", 100);
+        storeGroupAvatar(GROUP_C, "cdn/c", 100);
+        final var now = System.currentTimeMillis();
+        getAvatarFile(GROUP_A).setLastModified(now - 30_000);
+        getAvatarFile(GROUP_B).setLastModified(now - 20_000);
+        getAvatarFile(GROUP_C).setLastModified(now - 10_000);
+
+        // Reading an avatar marks it as recently used
+        avatarStore.retrieveGroupAvatar(GROUP_A).getStream().close();
+        avatarStore.evictAvatars(200);
+
+        assertTrue(getAvatarFile(GROUP_A).exists());
+        assertNull(avatarStore.retrieveGroupAvatar(GROUP_B));
+        assertTrue(getAvatarFile(GROUP_C).exists());
+        // Evicted avatars are downloaded again
+        assertFalse(avatarStore.isGroupAvatarCurrent(GROUP_B, "cdn/b"));
+        assertFalse(new File(tempDir, getAvatarFile(GROUP_B).getName() + ".source").exists());
+    }
+
+    @Test
+    void evictionKeepsAvatarsBelowLimit() throws IOException {
+        storeGroupAvatar(GROUP_A, "cdn/a", 100);
+        storeGroupAvatar(GROUP_B, "cdn/b", 100);
+
+        avatarStore.evictAvatars(200);
+
+        assertTrue(getAvatarFile(GROUP_A).exists());
+        assertTrue(getAvatarFile(GROUP_B).exists());
+    }
+
+    private void storeGroupAvatar(final GroupId groupId, final String source, final int size) throws IOException {
+        avatarStore.storeGroupAvatar(groupId, source, output -> output.write(new byte[size]));
+    }
+
+    private File getAvatarFile(final GroupId groupId) {
+        return new File(tempDir, "group-" + groupId.toBase64().replace("/", "_"));
+    }
+
+    private static GroupId groupId(final int id) {
+        final var bytes = new byte[32];
+        bytes[0] = (byte) id;
+        return GroupId.v2(bytes);
+    }
+}
@@ -0,0 +1,104 @@
+package org.asamk.signal.manager.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PooledConnectionHandlerTest {
+
+    @TempDir
+    File tempDir;
+
+    TestDatabase database;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = TestDatabase.init(new File(tempDir, "test.db"));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Test
+    void autoCommitChangesArePersisted() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            TestDatabase.insertItem(connection, "a");
+        }
+
+        assertEquals(List.of("a"), database.getItems());
+    }
+
+    @Test
+    void committedChangesArePersisted() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            TestDatabase.insertItem(connection, "a");
+            connection.commit();
+            TestDatabase.insertItem(connection, "b");
+            connection.commit();
+        }
+
+        assertEquals(List.of("a", "b"), database.getItems());
+    }
+
+    @Test
+    void uncommittedChangesAreRolledBackOnClose() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            TestDatabase.insertItem(connection, "a");
+            connection.commit();
+            TestDatabase.insertItem(connection, "b");
+        }
+
+        assertEquals(List.of("a"), database.getItems());
+    }
+
+    @Test
+    void explicitRollbackDiscardsChanges() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            TestDatabase.insertItem(connection, "a");
+            connection.rollback();
+            TestDatabase.insertItem(connection, "b");
+            connection.commit();
+        }
+
+        assertEquals(List.of("b"), database.getItems());
+    }
+
+    @Test
+    void returnedConnectionIsResetForNextBorrower() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            TestDatabase.insertItem(connection, "a");
+        }
+
+        try (final var connection = database.getConnection()) {
+            assertTrue(connection.getAutoCommit());
+            TestDatabase.insertItem(connection, "b");
+        }
+
+        assertEquals(List.of("b"), database.getItems());
+    }
+
+    @Test
+    void closeIsIdempotent() throws SQLException {
+        final var connection = database.getConnection();
+        assertFalse(connection.isClosed());
+        connection.close();
+        connection.close();
+
+        assertTrue(connection.isClosed());
+    }
+}
@@ -0,0 +1,184 @@
+package org.asamk.signal.manager.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementCacheTest {
+
+    private static final String SELECT_SQL = "SELECT COUNT(*) FROM item WHERE name = ?";
+
+    @TempDir
+    File tempDir;
+
+    TestDatabase database;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = TestDatabase.init(new File(tempDir, "test.db"));
+        database.insertItem("a");
+        database.insertItem("b");
+        database.insertItem("b");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Test
+    void statementIsReusedAfterClose() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            final PreparedStatement first;
+            try (final var statement = connection.prepareStatement(SELECT_SQL)) {
+                first = statement;
+                assertEquals(1, count(statement, "a"));
+            }
+            try (final var statement = connection.prepareStatement(SELECT_SQL)) {
+                assertSame(first, statement);
+                assertEquals(2, count(statement, "b"));
+            }
+        }
+    }
+
+    @Test
+    void statementIsReusedAfterResultSetClose() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            final PreparedStatement first;
+            try (final var statement = connection.prepareStatement(SELECT_SQL)) {
+                first = statement;
+                statement.setString(1, "a");
+                final var resultSet = statement.executeQuery();
+                assertTrue(resultSet.next());
+                resultSet.close();
+                assertFalse(statement.isClosed());
+                assertEquals(2, count(statement, "b"));
+            }
+            try (final var statement = connection.prepareStatement(SELECT_SQL)) {
+                assertSame(first, statement);
+                assertEquals(0, count(statement, "c"));
+            }
+        }
+    }
+
+    @Test
+    void statementInUseIsNotShared() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            try (final var first = connection.prepareStatement(SELECT_SQL)) {
+                first.setString(1, "a");
+                try (final var resultSet = first.executeQuery()) {
+                    try (final var second = connection.prepareStatement(SELECT_SQL)) {
+                        assertNotSame(first, second);
+                        assertEquals(2, count(second, "b"));
+                    }
+                    assertTrue(resultSet.next());
+                    assertEquals(1, resultSet.getInt(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    void closingStatementClosesResultSet() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            final var statement = connection.prepareStatement(SELECT_SQL);
+            statement.setString(1, "a");
+            final var resultSet = statement.executeQuery();
+            statement.close();
+
+            assertTrue(statement.isClosed());
+            assertTrue(resultSet.isClosed());
+        }
+    }
+
+    @Test
+    void closedStatementCantBeUsed() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            final var statement = connection.prepareStatement(SELECT_SQL);
+            statement.close();
+            statement.close();
+
+            assertThrows(SQLException.class, () -> statement.setString(1, "a"));
+            assertThrows(SQLException.class, statement::executeQuery);
+        }
+    }
+
+    @Test
+    void statementReturnsWrappedConnection() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SELECT_SQL)) {
+                assertSame(connection, statement.getConnection());
+            }
+        }
+    }
+
+    @Test
+    void unclosedStatementsAreReleasedWithConnection() throws SQLException {
+        final PreparedStatement statement;
+        try (final var connection = database.getConnection()) {
+            statement = connection.prepareStatement(SELECT_SQL);
+            statement.setString(1, "a");
+            statement.executeQuery();
+        }
+        assertTrue(statement.isClosed());
+
+        try (final var connection = database.getConnection()) {
+            try (final var reused = connection.prepareStatement(SELECT_SQL)) {
+                assertEquals(2, count(reused, "b"));
+            }
+        }
+    }
+
+    @Test
+    void statementsAreSharedWithUnitOfWork() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            final PreparedStatement first;
+            try (final var connection = database.getConnection()) {
+                try (final var statement = connection.prepareStatement(SELECT_SQL)) {
+                    first = statement;
+                    assertEquals(1, count(statement, "a"));
+                }
+            }
+            database.insertItem("a");
+            try (final var connection = database.getConnection()) {
+                try (final var statement = connection.prepareStatement(SELECT_SQL)) {
+                    assertSame(first, statement);
+                    assertEquals(2, count(statement, "a"));
+                }
+            }
+            unitOfWork.commit();
+        }
+    }
+
+    @Test
+    void otherPrepareVariantsAreNotCached() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            try (final var first = connection.prepareStatement(SELECT_SQL, Connection.RETURN_GENERATED_KEYS)) {
+                try (final var second = connection.prepareStatement(SELECT_SQL, Connection.RETURN_GENERATED_KEYS)) {
+                    assertNotSame(first, second);
+                }
+            }
+        }
+    }
+
+    private static int count(final PreparedStatement statement, final String name) throws SQLException {
+        statement.setString(1, name);
+        try (final var resultSet = statement.executeQuery()) {
+            assertTrue(resultSet.next());
+            return resultSet.getInt(1);
+        }
+    }
+}
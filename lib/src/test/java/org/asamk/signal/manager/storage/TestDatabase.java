@@ -0,0 +1,89 @@
+package org.asamk.signal.manager.storage;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Database with a single item table and the tables of the stores under test.
+ */
+public class TestDatabase extends Database {
+
+    private final static Logger logger = LoggerFactory.getLogger(TestDatabase.class);
+
+    private final TableCreator tableCreator;
+
+    private TestDatabase(final HikariDataSource dataSource, final TableCreator tableCreator) {
+        super(logger, 1, dataSource);
+        this.tableCreator = tableCreator;
+    }
+
+    public static TestDatabase init(final File databaseFile) throws SQLException {
+        return init(databaseFile, connection -> {
+        });
+    }
+
+    public static TestDatabase init(final File databaseFile, final TableCreator tableCreator) throws SQLException {
+        return initDatabase(databaseFile, dataSource -> new TestDatabase(dataSource, tableCreator));
+    }
+
+    public void insertItem(final String name) throws SQLException {
+        try (final var connection = getConnection()) {
+            insertItem(connection, name);
+        }
+    }
+
+    public static void insertItem(final Connection connection, final String name) throws SQLException {
+        try (final var statement = connection.prepareStatement("INSERT INTO item (name) VALUES (?)")) {
+            statement.setString(1, name);
+            statement.executeUpdate();
+        }
+    }
+
+    public List<String> getItems() throws SQLException {
+        try (final var connection = getConnection()) {
+            return getItems(connection);
+        }
+    }
+
+    public static List<String> getItems(final Connection connection) throws SQLException {
+        try (final var statement = connection.prepareStatement("SELECT name FROM item ORDER BY _id")) {
+            try (final var resultSet = statement.executeQuery()) {
+                final var items = new ArrayList<String>();
+                while (resultSet.next()) {
+                    items.add(resultSet.getString(1));
+                }
+                return items;
+            }
+        }
+    }
+
+    @Override
+    protected void createDatabase(final Connection connection) throws SQLException {
+        try (final var statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                                    CREATE TABLE item (
+                                      _id INTEGER PRIMARY KEY,
+                                      name TEXT NOT NULL
+                                    ) STRICT;
+                                    """);
+        }
+        tableCreator.createTables(connection);
+    }
+
+    @Override
+    protected void upgradeDatabase(final Connection connection, final long oldVersion) {
+    }
+
+    public interface TableCreator {
+
+        void createTables(Connection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,234 @@
+package org.asamk.signal.manager.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnitOfWorkTest {
+
+    @TempDir
+    File tempDir;
+
+    TestDatabase database;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = TestDatabase.init(new File(tempDir, "test.db"));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Test
+    void commitPersistsChanges() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            database.insertItem("a");
+            database.insertItem("b");
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of("a", "b"), database.getItems());
+    }
+
+    @Test
+    void closeWithoutCommitRollsBackChanges() throws SQLException {
+        try (final var ignored = database.beginUnitOfWork()) {
+            database.insertItem("a");
+        }
+
+        assertEquals(List.of(), database.getItems());
+    }
+
+    @Test
+    void commitTwiceFails() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            unitOfWork.commit();
+            assertThrows(SQLException.class, unitOfWork::commit);
+        }
+    }
+
+    @Test
+    void nestedRollbackKeepsOuterChanges() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            database.insertItem("a");
+            try (final var ignored = database.beginUnitOfWork()) {
+                database.insertItem("b");
+            }
+            database.insertItem("c");
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of("a", "c"), database.getItems());
+    }
+
+    @Test
+    void nestedCommitIsRolledBackWithOuter() throws SQLException {
+        try (final var ignored = database.beginUnitOfWork()) {
+            database.insertItem("a");
+            try (final var nested = database.beginUnitOfWork()) {
+                database.insertItem("b");
+                nested.commit();
+            }
+        }
+
+        assertEquals(List.of(), database.getItems());
+    }
+
+    @Test
+    void multipleNestingLevels() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            try (final var nested = database.beginUnitOfWork()) {
+                database.insertItem("a");
+                try (final var ignored = database.beginUnitOfWork()) {
+                    database.insertItem("b");
+                }
+                try (final var nested2 = database.beginUnitOfWork()) {
+                    database.insertItem("c");
+                    nested2.commit();
+                }
+                nested.commit();
+            }
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of("a", "c"), database.getItems());
+    }
+
+    @Test
+    void onRollbackRunsWhenRolledBack() throws SQLException {
+        final var actions = new ArrayList<String>();
+        try (final var ignored = database.beginUnitOfWork()) {
+            database.insertItem("a");
+            database.onRollback(() -> actions.add("a"));
+        }
+
+        assertEquals(List.of("a"), actions);
+    }
+
+    @Test
+    void onRollbackDoesNotRunWhenCommitted() throws SQLException {
+        final var actions = new ArrayList<String>();
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            database.onRollback(() -> actions.add("a"));
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of(), actions);
+    }
+
+    @Test
+    void onRollbackOfNestedRollbackOnlyRunsNestedActions() throws SQLException {
+        final var actions = new ArrayList<String>();
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            database.onRollback(() -> actions.add("outer"));
+            try (final var ignored = database.beginUnitOfWork()) {
+                database.onRollback(() -> actions.add("nested"));
+            }
+            assertEquals(List.of("nested"), actions);
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of("nested"), actions);
+    }
+
+    @Test
+    void onRollbackOfCommittedNestedRunsWhenOuterIsRolledBack() throws SQLException {
+        final var actions = new ArrayList<String>();
+        try (final var ignored = database.beginUnitOfWork()) {
+            try (final var nested = database.beginUnitOfWork()) {
+                database.onRollback(() -> actions.add("nested"));
+                nested.commit();
+            }
+            assertEquals(List.of(), actions);
+        }
+
+        assertEquals(List.of("nested"), actions);
+    }
+
+    @Test
+    void onRollbackWithoutUnitOfWorkIsIgnored() {
+        final var actions = new ArrayList<String>();
+        database.onRollback(() -> actions.add("a"));
+
+        assertEquals(List.of(), actions);
+    }
+
+    @Test
+    void storeTransactionIsMappedToSavepoint() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            try (final var connection = database.getConnection()) {
+                connection.setAutoCommit(false);
+                assertFalse(connection.getAutoCommit());
+                TestDatabase.insertItem(connection, "a");
+                connection.rollback();
+                TestDatabase.insertItem(connection, "b");
+                connection.commit();
+            }
+            try (final var connection = database.getConnection()) {
+                connection.setAutoCommit(false);
+                TestDatabase.insertItem(connection, "c");
+                // Closed without commit
+            }
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of("b"), database.getItems());
+    }
+
+    @Test
+    void closingConnectionDoesNotEndUnitOfWork() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            final var connection = database.getConnection();
+            TestDatabase.insertItem(connection, "a");
+            connection.close();
+            assertTrue(connection.isClosed());
+            assertThrows(SQLException.class, () -> TestDatabase.insertItem(connection, "b"));
+
+            database.insertItem("c");
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of("a", "c"), database.getItems());
+    }
+
+    @Test
+    void unitOfWorkIsPinnedToThread() throws SQLException {
+        try (final var unitOfWork = database.beginUnitOfWork()) {
+            database.insertItem("a");
+            assertEquals(List.of("a"), database.getItems());
+
+            // Other threads don't take part in the transaction and don't see its changes
+            final var otherThreadItems = CompletableFuture.supplyAsync(() -> {
+                try (final var connection = database.getConnection()) {
+                    assertTrue(connection.getAutoCommit());
+                    return TestDatabase.getItems(connection);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }).join();
+            assertEquals(List.of(), otherThreadItems);
+
+            unitOfWork.commit();
+        }
+
+        try (final var connection = database.getConnection()) {
+            assertTrue(connection.getAutoCommit());
+        }
+        assertEquals(List.of("a"), database.getItems());
+    }
+}
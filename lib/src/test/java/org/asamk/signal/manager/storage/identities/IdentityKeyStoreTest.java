@@ -0,0 +1,196 @@
+package org.asamk.signal.manager.storage.identities;
+
+import org.asamk.signal.manager.api.TrustLevel;
+import org.asamk.signal.manager.api.TrustNewIdentity;
+import org.asamk.signal.manager.metrics.Metrics;
+import org.asamk.signal.manager.storage.TestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.signal.libsignal.protocol.IdentityKey;
+import org.signal.libsignal.protocol.IdentityKeyPair;
+import org.signal.libsignal.protocol.state.IdentityKeyStore.Direction;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdentityKeyStoreTest {
+
+    static final ServiceId SERVICE_ID_A = ServiceId.ACI.from(UUID.randomUUID());
+    static final ServiceId SERVICE_ID_B = ServiceId.ACI.from(UUID.randomUUID());
+    static final IdentityKey IDENTITY_KEY_1 = IdentityKeyPair.generate().getPublicKey();
+    static final IdentityKey IDENTITY_KEY_2 = IdentityKeyPair.generate().getPublicKey();
+
+    @TempDir
+    File tempDir;
+
+    TestDatabase database;
+    Metrics metrics;
+    IdentityKeyStore identityKeyStore;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = TestDatabase.init(new File(tempDir, "test.db"), IdentityKeyStore::createSql);
+        metrics = new Metrics(true);
+        identityKeyStore = new IdentityKeyStore(database, TrustNewIdentity.ON_FIRST_USE, metrics);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Test
+    void repeatedLookupIsAnsweredByCache() {
+        identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_1);
+        final var misses = getCounter("signal_identity_cache_misses_total");
+        final var hits = getCounter("signal_identity_cache_hits_total");
+
+        final var identityInfo = identityKeyStore.getIdentityInfo(SERVICE_ID_A);
+        assertEquals(IDENTITY_KEY_1, identityInfo.getIdentityKey());
+        identityKeyStore.getIdentityInfo(SERVICE_ID_A);
+
+        assertEquals(misses, getCounter("signal_identity_cache_misses_total"));
+        assertEquals(hits + 2, getCounter("signal_identity_cache_hits_total"));
+        assertEquals(1, getGauge("signal_identity_cache_size"));
+    }
+
+    @Test
+    void missingIdentityIsCached() {
+        assertNull(identityKeyStore.getIdentityInfo(SERVICE_ID_A));
+        assertNull(identityKeyStore.getIdentityInfo(SERVICE_ID_A));
+
+        assertEquals(1, getCounter("signal_identity_cache_misses_total"));
+        assertEquals(1, getCounter("signal_identity_cache_hits_total"));
+    }
+
+    @Test
+    void saveIdentityUpdatesCachedIdentity() {
+        assertNull(identityKeyStore.getIdentityInfo(SERVICE_ID_A));
+
+        assertTrue(identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_1));
+        assertFalse(identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_1));
+        assertEquals(IDENTITY_KEY_1, identityKeyStore.getIdentityInfo(SERVICE_ID_A).getIdentityKey());
+
+        assertTrue(identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_2));
+        final var identityInfo = identityKeyStore.getIdentityInfo(SERVICE_ID_A);
+        assertEquals(IDENTITY_KEY_2, identityInfo.getIdentityKey());
+        assertEquals(TrustLevel.UNTRUSTED, identityInfo.getTrustLevel());
+        assertEquals(1, getCounter("signal_identity_cache_misses_total"));
+    }
+
+    @Test
+    void cachedIdentitiesMatchDatabase() {
+        identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_1);
+        identityKeyStore.saveIdentity(SERVICE_ID_B, IDENTITY_KEY_1);
+        identityKeyStore.setIdentityTrustLevel(SERVICE_ID_B, IDENTITY_KEY_1, TrustLevel.TRUSTED_VERIFIED);
+        identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_2);
+
+        final var uncachedStore = new IdentityKeyStore(database, TrustNewIdentity.ON_FIRST_USE, Metrics.DISABLED);
+        for (final var serviceId : new ServiceId[]{SERVICE_ID_A, SERVICE_ID_B}) {
+            final var cached = identityKeyStore.getIdentityInfo(serviceId);
+            final var stored = uncachedStore.getIdentityInfo(serviceId);
+            assertEquals(stored.getIdentityKey(), cached.getIdentityKey());
+            assertEquals(stored.getTrustLevel(), cached.getTrustLevel());
+        }
+    }
+
+    @Test
+    void trustOnFirstUse() {
+        assertTrue(identityKeyStore.isTrustedIdentity(SERVICE_ID_A, IDENTITY_KEY_1, Direction.RECEIVING));
+        assertTrue(identityKeyStore.isTrustedIdentity(SERVICE_ID_A, IDENTITY_KEY_1, Direction.SENDING));
+
+        // A changed identity isn't trusted, it's only stored when sending
+        assertFalse(identityKeyStore.isTrustedIdentity(SERVICE_ID_A, IDENTITY_KEY_2, Direction.RECEIVING));
+        assertEquals(IDENTITY_KEY_1, identityKeyStore.getIdentityInfo(SERVICE_ID_A).getIdentityKey());
+        assertFalse(identityKeyStore.isTrustedIdentity(SERVICE_ID_A, IDENTITY_KEY_2, Direction.SENDING));
+        assertEquals(IDENTITY_KEY_2, identityKeyStore.getIdentityInfo(SERVICE_ID_A).getIdentityKey());
+
+        assertTrue(identityKeyStore.setIdentityTrustLevel(SERVICE_ID_A, IDENTITY_KEY_2, TrustLevel.TRUSTED_VERIFIED));
+        assertTrue(identityKeyStore.isTrustedIdentity(SERVICE_ID_A, IDENTITY_KEY_2, Direction.RECEIVING));
+    }
+
+    @Test
+    void deleteIdentityUpdatesCache() {
+        identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_1);
+        assertNotNull(identityKeyStore.getIdentityInfo(SERVICE_ID_A));
+
+        identityKeyStore.deleteIdentity(SERVICE_ID_A);
+
+        assertNull(identityKeyStore.getIdentityInfo(SERVICE_ID_A));
+        assertTrue(identityKeyStore.getIdentities().isEmpty());
+    }
+
+    @Test
+    void rollbackInvalidatesCachedIdentity() throws SQLException {
+        identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_1);
+        try (final var ignored = database.beginUnitOfWork()) {
+            identityKeyStore.saveIdentity(SERVICE_ID_A, IDENTITY_KEY_2);
+            identityKeyStore.saveIdentity(SERVICE_ID_B, IDENTITY_KEY_2);
+            assertEquals(IDENTITY_KEY_2, identityKeyStore.getIdentityInfo(SERVICE_ID_A).getIdentityKey());
+        }
+
+        assertEquals(IDENTITY_KEY_1, identityKeyStore.getIdentityInfo(SERVICE_ID_A).getIdentityKey());
+        assertNull(identityKeyStore.getIdentityInfo(SERVICE_ID_B));
+    }
+
+    @Test
+    void concurrentWritersKeepCacheConsistent() {
+        final var serviceIds = new ArrayList<ServiceId>();
+        for (var i = 0; i < 16; i++) {
+            serviceIds.add(ServiceId.ACI.from(UUID.randomUUID()));
+        }
+
+        final var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var thread = 0; thread < 4; thread++) {
+            final var identityKey = thread % 2 == 0 ? IDENTITY_KEY_1 : IDENTITY_KEY_2;
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (final var serviceId : serviceIds) {
+                    identityKeyStore.isTrustedIdentity(serviceId, identityKey, Direction.SENDING);
+                    identityKeyStore.getIdentityInfo(serviceId);
+                    identityKeyStore.saveIdentity(serviceId, identityKey);
+                }
+            }));
+        }
+        futures.forEach(CompletableFuture::join);
+
+        final var uncachedStore = new IdentityKeyStore(database, TrustNewIdentity.ON_FIRST_USE, Metrics.DISABLED);
+        for (final var serviceId : serviceIds) {
+            final var cached = identityKeyStore.getIdentityInfo(serviceId);
+            final var stored = uncachedStore.getIdentityInfo(serviceId);
+            assertEquals(stored.getIdentityKey(), cached.getIdentityKey());
+            assertEquals(stored.getTrustLevel(), cached.getTrustLevel());
+        }
+    }
+
+    private long getCounter(final String name) {
+        return metrics.snapshot()
+                .counters()
+                .stream()
+                .filter(c -> c.name().equals(name))
+                .findFirst()
+                .orElseThrow()
+                .value();
+    }
+
+    private double getGauge(final String name) {
+        return metrics.snapshot()
+                .gauges()
+                .stream()
+                .filter(g -> g.name().equals(name))
+                .findFirst()
+                .orElseThrow()
+                .value();
+    }
+}
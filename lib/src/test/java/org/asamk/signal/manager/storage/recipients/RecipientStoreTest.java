@@ -0,0 +1,81 @@
+package org.asamk.signal.manager.storage.recipients;
+
+import org.asamk.signal.manager.storage.TestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.whispersystems.signalservice.api.push.ServiceId;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class RecipientStoreTest {
+
+    static final ServiceId SERVICE_ID_A = ServiceId.ACI.from(UUID.randomUUID());
+    static final ServiceId SERVICE_ID_B = ServiceId.ACI.from(UUID.randomUUID());
+    static final ServiceId SERVICE_ID_SELF = ServiceId.ACI.from(UUID.randomUUID());
+    static final String NUMBER_A = "+AAA";
+
+    @TempDir
+    File tempDir;
+
+    TestDatabase database;
+    RecipientStore recipientStore;
+
+    final List<RecipientId> mergedRecipientIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = TestDatabase.init(new File(tempDir, "test.db"), RecipientStore::createSql);
+        recipientStore = new RecipientStore((connection, recipientId, toBeMerged) -> mergedRecipientIds.add(toBeMerged),
+                () -> new RecipientAddress(SERVICE_ID_SELF),
+                database);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Test
+    void batchIsResolvedInOrder() {
+        final var recipientIds = recipientStore.resolveRecipientsTrusted(List.of(new RecipientAddress(SERVICE_ID_A),
+                new RecipientAddress(SERVICE_ID_B),
+                new RecipientAddress(SERVICE_ID_A)));
+
+        assertEquals(3, recipientIds.size());
+        assertEquals(recipientIds.get(0), recipientIds.get(2));
+        assertNotEquals(recipientIds.get(0), recipientIds.get(1));
+        assertEquals(recipientStore.resolveRecipient(SERVICE_ID_B), recipientIds.get(1));
+    }
+
+    @Test
+    void laterAddressMergesRecipientOfEarlierAddress() {
+        final var recipientIds = recipientStore.resolveRecipientsTrusted(List.of(new RecipientAddress(SERVICE_ID_A),
+                new RecipientAddress(null, NUMBER_A),
+                new RecipientAddress(SERVICE_ID_A, NUMBER_A)));
+
+        assertEquals(1, mergedRecipientIds.size());
+        assertEquals(recipientIds.get(0), recipientIds.get(1));
+        assertEquals(recipientIds.get(0), recipientIds.get(2));
+        assertEquals(recipientIds.get(0), recipientStore.resolveRecipient(SERVICE_ID_A));
+    }
+
+    @Test
+    void batchResolvesTheSameRecipientsAsSingleResolution() {
+        final var recipientId = recipientStore.resolveRecipientTrusted(new RecipientAddress(SERVICE_ID_A, NUMBER_A));
+
+        final var recipientIds = recipientStore.resolveRecipientsTrusted(List.of(new RecipientAddress(null, NUMBER_A),
+                new RecipientAddress(SERVICE_ID_A)));
+
+        assertEquals(List.of(recipientId, recipientId), recipientIds);
+        assertEquals(List.of(), mergedRecipientIds);
+    }
+}
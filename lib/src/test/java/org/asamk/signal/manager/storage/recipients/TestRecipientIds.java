@@ -0,0 +1,14 @@
+package org.asamk.signal.manager.storage.recipients;
+
+/**
+ * Recipient ids for tests that don't need a recipient store.
+ */
+public final class TestRecipientIds {
+
+    private TestRecipientIds() {
+    }
+
+    public static RecipientId of(final long id) {
+        return new RecipientId(id, null);
+    }
+}
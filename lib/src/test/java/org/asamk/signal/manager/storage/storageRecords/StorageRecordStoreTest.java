@@ -0,0 +1,154 @@
+package org.asamk.signal.manager.storage.storageRecords;
+
+import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.storage.TestDatabase;
+import org.asamk.signal.manager.storage.recipients.RecipientAddress;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.recipients.RecipientStore;
+import org.asamk.signal.manager.util.KeyUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.whispersystems.signalservice.api.push.ServiceId;
+import org.whispersystems.signalservice.api.storage.StorageId;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StorageRecordStoreTest {
+
+    static final GroupId GROUP_ID = GroupId.unknownVersion(KeyUtils.createRawStorageId());
+    static final byte[] RECORD = new byte[]{1, 2, 3};
+
+    @TempDir
+    File tempDir;
+
+    TestDatabase database;
+    RecipientStore recipientStore;
+    StorageRecordStore storageRecordStore;
+    RecipientId recipientId;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = TestDatabase.init(new File(tempDir, "test.db"), connection -> {
+            RecipientStore.createSql(connection);
+            StorageRecordStore.createSql(connection);
+        });
+        recipientStore = new RecipientStore((connection, recipientId, toBeMerged) -> {
+        }, () -> new RecipientAddress(ServiceId.ACI.from(UUID.randomUUID())), database);
+        storageRecordStore = new StorageRecordStore(database, recipientStore::create);
+        recipientId = recipientStore.resolveRecipient(ServiceId.ACI.from(UUID.randomUUID()));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Test
+    void storedRecordsAreKnown() {
+        final var contactId = contactStorageId();
+        final var groupId = StorageId.forGroupV2(KeyUtils.createRawStorageId());
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(contactId,
+                recipientId,
+                null,
+                RECORD));
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(groupId, null, GROUP_ID, RECORD));
+
+        assertEquals(Set.of(contactId, groupId), storageRecordStore.getStorageIds());
+
+        storageRecordStore.deleteStorageRecords(List.of(groupId));
+        assertEquals(Set.of(contactId), storageRecordStore.getStorageIds());
+
+        storageRecordStore.deleteAllStorageRecords();
+        assertEquals(Set.of(), storageRecordStore.getStorageIds());
+    }
+
+    @Test
+    void onlyRecordsChangedLocallyAreDirty() {
+        final var storageId = contactStorageId();
+        final var type = storageId.getType();
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(storageId,
+                recipientId,
+                null,
+                RECORD));
+        assertEquals(List.of(), storageRecordStore.getDirtyStorageRecords(type));
+
+        storageRecordStore.markRecipientDirty(recipientId);
+        final var dirtyRecords = storageRecordStore.getDirtyStorageRecords(type);
+        assertEquals(1, dirtyRecords.size());
+        assertEquals(storageId, dirtyRecords.get(0).storageId());
+        assertEquals(recipientId, dirtyRecords.get(0).recipientId());
+        assertArrayEquals(RECORD, dirtyRecords.get(0).record());
+
+        storageRecordStore.clearDirty(List.of(storageId));
+        assertEquals(List.of(), storageRecordStore.getDirtyStorageRecords(type));
+    }
+
+    @Test
+    void groupRecordIsMarkedDirty() {
+        final var storageId = StorageId.forGroupV2(KeyUtils.createRawStorageId());
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(storageId, null, GROUP_ID, RECORD));
+
+        storageRecordStore.markGroupDirty(GROUP_ID);
+
+        final var dirtyRecords = storageRecordStore.getDirtyStorageRecords(storageId.getType());
+        assertEquals(1, dirtyRecords.size());
+        assertArrayEquals(GROUP_ID.serialize(), dirtyRecords.get(0).groupId().serialize());
+    }
+
+    @Test
+    void duplicateRecordIsStoredWithoutMapping() {
+        final var storageId = contactStorageId();
+        final var duplicateStorageId = contactStorageId();
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(storageId,
+                recipientId,
+                null,
+                RECORD));
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(duplicateStorageId,
+                recipientId,
+                null,
+                RECORD));
+
+        assertEquals(Set.of(storageId, duplicateStorageId), storageRecordStore.getStorageIds());
+
+        storageRecordStore.markRecipientDirty(recipientId);
+        final var dirtyRecords = storageRecordStore.getDirtyStorageRecords(storageId.getType());
+        assertEquals(1, dirtyRecords.size());
+        assertEquals(storageId, dirtyRecords.get(0).storageId());
+    }
+
+    @Test
+    void storingARecordAgainReplacesItsRecord() {
+        final var storageId = contactStorageId();
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(storageId,
+                recipientId,
+                null,
+                RECORD));
+        storageRecordStore.markRecipientDirty(recipientId);
+
+        final var newRecord = new byte[]{4, 5};
+        storageRecordStore.storeStorageRecord(new StorageRecordStore.StorageRecord(storageId,
+                recipientId,
+                null,
+                newRecord));
+        assertEquals(List.of(), storageRecordStore.getDirtyStorageRecords(storageId.getType()));
+
+        storageRecordStore.markRecipientDirty(recipientId);
+        final var dirtyRecords = storageRecordStore.getDirtyStorageRecords(storageId.getType());
+        assertArrayEquals(newRecord, dirtyRecords.get(0).record());
+        assertNull(dirtyRecords.get(0).groupId());
+    }
+
+    private static StorageId contactStorageId() {
+        return StorageId.forContact(KeyUtils.createRawStorageId());
+    }
+}
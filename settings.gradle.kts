@@ -26,3 +26,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "signal-cli"
 include("lib")
+include("benchmarks")
+include("test-harness")
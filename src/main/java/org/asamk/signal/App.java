@@ -3,6 +3,7 @@ package org.asamk.signal;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 
 import org.asamk.signal.commands.Command;
@@ -17,6 +18,8 @@ import org.asamk.signal.commands.exceptions.IOErrorException;
 import org.asamk.signal.commands.exceptions.UnexpectedErrorException;
 import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.dbus.DbusCommandHandler;
+import org.asamk.signal.jsonrpc.JsonRpcClient;
+import org.asamk.signal.jsonrpc.JsonRpcClientCommandHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.RegistrationManager;
 import org.asamk.signal.manager.Settings;
@@ -25,6 +28,7 @@ import org.asamk.signal.manager.api.AccountCheckException;
 import org.asamk.signal.manager.api.NotRegisteredException;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.api.TrustNewIdentity;
+import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.JsonWriterImpl;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriterImpl;
@@ -41,6 +45,14 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnixDomainSocketAddress;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import static net.sourceforge.argparse4j.DefaultSettings.VERSION_0_9_0_DEFAULT_SETTINGS;
@@ -49,6 +61,12 @@ public class App {
 
     private final static Logger logger = LoggerFactory.getLogger(App.class);
 
+    // Global arguments that change how an account is loaded, a daemon may have been started with different values
+    private static final Set<String> ACCOUNT_LOADING_ARGUMENTS = Set.of("config",
+            "service-environment",
+            "trust-new-identities",
+            "disable-send-log");
+
     private final Namespace ns;
 
     static ArgumentParser buildArgumentParser() {
@@ -59,6 +77,19 @@ public class App {
                 .description("Commandline interface for Signal.")
                 .version(BaseConfig.PROJECT_NAME + " " + BaseConfig.PROJECT_VERSION);
 
+        addGlobalArguments(parser);
+
+        var subparsers = parser.addSubparsers().title("subcommands").dest("command");
+
+        Commands.getCommandSubparserAttachers().forEach((key, value) -> {
+            var subparser = subparsers.addParser(key);
+            value.attachToSubparser(subparser);
+        });
+
+        return parser;
+    }
+
+    private static void addGlobalArguments(final ArgumentParser parser) {
         parser.addArgument("--version").help("Show package version.").action(Arguments.version());
         parser.addArgument("-v", "--verbose")
                 .help("Raise log level and include lib signal logs. Specify multiple times for even more logs.")
@@ -69,6 +100,9 @@ public class App {
         parser.addArgument("--scrub-log")
                 .action(Arguments.storeTrue())
                 .help("Scrub possibly sensitive information from the log, like phone numbers and UUIDs.");
+        parser.addArgument("--async-log")
+                .action(Arguments.storeTrue())
+                .help("Write log output from a background thread, dropping debug messages if it can't keep up.");
         parser.addArgument("-c", "--config")
                 .help("Set the path, where to store the config (Default: $XDG_DATA_HOME/signal-cli , $HOME/.local/share/signal-cli).");
 
@@ -81,6 +115,22 @@ public class App {
                 .dest("global-dbus-system")
                 .help("Make request via system dbus.")
                 .action(Arguments.storeTrue());
+        mut.addArgument("--json-rpc-socket")
+                .dest("global-json-rpc-socket")
+                .nargs("?")
+                .type(File.class)
+                .setConst(IOUtils.getDefaultSocketFile())
+                .help("Send the command to a daemon listening on a UNIX socket (default $XDG_RUNTIME_DIR/signal-cli/socket).");
+        mut.addArgument("--json-rpc-tcp")
+                .dest("global-json-rpc-tcp")
+                .nargs("?")
+                .setConst("localhost:7583")
+                .help("Send the command to a daemon listening on a TCP socket (default localhost:7583).");
+        mut.addArgument("--json-rpc-http")
+                .dest("global-json-rpc-http")
+                .nargs("?")
+                .setConst("http://localhost:8080/api/v1/rpc")
+                .help("Send the command to a daemon's http endpoint (default http://localhost:8080/api/v1/rpc).");
 
         parser.addArgument("-o", "--output")
                 .help("Choose to output in plain text or JSON")
@@ -100,14 +150,19 @@ public class App {
                 .help("Disable message send log (for resending messages that recipient couldn't decrypt)")
                 .action(Arguments.storeTrue());
 
-        var subparsers = parser.addSubparsers().title("subcommands").dest("command");
+        parser.addArgument("--receipt-coalescing-delay")
+                .help("Maximum time in milliseconds receipts and typing messages are delayed to combine them with other messages to the same recipient (0 to disable)")
+                .type(long.class)
+                .setDefault(Settings.DEFAULT_OUTBOUND_COALESCING_WINDOW.toMillis());
 
-        Commands.getCommandSubparserAttachers().forEach((key, value) -> {
-            var subparser = subparsers.addParser(key);
-            value.attachToSubparser(subparser);
-        });
+        parser.addArgument("--profile-refresh-budget")
+                .help("Maximum number of profile requests per minute used to refresh stale profiles in the background")
+                .type(int.class)
+                .setDefault(Settings.DEFAULT_PROFILE_REFRESH_REQUESTS_PER_MINUTE);
 
-        return parser;
+        parser.addArgument("--metrics")
+                .help("Collect runtime metrics, available from the daemon's /metrics endpoint and getMetrics method")
+                .action(Arguments.storeTrue());
     }
 
     public App(final Namespace ns) {
@@ -122,7 +177,10 @@ public class App {
             throw new UserErrorException("Command not implemented!");
         }
 
-        final var outputWriter = getOutputWriter(command);
+        final var useJsonRpcClient = ns.get("global-json-rpc-socket") != null
+                || ns.get("global-json-rpc-tcp") != null
+                || ns.get("global-json-rpc-http") != null;
+        final var outputWriter = getOutputWriter(command, useJsonRpcClient);
         final var commandHandler = new CommandHandler(ns, outputWriter);
 
         var account = ns.getString("account");
@@ -135,6 +193,22 @@ public class App {
             return;
         }
 
+        if (useJsonRpcClient) {
+            initJsonRpcClient(command, account, outputWriter);
+            return;
+        }
+
+        if (outputWriter instanceof JsonWriter jsonWriter) {
+            if (handleWithDefaultDaemon(command, account, jsonWriter)) {
+                return;
+            }
+        } else if (JsonRpcClientCommandHandler.canHandleCommand(command) && IOUtils.getDefaultSocketFile().exists()) {
+            // Plain text output can't be sent to the daemon, the local command waits until the daemon releases the
+            // account
+            logger.info("A daemon may be running and holding the account lock, use --output=json or "
+                    + "--json-rpc-socket to send the command to the daemon instead.");
+        }
+
         if (!Manager.isSignalClientAvailable()) {
             throw new UserErrorException("Missing required native library dependency: libsignal-client");
         }
@@ -196,12 +270,15 @@ public class App {
         throw new UserErrorException("Command only works in multi-account mode");
     }
 
-    private OutputWriter getOutputWriter(final Command command) throws UserErrorException {
+    private OutputWriter getOutputWriter(
+            final Command command, final boolean preferJsonOutput
+    ) throws UserErrorException {
         final var outputTypeInput = ns.<OutputType>get("output");
-        final var outputType = outputTypeInput == null ? command.getSupportedOutputTypes()
-                .stream()
-                .findFirst()
-                .orElse(null) : outputTypeInput;
+        final var supportedOutputTypes = command.getSupportedOutputTypes();
+        final var defaultOutputType = preferJsonOutput && supportedOutputTypes.contains(OutputType.JSON)
+                ? OutputType.JSON
+                : supportedOutputTypes.stream().findFirst().orElse(null);
+        final var outputType = outputTypeInput == null ? defaultOutputType : outputTypeInput;
         final var writer = new BufferedWriter(new OutputStreamWriter(System.out, IOUtils.getConsoleCharset()));
         final var outputWriter = outputType == null
                 ? null
@@ -225,7 +302,9 @@ public class App {
         final var serviceEnvironmentCli = ns.<ServiceEnvironmentCli>get("service-environment");
         final var serviceEnvironment = serviceEnvironmentCli == ServiceEnvironmentCli.LIVE
                 ? ServiceEnvironment.LIVE
-                : ServiceEnvironment.STAGING;
+                : serviceEnvironmentCli == ServiceEnvironmentCli.LOCAL
+                        ? ServiceEnvironment.LOCAL
+                        : ServiceEnvironment.STAGING;
 
         final var trustNewIdentityCli = ns.<TrustNewIdentityCli>get("trust-new-identities");
         final var trustNewIdentity = trustNewIdentityCli == TrustNewIdentityCli.ON_FIRST_USE
@@ -233,12 +312,19 @@ public class App {
                 : trustNewIdentityCli == TrustNewIdentityCli.ALWAYS ? TrustNewIdentity.ALWAYS : TrustNewIdentity.NEVER;
 
         final var disableSendLog = Boolean.TRUE.equals(ns.getBoolean("disable-send-log"));
+        final var coalescingWindow = Duration.ofMillis(Math.max(0, ns.getLong("receipt-coalescing-delay")));
+        final var profileRefreshBudget = Math.max(1, ns.getInt("profile-refresh-budget"));
+        final var enableMetrics = Boolean.TRUE.equals(ns.getBoolean("metrics"));
 
         try {
             return new SignalAccountFiles(configPath,
                     serviceEnvironment,
                     BaseConfig.USER_AGENT,
-                    new Settings(trustNewIdentity, disableSendLog));
+                    new Settings(trustNewIdentity,
+                            disableSendLog,
+                            coalescingWindow,
+                            profileRefreshBudget,
+                            enableMetrics));
         } catch (IOException e) {
             throw new IOErrorException("Failed to read local accounts list", e);
         }
@@ -284,7 +370,8 @@ public class App {
             final SignalAccountFiles signalAccountFiles,
             final CommandHandler commandHandler
     ) throws CommandException {
-        try (var multiAccountManager = signalAccountFiles.initMultiAccountManager()) {
+        final var waitForAccountChecks = command.requiresInitializedAccounts();
+        try (var multiAccountManager = signalAccountFiles.initMultiAccountManager(waitForAccountChecks)) {
             commandHandler.handleMultiLocalCommand(command, multiAccountManager);
         } catch (IOException e) {
             throw new IOErrorException("Failed to load local accounts file", e);
@@ -349,6 +436,124 @@ public class App {
         }
     }
 
+    private void initJsonRpcClient(
+            final Command command, final String account, final OutputWriter outputWriter
+    ) throws CommandException {
+        if (!JsonRpcClientCommandHandler.canHandleCommand(command)) {
+            throw new UserErrorException("Command can't be sent to a daemon");
+        }
+        if (!(outputWriter instanceof JsonWriter jsonWriter)) {
+            throw new UserErrorException("Commands sent to a daemon only support JSON output");
+        }
+
+        try (final var client = connectJsonRpcClient()) {
+            if (!JsonRpcClientCommandHandler.handleCommand(command,
+                    account,
+                    getCommandArguments(),
+                    client,
+                    jsonWriter)) {
+                throw new UserErrorException("Daemon doesn't provide the account or command");
+            }
+        } catch (IOException e) {
+            throw new IOErrorException("Failed to connect to daemon: " + e.getMessage(), e);
+        }
+    }
+
+    private JsonRpcClient connectJsonRpcClient() throws IOException, CommandException {
+        final var socketFile = ns.<File>get("global-json-rpc-socket");
+        if (socketFile != null) {
+            return JsonRpcClient.connect(UnixDomainSocketAddress.of(socketFile.toPath()));
+        }
+        final var tcpAddress = ns.getString("global-json-rpc-tcp");
+        if (tcpAddress != null) {
+            return JsonRpcClient.connect(IOUtils.parseInetSocketAddress(tcpAddress));
+        }
+        final var httpUrl = ns.getString("global-json-rpc-http");
+        try {
+            return JsonRpcClient.forHttp(new URI(httpUrl));
+        } catch (URISyntaxException e) {
+            throw new UserErrorException("Invalid daemon url: " + httpUrl, e);
+        }
+    }
+
+    /**
+     * If a daemon is listening on the default socket, commands with JSON output are sent to it.
+     * That avoids loading the account, which would fail anyway while the daemon holds the account lock.
+     * Commands with global arguments that change how the account is loaded, and commands that read from stdin, are
+     * always handled locally, as the daemon may use a different configuration and a local fallback couldn't read
+     * stdin again.
+     *
+     * @return true if the command was handled by the daemon
+     */
+    private boolean handleWithDefaultDaemon(
+            final Command command, final String account, final JsonWriter jsonWriter
+    ) throws CommandException {
+        final var socketFile = IOUtils.getDefaultSocketFile();
+        if (!JsonRpcClientCommandHandler.canHandleCommand(command) || !socketFile.exists()) {
+            return false;
+        }
+        final var globalArgumentDefaults = getGlobalArgumentDefaults();
+        final var hasNonDefaultArguments = ACCOUNT_LOADING_ARGUMENTS.stream()
+                .anyMatch(key -> !Objects.equals(ns.get(key), globalArgumentDefaults.get(key)));
+        if (hasNonDefaultArguments || JsonRpcClientCommandHandler.readsStdin(getCommandArguments())) {
+            return false;
+        }
+
+        final JsonRpcClient client;
+        try {
+            client = JsonRpcClient.connect(UnixDomainSocketAddress.of(socketFile.toPath()));
+        } catch (IOException e) {
+            logger.debug("No daemon listening on {}: {}", socketFile, e.getMessage());
+            return false;
+        }
+        try (client) {
+            logger.debug("Sending command to daemon listening on {}", socketFile);
+            final var handled = JsonRpcClientCommandHandler.handleCommand(command,
+                    account,
+                    getCommandArguments(),
+                    client,
+                    jsonWriter);
+            if (!handled) {
+                logger.debug("Daemon doesn't provide the account or command, handling it locally");
+            }
+            return handled;
+        }
+    }
+
+    /**
+     * @return the arguments of the subcommand, without the global arguments
+     */
+    private Map<String, Object> getCommandArguments() {
+        final var arguments = new HashMap<>(ns.getAttrs());
+        arguments.keySet().removeAll(getGlobalArgumentDefaults().keySet());
+        arguments.remove("command");
+        return arguments;
+    }
+
+    private static Map<String, Object> getGlobalArgumentDefaults() {
+        return GlobalArgumentDefaults.DEFAULTS;
+    }
+
+    private static Map<String, Object> parseGlobalArgumentDefaults() {
+        final var globalArgumentParser = ArgumentParsers.newFor("signal-cli", VERSION_0_9_0_DEFAULT_SETTINGS)
+                .includeArgumentNamesAsKeysInResult(true)
+                .build();
+        addGlobalArguments(globalArgumentParser);
+        try {
+            return Collections.unmodifiableMap(globalArgumentParser.parseArgs(new String[0]).getAttrs());
+        } catch (ArgumentParserException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Defaults of the global arguments, only parsed once they are needed.
+     */
+    private static class GlobalArgumentDefaults {
+
+        static final Map<String, Object> DEFAULTS = parseGlobalArgumentDefaults();
+    }
+
     /**
      * @return the default data directory to be used by signal-cli.
      */
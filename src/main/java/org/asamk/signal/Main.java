@@ -49,7 +49,8 @@ public class Main {
         final var verboseLevel = nsLog == null ? 0 : nsLog.getInt("verbose");
         final var logFile = nsLog == null ? null : nsLog.<File>get("log-file");
         final var scrubLog = nsLog != null && nsLog.getBoolean("scrub-log");
-        configureLogging(verboseLevel, logFile, scrubLog);
+        final var asyncLog = nsLog != null && nsLog.getBoolean("async-log");
+        configureLogging(verboseLevel, logFile, scrubLog, asyncLog);
 
         var parser = App.buildArgumentParser();
 
@@ -85,6 +86,7 @@ public class Main {
         parser.addArgument("-v", "--verbose").action(Arguments.count());
         parser.addArgument("--log-file").type(File.class);
         parser.addArgument("--scrub-log").action(Arguments.storeTrue());
+        parser.addArgument("--async-log").action(Arguments.storeTrue());
 
         try {
             return parser.parseKnownArgs(args, null);
@@ -93,10 +95,13 @@ public class Main {
         }
     }
 
-    private static void configureLogging(final int verboseLevel, final File logFile, final boolean scrubLog) {
+    private static void configureLogging(
+            final int verboseLevel, final File logFile, final boolean scrubLog, final boolean asyncLog
+    ) {
         LogConfigurator.setVerboseLevel(verboseLevel);
         LogConfigurator.setLogFile(logFile);
         LogConfigurator.setScrubSensitiveInformation(scrubLog);
+        LogConfigurator.setAsyncLogging(asyncLog);
 
         if (verboseLevel > 0) {
             java.util.logging.Logger.getLogger("")
@@ -13,6 +13,12 @@ public enum ServiceEnvironmentCli {
             return "staging";
         }
     },
+    LOCAL {
+        @Override
+        public String toString() {
+            return "local";
+        }
+    },
     @Deprecated SANDBOX {
         @Override
         public String toString() {
@@ -15,6 +15,7 @@ import org.asamk.signal.dbus.DbusSignalControlImpl;
 import org.asamk.signal.dbus.DbusSignalImpl;
 import org.asamk.signal.http.HttpServerHandler;
 import org.asamk.signal.json.JsonReceiveMessageHandler;
+import org.asamk.signal.jsonrpc.JsonRpcReader;
 import org.asamk.signal.jsonrpc.SignalJsonRpcDispatcherHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
@@ -51,9 +52,14 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         return "daemon";
     }
 
+    @Override
+    public boolean requiresInitializedAccounts() {
+        return false;
+    }
+
     @Override
     public void attachToSubparser(final Subparser subparser) {
-        final var defaultSocketPath = new File(new File(IOUtils.getRuntimeDir(), "signal-cli"), "socket");
+        final var defaultSocketPath = IOUtils.getDefaultSocketFile();
         subparser.help("Run in daemon mode and provide an experimental dbus or JSON-RPC interface.");
         subparser.addArgument("--dbus")
                 .action(Arguments.storeTrue())
@@ -90,6 +96,11 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         subparser.addArgument("--send-read-receipts")
                 .help("Send read receipts for all incoming data messages (in addition to the default delivery receipts)")
                 .action(Arguments.storeTrue());
+        subparser.addArgument("--max-message-size")
+                .type(long.class)
+                .setDefault(JsonRpcReader.DEFAULT_MAX_MESSAGE_SIZE)
+                .help("Maximum size of a single JSON-RPC message on a socket in bytes, "
+                        + "larger messages are rejected.");
     }
 
     @Override
@@ -107,6 +118,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         final var ignoreAttachments = Boolean.TRUE.equals(ns.getBoolean("ignore-attachments"));
         final var ignoreStories = Boolean.TRUE.equals(ns.getBoolean("ignore-stories"));
         final var sendReadReceipts = Boolean.TRUE.equals(ns.getBoolean("send-read-receipts"));
+        final var maxMessageSize = ns.getLong("max-message-size");
 
         m.setReceiveConfig(new ReceiveConfig(ignoreAttachments, ignoreStories, sendReadReceipts));
         addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
@@ -116,7 +128,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             inheritedChannel = System.inheritedChannel();
             if (inheritedChannel instanceof ServerSocketChannel serverChannel) {
                 logger.info("Using inherited socket: " + serverChannel.getLocalAddress());
-                runSocketSingleAccount(m, serverChannel, receiveMode == ReceiveMode.MANUAL);
+                runSocketSingleAccount(m, serverChannel, receiveMode == ReceiveMode.MANUAL, maxMessageSize);
             }
         } catch (IOException e) {
             throw new IOErrorException("Failed to use inherited socket", e);
@@ -125,13 +137,13 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         if (socketFile != null) {
             final var address = UnixDomainSocketAddress.of(socketFile.toPath());
             final var serverChannel = IOUtils.bindSocket(address);
-            runSocketSingleAccount(m, serverChannel, receiveMode == ReceiveMode.MANUAL);
+            runSocketSingleAccount(m, serverChannel, receiveMode == ReceiveMode.MANUAL, maxMessageSize);
         }
         final var tcpAddress = ns.getString("tcp");
         if (tcpAddress != null) {
             final var address = IOUtils.parseInetSocketAddress(tcpAddress);
             final var serverChannel = IOUtils.bindSocket(address);
-            runSocketSingleAccount(m, serverChannel, receiveMode == ReceiveMode.MANUAL);
+            runSocketSingleAccount(m, serverChannel, receiveMode == ReceiveMode.MANUAL, maxMessageSize);
         }
         final var httpAddress = ns.getString("http");
         if (httpAddress != null) {
@@ -182,13 +194,11 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         final var ignoreAttachments = Boolean.TRUE.equals(ns.getBoolean("ignore-attachments"));
         final var ignoreStories = Boolean.TRUE.equals(ns.getBoolean("ignore-stories"));
         final var sendReadReceipts = Boolean.TRUE.equals(ns.getBoolean("send-read-receipts"));
+        final var maxMessageSize = ns.getLong("max-message-size");
 
         final var receiveConfig = new ReceiveConfig(ignoreAttachments, ignoreStories, sendReadReceipts);
-        c.getManagers().forEach(m -> {
-            m.setReceiveConfig(receiveConfig);
-            addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
-        });
-        c.addOnManagerAddedHandler(m -> {
+        // Accounts that are still being checked are added later
+        c.addManagerHandler(m -> {
             m.setReceiveConfig(receiveConfig);
             addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
         });
@@ -198,7 +208,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             inheritedChannel = System.inheritedChannel();
             if (inheritedChannel instanceof ServerSocketChannel serverChannel) {
                 logger.info("Using inherited socket: " + serverChannel.getLocalAddress());
-                runSocketMultiAccount(c, serverChannel, receiveMode == ReceiveMode.MANUAL);
+                runSocketMultiAccount(c, serverChannel, receiveMode == ReceiveMode.MANUAL, maxMessageSize);
             }
         } catch (IOException e) {
             throw new IOErrorException("Failed to use inherited socket", e);
@@ -207,13 +217,13 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         if (socketFile != null) {
             final var address = UnixDomainSocketAddress.of(socketFile.toPath());
             final var serverChannel = IOUtils.bindSocket(address);
-            runSocketMultiAccount(c, serverChannel, receiveMode == ReceiveMode.MANUAL);
+            runSocketMultiAccount(c, serverChannel, receiveMode == ReceiveMode.MANUAL, maxMessageSize);
         }
         final var tcpAddress = ns.getString("tcp");
         if (tcpAddress != null) {
             final var address = IOUtils.parseInetSocketAddress(tcpAddress);
             final var serverChannel = IOUtils.bindSocket(address);
-            runSocketMultiAccount(c, serverChannel, receiveMode == ReceiveMode.MANUAL);
+            runSocketMultiAccount(c, serverChannel, receiveMode == ReceiveMode.MANUAL, maxMessageSize);
         }
         final var httpAddress = ns.getString("http");
         if (httpAddress != null) {
@@ -258,19 +268,25 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
     }
 
     private void runSocketSingleAccount(
-            final Manager m, final ServerSocketChannel serverChannel, final boolean noReceiveOnStart
+            final Manager m,
+            final ServerSocketChannel serverChannel,
+            final boolean noReceiveOnStart,
+            final long maxMessageSize
     ) {
         runSocket(serverChannel, channel -> {
-            final var handler = getSignalJsonRpcDispatcherHandler(channel, noReceiveOnStart);
+            final var handler = getSignalJsonRpcDispatcherHandler(channel, noReceiveOnStart, maxMessageSize);
             handler.handleConnection(m);
         });
     }
 
     private void runSocketMultiAccount(
-            final MultiAccountManager c, final ServerSocketChannel serverChannel, final boolean noReceiveOnStart
+            final MultiAccountManager c,
+            final ServerSocketChannel serverChannel,
+            final boolean noReceiveOnStart,
+            final long maxMessageSize
     ) {
         runSocket(serverChannel, channel -> {
-            final var handler = getSignalJsonRpcDispatcherHandler(channel, noReceiveOnStart);
+            final var handler = getSignalJsonRpcDispatcherHandler(channel, noReceiveOnStart, maxMessageSize);
             handler.handleConnection(c);
         });
     }
@@ -313,12 +329,12 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
     }
 
     private SignalJsonRpcDispatcherHandler getSignalJsonRpcDispatcherHandler(
-            final SocketChannel c, final boolean noReceiveOnStart
+            final SocketChannel c, final boolean noReceiveOnStart, final long maxMessageSize
     ) {
-        final var lineSupplier = IOUtils.getLineSupplier(Channels.newReader(c, StandardCharsets.UTF_8));
+        final var input = Channels.newInputStream(c);
         final var jsonOutputWriter = new JsonWriterImpl(Channels.newWriter(c, StandardCharsets.UTF_8));
 
-        return new SignalJsonRpcDispatcherHandler(jsonOutputWriter, lineSupplier, noReceiveOnStart);
+        return new SignalJsonRpcDispatcherHandler(jsonOutputWriter, input, maxMessageSize, noReceiveOnStart);
     }
 
     private void runDbusSingleAccount(
@@ -339,13 +355,6 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             final var signalControl = new DbusSignalControlImpl(c, objectPath);
             connection.exportObject(signalControl);
 
-            c.addOnManagerAddedHandler(m -> {
-                final var thread = exportMultiAccountManager(connection, m, noReceiveOnStart);
-                try {
-                    thread.join();
-                } catch (InterruptedException ignored) {
-                }
-            });
             c.addOnManagerRemovedHandler(m -> {
                 final var path = DbusConfig.getObjectPath(m.getSelfNumber());
                 try {
@@ -357,17 +366,13 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
                 }
             });
 
-            final var initThreads = c.getManagers()
-                    .stream()
-                    .map(m -> exportMultiAccountManager(connection, m, noReceiveOnStart))
-                    .toList();
-
-            for (var t : initThreads) {
+            c.addManagerHandler(m -> {
+                final var thread = exportMultiAccountManager(connection, m, noReceiveOnStart);
                 try {
-                    t.join();
+                    thread.join();
                 } catch (InterruptedException ignored) {
                 }
-            }
+            });
         });
     }
 
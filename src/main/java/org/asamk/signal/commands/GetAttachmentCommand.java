@@ -15,10 +15,14 @@ import org.asamk.signal.output.PlainTextWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
 
 public class GetAttachmentCommand implements JsonRpcLocalCommand {
 
+    private static final long MAX_CHUNK_SIZE = 1024 * 1024;
+
     @Override
     public String getName() {
         return "getAttachment";
@@ -30,6 +34,12 @@ public class GetAttachmentCommand implements JsonRpcLocalCommand {
         var mut = subparser.addMutuallyExclusiveGroup().required(true);
         mut.addArgument("--recipient").help("Sender of the attachment");
         mut.addArgument("-g", "--group-id").help("Group in which the attachment was received");
+        subparser.addArgument("--offset")
+                .type(long.class)
+                .help("Only get the part of the attachment starting at this byte offset.");
+        subparser.addArgument("--length")
+                .type(long.class)
+                .help("Only get this many bytes of the attachment (at most " + MAX_CHUNK_SIZE + ").");
     }
 
     @Override
@@ -38,6 +48,17 @@ public class GetAttachmentCommand implements JsonRpcLocalCommand {
     ) throws CommandException {
 
         final var id = ns.getString("id");
+        // JSON-RPC params may be parsed as Integer or Long
+        final Number offset = ns.get("offset");
+        final Number length = ns.get("length");
+        if (offset != null || length != null) {
+            handleChunk(m,
+                    id,
+                    offset == null ? 0 : offset.longValue(),
+                    length == null ? MAX_CHUNK_SIZE : length.longValue(),
+                    outputWriter);
+            return;
+        }
 
         try (InputStream attachment = m.retrieveAttachment(id)) {
             final var bytes = attachment.readAllBytes();
@@ -53,4 +74,34 @@ public class GetAttachmentCommand implements JsonRpcLocalCommand {
             throw new UnexpectedErrorException("An error occurred reading attachment: " + id, ex);
         }
     }
+
+    private void handleChunk(
+            final Manager m, final String id, final long offset, final long length, final OutputWriter outputWriter
+    ) throws CommandException {
+        if (offset < 0 || length < 0) {
+            throw new UserErrorException("Offset and length must not be negative");
+        }
+
+        try (var attachment = m.openAttachment(id)) {
+            final var size = attachment.size();
+            final var chunkSize = Math.max(0, Math.min(Math.min(length, MAX_CHUNK_SIZE), size - offset));
+            final var buffer = ByteBuffer.allocate((int) chunkSize);
+            while (buffer.hasRemaining()) {
+                if (attachment.read(buffer, offset + buffer.position()) == -1) {
+                    break;
+                }
+            }
+            final var base64 = Base64.getEncoder()
+                    .encodeToString(Arrays.copyOf(buffer.array(), buffer.position()));
+            if (outputWriter instanceof PlainTextWriter writer) {
+                writer.println(base64);
+            } else if (outputWriter instanceof JsonWriter writer) {
+                writer.write(new JsonAttachmentData(base64, offset, size));
+            }
+        } catch (FileNotFoundException ex) {
+            throw new UserErrorException("Could not find attachment with ID: " + id, ex);
+        } catch (IOException ex) {
+            throw new UnexpectedErrorException("An error occurred reading attachment: " + id, ex);
+        }
+    }
 }
@@ -0,0 +1,75 @@
+package org.asamk.signal.commands;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.MetricsSnapshot;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.output.OutputWriter;
+import org.asamk.signal.output.PlainTextWriter;
+
+import java.util.List;
+
+public class GetMetricsCommand implements JsonRpcLocalCommand {
+
+    @Override
+    public String getName() {
+        return "getMetrics";
+    }
+
+    @Override
+    public void attachToSubparser(final Subparser subparser) {
+        subparser.help("Show the runtime metrics of the account, requires the --metrics flag.");
+    }
+
+    @Override
+    public void handleCommand(
+            final Namespace ns, final Manager m, final OutputWriter outputWriter
+    ) throws CommandException {
+        final var metrics = m.getMetrics();
+        if (outputWriter instanceof JsonWriter jsonWriter) {
+            jsonWriter.write(new JsonMetrics(metrics));
+        } else if (outputWriter instanceof PlainTextWriter plainTextWriter) {
+            for (final var counter : metrics.counters()) {
+                plainTextWriter.println("{}: {}", counter.name(), counter.value());
+            }
+            for (final var gauge : metrics.gauges()) {
+                plainTextWriter.println("{}: {}", gauge.name(), gauge.value());
+            }
+            for (final var histogram : metrics.histograms()) {
+                plainTextWriter.println("{}: count {} sum {}", histogram.name(), histogram.count(), histogram.sum());
+            }
+        }
+    }
+
+    private record JsonMetrics(List<JsonValue> counters, List<JsonValue> gauges, List<JsonHistogram> histograms) {
+
+        JsonMetrics(MetricsSnapshot metrics) {
+            this(metrics.counters().stream().map(c -> new JsonValue(c.name(), c.help(), c.value())).toList(),
+                    metrics.gauges().stream().map(g -> new JsonValue(g.name(), g.help(), g.value())).toList(),
+                    metrics.histograms().stream().map(JsonHistogram::new).toList());
+        }
+
+        private record JsonValue(String name, String help, Number value) {}
+
+        private record JsonHistogram(String name, String help, List<JsonBucket> buckets, long count, double sum) {
+
+            JsonHistogram(MetricsSnapshot.Histogram histogram) {
+                this(histogram.name(),
+                        histogram.help(),
+                        histogram.buckets()
+                                .stream()
+                                .map(b -> new JsonBucket(Double.isInfinite(b.upperBound())
+                                        ? "+Inf"
+                                        : String.valueOf(b.upperBound()), b.count()))
+                                .toList(),
+                        histogram.count(),
+                        histogram.sum());
+            }
+        }
+
+        private record JsonBucket(String le, long count) {}
+    }
+}
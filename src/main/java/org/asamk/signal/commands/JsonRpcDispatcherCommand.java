@@ -6,6 +6,7 @@ import net.sourceforge.argparse4j.inf.Subparser;
 
 import org.asamk.signal.OutputType;
 import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.jsonrpc.JsonRpcReader;
 import org.asamk.signal.jsonrpc.SignalJsonRpcDispatcherHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
@@ -16,9 +17,7 @@ import org.asamk.signal.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.InputStreamReader;
 import java.util.List;
-import java.util.function.Supplier;
 
 public class JsonRpcDispatcherCommand implements LocalCommand, MultiLocalCommand {
 
@@ -45,6 +44,10 @@ public class JsonRpcDispatcherCommand implements LocalCommand, MultiLocalCommand
                 .help("Specify when to start receiving messages.")
                 .type(Arguments.enumStringType(ReceiveMode.class))
                 .setDefault(ReceiveMode.ON_START);
+        subparser.addArgument("--max-message-size")
+                .type(long.class)
+                .setDefault(JsonRpcReader.DEFAULT_MAX_MESSAGE_SIZE)
+                .help("Maximum size of a single JSON-RPC message in bytes, larger messages are rejected.");
     }
 
     @Override
@@ -61,10 +64,11 @@ public class JsonRpcDispatcherCommand implements LocalCommand, MultiLocalCommand
         m.setReceiveConfig(receiveConfig);
 
         final var jsonOutputWriter = (JsonWriter) outputWriter;
-        final var lineSupplier = getLineSupplier();
+        final var maxMessageSize = ns.getLong("max-message-size");
 
         final var handler = new SignalJsonRpcDispatcherHandler(jsonOutputWriter,
-                lineSupplier,
+                System.in,
+                maxMessageSize,
                 receiveMode == ReceiveMode.MANUAL);
         handler.handleConnection(m);
     }
@@ -75,14 +79,14 @@ public class JsonRpcDispatcherCommand implements LocalCommand, MultiLocalCommand
     ) throws CommandException {
         final var receiveMode = ns.<ReceiveMode>get("receive-mode");
         final var receiveConfig = getReceiveConfig(ns);
-        c.getManagers().forEach(m -> m.setReceiveConfig(receiveConfig));
-        c.addOnManagerAddedHandler(m -> m.setReceiveConfig(receiveConfig));
+        c.addManagerHandler(m -> m.setReceiveConfig(receiveConfig));
 
         final var jsonOutputWriter = (JsonWriter) outputWriter;
-        final var lineSupplier = getLineSupplier();
+        final var maxMessageSize = ns.getLong("max-message-size");
 
         final var handler = new SignalJsonRpcDispatcherHandler(jsonOutputWriter,
-                lineSupplier,
+                System.in,
+                maxMessageSize,
                 receiveMode == ReceiveMode.MANUAL);
         handler.handleConnection(c);
     }
@@ -93,8 +97,4 @@ public class JsonRpcDispatcherCommand implements LocalCommand, MultiLocalCommand
         final var sendReadReceipts = Boolean.TRUE.equals(ns.getBoolean("send-read-receipts"));
         return new ReceiveConfig(ignoreAttachments, ignoreStories, sendReadReceipts);
     }
-
-    private static Supplier<String> getLineSupplier() {
-        return IOUtils.getLineSupplier(new InputStreamReader(System.in, IOUtils.getConsoleCharset()));
-    }
 }
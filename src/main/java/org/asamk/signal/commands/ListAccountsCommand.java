@@ -9,6 +9,8 @@ import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriter;
 
+import java.util.stream.Stream;
+
 public class ListAccountsCommand implements JsonRpcMultiLocalCommand {
 
     @Override
@@ -26,15 +28,20 @@ public class ListAccountsCommand implements JsonRpcMultiLocalCommand {
             final Namespace ns, final MultiAccountManager c, final OutputWriter outputWriter
     ) throws CommandException {
         final var accountNumbers = c.getAccountNumbers();
+        final var initializingAccountNumbers = c.getInitializingAccountNumbers();
         if (outputWriter instanceof JsonWriter jsonWriter) {
-            final var jsonAccounts = accountNumbers.stream().map(JsonAccount::new).toList();
+            final var jsonAccounts = Stream.concat(accountNumbers.stream().map(n -> new JsonAccount(n, "ready")),
+                    initializingAccountNumbers.stream().map(n -> new JsonAccount(n, "initializing"))).toList();
             jsonWriter.write(jsonAccounts);
         } else if (outputWriter instanceof PlainTextWriter plainTextWriter) {
             for (final var number : accountNumbers) {
                 plainTextWriter.println("Number: {}", number);
             }
+            for (final var number : initializingAccountNumbers) {
+                plainTextWriter.println("Number: {} (initializing)", number);
+            }
         }
     }
 
-    private record JsonAccount(String number) {}
+    private record JsonAccount(String number, String state) {}
 }
@@ -9,4 +9,12 @@ import org.asamk.signal.output.OutputWriter;
 public interface MultiLocalCommand extends CliCommand {
 
     void handleCommand(Namespace ns, MultiAccountManager c, OutputWriter outputWriter) throws CommandException;
+
+    /**
+     * If false, the command is started while the accounts are still being checked and they are added to the
+     * {@link MultiAccountManager} once they are ready.
+     */
+    default boolean requiresInitializedAccounts() {
+        return true;
+    }
 }
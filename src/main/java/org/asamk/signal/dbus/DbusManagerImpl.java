@@ -23,6 +23,7 @@ import org.asamk.signal.manager.api.InvalidUsernameException;
 import org.asamk.signal.manager.api.LastGroupAdminException;
 import org.asamk.signal.manager.api.Message;
 import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.MetricsSnapshot;
 import org.asamk.signal.manager.api.NotAGroupMemberException;
 import org.asamk.signal.manager.api.NotPrimaryDeviceException;
 import org.asamk.signal.manager.api.Pair;
@@ -53,6 +54,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -985,6 +987,23 @@ public class DbusManagerImpl implements Manager {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public FileChannel openAttachment(final String id) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String uploadAttachment(
+            final InputStream data, final long size, final String contentType, final Optional<String> filename
+    ) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        throw new UnsupportedOperationException();
+    }
+
     @SuppressWarnings("unchecked")
     private <T> T getValue(
             final Map<String, Variant<?>> stringVariantMap, final String field
@@ -54,6 +54,11 @@ public class DbusMultiAccountManagerImpl implements MultiAccountManager {
                 .toList();
     }
 
+    @Override
+    public List<String> getInitializingAccountNumbers() {
+        return List.of();
+    }
+
     @Override
     public void addOnManagerAddedHandler(final Consumer<Manager> handler) {
         synchronized (onManagerAddedHandlers) {
@@ -61,6 +66,12 @@ public class DbusMultiAccountManagerImpl implements MultiAccountManager {
         }
     }
 
+    @Override
+    public void addManagerHandler(final Consumer<Manager> handler) {
+        addOnManagerAddedHandler(handler);
+        getManagers().forEach(handler);
+    }
+
     @Override
     public void addOnManagerRemovedHandler(final Consumer<Manager> handler) {
         synchronized (onManagerRemovedHandlers) {
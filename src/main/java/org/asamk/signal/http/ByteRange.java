@@ -0,0 +1,57 @@
+package org.asamk.signal.http;
+
+import java.util.Optional;
+
+/**
+ * Byte range from start (inclusive) to end (exclusive).
+ */
+record ByteRange(long start, long end) {
+
+    /**
+     * Parse a Range header with a single byte range, multiple ranges aren't supported and ignored.
+     *
+     * @return the range, or empty if the header should be ignored and the whole content sent
+     * @throws UnsatisfiableRangeException if the range doesn't overlap the content
+     */
+    static Optional<ByteRange> parse(final String header, final long size) throws UnsatisfiableRangeException {
+        if (!header.startsWith("bytes=") || header.contains(",")) {
+            return Optional.empty();
+        }
+        final var spec = header.substring("bytes=".length()).trim();
+        final var separator = spec.indexOf('-');
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        final long start;
+        final long end;
+        try {
+            final var first = spec.substring(0, separator).trim();
+            final var last = spec.substring(separator + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range with the last n bytes
+                final var suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0 || size == 0) {
+                    throw new UnsatisfiableRangeException();
+                }
+                return Optional.of(new ByteRange(Math.max(0, size - suffixLength), size));
+            }
+            start = Long.parseLong(first);
+            end = last.isEmpty() ? size : Math.min(Long.parseLong(last) + 1, size);
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+        if (start >= size) {
+            throw new UnsatisfiableRangeException();
+        }
+        if (end <= start) {
+            return Optional.empty();
+        }
+        return Optional.of(new ByteRange(start, end));
+    }
+
+    long length() {
+        return end - start;
+    }
+
+    static class UnsatisfiableRangeException extends Exception {}
+}
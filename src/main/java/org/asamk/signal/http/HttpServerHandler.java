@@ -12,15 +12,22 @@ import org.asamk.signal.jsonrpc.JsonRpcSender;
 import org.asamk.signal.jsonrpc.SignalJsonRpcCommandHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
+import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.AttachmentTooLargeException;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -59,6 +66,8 @@ public class HttpServerHandler {
         server.createContext("/api/v1/rpc", this::handleRpcEndpoint);
         server.createContext("/api/v1/events", this::handleEventsEndpoint);
         server.createContext("/api/v1/check", this::handleCheckEndpoint);
+        server.createContext("/api/v1/attachments", this::handleAttachmentsEndpoint);
+        server.createContext("/metrics", this::handleMetricsEndpoint);
 
         server.start();
     }
@@ -200,6 +209,162 @@ public class HttpServerHandler {
         sendResponse(200, null, httpExchange);
     }
 
+    private void handleAttachmentsEndpoint(HttpExchange httpExchange) throws IOException {
+        final var path = httpExchange.getRequestURI().getPath();
+        if (path.startsWith("/api/v1/attachments/")) {
+            handleAttachmentEndpoint(httpExchange, path.substring("/api/v1/attachments/".length()));
+            return;
+        }
+        if (!"/api/v1/attachments".equals(path)) {
+            sendResponse(404, null, httpExchange);
+            return;
+        }
+        if (!"PUT".equals(httpExchange.getRequestMethod())) {
+            sendResponse(405, null, httpExchange);
+            return;
+        }
+
+        try {
+            final var queryString = httpExchange.getRequestURI().getQuery();
+            final var query = queryString == null ? Map.<String, String>of() : Util.getQueryMap(queryString);
+
+            List<Manager> managers = getManagerFromQuery(query);
+            if (managers == null || managers.size() != 1) {
+                sendResponse(400, null, httpExchange);
+                return;
+            }
+
+            final var contentLength = httpExchange.getRequestHeaders().getFirst("Content-Length");
+            final var size = contentLength == null ? -1 : Long.parseLong(contentLength);
+            final var contentType = httpExchange.getRequestHeaders().getFirst("Content-Type");
+
+            // The request body is streamed to the upload, without buffering the whole attachment in memory
+            final var attachment = managers.get(0)
+                    .uploadAttachment(httpExchange.getRequestBody(),
+                            size,
+                            contentType,
+                            Optional.ofNullable(query.get("filename")));
+            sendResponse(201, Map.of("attachment", attachment), httpExchange);
+        } catch (NumberFormatException e) {
+            sendResponse(400, null, httpExchange);
+        } catch (AttachmentTooLargeException e) {
+            logger.debug("Rejected attachment upload: {}", e.getMessage());
+            sendResponse(413, null, httpExchange);
+        } catch (AttachmentInvalidException e) {
+            logger.debug("Rejected attachment upload: {}", e.getMessage());
+            sendResponse(400, null, httpExchange);
+        } catch (Throwable aEx) {
+            logger.error("Failed to process request.", aEx);
+            sendResponse(500, null, httpExchange);
+        }
+    }
+
+    private void handleAttachmentEndpoint(HttpExchange httpExchange, String id) throws IOException {
+        if (!"GET".equals(httpExchange.getRequestMethod())) {
+            sendResponse(405, null, httpExchange);
+            return;
+        }
+
+        try {
+            final var queryString = httpExchange.getRequestURI().getQuery();
+            final var query = queryString == null ? Map.<String, String>of() : Util.getQueryMap(queryString);
+
+            List<Manager> managers = getManagerFromQuery(query);
+            if (managers == null || managers.size() != 1) {
+                sendResponse(400, null, httpExchange);
+                return;
+            }
+
+            final FileChannel attachment;
+            try {
+                attachment = managers.get(0).openAttachment(id);
+            } catch (FileNotFoundException e) {
+                sendResponse(404, null, httpExchange);
+                return;
+            }
+
+            try (attachment) {
+                final var size = attachment.size();
+                final var headers = httpExchange.getResponseHeaders();
+                headers.add("Accept-Ranges", "bytes");
+                var range = new ByteRange(0, size);
+                var status = 200;
+                final var rangeHeader = httpExchange.getRequestHeaders().getFirst("Range");
+                if (rangeHeader != null) {
+                    final Optional<ByteRange> requestedRange;
+                    try {
+                        requestedRange = ByteRange.parse(rangeHeader, size);
+                    } catch (ByteRange.UnsatisfiableRangeException e) {
+                        headers.add("Content-Range", "bytes */" + size);
+                        sendResponse(416, null, httpExchange);
+                        return;
+                    }
+                    if (requestedRange.isPresent()) {
+                        range = requestedRange.get();
+                        status = 206;
+                        headers.add("Content-Range",
+                                "bytes " + range.start() + "-" + (range.end() - 1) + "/" + size);
+                    }
+                }
+
+                headers.add("Content-Type", "application/octet-stream");
+                final var length = range.length();
+                httpExchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+                try (final var responseBody = httpExchange.getResponseBody()) {
+                    // The file is copied to the response in chunks, never reading the whole attachment into memory
+                    final var output = Channels.newChannel(responseBody);
+                    var position = range.start();
+                    while (position < range.end()) {
+                        final var transferred = attachment.transferTo(position, range.end() - position, output);
+                        if (transferred == 0) {
+                            throw new IOException("Attachment file was truncated while sending it");
+                        }
+                        position += transferred;
+                    }
+                }
+            }
+        } catch (Throwable aEx) {
+            logger.error("Failed to process request.", aEx);
+            sendResponse(500, null, httpExchange);
+        }
+    }
+
+    private void handleMetricsEndpoint(HttpExchange httpExchange) throws IOException {
+        if (!"/metrics".equals(httpExchange.getRequestURI().getPath())) {
+            sendResponse(404, null, httpExchange);
+            return;
+        }
+        if (!"GET".equals(httpExchange.getRequestMethod())) {
+            sendResponse(405, null, httpExchange);
+            return;
+        }
+
+        try {
+            final var queryString = httpExchange.getRequestURI().getQuery();
+            final var query = queryString == null ? Map.<String, String>of() : Util.getQueryMap(queryString);
+
+            List<Manager> managers = getManagerFromQuery(query);
+            if (managers == null) {
+                sendResponse(400, null, httpExchange);
+                return;
+            }
+
+            final var snapshots = managers.stream()
+                    .map(m1 -> new Pair<>(m1.getSelfNumber(), m1.getMetrics()))
+                    .toList();
+            final var byteResponse = new PrometheusFormatter().format(snapshots).getBytes(StandardCharsets.UTF_8);
+
+            httpExchange.getResponseHeaders().add("Content-Type", PrometheusFormatter.CONTENT_TYPE);
+            httpExchange.sendResponseHeaders(200, byteResponse.length);
+            try (final var responseBody = httpExchange.getResponseBody()) {
+                responseBody.write(byteResponse);
+            }
+        } catch (Throwable aEx) {
+            logger.error("Failed to process request.", aEx);
+            sendResponse(500, null, httpExchange);
+        }
+    }
+
     private List<Manager> getManagerFromQuery(final Map<String, String> query) {
         List<Manager> managers;
         if (m != null) {
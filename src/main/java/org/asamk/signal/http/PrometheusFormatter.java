@@ -0,0 +1,100 @@
+package org.asamk.signal.http;
+
+import org.asamk.signal.manager.api.MetricsSnapshot;
+import org.asamk.signal.manager.api.Pair;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Formats metrics snapshots in the Prometheus text exposition format.
+ * Samples of all accounts are grouped by metric name and distinguished by an "account" label.
+ */
+class PrometheusFormatter {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder();
+
+    String format(List<Pair<String, MetricsSnapshot>> snapshots) {
+        final var counters = new LinkedHashMap<String, Family<MetricsSnapshot.Counter>>();
+        final var gauges = new LinkedHashMap<String, Family<MetricsSnapshot.Gauge>>();
+        final var histograms = new LinkedHashMap<String, Family<MetricsSnapshot.Histogram>>();
+        for (final var pair : snapshots) {
+            final var account = pair.first();
+            final var snapshot = pair.second();
+            snapshot.counters().forEach(c -> addSample(counters, c.name(), c.help(), account, c));
+            snapshot.gauges().forEach(g -> addSample(gauges, g.name(), g.help(), account, g));
+            snapshot.histograms().forEach(h -> addSample(histograms, h.name(), h.help(), account, h));
+        }
+
+        writeFamilies(counters, "counter", sample -> writeSample(sample.first().name(),
+                sample.first().value(),
+                labels(sample.second())));
+        writeFamilies(gauges, "gauge", sample -> writeSample(sample.first().name(),
+                formatDouble(sample.first().value()),
+                labels(sample.second())));
+        writeFamilies(histograms, "histogram", sample -> {
+            final var histogram = sample.first();
+            final var account = sample.second();
+            for (final var bucket : histogram.buckets()) {
+                writeSample(histogram.name() + "_bucket",
+                        bucket.count(),
+                        labels(account) + ",le=\"" + formatDouble(bucket.upperBound()) + "\"");
+            }
+            writeSample(histogram.name() + "_sum", formatDouble(histogram.sum()), labels(account));
+            writeSample(histogram.name() + "_count", histogram.count(), labels(account));
+        });
+        return out.toString();
+    }
+
+    private static <T> void addSample(
+            Map<String, Family<T>> families, String name, String help, String account, T sample
+    ) {
+        families.computeIfAbsent(name, n -> new Family<>(help, new ArrayList<>()))
+                .samples()
+                .add(new Pair<>(sample, account));
+    }
+
+    private <T> void writeFamilies(
+            Map<String, Family<T>> families, String type, Consumer<Pair<T, String>> sampleWriter
+    ) {
+        families.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(escapeHelp(family.help())).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            family.samples().forEach(sampleWriter);
+        });
+    }
+
+    private void writeSample(String name, Object value, String labels) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String labels(String account) {
+        return "account=\"" + escapeLabelValue(account) + "\"";
+    }
+
+    private static String formatDouble(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "-Inf";
+        } else if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        return Double.toString(value);
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private record Family<T>(String help, List<Pair<T, String>> samples) {}
+}
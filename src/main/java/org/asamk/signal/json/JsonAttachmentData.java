@@ -1,5 +1,14 @@
 package org.asamk.signal.json;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public record JsonAttachmentData(
-        String data
-) {}
+        String data,
+        @JsonInclude(JsonInclude.Include.NON_NULL) Long offset,
+        @JsonInclude(JsonInclude.Include.NON_NULL) Long size
+) {
+
+    public JsonAttachmentData(String data) {
+        this(data, null, null);
+    }
+}
@@ -0,0 +1,163 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+
+import org.asamk.signal.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client for the JSON-RPC interface of a running signal-cli daemon.
+ */
+public class JsonRpcClient implements Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(JsonRpcClient.class);
+
+    private final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+    private final Transport transport;
+
+    private int nextRequestId = 1;
+
+    private JsonRpcClient(final Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Connect to a daemon listening on a UNIX or TCP socket.
+     */
+    public static JsonRpcClient connect(final SocketAddress address) throws IOException {
+        return new JsonRpcClient(new SocketTransport(SocketChannel.open(address)));
+    }
+
+    /**
+     * Create a client for the JSON-RPC http endpoint of a daemon, e.g. http://localhost:8080/api/v1/rpc
+     */
+    public static JsonRpcClient forHttp(final URI uri) {
+        return new JsonRpcClient(new HttpTransport(uri));
+    }
+
+    /**
+     * Send a request and wait for its response.
+     *
+     * @return the result of the request
+     * @throws JsonRpcException if the daemon responded with an error
+     */
+    public JsonNode sendRequest(
+            final String method, final ContainerNode<?> params
+    ) throws IOException, JsonRpcException {
+        final var id = IntNode.valueOf(nextRequestId++);
+        final var response = transport.sendRequest(objectMapper, JsonRpcRequest.forNotification(method, params, id));
+        final var error = response.get("error");
+        if (error != null && !error.isNull()) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(error.path("code").asInt(),
+                    error.path("message").asText(),
+                    error.get("data")));
+        }
+        return response.get("result");
+    }
+
+    @Override
+    public void close() {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close connection to daemon: {}", e.getMessage());
+        }
+    }
+
+    private interface Transport extends Closeable {
+
+        JsonNode sendRequest(ObjectMapper objectMapper, JsonRpcRequest request) throws IOException;
+    }
+
+    private static final class SocketTransport implements Transport {
+
+        private final SocketChannel channel;
+
+        private MappingIterator<JsonNode> messages;
+
+        private SocketTransport(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public JsonNode sendRequest(
+                final ObjectMapper objectMapper, final JsonRpcRequest request
+        ) throws IOException {
+            final var line = objectMapper.writeValueAsString(request) + "\n";
+            Channels.newOutputStream(channel).write(line.getBytes(StandardCharsets.UTF_8));
+
+            if (messages == null) {
+                messages = objectMapper.readerFor(JsonNode.class).readValues(Channels.newInputStream(channel));
+            }
+            while (messages.hasNextValue()) {
+                final var message = messages.nextValue();
+                if (isResponse(message, request.getId())) {
+                    return message;
+                }
+                // Other messages, like notifications for received messages, aren't relevant for this request
+            }
+            throw new IOException("Connection closed by daemon before a response was received");
+        }
+
+        private static boolean isResponse(final JsonNode message, final ValueNode id) {
+            return message.isObject() && !message.has("method") && id.equals(message.get("id"));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class HttpTransport implements Transport {
+
+        private final URI uri;
+        private final HttpClient httpClient = HttpClient.newHttpClient();
+
+        private HttpTransport(final URI uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public JsonNode sendRequest(
+                final ObjectMapper objectMapper, final JsonRpcRequest request
+        ) throws IOException {
+            final var httpRequest = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(request)))
+                    .build();
+            final HttpResponse<byte[]> response;
+            try {
+                response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the daemon", e);
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("Daemon responded with unexpected http status " + response.statusCode());
+            }
+            return objectMapper.readTree(response.body());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
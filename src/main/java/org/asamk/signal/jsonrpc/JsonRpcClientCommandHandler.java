@@ -0,0 +1,141 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.asamk.signal.commands.Command;
+import org.asamk.signal.commands.JsonRpcMultiCommand;
+import org.asamk.signal.commands.JsonRpcSingleCommand;
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.IOErrorException;
+import org.asamk.signal.commands.exceptions.UnexpectedErrorException;
+import org.asamk.signal.commands.exceptions.UntrustedKeyErrorException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.util.IOUtils;
+import org.asamk.signal.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sends a command from the command line to a running daemon, so the account doesn't need to be loaded locally.
+ */
+public class JsonRpcClientCommandHandler {
+
+    // Commands that behave differently when run by the daemon
+    private static final Set<String> LOCAL_ONLY_COMMANDS = Set.of("receive", "version");
+    // Arguments with file paths, relative paths need to be resolved as the daemon has a different working directory
+    private static final Set<String> PATH_ARGUMENTS = Set.of("attachment", "avatar", "path");
+    // Arguments that read their value from stdin, stdin is read by the client and sent as the mapped argument
+    private static final Map<String, String> STDIN_ARGUMENTS = Map.of("message-from-stdin", "message");
+
+    private static final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+
+    public static boolean canHandleCommand(final Command command) {
+        return (command instanceof JsonRpcSingleCommand<?> || command instanceof JsonRpcMultiCommand<?>)
+                && !LOCAL_ONLY_COMMANDS.contains(command.getName());
+    }
+
+    /**
+     * @return true if one of the arguments reads from stdin
+     */
+    public static boolean readsStdin(final Map<String, Object> arguments) {
+        return STDIN_ARGUMENTS.keySet().stream().anyMatch(key -> Boolean.TRUE.equals(arguments.get(key)));
+    }
+
+    /**
+     * @param arguments the arguments of the command, without the global arguments
+     * @return false if the daemon doesn't provide the account or command, so it needs to be handled locally
+     */
+    public static boolean handleCommand(
+            final Command command,
+            final String account,
+            final Map<String, Object> arguments,
+            final JsonRpcClient client,
+            final JsonWriter jsonWriter
+    ) throws CommandException {
+        final var params = objectMapper.createObjectNode();
+        if (account != null) {
+            params.put("account", account);
+        }
+        for (final var entry : arguments.entrySet()) {
+            if (STDIN_ARGUMENTS.containsKey(entry.getKey())) {
+                continue;
+            }
+            if (entry.getValue() != null) {
+                params.set(entry.getKey(), objectMapper.valueToTree(resolvePaths(entry.getKey(), entry.getValue())));
+            }
+        }
+        for (final var entry : STDIN_ARGUMENTS.entrySet()) {
+            if (Boolean.TRUE.equals(arguments.get(entry.getKey()))) {
+                params.put(entry.getValue(), readStdin());
+            }
+        }
+
+        final JsonNode result;
+        try {
+            result = client.sendRequest(command.getName(), params);
+        } catch (IOException e) {
+            throw new IOErrorException("Failed to send command to daemon: " + e.getMessage(), e);
+        } catch (JsonRpcException e) {
+            final var error = e.getError();
+            if (error.getCode() == JsonRpcResponse.Error.METHOD_NOT_FOUND
+                    || error.getCode() == JsonRpcResponse.Error.INVALID_PARAMS) {
+                return false;
+            }
+            writeResult(getErrorResponse(error), jsonWriter);
+            throw getCommandException(error);
+        }
+
+        writeResult(result, jsonWriter);
+        return true;
+    }
+
+    private static String readStdin() throws UserErrorException {
+        try {
+            return IOUtils.readAll(System.in, IOUtils.getConsoleCharset());
+        } catch (IOException e) {
+            throw new UserErrorException("Failed to read from stdin: " + e.getMessage());
+        }
+    }
+
+    private static Object resolvePaths(final String key, final Object value) {
+        if (!PATH_ARGUMENTS.contains(key)) {
+            return value;
+        }
+        if (value instanceof List<?> list) {
+            return list.stream().map(v -> resolvePaths(key, v)).toList();
+        }
+        if (value instanceof String path && new File(path).exists()) {
+            return new File(path).getAbsolutePath();
+        }
+        return value;
+    }
+
+    private static JsonNode getErrorResponse(final JsonRpcResponse.Error error) {
+        return error.getData() == null ? null : error.getData().get("response");
+    }
+
+    private static void writeResult(final JsonNode result, final JsonWriter jsonWriter) {
+        // Commands without output are answered with an empty object
+        if (result == null || result.isNull() || (result instanceof ObjectNode o && o.isEmpty())) {
+            return;
+        }
+        jsonWriter.write(result);
+    }
+
+    private static CommandException getCommandException(final JsonRpcResponse.Error error) {
+        final var message = error.getMessage();
+        return switch (error.getCode()) {
+            case SignalJsonRpcCommandHandler.USER_ERROR -> new UserErrorException(message);
+            case SignalJsonRpcCommandHandler.IO_ERROR -> new IOErrorException(message, new IOException(message));
+            case SignalJsonRpcCommandHandler.UNTRUSTED_KEY_ERROR -> new UntrustedKeyErrorException(message);
+            default -> new UnexpectedErrorException(message, new IOException("Daemon error " + error.getCode()));
+        };
+    }
+}
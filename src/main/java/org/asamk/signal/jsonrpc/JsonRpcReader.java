@@ -1,6 +1,9 @@
 package org.asamk.signal.jsonrpc;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.StreamReadConstraints;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,39 +15,64 @@ import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
 import java.util.stream.StreamSupport;
 
 public class JsonRpcReader {
 
     private final static Logger logger = LoggerFactory.getLogger(JsonRpcReader.class);
 
+    public static final long DEFAULT_MAX_MESSAGE_SIZE = 100 * 1024 * 1024;
+    private static final int MAX_CONCURRENT_REQUESTS = 10;
+
     private final JsonRpcSender jsonRpcSender;
     private final ObjectMapper objectMapper;
     private final InputStream input;
-    private final Supplier<String> lineSupplier;
+    private final MessageInputStream messageInput;
+
+    private long parserStart;
 
-    public JsonRpcReader(final JsonRpcSender jsonRpcSender, final Supplier<String> lineSupplier) {
+    /**
+     * Reads a stream of JSON-RPC messages, separated by whitespace (usually newlines).
+     * The messages are parsed directly from the input stream, without reading whole lines first.
+     * The line of a request with a {@code binarySize} parameter is followed by that many bytes of binary data.
+     */
+    public JsonRpcReader(final JsonRpcSender jsonRpcSender, final InputStream input, final long maxMessageSize) {
         this.jsonRpcSender = jsonRpcSender;
         this.input = null;
-        this.lineSupplier = lineSupplier;
+        this.messageInput = new MessageInputStream(input, maxMessageSize);
         this.objectMapper = Util.createJsonObjectMapper();
+        final var factory = objectMapper.getFactory();
+        // The input stream is closed by the owner of the connection, not when an invalid message is skipped
+        factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        factory.setStreamReadConstraints(StreamReadConstraints.builder()
+                .maxStringLength((int) Math.min(maxMessageSize, Integer.MAX_VALUE))
+                .build());
     }
 
     public JsonRpcReader(final JsonRpcSender jsonRpcSender, final InputStream input) {
         this.jsonRpcSender = jsonRpcSender;
         this.input = input;
-        this.lineSupplier = null;
+        this.messageInput = null;
         this.objectMapper = Util.createJsonObjectMapper();
     }
 
     public void readMessages(final RequestHandler requestHandler, final Consumer<JsonRpcResponse> responseHandler) {
+        readMessages(requestHandler, null, responseHandler);
+    }
+
+    public void readMessages(
+            final RequestHandler requestHandler,
+            final BinaryRequestHandler binaryRequestHandler,
+            final Consumer<JsonRpcResponse> responseHandler
+    ) {
         if (input != null) {
             JsonRpcMessage message = parseJsonRpcMessage(input);
             if (message == null) {
@@ -55,28 +83,149 @@ public class JsonRpcReader {
             return;
         }
 
-        final var executor = Executors.newFixedThreadPool(10);
+        final var executor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS);
+        // Stop reading new messages while all handler threads are busy, so the client is slowed down by the socket
+        // instead of queuing an unlimited number of requests
+        final var pendingMessages = new Semaphore(2 * MAX_CONCURRENT_REQUESTS);
         try {
+            var parser = createParser();
             while (!Thread.interrupted()) {
-                final var input = lineSupplier.get();
-                if (input == null) {
-                    logger.trace("Reached end of JSON-RPC input stream.");
-                    break;
+                final JsonNode jsonNode;
+                try {
+                    if (parser.nextToken() == null) {
+                        logger.trace("Reached end of JSON-RPC input stream.");
+                        break;
+                    }
+                    final var messageStart = parserStart + parser.getTokenLocation().getByteOffset();
+                    messageInput.startMessage(messageStart);
+                    jsonNode = objectMapper.readTree(parser);
+                    final var messageEnd = parserStart + parser.getCurrentLocation().getByteOffset();
+                    if (messageEnd - messageStart > messageInput.getMaxMessageSize()) {
+                        sendMessageTooLarge();
+                        final var binarySize = getBinarySize(jsonNode);
+                        if (binarySize != null) {
+                            parser = skipBinaryData(parser, binarySize);
+                        }
+                        continue;
+                    }
+                } catch (JsonProcessingException e) {
+                    jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR,
+                            e.getMessage(),
+                            null), null));
+                    parser = skipInvalidMessage(parser);
+                    continue;
+                } catch (MessageInputStream.MessageTooLargeException e) {
+                    sendMessageTooLarge();
+                    parser = skipInvalidMessage(parser);
+                    continue;
+                }
+
+                logger.trace("Incoming JSON-RPC message: {}", jsonNode);
+                final var binarySize = getBinarySize(jsonNode);
+                if (binarySize != null) {
+                    // The binary data has to be consumed before the next message can be parsed,
+                    // so the request is handled directly by the reading thread
+                    parser = handleBinaryRequest(parser, jsonNode, binarySize, binaryRequestHandler);
+                    continue;
                 }
 
-                logger.trace("Incoming JSON-RPC message: {}", input);
-                final var message = parseJsonRpcMessage(input);
+                final var message = parseJsonRpcMessage(jsonNode);
                 if (message == null) {
                     continue;
                 }
 
-                executor.submit(() -> handleMessage(message, requestHandler, responseHandler));
+                pendingMessages.acquire();
+                executor.submit(() -> {
+                    try {
+                        handleMessage(message, requestHandler, responseHandler);
+                    } finally {
+                        pendingMessages.release();
+                    }
+                });
             }
+        } catch (IOException e) {
+            logger.error("Error occurred while reading JSON-RPC messages", e);
+        } catch (InterruptedException ignored) {
         } finally {
             Util.closeExecutorService(executor);
         }
     }
 
+    private JsonParser createParser() throws IOException {
+        parserStart = messageInput.getPosition();
+        return objectMapper.getFactory().createParser(messageInput);
+    }
+
+    /**
+     * Skip the rest of the line of an invalid message, and continue with a new parser after that.
+     */
+    private JsonParser skipInvalidMessage(final JsonParser parser) throws IOException {
+        releaseBuffered(parser);
+        messageInput.skipLine();
+        return createParser();
+    }
+
+    private void releaseBuffered(final JsonParser parser) throws IOException {
+        final var buffered = new ByteArrayOutputStream();
+        parser.releaseBuffered(buffered);
+        messageInput.unread(buffered.toByteArray());
+    }
+
+    private void sendMessageTooLarge() {
+        jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
+                "message exceeds the maximum size of " + messageInput.getMaxMessageSize() + " bytes",
+                null), null));
+    }
+
+    private static Long getBinarySize(final JsonNode jsonNode) {
+        if (!jsonNode.isObject() || !jsonNode.path("params").isObject()) {
+            return null;
+        }
+        final var binarySize = jsonNode.get("params").get("binarySize");
+        if (binarySize == null || !binarySize.canConvertToLong() || binarySize.asLong() < 0) {
+            return null;
+        }
+        return binarySize.asLong();
+    }
+
+    private JsonParser skipBinaryData(final JsonParser parser, final long binarySize) throws IOException {
+        releaseBuffered(parser);
+        messageInput.skipLine();
+        messageInput.readBinary(binarySize).close();
+        return createParser();
+    }
+
+    /**
+     * Handle a request that is followed by binary data and continue with a new parser after the binary data.
+     */
+    private JsonParser handleBinaryRequest(
+            final JsonParser parser,
+            final JsonNode jsonNode,
+            final long binarySize,
+            final BinaryRequestHandler binaryRequestHandler
+    ) throws IOException {
+        releaseBuffered(parser);
+        messageInput.skipLine();
+        try (final var data = messageInput.readBinary(binarySize)) {
+            final var message = parseJsonRpcMessage(jsonNode);
+            if (message instanceof JsonRpcRequest request) {
+                final JsonRpcResponse response;
+                if (binaryRequestHandler == null) {
+                    response = JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
+                            "binary data is not supported",
+                            null), request.getId());
+                } else {
+                    response = handleRequest((method, params) -> binaryRequestHandler.apply(method, params, data),
+                            request);
+                }
+                if (response != null) {
+                    jsonRpcSender.sendResponse(response);
+                }
+            }
+        }
+        return createParser();
+    }
+
     private void handleMessage(
             final JsonRpcMessage message,
             final RequestHandler requestHandler,
@@ -154,22 +303,6 @@ public class JsonRpcReader {
         return null;
     }
 
-    private JsonRpcMessage parseJsonRpcMessage(final String input) {
-        final JsonNode jsonNode;
-        try {
-            jsonNode = objectMapper.readTree(input);
-        } catch (JsonParseException e) {
-            jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR,
-                    e.getMessage(),
-                    null), null));
-            return null;
-        } catch (IOException e) {
-            throw new AssertionError(e);
-        }
-
-        return parseJsonRpcMessage(jsonNode);
-    }
-
     private JsonRpcMessage parseJsonRpcMessage(final InputStream input) {
         final JsonNode jsonNode;
         try {
@@ -293,4 +426,9 @@ public class JsonRpcReader {
 
         JsonNode apply(String method, ContainerNode<?> params) throws JsonRpcException;
     }
+
+    public interface BinaryRequestHandler {
+
+        JsonNode apply(String method, ContainerNode<?> params, InputStream data) throws JsonRpcException;
+    }
 }
@@ -0,0 +1,150 @@
+package org.asamk.signal.jsonrpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream of JSON-RPC messages, that limits the size of a single message.
+ * After an invalid message, bytes that were already buffered by the parser can be put back, so the rest of the
+ * message can be skipped and parsing can continue with the next line.
+ * The same mechanism is used to read the binary data that follows a request with a binary payload.
+ */
+final class MessageInputStream extends InputStream {
+
+    // The parser reads ahead, so the limit is only enforced exactly once the message has been parsed completely
+    private static final int READ_AHEAD = 8192;
+
+    private final InputStream input;
+    private final long maxMessageSize;
+
+    private byte[] pushback = new byte[0];
+    private int pushbackPosition = 0;
+    private long position = 0;
+    private long messageLimit = Long.MAX_VALUE;
+
+    MessageInputStream(final InputStream input, final long maxMessageSize) {
+        this.input = input;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * @return the number of bytes that were read from this stream
+     */
+    long getPosition() {
+        return position;
+    }
+
+    long getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    void startMessage(final long messageStart) {
+        messageLimit = messageStart + maxMessageSize + READ_AHEAD;
+    }
+
+    void unread(final byte[] bytes) {
+        final var remaining = pushback.length - pushbackPosition;
+        final var newPushback = new byte[bytes.length + remaining];
+        System.arraycopy(bytes, 0, newPushback, 0, bytes.length);
+        System.arraycopy(pushback, pushbackPosition, newPushback, bytes.length, remaining);
+        pushback = newPushback;
+        pushbackPosition = 0;
+        position -= bytes.length;
+    }
+
+    /**
+     * Skip everything up to and including the next line break.
+     */
+    void skipLine() throws IOException {
+        messageLimit = Long.MAX_VALUE;
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != '\n');
+    }
+
+    /**
+     * Returns a stream of the next bytes, that ends after the given size.
+     * Bytes that aren't read from it are skipped when it's closed.
+     */
+    InputStream readBinary(final long size) {
+        messageLimit = Long.MAX_VALUE;
+        return new BinaryInputStream(size);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final var buffer = new byte[1];
+        final var count = read(buffer, 0, 1);
+        return count == -1 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= messageLimit) {
+            throw new MessageTooLargeException(maxMessageSize);
+        }
+        final int count;
+        if (pushbackPosition < pushback.length) {
+            count = Math.min(length, pushback.length - pushbackPosition);
+            System.arraycopy(pushback, pushbackPosition, buffer, offset, count);
+            pushbackPosition += count;
+        } else {
+            count = input.read(buffer, offset, length);
+            if (count == -1) {
+                return -1;
+            }
+        }
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private final class BinaryInputStream extends InputStream {
+
+        private long remaining;
+
+        private BinaryInputStream(final long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final var buffer = new byte[1];
+            final var count = read(buffer, 0, 1);
+            return count == -1 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            final var count = MessageInputStream.this.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count == -1) {
+                throw new IOException("Input ended before the end of the binary data");
+            }
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            skipNBytes(remaining);
+        }
+    }
+
+    static final class MessageTooLargeException extends IOException {
+
+        MessageTooLargeException(final long maxMessageSize) {
+            super("Message exceeds the maximum size of " + maxMessageSize + " bytes");
+        }
+    }
+}
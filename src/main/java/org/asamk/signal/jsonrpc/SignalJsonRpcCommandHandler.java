@@ -32,9 +32,9 @@ public class SignalJsonRpcCommandHandler {
 
     private final static Logger logger = LoggerFactory.getLogger(SignalJsonRpcDispatcherHandler.class);
 
-    private static final int USER_ERROR = -1;
-    private static final int IO_ERROR = -3;
-    private static final int UNTRUSTED_KEY_ERROR = -4;
+    static final int USER_ERROR = -1;
+    static final int IO_ERROR = -3;
+    static final int UNTRUSTED_KEY_ERROR = -4;
 
     private final Manager m;
     private final MultiAccountManager c;
@@ -55,7 +55,12 @@ public class SignalJsonRpcCommandHandler {
     public JsonNode handleRequest(
             final ObjectMapper objectMapper, final String method, ContainerNode<?> params
     ) throws JsonRpcException {
-        var command = getCommand(method);
+        return handleRequest(objectMapper, getCommand(method), params);
+    }
+
+    public JsonNode handleRequest(
+            final ObjectMapper objectMapper, final Command command, ContainerNode<?> params
+    ) throws JsonRpcException {
         if (c != null) {
             if (command instanceof JsonRpcSingleCommand<?> jsonRpcCommand) {
                 final var manager = getManagerFromParams(params);
@@ -84,6 +89,7 @@ public class SignalJsonRpcCommandHandler {
         }
         if (command instanceof JsonRpcSingleCommand<?> jsonRpcCommand) {
             if (m != null) {
+                checkAccountFromParams(params);
                 return runCommand(objectMapper, params, new CommandRunnerImpl<>(m, jsonRpcCommand));
             }
 
@@ -92,6 +98,8 @@ public class SignalJsonRpcCommandHandler {
                 final var managers = c.getManagers();
                 if (managers.size() == 1) {
                     manager = managers.get(0);
+                } else if (managers.isEmpty() && !c.getInitializingAccountNumbers().isEmpty()) {
+                    throw getAccountInitializingException();
                 }
             }
             if (manager != null) {
@@ -110,8 +118,12 @@ public class SignalJsonRpcCommandHandler {
 
     private Manager getManagerFromParams(final ContainerNode<?> params) throws JsonRpcException {
         if (params != null && params.hasNonNull("account")) {
-            final var manager = c.getManager(params.get("account").asText());
+            final var account = params.get("account").asText();
             ((ObjectNode) params).remove("account");
+            if (c.getInitializingAccountNumbers().contains(account)) {
+                throw getAccountInitializingException();
+            }
+            final var manager = c.getManager(account);
             if (manager == null) {
                 throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
                         "Specified account does not exist",
@@ -122,6 +134,26 @@ public class SignalJsonRpcCommandHandler {
         return null;
     }
 
+    private static JsonRpcException getAccountInitializingException() {
+        return new JsonRpcException(new JsonRpcResponse.Error(USER_ERROR,
+                "Account is still initializing, try again later",
+                null));
+    }
+
+    /**
+     * In single-account mode an account parameter is optional, but it must not refer to another account.
+     */
+    private void checkAccountFromParams(final ContainerNode<?> params) throws JsonRpcException {
+        if (params != null && params.hasNonNull("account")) {
+            if (!m.getSelfNumber().equals(params.get("account").asText())) {
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                        "Specified account does not exist",
+                        null));
+            }
+            ((ObjectNode) params).remove("account");
+        }
+    }
+
     private RegistrationManager getRegistrationManagerFromParams(final ContainerNode<?> params) {
         if (params != null && params.has("account")) {
             try {
@@ -13,22 +13,26 @@ import org.asamk.signal.commands.Commands;
 import org.asamk.signal.commands.JsonRpcMultiCommand;
 import org.asamk.signal.commands.JsonRpcSingleCommand;
 import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.IOErrorException;
 import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.json.JsonReceiveMessageHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
+import org.asamk.signal.manager.api.AttachmentInvalidException;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.channels.ClosedChannelException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Supplier;
 
 public class SignalJsonRpcDispatcherHandler {
 
@@ -43,20 +47,22 @@ public class SignalJsonRpcDispatcherHandler {
     private SignalJsonRpcCommandHandler commandHandler;
 
     public SignalJsonRpcDispatcherHandler(
-            final JsonWriter jsonWriter, final Supplier<String> lineSupplier, final boolean noReceiveOnStart
+            final JsonWriter jsonWriter,
+            final InputStream input,
+            final long maxMessageSize,
+            final boolean noReceiveOnStart
     ) {
         this.noReceiveOnStart = noReceiveOnStart;
         this.objectMapper = Util.createJsonObjectMapper();
         this.jsonRpcSender = new JsonRpcSender(jsonWriter);
-        this.jsonRpcReader = new JsonRpcReader(jsonRpcSender, lineSupplier);
+        this.jsonRpcReader = new JsonRpcReader(jsonRpcSender, input, maxMessageSize);
     }
 
     public void handleConnection(final MultiAccountManager c) {
         this.commandHandler = new SignalJsonRpcCommandHandler(c, this::getCommand);
 
         if (!noReceiveOnStart) {
-            this.subscribeReceive(c.getManagers(), true);
-            c.addOnManagerAddedHandler(m -> subscribeReceive(m, true));
+            c.addManagerHandler(m -> subscribeReceive(m, true));
             c.addOnManagerRemovedHandler(this::unsubscribeReceive);
         }
 
@@ -135,6 +141,9 @@ public class SignalJsonRpcDispatcherHandler {
     private void handleConnection() {
         try {
             jsonRpcReader.readMessages((method, params) -> commandHandler.handleRequest(objectMapper, method, params),
+                    (method, params, data) -> commandHandler.handleRequest(objectMapper,
+                            getBinaryCommand(method, data),
+                            params),
                     response -> logger.debug("Received unexpected response for id {}", response.getId()));
         } finally {
             receiveHandlers.forEach((_subscriptionId, handlers) -> handlers.forEach(this::unsubscribeReceiveHandler));
@@ -158,6 +167,13 @@ public class SignalJsonRpcDispatcherHandler {
         return Commands.getCommand(method);
     }
 
+    private Command getBinaryCommand(final String method, final InputStream data) {
+        if ("uploadAttachment".equals(method)) {
+            return new UploadAttachmentCommand(data);
+        }
+        return null;
+    }
+
     private class SubscribeReceiveCommand implements JsonRpcSingleCommand<Void>, JsonRpcMultiCommand<Void> {
 
         @Override
@@ -232,4 +248,36 @@ public class SignalJsonRpcDispatcherHandler {
             }
         }
     }
+
+    private record UploadAttachmentCommand(InputStream data) implements JsonRpcSingleCommand<JsonNode> {
+
+        @Override
+        public String getName() {
+            return "uploadAttachment";
+        }
+
+        @Override
+        public TypeReference<JsonNode> getRequestType() {
+            return new TypeReference<>() {};
+        }
+
+        @Override
+        public void handleCommand(
+                final JsonNode request, final Manager m, final JsonWriter jsonWriter
+        ) throws CommandException {
+            final var contentType = request.path("contentType").textValue();
+            final var filename = Optional.ofNullable(request.path("filename").textValue());
+            try {
+                final var attachment = m.uploadAttachment(data,
+                        request.get("binarySize").asLong(),
+                        contentType,
+                        filename);
+                jsonWriter.write(Map.of("attachment", attachment));
+            } catch (AttachmentInvalidException e) {
+                throw new UserErrorException("Invalid attachment: " + e.getMessage(), e);
+            } catch (IOException e) {
+                throw new IOErrorException("Failed to upload attachment: " + e.getMessage(), e);
+            }
+        }
+    }
 }
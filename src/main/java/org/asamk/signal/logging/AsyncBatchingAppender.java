@@ -0,0 +1,184 @@
+package org.asamk.signal.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands log events to a background thread, which formats (and scrubs) them and writes them in batches to the
+ * wrapped appenders, flushing once per batch.
+ * When the queue is almost full, TRACE and DEBUG events are dropped, when it's full INFO events are dropped as well.
+ * WARN and ERROR events are never dropped, instead the logging thread waits for space in the queue.
+ */
+public class AsyncBatchingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    private static final int DEFAULT_QUEUE_SIZE = 8192;
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final long MAX_FLUSH_TIME_MILLIS = 5000;
+
+    private final List<OutputStreamAppender<ILoggingEvent>> appenders = new ArrayList<>();
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private int discardingThreshold;
+    private BlockingQueue<ILoggingEvent> queue;
+    private Thread worker;
+    private long reportedDroppedEvents = 0;
+
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Add an appender that receives the events from the background thread.
+     * The appender should be created with immediateFlush disabled.
+     */
+    public void addAppender(final OutputStreamAppender<ILoggingEvent> appender) {
+        appenders.add(appender);
+    }
+
+    /**
+     * @return the number of events that were dropped because the queue was (almost) full
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (appenders.isEmpty()) {
+            addError("No appenders attached to async appender " + getName());
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueSize);
+        discardingThreshold = queueSize / 5;
+        worker = new Thread(this::processEvents, "log-writer");
+        worker.setDaemon(true);
+        super.start();
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+
+        // The worker writes the remaining events before exiting
+        worker.interrupt();
+        try {
+            worker.join(MAX_FLUSH_TIME_MILLIS);
+            if (worker.isAlive()) {
+                addWarn("Timed out writing " + queue.size() + " remaining log events");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (final var appender : appenders) {
+            appender.stop();
+        }
+    }
+
+    @Override
+    protected void append(final ILoggingEvent event) {
+        final var level = event.getLevel();
+        if (queue.remainingCapacity() < discardingThreshold && !level.isGreaterOrEqual(Level.INFO)) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+
+        // Capture thread dependent data and format the message before handing it to the background thread
+        event.prepareForDeferredProcessing();
+        if (queue.offer(event)) {
+            return;
+        }
+        if (!level.isGreaterOrEqual(Level.WARN)) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            droppedEvents.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void processEvents() {
+        final var batch = new ArrayList<ILoggingEvent>(MAX_BATCH_SIZE);
+        while (isStarted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            writeBatch(batch);
+        }
+
+        // Clear the interrupt flag from stop(), so the remaining events can be written
+        Thread.interrupted();
+        while (queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+            writeBatch(batch);
+        }
+        reportDroppedEvents();
+        flushAppenders();
+    }
+
+    private void writeBatch(final List<ILoggingEvent> batch) {
+        reportDroppedEvents();
+        for (final var event : batch) {
+            for (final var appender : appenders) {
+                appender.doAppend(event);
+            }
+        }
+        batch.clear();
+        flushAppenders();
+    }
+
+    private void reportDroppedEvents() {
+        final var dropped = droppedEvents.get();
+        if (dropped == reportedDroppedEvents) {
+            return;
+        }
+        final var logger = ((LoggerContext) getContext()).getLogger(AsyncBatchingAppender.class);
+        final var event = new LoggingEvent(AsyncBatchingAppender.class.getName(),
+                logger,
+                Level.WARN,
+                "Dropped {} log events, because the log queue was full ({} in total)",
+                null,
+                new Object[]{dropped - reportedDroppedEvents, dropped});
+        reportedDroppedEvents = dropped;
+        for (final var appender : appenders) {
+            appender.doAppend(event);
+        }
+    }
+
+    private void flushAppenders() {
+        for (final var appender : appenders) {
+            final var outputStream = appender.getOutputStream();
+            if (outputStream == null) {
+                continue;
+            }
+            try {
+                outputStream.flush();
+            } catch (IOException e) {
+                addError("Failed to flush appender " + appender.getName(), e);
+            }
+        }
+    }
+}
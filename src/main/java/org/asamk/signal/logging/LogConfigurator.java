@@ -1,6 +1,8 @@
 package org.asamk.signal.logging;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
@@ -11,6 +13,7 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.ConsoleAppender;
 import ch.qos.logback.core.FileAppender;
 import ch.qos.logback.core.Layout;
+import ch.qos.logback.core.OutputStreamAppender;
 import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
 import ch.qos.logback.core.filter.Filter;
 import ch.qos.logback.core.spi.ContextAwareBase;
@@ -21,6 +24,7 @@ public class LogConfigurator extends ContextAwareBase implements Configurator {
     private static int verboseLevel = 0;
     private static File logFile = null;
     private static boolean scrubSensitiveInformation = false;
+    private static boolean asyncLogging = false;
 
     public static void setVerboseLevel(int verboseLevel) {
         LogConfigurator.verboseLevel = verboseLevel;
@@ -34,6 +38,10 @@ public class LogConfigurator extends ContextAwareBase implements Configurator {
         LogConfigurator.scrubSensitiveInformation = scrubSensitiveInformation;
     }
 
+    public static void setAsyncLogging(final boolean asyncLogging) {
+        LogConfigurator.asyncLogging = asyncLogging;
+    }
+
     @Override
     public ExecutionStatus configure(LoggerContext lc) {
         final var rootLogger = lc.getLogger(Logger.ROOT_LOGGER_NAME);
@@ -45,7 +53,8 @@ public class LogConfigurator extends ContextAwareBase implements Configurator {
                 ? createSimpleLoggingLayout(lc)
                 : createDetailedLoggingLayout(lc);
         final var consoleAppender = createLoggingConsoleAppender(lc, createLayoutWrappingEncoder(consoleLayout));
-        rootLogger.addAppender(consoleAppender);
+        final var appenders = new ArrayList<OutputStreamAppender<ILoggingEvent>>();
+        appenders.add(consoleAppender);
 
         lc.getLogger("org.asamk").setLevel(verboseLevel > 1 ? Level.ALL : verboseLevel > 0 ? Level.DEBUG : Level.INFO);
         lc.getLogger("com.zaxxer.hikari.pool.PoolBase")
@@ -68,11 +77,30 @@ public class LogConfigurator extends ContextAwareBase implements Configurator {
 
             final var fileLayout = createDetailedLoggingLayout(lc);
             final var fileAppender = createLoggingFileAppender(lc, createLayoutWrappingEncoder(fileLayout));
-            rootLogger.addAppender(fileAppender);
+            appenders.add(fileAppender);
+        }
+
+        if (asyncLogging) {
+            rootLogger.addAppender(createAsyncAppender(lc, appenders));
+        } else {
+            appenders.forEach(rootLogger::addAppender);
         }
         return ExecutionStatus.DO_NOT_INVOKE_NEXT_IF_ANY;
     }
 
+    private AsyncBatchingAppender createAsyncAppender(
+            final LoggerContext lc, final List<OutputStreamAppender<ILoggingEvent>> appenders
+    ) {
+        final var asyncAppender = new AsyncBatchingAppender();
+        asyncAppender.setContext(lc);
+        asyncAppender.setName("async");
+        appenders.forEach(asyncAppender::addAppender);
+        asyncAppender.start();
+        // Write the queued events before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(asyncAppender::stop, "log-shutdown"));
+        return asyncAppender;
+    }
+
     private ConsoleAppender<ILoggingEvent> createLoggingConsoleAppender(
             final LoggerContext lc, final LayoutWrappingEncoder<ILoggingEvent> layoutEncoder
     ) {
@@ -81,6 +109,7 @@ public class LogConfigurator extends ContextAwareBase implements Configurator {
             setName("console");
             setTarget("System.err");
             setEncoder(layoutEncoder);
+            setImmediateFlush(!asyncLogging);
             start();
         }};
     }
@@ -93,6 +122,7 @@ public class LogConfigurator extends ContextAwareBase implements Configurator {
             setName("file");
             setFile(logFile.getAbsolutePath());
             setEncoder(layoutEncoder);
+            setImmediateFlush(!asyncLogging);
             start();
         }};
     }
@@ -170,8 +170,67 @@ public final class Scrubber {
             "sa",
             "app"));
 
+    private static final int E164 = 1;
+    private static final int EMAIL = 1 << 1;
+    private static final int UUID = 1 << 2;
+    private static final int DOMAIN = 1 << 3;
+    private static final int IPV4 = 1 << 4;
+
+    /**
+     * The top level domains encoded with {@link #encodeTld}, sorted for binary search.
+     */
+    private static final long[] ENCODED_TLDS = TOP_100_TLDS.stream()
+            .mapToLong(tld -> encodeTld(tld, 0, tld.length()))
+            .sorted()
+            .toArray();
+    private static final int MAX_TLD_LENGTH = 8;
+
     public static CharSequence scrub(CharSequence in) {
+        var candidates = findCandidates(in);
+        if (candidates == 0) {
+            // Nothing that any of the patterns could match, return the input without allocating
+            return in;
+        }
+
+        if ((candidates & E164) != 0) {
+            final var out = scrubE164(in);
+            if (out != in) {
+                in = out;
+                candidates = findCandidates(in);
+            }
+        }
+        if ((candidates & EMAIL) != 0) {
+            final var out = scrubEmail(in);
+            if (out != in) {
+                in = out;
+                candidates = findCandidates(in);
+            }
+        }
+        if ((candidates & UUID) != 0) {
+            final var out = scrubUuids(in);
+            if (out != in) {
+                in = out;
+                candidates = findCandidates(in);
+            }
+        }
+        if ((candidates & DOMAIN) != 0) {
+            final var out = scrubDomains(in);
+            if (out != in) {
+                in = out;
+                candidates = findCandidates(in);
+            }
+        }
+        if ((candidates & IPV4) != 0) {
+            in = scrubIpv4(in);
+        }
 
+        return in;
+    }
+
+    /**
+     * Runs all regex passes without the candidate scan, the result must be the same as {@link #scrub}.
+     */
+    static CharSequence scrubWithAllPatterns(CharSequence in) {
         in = scrubE164(in);
         in = scrubEmail(in);
         in = scrubUuids(in);
@@ -181,6 +240,166 @@ public final class Scrubber {
         return in;
     }
 
+    /**
+     * Scans the input once and returns a bit set of the patterns that could result in a replacement.
+     * Every check is a necessary condition for a replacing match of the corresponding pattern, so only the regex
+     * passes for flagged patterns need to run and the result is the same as running all of them.
+     */
+    private static int findCandidates(CharSequence in) {
+        final var length = in.length();
+        var candidates = 0;
+        var digitRunStart = -1;
+        for (var i = 0; i < length; i++) {
+            final var c = in.charAt(i);
+            if (isDigit(c)) {
+                if (digitRunStart < 0) {
+                    digitRunStart = i;
+                }
+                continue;
+            }
+            if (digitRunStart >= 0) {
+                candidates |= checkE164(in, digitRunStart, i);
+                digitRunStart = -1;
+            }
+            switch (c) {
+                case '@' -> {
+                    if (i + 1 < length && !isWhitespace(in.charAt(i + 1))) {
+                        candidates |= EMAIL;
+                    }
+                }
+                case '-' -> {
+                    if ((candidates & UUID) == 0 && isUuidAt(in, i - 8)) {
+                        candidates |= UUID;
+                    }
+                }
+                case '.' -> {
+                    if (i > 0 && isAsciiAlphanumeric(in.charAt(i - 1))) {
+                        if ((candidates & DOMAIN) == 0 && isTldAt(in, i + 1)) {
+                            candidates |= DOMAIN;
+                        }
+                        if ((candidates & IPV4) == 0 && isDigit(in.charAt(i - 1)) && isIpv4TailAt(in, i + 1)) {
+                            candidates |= IPV4;
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        if (digitRunStart >= 0) {
+            candidates |= checkE164(in, digitRunStart, length);
+        }
+        return candidates;
+    }
+
+    /**
+     * A phone number needs at least seven digits directly after a "+", "%2B" or "/org/asamk/Signal/_" prefix.
+     */
+    private static int checkE164(CharSequence in, int start, int end) {
+        if (end - start < 7 || start == 0) {
+            return 0;
+        }
+        final var prefix = in.charAt(start - 1);
+        return prefix == '+' || prefix == 'B' || prefix == '_' ? E164 : 0;
+    }
+
+    private static boolean isUuidAt(CharSequence in, int start) {
+        if (start < 0 || start + 36 > in.length()) {
+            return false;
+        }
+        for (var i = 0; i < 36; i++) {
+            final var c = in.charAt(start + i);
+            final var isSeparator = i == 8 || i == 13 || i == 18 || i == 23;
+            if (isSeparator ? c != '-' : !isHexDigit(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The domain pattern uses the longest run of domain characters after the last dot that ends with a letter or
+     * hyphen as the top level domain, only replacing it if that's a known top level domain.
+     */
+    private static boolean isTldAt(CharSequence in, int start) {
+        final var length = in.length();
+        var tldEnd = -1;
+        for (var i = start; i < length && i - start <= MAX_TLD_LENGTH; i++) {
+            final var c = in.charAt(i);
+            if (isAsciiLetter(c) || c == '-') {
+                tldEnd = i + 1;
+            } else if (!isDigit(c)) {
+                break;
+            }
+        }
+        if (tldEnd < 0) {
+            return false;
+        }
+        // Check that the run of domain characters doesn't continue with a longer top level domain
+        for (var i = tldEnd; i < length; i++) {
+            final var c = in.charAt(i);
+            if (isAsciiLetter(c) || c == '-') {
+                return false;
+            } else if (!isDigit(c)) {
+                break;
+            }
+        }
+        return tldEnd - start <= MAX_TLD_LENGTH
+                && Arrays.binarySearch(ENCODED_TLDS, encodeTld(in, start, tldEnd)) >= 0;
+    }
+
+    /**
+     * Checks for the "1.2.3" part following the first dot of an ipv4 address.
+     */
+    private static boolean isIpv4TailAt(CharSequence in, int start) {
+        final var length = in.length();
+        var i = start;
+        for (var part = 0; part < 3; part++) {
+            if (part > 0) {
+                if (i >= length || in.charAt(i) != '.') {
+                    return false;
+                }
+                i++;
+            }
+            final var partStart = i;
+            while (i < length && isDigit(in.charAt(i))) {
+                i++;
+            }
+            if (i == partStart) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long encodeTld(CharSequence in, int start, int end) {
+        var encoded = 0L;
+        for (var i = start; i < end; i++) {
+            encoded = (encoded << 8) | Character.toLowerCase(in.charAt(i));
+        }
+        return encoded;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isAsciiAlphanumeric(char c) {
+        return isDigit(c) || isAsciiLetter(c);
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     private static CharSequence scrubE164(CharSequence in) {
         return scrub(in,
                 E164_PATTERN,
@@ -5,11 +5,9 @@ import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.Reader;
 import java.io.StringWriter;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -23,7 +21,6 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.EnumSet;
 import java.util.Set;
-import java.util.function.Supplier;
 
 import jdk.net.ExtendedSocketOptions;
 import jdk.net.UnixDomainPrincipal;
@@ -88,16 +85,11 @@ public class IOUtils {
         return new File(System.getProperty("java.io.tmpdir"));
     }
 
-    public static Supplier<String> getLineSupplier(final Reader reader) {
-        final var bufferedReader = new BufferedReader(reader);
-        return () -> {
-            try {
-                return bufferedReader.readLine();
-            } catch (IOException e) {
-                logger.error("Error occurred while reading line", e);
-                return null;
-            }
-        };
+    /**
+     * @return the default UNIX socket path of the JSON-RPC daemon.
+     */
+    public static File getDefaultSocketFile() {
+        return new File(new File(getRuntimeDir(), "signal-cli"), "socket");
     }
 
     public static InetSocketAddress parseInetSocketAddress(final String tcpAddress) throws UserErrorException {
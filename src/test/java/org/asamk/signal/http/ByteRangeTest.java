@@ -0,0 +1,40 @@
+package org.asamk.signal.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ByteRangeTest {
+
+    @Test
+    void parseRange() throws Exception {
+        assertEquals(Optional.of(new ByteRange(10, 20)), ByteRange.parse("bytes=10-19", 100));
+        assertEquals(Optional.of(new ByteRange(10, 100)), ByteRange.parse("bytes=10-", 100));
+        assertEquals(Optional.of(new ByteRange(90, 100)), ByteRange.parse("bytes=90-200", 100));
+    }
+
+    @Test
+    void parseSuffixRange() throws Exception {
+        assertEquals(Optional.of(new ByteRange(95, 100)), ByteRange.parse("bytes=-5", 100));
+        assertEquals(Optional.of(new ByteRange(0, 100)), ByteRange.parse("bytes=-500", 100));
+    }
+
+    @Test
+    void unsupportedRangesAreIgnored() throws Exception {
+        assertEquals(Optional.empty(), ByteRange.parse("items=0-10", 100));
+        assertEquals(Optional.empty(), ByteRange.parse("bytes=0-10,20-30", 100));
+        assertEquals(Optional.empty(), ByteRange.parse("bytes=10", 100));
+        assertEquals(Optional.empty(), ByteRange.parse("bytes=a-b", 100));
+        assertEquals(Optional.empty(), ByteRange.parse("bytes=20-10", 100));
+    }
+
+    @Test
+    void rangesOutsideTheContentAreUnsatisfiable() {
+        assertThrows(ByteRange.UnsatisfiableRangeException.class, () -> ByteRange.parse("bytes=100-", 100));
+        assertThrows(ByteRange.UnsatisfiableRangeException.class, () -> ByteRange.parse("bytes=-0", 100));
+        assertThrows(ByteRange.UnsatisfiableRangeException.class, () -> ByteRange.parse("bytes=-5", 0));
+    }
+}
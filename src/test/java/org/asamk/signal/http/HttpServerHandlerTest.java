@@ -0,0 +1,177 @@
+package org.asamk.signal.http;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.AttachmentInvalidException;
+import org.asamk.signal.manager.api.AttachmentTooLargeException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpServerHandlerTest {
+
+    private static final int MAX_UPLOAD_SIZE = 10;
+
+    @TempDir
+    static Path tempDir;
+
+    static final byte[] attachmentData = new byte[100];
+    static final HttpClient client = HttpClient.newHttpClient();
+    static volatile byte[] uploadedData;
+    static String baseUri;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        for (var i = 0; i < attachmentData.length; i++) {
+            attachmentData[i] = (byte) i;
+        }
+        final var attachmentFile = tempDir.resolve("attachment");
+        Files.write(attachmentFile, attachmentData);
+
+        final int port;
+        try (final var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        new HttpServerHandler(new InetSocketAddress("127.0.0.1", port), createManager(attachmentFile)).init();
+        baseUri = "http://127.0.0.1:" + port + "/api/v1/attachments";
+    }
+
+    @Test
+    void downloadWholeAttachment() throws Exception {
+        final var response = download("attachment", null);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("bytes", response.headers().firstValue("Accept-Ranges").orElse(null));
+        assertArrayEquals(attachmentData, response.body());
+    }
+
+    @Test
+    void downloadRange() throws Exception {
+        final var response = download("attachment", "bytes=10-19");
+
+        assertEquals(206, response.statusCode());
+        assertEquals("bytes 10-19/100", response.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(attachmentData, 10, 20), response.body());
+    }
+
+    @Test
+    void downloadSuffixRange() throws Exception {
+        final var response = download("attachment", "bytes=-5");
+
+        assertEquals(206, response.statusCode());
+        assertEquals("bytes 95-99/100", response.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(attachmentData, 95, 100), response.body());
+    }
+
+    @Test
+    void unsupportedRangeReturnsWholeAttachment() throws Exception {
+        final var response = download("attachment", "bytes=0-1,5-6");
+
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(attachmentData, response.body());
+    }
+
+    @Test
+    void unsatisfiableRange() throws Exception {
+        final var response = download("attachment", "bytes=100-");
+
+        assertEquals(416, response.statusCode());
+        assertEquals("bytes */100", response.headers().firstValue("Content-Range").orElse(null));
+    }
+
+    @Test
+    void unknownAttachment() throws Exception {
+        assertEquals(404, download("unknown", null).statusCode());
+    }
+
+    @Test
+    void uploadAttachment() throws Exception {
+        final var data = new byte[]{1, 2, 3};
+        final var response = upload(data, "application/octet-stream");
+
+        assertEquals(201, response.statusCode());
+        assertTrue(response.body().contains("\"attachment\":\"uploaded-3\""));
+        assertArrayEquals(data, uploadedData);
+    }
+
+    @Test
+    void tooLargeUploadIsRejected() throws Exception {
+        assertEquals(413, upload(new byte[MAX_UPLOAD_SIZE + 1], "application/octet-stream").statusCode());
+    }
+
+    @Test
+    void invalidUploadIsRejected() throws Exception {
+        assertEquals(400, upload(new byte[]{1}, "invalid").statusCode());
+    }
+
+    private static HttpResponse<byte[]> download(final String id, final String range) throws Exception {
+        final var request = HttpRequest.newBuilder(URI.create(baseUri + "/" + id)).GET();
+        if (range != null) {
+            request.header("Range", range);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static HttpResponse<String> upload(final byte[] data, final String contentType) throws Exception {
+        final var request = HttpRequest.newBuilder(URI.create(baseUri))
+                .header("Content-Type", contentType)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(data))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Manager that only supports the attachment methods used by the endpoints.
+     */
+    private static Manager createManager(final Path attachmentFile) {
+        return (Manager) Proxy.newProxyInstance(Manager.class.getClassLoader(),
+                new Class<?>[]{Manager.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "openAttachment" -> openAttachment(attachmentFile, (String) args[0]);
+                    case "uploadAttachment" -> uploadAttachment((InputStream) args[0], (String) args[2]);
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "TestManager";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static FileChannel openAttachment(final Path attachmentFile, final String id) throws IOException {
+        if (!"attachment".equals(id)) {
+            throw new FileNotFoundException(id);
+        }
+        return FileChannel.open(attachmentFile);
+    }
+
+    private static String uploadAttachment(
+            final InputStream data, final String contentType
+    ) throws IOException, AttachmentInvalidException {
+        if ("invalid".equals(contentType)) {
+            throw new AttachmentInvalidException("Invalid content type");
+        }
+        final var bytes = data.readAllBytes();
+        if (bytes.length > MAX_UPLOAD_SIZE) {
+            throw new AttachmentTooLargeException(MAX_UPLOAD_SIZE);
+        }
+        uploadedData = bytes;
+        return "uploaded-" + bytes.length;
+    }
+}
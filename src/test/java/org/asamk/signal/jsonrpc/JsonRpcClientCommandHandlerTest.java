@@ -0,0 +1,129 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.commands.LinkCommand;
+import org.asamk.signal.commands.ListGroupsCommand;
+import org.asamk.signal.commands.ReceiveCommand;
+import org.asamk.signal.commands.SendCommand;
+import org.asamk.signal.commands.VersionCommand;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.output.JsonWriter;
+import org.asamk.signal.util.Util;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonRpcClientCommandHandlerTest {
+
+    static final String ACCOUNT = "+33123456789";
+
+    final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+    final List<Object> output = new ArrayList<>();
+    final JsonWriter jsonWriter = output::add;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void onlyCommandsSupportedByTheDaemonCanBeHandled() {
+        assertTrue(JsonRpcClientCommandHandler.canHandleCommand(new SendCommand()));
+        assertTrue(JsonRpcClientCommandHandler.canHandleCommand(new ListGroupsCommand()));
+        assertFalse(JsonRpcClientCommandHandler.canHandleCommand(new ReceiveCommand()));
+        assertFalse(JsonRpcClientCommandHandler.canHandleCommand(new VersionCommand()));
+        assertFalse(JsonRpcClientCommandHandler.canHandleCommand(new LinkCommand()));
+    }
+
+    @Test
+    void argumentsAreSentAsParamsAndResultIsWritten() throws Exception {
+        final var attachment = Files.createFile(tempDir.resolve("attachment.txt"));
+        final var relativeAttachment = Path.of("").toAbsolutePath().relativize(attachment).toString();
+        final var arguments = new HashMap<String, Object>();
+        arguments.put("recipient", List.of("+33987654321"));
+        arguments.put("message", "Hi");
+        arguments.put("attachment", List.of(relativeAttachment, "missing.txt"));
+        arguments.put("sticker", null);
+        arguments.put("message-from-stdin", false);
+
+        final var result = objectMapper.createObjectNode().put("timestamp", 1234);
+        try (final var daemon = new TestDaemon(request -> TestDaemon.result(request, result));
+             final var client = JsonRpcClient.connect(daemon.getAddress())) {
+            assertTrue(JsonRpcClientCommandHandler.handleCommand(new SendCommand(),
+                    ACCOUNT,
+                    arguments,
+                    client,
+                    jsonWriter));
+
+            final var request = daemon.getRequests().get(0);
+            assertEquals("send", request.get("method").asText());
+            final var params = request.get("params");
+            assertEquals(ACCOUNT, params.get("account").asText());
+            assertEquals("+33987654321", params.get("recipient").get(0).asText());
+            assertEquals("Hi", params.get("message").asText());
+            assertEquals(attachment.toAbsolutePath().toString(), params.get("attachment").get(0).asText());
+            assertEquals("missing.txt", params.get("attachment").get(1).asText());
+            assertFalse(params.has("sticker"));
+            assertFalse(params.has("message-from-stdin"));
+        }
+        assertEquals(List.of(result), output);
+    }
+
+    @Test
+    void emptyResultIsNotWritten() throws Exception {
+        try (final var daemon = new TestDaemon(request -> TestDaemon.result(request, objectMapper.createObjectNode()));
+             final var client = JsonRpcClient.connect(daemon.getAddress())) {
+            assertTrue(JsonRpcClientCommandHandler.handleCommand(new SendCommand(),
+                    ACCOUNT,
+                    Map.of(),
+                    client,
+                    jsonWriter));
+        }
+        assertEquals(List.of(), output);
+    }
+
+    @Test
+    void unknownAccountOrCommandIsHandledLocally() throws Exception {
+        for (final var code : List.of(JsonRpcResponse.Error.METHOD_NOT_FOUND, JsonRpcResponse.Error.INVALID_PARAMS)) {
+            try (final var daemon = new TestDaemon(request -> TestDaemon.error(request, code, null));
+                 final var client = JsonRpcClient.connect(daemon.getAddress())) {
+                assertFalse(JsonRpcClientCommandHandler.handleCommand(new SendCommand(),
+                        ACCOUNT,
+                        Map.of(),
+                        client,
+                        jsonWriter));
+            }
+        }
+        assertEquals(List.of(), output);
+    }
+
+    @Test
+    void commandErrorIsThrownWithItsResponse() throws Exception {
+        final JsonNode data = objectMapper.createObjectNode()
+                .set("response", objectMapper.createObjectNode().put("timestamp", 1234));
+        try (final var daemon = new TestDaemon(request -> TestDaemon.error(request,
+                SignalJsonRpcCommandHandler.USER_ERROR,
+                data)); final var client = JsonRpcClient.connect(daemon.getAddress())) {
+            final var e = assertThrows(UserErrorException.class,
+                    () -> JsonRpcClientCommandHandler.handleCommand(new SendCommand(),
+                            ACCOUNT,
+                            Map.of(),
+                            client,
+                            jsonWriter));
+
+            assertEquals("Error -1", e.getMessage());
+        }
+        assertEquals(List.of(data.get("response")), output);
+    }
+}
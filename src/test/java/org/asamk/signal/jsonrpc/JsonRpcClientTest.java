@@ -0,0 +1,79 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+import org.asamk.signal.util.Util;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonRpcClientTest {
+
+    final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+
+    @Test
+    void notificationsAreSkippedUntilTheResponseArrives() throws Exception {
+        try (final var daemon = new TestDaemon(request -> TestDaemon.result(request, request.get("params")));
+             final var client = JsonRpcClient.connect(daemon.getAddress())) {
+            final var params = objectMapper.createObjectNode().put("recipient", "+33987654321");
+
+            assertEquals(params, client.sendRequest("send", params));
+            assertEquals(params, client.sendRequest("send", params));
+
+            final var requests = daemon.getRequests();
+            assertEquals("send", requests.get(0).get("method").asText());
+            assertEquals(1, requests.get(0).get("id").asInt());
+            assertEquals(2, requests.get(1).get("id").asInt());
+        }
+    }
+
+    @Test
+    void errorResponseThrowsJsonRpcException() throws Exception {
+        try (final var daemon = new TestDaemon(request -> TestDaemon.error(request,
+                JsonRpcResponse.Error.METHOD_NOT_FOUND,
+                null)); final var client = JsonRpcClient.connect(daemon.getAddress())) {
+            final var e = assertThrows(JsonRpcException.class,
+                    () -> client.sendRequest("unknown", objectMapper.createObjectNode()));
+
+            assertEquals(JsonRpcResponse.Error.METHOD_NOT_FOUND, e.getError().getCode());
+            assertEquals("Error -32601", e.getError().getMessage());
+        }
+    }
+
+    @Test
+    void closedConnectionThrowsIOException() throws Exception {
+        try (final var daemon = new TestDaemon(request -> null);
+             final var client = JsonRpcClient.connect(daemon.getAddress())) {
+            assertThrows(IOException.class, () -> client.sendRequest("send", objectMapper.createObjectNode()));
+        }
+    }
+
+    @Test
+    void requestsCanBeSentOverHttp() throws Exception {
+        final var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/rpc", exchange -> {
+            final var request = objectMapper.readTree(exchange.getRequestBody());
+            final var response = objectMapper.writeValueAsBytes(TestDaemon.result(request, request.get("params")));
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        try (final var client = JsonRpcClient.forHttp(URI.create("http://127.0.0.1:"
+                + server.getAddress().getPort()
+                + "/api/v1/rpc"))) {
+            final var params = objectMapper.createObjectNode().put("account", "+33123456789");
+
+            assertEquals(params, client.sendRequest("listGroups", params));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JsonRpcReaderTest {
+
+    private static final long MAX_MESSAGE_SIZE = 200;
+
+    final List<JsonRpcResponse> responses = new ArrayList<>();
+    final JsonRpcSender sender = new JsonRpcSender(object -> {
+        synchronized (responses) {
+            responses.add((JsonRpcResponse) object);
+        }
+    });
+
+    @Test
+    void requestsSpanningMultipleLinesAreParsed() {
+        read("""
+             {"jsonrpc":"2.0","method":"send",
+              "params":{"message":"Hi"},
+              "id":1}
+             {"jsonrpc":"2.0","method":"send","id":2}
+             """);
+
+        final var responses = getResponses();
+        assertEquals(2, responses.size());
+        assertEquals(TextNode.valueOf("send Hi"), responses.get(0).getResult());
+        assertEquals(TextNode.valueOf("send"), responses.get(1).getResult());
+    }
+
+    @Test
+    void invalidMessageIsSkippedUntilTheNextLine() {
+        read("""
+             {"jsonrpc":"2.0", invalid "id":1}
+             {"jsonrpc":"2.0","method":"send","id":2}
+             """);
+
+        final var responses = getResponses();
+        assertEquals(2, responses.size());
+        assertEquals(JsonRpcResponse.Error.PARSE_ERROR, responses.get(0).getError().getCode());
+        assertNull(responses.get(0).getId());
+        assertEquals(IntNode.valueOf(2), responses.get(1).getId());
+    }
+
+    @Test
+    void oversizedMessageIsRejectedAndReadingContinues() {
+        read("{\"jsonrpc\":\"2.0\",\"method\":\"send\",\"params\":{\"message\":\""
+                + "x".repeat((int) MAX_MESSAGE_SIZE)
+                + "\"},\"id\":1}\n{\"jsonrpc\":\"2.0\",\"method\":\"send\",\"id\":2}\n");
+
+        final var responses = getResponses();
+        assertEquals(2, responses.size());
+        assertEquals(JsonRpcResponse.Error.INVALID_REQUEST, responses.get(0).getError().getCode());
+        assertEquals(IntNode.valueOf(2), responses.get(1).getId());
+    }
+
+    @Test
+    void messageLargerThanTheReadAheadIsRejectedWhileReading() {
+        read("{\"jsonrpc\":\"2.0\",\"method\":\"send\",\"params\":{\"message\":\""
+                + "x".repeat(20_000)
+                + "\"},\"id\":1}\n{\"jsonrpc\":\"2.0\",\"method\":\"send\",\"id\":2}\n");
+
+        // Depending on the parser buffering, either the string or the message size limit is hit first
+        final var responses = getResponses();
+        assertEquals(2, responses.size());
+        assertNotNull(responses.get(0).getError());
+        assertNull(responses.get(0).getId());
+        assertEquals(IntNode.valueOf(2), responses.get(1).getId());
+    }
+
+    @Test
+    void binaryDataIsPassedToTheHandler() {
+        final var received = new ArrayList<String>();
+        final var content = """
+                            {"jsonrpc":"2.0","method":"upload","params":{"binarySize":5},"id":1}
+                            hello{"jsonrpc":"2.0","method":"send","id":2}
+                            """;
+        final var reader = new JsonRpcReader(sender, input(content), MAX_MESSAGE_SIZE);
+
+        reader.readMessages(JsonRpcReaderTest::handleRequest, (method, params, data) -> {
+            try {
+                received.add(new String(data.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return TextNode.valueOf(method);
+        }, response -> {
+        });
+
+        assertEquals(List.of("hello"), received);
+        final var responses = getResponses();
+        assertEquals(2, responses.size());
+        assertEquals(TextNode.valueOf("upload"), responses.get(0).getResult());
+        assertEquals(TextNode.valueOf("send"), responses.get(1).getResult());
+    }
+
+    @Test
+    void binaryDataIsRejectedWithoutHandler() {
+        read("""
+             {"jsonrpc":"2.0","method":"upload","params":{"binarySize":5},"id":1}
+             hello{"jsonrpc":"2.0","method":"send","id":2}
+             """);
+
+        final var responses = getResponses();
+        assertEquals(2, responses.size());
+        assertEquals(JsonRpcResponse.Error.INVALID_REQUEST, responses.get(0).getError().getCode());
+        assertEquals(TextNode.valueOf("send"), responses.get(1).getResult());
+    }
+
+    private void read(final String content) {
+        new JsonRpcReader(sender, input(content), MAX_MESSAGE_SIZE).readMessages(JsonRpcReaderTest::handleRequest,
+                response -> {
+                });
+    }
+
+    /**
+     * Requests are handled concurrently, so the responses are sorted by their id.
+     */
+    private List<JsonRpcResponse> getResponses() {
+        synchronized (responses) {
+            return responses.stream()
+                    .sorted(Comparator.comparingInt(r -> r.getId() == null ? 0 : r.getId().asInt()))
+                    .toList();
+        }
+    }
+
+    private static JsonNode handleRequest(final String method, final JsonNode params) {
+        final var message = params == null ? null : params.get("message");
+        return TextNode.valueOf(message == null ? method : method + " " + message.asText());
+    }
+
+    private static ByteArrayInputStream input(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+package org.asamk.signal.jsonrpc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageInputStreamTest {
+
+    // Must match the read-ahead of the MessageInputStream
+    private static final int READ_AHEAD = 8192;
+
+    @Test
+    void unreadBytesAreReadAgain() throws IOException {
+        final var input = createInput("abcdef", 100);
+
+        assertEquals("abcd", read(input, 4));
+        input.unread("cd".getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, input.getPosition());
+
+        assertEquals("cdef", read(input, 4));
+        assertEquals(6, input.getPosition());
+    }
+
+    @Test
+    void skipLineContinuesAfterTheLineBreak() throws IOException {
+        final var input = createInput("invalid\nnext", 100);
+
+        input.skipLine();
+
+        assertEquals("next", read(input, 4));
+        assertEquals(-1, input.read());
+    }
+
+    @Test
+    void binaryDataEndsAfterItsSize() throws IOException {
+        final var input = createInput("0123456789next", 100);
+
+        try (final var binary = input.readBinary(10)) {
+            assertEquals('0', binary.read());
+        }
+
+        assertEquals("next", read(input, 4));
+    }
+
+    @Test
+    void truncatedBinaryDataFails() {
+        final var input = createInput("0123", 100);
+
+        assertThrows(IOException.class, () -> input.readBinary(10).readAllBytes());
+    }
+
+    @Test
+    void messageLargerThanTheLimitFails() throws IOException {
+        final var input = createInput("x".repeat(READ_AHEAD + 200), 100);
+
+        input.startMessage(0);
+        input.readNBytes(100 + READ_AHEAD);
+
+        assertThrows(MessageInputStream.MessageTooLargeException.class, input::read);
+    }
+
+    @Test
+    void limitIsResetBySkippingTheLine() throws IOException {
+        final var input = createInput("x".repeat(READ_AHEAD + 200) + "\nnext", 100);
+
+        input.startMessage(0);
+        input.readNBytes(100 + READ_AHEAD);
+        input.skipLine();
+
+        assertEquals("next", read(input, 4));
+    }
+
+    private static MessageInputStream createInput(final String content, final long maxMessageSize) {
+        return new MessageInputStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)),
+                maxMessageSize);
+    }
+
+    private static String read(final MessageInputStream input, final int length) throws IOException {
+        final var bytes = input.readNBytes(length);
+        assertEquals(length, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
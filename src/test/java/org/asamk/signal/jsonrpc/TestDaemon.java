@@ -0,0 +1,103 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.asamk.signal.util.Util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Minimal daemon that answers JSON-RPC requests on a TCP socket, one json message per line.
+ * Each response is preceded by a notification, like the ones a daemon sends for received messages.
+ * If the responder returns null, the connection is closed without a response.
+ */
+class TestDaemon implements Closeable {
+
+    private final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+    private final ServerSocket serverSocket;
+    private final Function<JsonNode, ObjectNode> responder;
+    private final List<JsonNode> requests = new ArrayList<>();
+
+    TestDaemon(final Function<JsonNode, ObjectNode> responder) throws IOException {
+        this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        this.responder = responder;
+        final var thread = new Thread(this::run, "test-daemon");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    synchronized List<JsonNode> getRequests() {
+        return List.copyOf(requests);
+    }
+
+    static ObjectNode result(final JsonNode request, final JsonNode result) {
+        final var response = Util.createJsonObjectMapper().createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("result", result);
+        response.set("id", request.get("id"));
+        return response;
+    }
+
+    static ObjectNode error(final JsonNode request, final int code, final JsonNode data) {
+        final var response = Util.createJsonObjectMapper().createObjectNode();
+        response.put("jsonrpc", "2.0");
+        final var error = response.putObject("error");
+        error.put("code", code);
+        error.put("message", "Error " + code);
+        error.set("data", data);
+        response.set("id", request.get("id"));
+        return response;
+    }
+
+    private void run() {
+        try (final var socket = serverSocket.accept()) {
+            handleConnection(socket);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handleConnection(final Socket socket) throws IOException {
+        final var reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        final var output = socket.getOutputStream();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final var request = objectMapper.readTree(line);
+            synchronized (this) {
+                requests.add(request);
+            }
+            final var notification = objectMapper.createObjectNode();
+            notification.put("jsonrpc", "2.0");
+            notification.put("method", "receive");
+            notification.putObject("params").put("account", "+33123456789");
+            output.write((objectMapper.writeValueAsString(notification) + "\n").getBytes(StandardCharsets.UTF_8));
+            final var response = responder.apply(request);
+            if (response == null) {
+                return;
+            }
+            output.write((objectMapper.writeValueAsString(response) + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
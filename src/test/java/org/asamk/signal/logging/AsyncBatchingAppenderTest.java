@@ -0,0 +1,188 @@
+package org.asamk.signal.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncBatchingAppenderTest {
+
+    private static final int QUEUE_SIZE = 10;
+
+    final LoggerContext context = new LoggerContext();
+    final Logger logger = context.getLogger("test");
+    final BlockingOutputStream output = new BlockingOutputStream();
+
+    AsyncBatchingAppender appender;
+
+    @BeforeEach
+    void setUp() {
+        final var encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%level %msg%n");
+        encoder.start();
+
+        final var target = new OutputStreamAppender<ILoggingEvent>();
+        target.setContext(context);
+        target.setName("target");
+        target.setEncoder(encoder);
+        target.setImmediateFlush(false);
+        target.setOutputStream(output);
+        target.start();
+
+        appender = new AsyncBatchingAppender();
+        appender.setContext(context);
+        appender.setName("async");
+        appender.setQueueSize(QUEUE_SIZE);
+        appender.addAppender(target);
+        appender.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        output.release.countDown();
+        appender.stop();
+    }
+
+    @Test
+    void stopWritesAndFlushesRemainingEvents() {
+        // Warnings wait for space in the queue, so none are dropped
+        for (var i = 0; i < 100; i++) {
+            log(Level.WARN, "event " + i);
+        }
+        appender.stop();
+
+        final var lines = output.getLines();
+        assertEquals(100, lines.length);
+        for (var i = 0; i < 100; i++) {
+            assertEquals("WARN event " + i, lines[i]);
+        }
+        assertTrue(output.flushed.get());
+    }
+
+    @Test
+    void debugEventsAreDroppedFirst() throws Exception {
+        blockWriter();
+
+        // Fill the queue up to the discarding threshold
+        for (var i = 0; i < QUEUE_SIZE - QUEUE_SIZE / 5; i++) {
+            log(Level.INFO, "info " + i);
+        }
+        log(Level.DEBUG, "kept");
+        log(Level.DEBUG, "dropped");
+        log(Level.INFO, "info last");
+        log(Level.INFO, "dropped");
+        assertEquals(2, appender.getDroppedEvents());
+
+        output.release.countDown();
+        appender.stop();
+
+        final var content = output.getContent();
+        assertTrue(content.contains("DEBUG kept"));
+        assertTrue(content.contains("INFO info last"));
+        assertFalse(content.contains(" dropped\n"));
+        assertTrue(content.contains("Dropped 2 log events"));
+    }
+
+    @Test
+    void warningsWaitForSpaceInsteadOfBeingDropped() throws Exception {
+        blockWriter();
+        for (var i = 0; i < QUEUE_SIZE; i++) {
+            log(Level.INFO, "info " + i);
+        }
+
+        final var warning = CompletableFuture.runAsync(() -> log(Level.WARN, "warning"));
+        assertThrows(TimeoutException.class, () -> warning.get(200, TimeUnit.MILLISECONDS));
+
+        output.release.countDown();
+        warning.get(5, TimeUnit.SECONDS);
+        appender.stop();
+
+        assertEquals(0, appender.getDroppedEvents());
+        assertTrue(output.getContent().contains("WARN warning"));
+    }
+
+    /**
+     * Let the background thread take the first event and block while writing it.
+     */
+    private void blockWriter() throws InterruptedException {
+        output.blockNextWrite.set(true);
+        log(Level.INFO, "blocking");
+        assertTrue(output.blockedWriteStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    private void log(final Level level, final String message) {
+        appender.doAppend(new LoggingEvent(AsyncBatchingAppenderTest.class.getName(),
+                logger,
+                level,
+                message,
+                null,
+                null));
+    }
+
+    private static class BlockingOutputStream extends OutputStream {
+
+        final AtomicBoolean blockNextWrite = new AtomicBoolean(false);
+        final AtomicBoolean flushed = new AtomicBoolean(false);
+        final CountDownLatch blockedWriteStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (blockNextWrite.compareAndSet(true, false)) {
+                blockedWriteStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            synchronized (buffer) {
+                buffer.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            flushed.set(true);
+        }
+
+        String getContent() {
+            synchronized (buffer) {
+                return buffer.toString(StandardCharsets.UTF_8);
+            }
+        }
+
+        String[] getLines() {
+            return getContent().lines().toArray(String[]::new);
+        }
+    }
+}
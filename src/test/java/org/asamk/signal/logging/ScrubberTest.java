@@ -0,0 +1,109 @@
+package org.asamk.signal.logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ScrubberTest {
+
+    static final String[] FRAGMENTS = {
+            " ",
+            "\t",
+            "+",
+            "%2B",
+            "/org/asamk/Signal/_",
+            "0",
+            "12",
+            "1234567",
+            "4155551234",
+            "12345678901234567",
+            "@",
+            "a@b",
+            "user@example.com",
+            "-",
+            ".",
+            "..",
+            "/",
+            ":",
+            "JOB::",
+            "abcdef",
+            "ABCDEF",
+            "0123abcd-ef01-2345-6789-abcdef012345",
+            "0123ABCD-EF01-2345-6789-ABCDEF0123",
+            "192.168.1.1",
+            "256.1.1.1",
+            "1.2.3",
+            "com",
+            "org",
+            "xyz",
+            "online",
+            "tips",
+            "co-uk",
+            "example",
+            "signal.org",
+            "chat.signal.org",
+            "whispersystems.org",
+            "sub.domain.de",
+            "x",
+            "Z9",
+            "é",
+            "ß",
+    };
+
+    static Stream<Arguments> scrubExamples() {
+        return Stream.of(Arguments.of("+14155551234", "+*********34"),
+                Arguments.of("call %2B14155551234 now", "call %2B*********34 now"),
+                Arguments.of("/org/asamk/Signal/_491701234567", "/org/asamk/Signal/_**********67"),
+                Arguments.of("mail test@example.com", "mail t...@..."),
+                Arguments.of("id 0123abcd-ef01-2345-6789-abcdef012345 done",
+                        "id ********-****-****-****-**********45 done"),
+                Arguments.of("JOB::0123abcd-ef01-2345-6789-abcdef012345", "JOB::0123abcd-ef01-2345-6789-abcdef012345"),
+                Arguments.of("https://cdn.example.com/path", "https://***.com/path"),
+                Arguments.of("https://chat.signal.org/v1", "https://chat.signal.org/v1"),
+                Arguments.of("connect to 192.168.1.1:443", "connect to ...ipv4...:443"),
+                Arguments.of("example.unknowntld", "example.unknowntld"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("scrubExamples")
+    void scrubExamples(final String input, final String expected) {
+        assertEquals(expected, Scrubber.scrub(input).toString());
+        assertEquals(expected, Scrubber.scrubWithAllPatterns(input).toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "Received message from device 1",
+            "Refreshing pre keys: 100 of 100 available, 3.5s elapsed",
+            "version 0.12.2-SNAPSHOT",
+    })
+    void linesWithoutCandidatesAreReturnedAsIs(final String input) {
+        assertSame(input, Scrubber.scrub(input));
+    }
+
+    @Test
+    void prefilterMatchesAllPatterns() {
+        final var random = new Random(42);
+        final var line = new StringBuilder();
+        for (var i = 0; i < 200_000; i++) {
+            line.setLength(0);
+            final var fragments = 1 + random.nextInt(12);
+            for (var j = 0; j < fragments; j++) {
+                line.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            final var input = line.toString();
+            assertEquals(Scrubber.scrubWithAllPatterns(input).toString(),
+                    Scrubber.scrub(input).toString(),
+                    () -> "Scrubbed output differs for: " + input);
+        }
+    }
+}
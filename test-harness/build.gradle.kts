@@ -0,0 +1,31 @@
+plugins {
+    java
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+application {
+    mainClass.set("org.asamk.signal.harness.LoadDriver")
+}
+
+dependencies {
+    implementation(project(":lib"))
+    implementation(libs.signalservice)
+    implementation(libs.jackson.databind)
+    implementation(libs.argparse4j)
+    implementation(libs.slf4j.api)
+    implementation(libs.logback)
+}
+
+tasks.withType<JavaCompile> {
+    options.encoding = "UTF-8"
+}
+
+tasks.named<JavaExec>("run") {
+    // e.g. ./gradlew :test-harness:run --args="--rate 200 --duration 60 --send-concurrency 8"
+    workingDir = rootProject.projectDir
+}
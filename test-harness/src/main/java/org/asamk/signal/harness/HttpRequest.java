@@ -0,0 +1,26 @@
+package org.asamk.signal.harness;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+record HttpRequest(String method, String path, Map<String, String> query, Map<String, String> headers, byte[] body) {
+
+    String header(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * The user name of the basic authorization header or of the websocket login parameter.
+     */
+    String login() {
+        final var authorization = header("Authorization");
+        if (authorization != null && authorization.startsWith("Basic ")) {
+            final var credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()),
+                    StandardCharsets.UTF_8);
+            final var separator = credentials.indexOf(':');
+            return separator < 0 ? credentials : credentials.substring(0, separator);
+        }
+        return query.get("login");
+    }
+}
@@ -0,0 +1,48 @@
+package org.asamk.signal.harness;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.Map;
+
+record HttpResponse(int status, Map<String, String> headers, byte[] body) {
+
+    private final static ObjectMapper objectMapper = new ObjectMapper();
+
+    static HttpResponse empty(int status) {
+        return new HttpResponse(status, Map.of(), new byte[0]);
+    }
+
+    static HttpResponse json(Object value) {
+        return json(200, value);
+    }
+
+    static HttpResponse json(int status, Object value) {
+        try {
+            return new HttpResponse(status,
+                    Map.of("Content-Type", "application/json"),
+                    objectMapper.writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static HttpResponse binary(byte[] body) {
+        return new HttpResponse(200, Map.of("Content-Type", "application/octet-stream"), body);
+    }
+
+    String reason() {
+        return switch (status) {
+            case 101 -> "Switching Protocols";
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 204 -> "No Content";
+            case 308 -> "Resume Incomplete";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 404 -> "Not Found";
+            case 409 -> "Conflict";
+            default -> status >= 500 ? "Server Error" : "Unknown";
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package org.asamk.signal.harness;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples in microseconds and computes percentiles over all of them.
+ */
+class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    synchronized void record(final long micros) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = micros;
+    }
+
+    synchronized Summary summarize() {
+        if (count == 0) {
+            return new Summary(0, 0, 0, 0, 0, 0);
+        }
+        final var sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return new Summary(count,
+                percentile(sorted, 50),
+                percentile(sorted, 90),
+                percentile(sorted, 99),
+                percentile(sorted, 99.9),
+                sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+        final var index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    record Summary(int count, long p50, long p90, long p99, long p999, long max) {
+
+        @Override
+        public String toString() {
+            return "n=%d p50=%.1fms p90=%.1fms p99=%.1fms p99.9=%.1fms max=%.1fms".formatted(count,
+                    p50 / 1000.0,
+                    p90 / 1000.0,
+                    p99 / 1000.0,
+                    p999 / 1000.0,
+                    max / 1000.0);
+        }
+    }
+}
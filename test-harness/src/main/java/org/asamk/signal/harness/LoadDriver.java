@@ -0,0 +1,380 @@
+package org.asamk.signal.harness;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.Settings;
+import org.asamk.signal.manager.SignalAccountFiles;
+import org.asamk.signal.manager.api.Message;
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.api.ServiceEnvironment;
+import org.asamk.signal.manager.config.ServiceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.sourceforge.argparse4j.DefaultSettings.VERSION_0_9_0_DEFAULT_SETTINGS;
+
+/**
+ * Drives receive and send load through a {@link Manager} connected to the in-process {@link MockSignalServer}.
+ * Envelopes are encrypted by simulated senders and delivered over the websocket at a fixed rate, while a number of
+ * threads send messages back to the simulated senders.
+ * At the end throughput, latency percentiles and resource usage are reported.
+ */
+public class LoadDriver {
+
+    private final static Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+    private final static String USER_AGENT = "signal-cli-load-driver";
+    private final static String VERIFICATION_CODE = "123456";
+    private final static long PRODUCER_INTERVAL_MILLIS = 10;
+
+    private final int rate;
+    private final int durationSeconds;
+    private final int senderCount;
+    private final int sendConcurrency;
+    private final int attachmentSize;
+    private final String number;
+
+    private final LatencyRecorder receiveLatency = new LatencyRecorder();
+    private final LatencyRecorder sendLatency = new LatencyRecorder();
+    private final AtomicLong envelopesProduced = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong receiveErrors = new AtomicLong();
+    private final AtomicLong sendsSucceeded = new AtomicLong();
+    private final AtomicLong sendsFailed = new AtomicLong();
+
+    private LoadDriver(final Namespace ns) {
+        this.rate = ns.getInt("rate");
+        this.durationSeconds = ns.getInt("duration");
+        this.senderCount = ns.getInt("senders");
+        this.sendConcurrency = ns.getInt("send-concurrency");
+        this.attachmentSize = ns.getInt("attachment-size");
+        this.number = ns.getString("number");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final var parser = ArgumentParsers.newFor("load-driver", VERSION_0_9_0_DEFAULT_SETTINGS)
+                .includeArgumentNamesAsKeysInResult(true)
+                .build()
+                .defaultHelp(true)
+                .description("Receive/send load generator against an in-process mock Signal server.");
+        parser.addArgument("--rate")
+                .type(int.class)
+                .setDefault(100)
+                .help("Envelopes per second delivered to the account.");
+        parser.addArgument("--duration").type(int.class).setDefault(30).help("Duration of the load phase in seconds.");
+        parser.addArgument("--senders").type(int.class).setDefault(10).help("Number of simulated remote accounts.");
+        parser.addArgument("--send-concurrency")
+                .type(int.class)
+                .setDefault(4)
+                .help("Number of threads concurrently sending messages, 0 to only receive.");
+        parser.addArgument("--attachment-size")
+                .type(int.class)
+                .setDefault(0)
+                .help("Size in bytes of an attachment added to each sent message, 0 for text only.");
+        parser.addArgument("--port")
+                .type(int.class)
+                .setDefault(0)
+                .help("Port of the mock server, 0 for any free port.");
+        parser.addArgument("--number").setDefault("+15550100000").help("Phone number of the local account.");
+
+        final Namespace ns;
+        try {
+            ns = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(2);
+            return;
+        }
+
+        try (final var server = new MockSignalServer(ns.getInt("port"))) {
+            server.start();
+            new LoadDriver(ns).run(server);
+        }
+    }
+
+    private void run(final MockSignalServer server) throws Exception {
+        System.setProperty(ServiceConfig.LOCAL_SERVICE_URL_PROPERTY, server.getUrl());
+        final var configPath = Files.createTempDirectory("signal-cli-load");
+        try {
+            final var accountFiles = new SignalAccountFiles(configPath.toFile(),
+                    ServiceEnvironment.LOCAL,
+                    USER_AGENT,
+                    Settings.DEFAULT);
+            try (final var registrationManager = accountFiles.initRegistrationManager(number)) {
+                registrationManager.register(false, null);
+                registrationManager.verifyAccount(VERIFICATION_CODE, null);
+            }
+            final var aci = server.getAccountAci(number);
+
+            final var senders = new ArrayList<SimulatedSender>();
+            for (var i = 0; i < senderCount; i++) {
+                final var sender = new SimulatedSender();
+                server.addRemoteAccount(sender.getAci(), sender.getPreKeyBundle());
+                senders.add(sender);
+            }
+
+            try (final var manager = accountFiles.initManager(number)) {
+                runLoad(server, manager, aci, senders, configPath);
+            }
+        } finally {
+            deleteRecursively(configPath);
+        }
+    }
+
+    private void runLoad(
+            final MockSignalServer server,
+            final Manager manager,
+            final String aci,
+            final List<SimulatedSender> senders,
+            final Path configPath
+    ) throws Exception {
+        manager.addReceiveHandler((envelope, e) -> {
+            if (e != null) {
+                receiveErrors.incrementAndGet();
+                return;
+            }
+            if (envelope.data().isPresent()) {
+                messagesReceived.incrementAndGet();
+                final var latencyMillis = System.currentTimeMillis() - envelope.serverReceivedTimestamp();
+                receiveLatency.record(latencyMillis * 1000);
+            }
+        });
+
+        final var attachment = createAttachment(configPath);
+        final var resourceMonitor = new ResourceMonitor();
+        logger.info("Running load for {}s: {} envelopes/s from {} senders, {} sending threads",
+                durationSeconds,
+                rate,
+                senderCount,
+                sendConcurrency);
+
+        final var startTime = System.nanoTime();
+        final var deadline = startTime + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final var scheduler = Executors.newScheduledThreadPool(2);
+        scheduler.scheduleAtFixedRate(resourceMonitor::sample, 0, 1, TimeUnit.SECONDS);
+        final var producer = new EnvelopeProducer(server, aci, senders);
+        scheduler.scheduleAtFixedRate(producer::produce, 0, PRODUCER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        final var sendThreads = new ArrayList<Thread>();
+        for (var i = 0; i < sendConcurrency; i++) {
+            final var thread = new Thread(() -> sendLoop(manager, senders, attachment, deadline), "load-send-" + i);
+            thread.start();
+            sendThreads.add(thread);
+        }
+
+        final var remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        Thread.sleep(Math.max(0, remainingMillis));
+        producer.stop();
+        for (final var thread : sendThreads) {
+            thread.join();
+        }
+        final var loadEndTime = System.nanoTime();
+
+        // Give the receiver some time to catch up with the delivered envelopes
+        final var drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (messagesReceived.get() + receiveErrors.get() < envelopesProduced.get()
+                && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        final var drainEndTime = System.nanoTime();
+        scheduler.shutdownNow();
+        resourceMonitor.sample();
+
+        report(server.getStats(), resourceMonitor, loadEndTime - startTime, drainEndTime - startTime);
+    }
+
+    private void sendLoop(
+            final Manager manager, final List<SimulatedSender> senders, final File attachment, final long deadline
+    ) {
+        final var attachments = attachment == null ? List.<String>of() : List.of(attachment.getPath());
+        while (System.nanoTime() < deadline) {
+            final var sender = senders.get(ThreadLocalRandom.current().nextInt(senders.size()));
+            final var message = new Message("load " + UUID.randomUUID(),
+                    attachments,
+                    List.of(),
+                    Optional.empty(),
+                    Optional.empty(),
+                    List.of(),
+                    Optional.empty(),
+                    List.of());
+            final var recipient = new RecipientIdentifier.Uuid(UUID.fromString(sender.getAci()));
+            final var start = System.nanoTime();
+            try {
+                final var results = manager.sendMessage(message, Set.of(recipient));
+                if (results.hasSuccess()) {
+                    sendsSucceeded.incrementAndGet();
+                    sendLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                } else {
+                    sendsFailed.incrementAndGet();
+                }
+            } catch (Exception e) {
+                sendsFailed.incrementAndGet();
+                logger.debug("Failed to send message: {}", e.getMessage());
+            }
+        }
+    }
+
+    private File createAttachment(final Path configPath) throws IOException {
+        if (attachmentSize <= 0) {
+            return null;
+        }
+        final var data = new byte[attachmentSize];
+        new Random().nextBytes(data);
+        final var file = configPath.resolve("attachment.bin");
+        Files.write(file, data);
+        return file.toFile();
+    }
+
+    private void report(
+            final MockSignalServer.Stats stats,
+            final ResourceMonitor resourceMonitor,
+            final long loadNanos,
+            final long totalNanos
+    ) {
+        final var loadSeconds = loadNanos / 1e9;
+        final var totalSeconds = totalNanos / 1e9;
+        System.out.printf("Load phase: %.1fs, including drain: %.1fs%n", loadSeconds, totalSeconds);
+        System.out.printf("Receive: produced=%d received=%d errors=%d throughput=%.1f/s%n",
+                envelopesProduced.get(),
+                messagesReceived.get(),
+                receiveErrors.get(),
+                messagesReceived.get() / totalSeconds);
+        System.out.println("Receive latency: " + receiveLatency.summarize());
+        System.out.printf("Send: succeeded=%d failed=%d throughput=%.1f/s%n",
+                sendsSucceeded.get(),
+                sendsFailed.get(),
+                sendsSucceeded.get() / loadSeconds);
+        System.out.println("Send latency: " + sendLatency.summarize());
+        System.out.println("Server: " + stats);
+        System.out.println("Resources: " + resourceMonitor.summarize());
+    }
+
+    private static void deleteRecursively(final Path path) {
+        try (final var files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    logger.debug("Failed to delete {}: {}", p, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to delete temporary config directory {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Queues envelopes at the configured rate, spread over small intervals to avoid large bursts.
+     */
+    private class EnvelopeProducer {
+
+        private final MockSignalServer server;
+        private final String aci;
+        private final List<SimulatedSender> senders;
+        private final long startTime = System.nanoTime();
+
+        private volatile boolean stopped = false;
+        private int nextSender = 0;
+
+        private EnvelopeProducer(final MockSignalServer server, final String aci, final List<SimulatedSender> senders) {
+            this.server = server;
+            this.aci = aci;
+            this.senders = senders;
+        }
+
+        private void produce() {
+            if (stopped) {
+                return;
+            }
+            final var elapsedNanos = System.nanoTime() - startTime;
+            final var target = elapsedNanos * rate / TimeUnit.SECONDS.toNanos(1);
+            while (envelopesProduced.get() < target) {
+                final var sender = senders.get(nextSender);
+                nextSender = (nextSender + 1) % senders.size();
+                try {
+                    server.enqueueEnvelope(aci, sender.createEnvelope(server, aci, "load " + envelopesProduced.get()));
+                } catch (Exception e) {
+                    logger.warn("Failed to create envelope: {}", e.getMessage());
+                    return;
+                }
+                envelopesProduced.incrementAndGet();
+            }
+        }
+
+        private void stop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Samples CPU and memory usage of the JVM, which includes the mock server and the driver itself.
+     */
+    private static class ResourceMonitor {
+
+        private final OperatingSystemMXBean osBean = ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class);
+        private final int processors = Runtime.getRuntime().availableProcessors();
+        private final long startCpuNanos = osBean.getProcessCpuTime();
+        private final long startNanos = System.nanoTime();
+
+        private long peakHeapBytes = 0;
+        private double peakCpuLoad = 0;
+        private long lastCpuNanos = startCpuNanos;
+        private long lastNanos = startNanos;
+
+        private synchronized void sample() {
+            final var heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            peakHeapBytes = Math.max(peakHeapBytes, heapBytes);
+
+            final var cpuNanos = osBean.getProcessCpuTime();
+            final var nanos = System.nanoTime();
+            if (nanos > lastNanos) {
+                peakCpuLoad = Math.max(peakCpuLoad,
+                        (double) (cpuNanos - lastCpuNanos) / (nanos - lastNanos) / processors);
+            }
+            lastCpuNanos = cpuNanos;
+            lastNanos = nanos;
+        }
+
+        private synchronized String summarize() {
+            final var averageCpuLoad = (double) (lastCpuNanos - startCpuNanos) / Math.max(1,
+                    lastNanos - startNanos) / processors;
+            var gcCount = 0L;
+            var gcMillis = 0L;
+            for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, gc.getCollectionCount());
+                gcMillis += Math.max(0, gc.getCollectionTime());
+            }
+            return "cpu avg=%.0f%% peak=%.0f%% (%d cores), heap peak=%dMB, threads peak=%d, gc=%d (%dms)".formatted(
+                    averageCpuLoad * 100,
+                    peakCpuLoad * 100,
+                    processors,
+                    peakHeapBytes / (1024 * 1024),
+                    ManagementFactory.getThreadMXBean().getPeakThreadCount(),
+                    gcCount,
+                    gcMillis);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.asamk.signal.harness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server that can also upgrade connections to websockets.
+ * The Signal client library uses the same base url for the REST API and the websocket, which the JDK http server
+ * can't serve, so this implements just enough of both protocols for the mock server.
+ */
+class MockHttpServer implements Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(MockHttpServer.class);
+
+    private final static String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private final static int MAX_HEADER_LINE_LENGTH = 64 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final RequestHandler requestHandler;
+    private final WebSocketHandler webSocketHandler;
+    private final ExecutorService executor;
+
+    private volatile boolean closed = false;
+
+    MockHttpServer(
+            final int port, final RequestHandler requestHandler, final WebSocketHandler webSocketHandler
+    ) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.requestHandler = requestHandler;
+        this.webSocketHandler = webSocketHandler;
+        final var threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            final var thread = new Thread(r, "mock-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void start() {
+        final var thread = new Thread(this::acceptLoop, "mock-http-accept");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                final var socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> handleConnection(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("Failed to accept connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handleConnection(final Socket socket) {
+        try (socket) {
+            final var in = new BufferedInputStream(socket.getInputStream());
+            final var out = new BufferedOutputStream(socket.getOutputStream());
+            while (!closed) {
+                final var request = readRequest(in);
+                if (request == null) {
+                    return;
+                }
+                if ("websocket".equalsIgnoreCase(request.header("Upgrade"))) {
+                    upgradeToWebSocket(request, in, out);
+                    return;
+                }
+
+                HttpResponse response;
+                try {
+                    response = requestHandler.handle(request);
+                } catch (Exception e) {
+                    logger.warn("Failed to handle {} {}", request.method(), request.path(), e);
+                    response = HttpResponse.empty(500);
+                }
+                writeResponse(out, response);
+                if ("close".equalsIgnoreCase(request.header("Connection"))) {
+                    return;
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            logger.trace("Connection closed: {}", e.getMessage());
+        } catch (IOException e) {
+            logger.debug("Connection failed: {}", e.getMessage());
+        }
+    }
+
+    private void upgradeToWebSocket(
+            final HttpRequest request, final InputStream in, final OutputStream out
+    ) throws IOException {
+        final var key = request.header("Sec-WebSocket-Key");
+        if (key == null) {
+            writeResponse(out, HttpResponse.empty(400));
+            return;
+        }
+        final String accept;
+        try {
+            final var digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key.trim() + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            accept = Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        writeResponse(out,
+                new HttpResponse(101,
+                        Map.of("Upgrade", "websocket", "Connection", "Upgrade", "Sec-WebSocket-Accept", accept),
+                        null));
+
+        final var session = new WebSocketSession(in, out);
+        final var listener = webSocketHandler.onOpen(request, session);
+        session.readLoop(listener);
+    }
+
+    private static HttpRequest readRequest(final InputStream in) throws IOException {
+        final var requestLine = readLine(in);
+        if (requestLine == null) {
+            return null;
+        }
+        if (requestLine.isEmpty()) {
+            return readRequest(in);
+        }
+        final var parts = requestLine.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("Invalid request line: " + requestLine);
+        }
+
+        final var headers = new HashMap<String, String>();
+        while (true) {
+            final var line = readLine(in);
+            if (line == null) {
+                throw new EOFException();
+            }
+            if (line.isEmpty()) {
+                break;
+            }
+            final var separator = line.indexOf(':');
+            if (separator > 0) {
+                headers.put(line.substring(0, separator).trim().toLowerCase(), line.substring(separator + 1).trim());
+            }
+        }
+
+        final byte[] body;
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            body = readChunkedBody(in);
+        } else if (headers.containsKey("content-length")) {
+            body = in.readNBytes(Integer.parseInt(headers.get("content-length")));
+        } else {
+            body = new byte[0];
+        }
+
+        final var target = parts[1];
+        final var queryStart = target.indexOf('?');
+        final var path = queryStart < 0 ? target : target.substring(0, queryStart);
+        final var query = queryStart < 0 ? Map.<String, String>of() : parseQuery(target.substring(queryStart + 1));
+        return new HttpRequest(parts[0], path, query, headers, body);
+    }
+
+    static Map<String, String> parseQuery(final String query) {
+        final var result = new HashMap<String, String>();
+        for (final var parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            final var separator = parameter.indexOf('=');
+            final var name = separator < 0 ? parameter : parameter.substring(0, separator);
+            final var value = separator < 0 ? "" : parameter.substring(separator + 1);
+            result.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static byte[] readChunkedBody(final InputStream in) throws IOException {
+        final var body = new ByteArrayOutputStream();
+        while (true) {
+            final var sizeLine = readLine(in);
+            if (sizeLine == null) {
+                throw new EOFException();
+            }
+            final var extension = sizeLine.indexOf(';');
+            final var size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(),
+                    16);
+            if (size == 0) {
+                // Skip trailers
+                String line;
+                do {
+                    line = readLine(in);
+                } while (line != null && !line.isEmpty());
+                return body.toByteArray();
+            }
+            body.write(in.readNBytes(size));
+            readLine(in);
+        }
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final var line = new StringBuilder();
+        while (true) {
+            final var b = in.read();
+            if (b == -1) {
+                return line.isEmpty() ? null : line.toString();
+            }
+            if (b == '\n') {
+                final var length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_HEADER_LINE_LENGTH) {
+                throw new IOException("Header line too long");
+            }
+            line.append((char) b);
+        }
+    }
+
+    private static void writeResponse(final OutputStream out, final HttpResponse response) throws IOException {
+        final var head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status()).append(' ').append(response.reason()).append("\r\n");
+        response.headers().forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+        if (response.body() != null) {
+            head.append("Content-Length: ").append(response.body().length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (response.body() != null) {
+            out.write(response.body());
+        }
+        out.flush();
+    }
+
+    interface RequestHandler {
+
+        HttpResponse handle(HttpRequest request) throws Exception;
+    }
+
+    interface WebSocketHandler {
+
+        WebSocketSession.Listener onOpen(HttpRequest request, WebSocketSession session);
+    }
+}
@@ -0,0 +1,574 @@
+package org.asamk.signal.harness;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.signal.libsignal.protocol.IdentityKey;
+import org.signal.libsignal.protocol.InvalidKeyException;
+import org.signal.libsignal.protocol.ecc.Curve;
+import org.signal.libsignal.protocol.state.PreKeyBundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.internal.push.Envelope;
+import org.whispersystems.signalservice.internal.websocket.WebSocketMessage;
+import org.whispersystems.signalservice.internal.websocket.WebSocketRequestMessage;
+import org.whispersystems.signalservice.internal.websocket.WebSocketResponseMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okio.ByteString;
+
+/**
+ * In-process mock of the Signal server, just complete enough to register an account, receive envelopes over the
+ * websocket, send messages, fetch profiles and up/download attachments.
+ * Messages sent to the mock are accepted without decrypting them, envelopes for the local account are queued by the
+ * load driver with {@link #enqueueEnvelope(String, Envelope)}.
+ */
+public class MockSignalServer implements Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(MockSignalServer.class);
+
+    private final static Pattern SESSION_PATH = Pattern.compile("/v1/verification/session/([^/]+)(/code)?");
+    private final static Pattern KEYS_PATH = Pattern.compile("/v2/keys/([^/]+)/([^/]+)");
+    private final static Pattern MESSAGES_PATH = Pattern.compile("/v1/messages/([^/]+)");
+    private final static Pattern PROFILE_PATH = Pattern.compile("/v1/profile/([^/]+)(/.*)?");
+    private final static Pattern ATTACHMENT_PATH = Pattern.compile("/attachments/([^/]+)");
+    private final static Pattern UPLOAD_PATH = Pattern.compile("/upload/([^/]+)");
+    private final static Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MockHttpServer httpServer;
+
+    private final Map<String, String> sessionNumbers = new ConcurrentHashMap<>();
+    private final Map<String, LocalAccount> localAccounts = new ConcurrentHashMap<>();
+    private final Map<String, RemoteAccount> remoteAccounts = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> attachments = new ConcurrentHashMap<>();
+
+    private final AtomicLong envelopesQueued = new AtomicLong();
+    private final AtomicLong envelopesDelivered = new AtomicLong();
+    private final AtomicLong envelopesAcknowledged = new AtomicLong();
+    private final AtomicLong messagesAccepted = new AtomicLong();
+    private final AtomicLong attachmentsUploaded = new AtomicLong();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    public MockSignalServer(final int port) throws IOException {
+        this.httpServer = new MockHttpServer(port, this::handleRequest, this::openWebSocket);
+    }
+
+    public void start() {
+        httpServer.start();
+        logger.info("Mock Signal server listening on {}", getUrl());
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + httpServer.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpServer.close();
+    }
+
+    /**
+     * Make a simulated remote account known, so its profile and pre keys can be fetched and messages sent to it.
+     */
+    public void addRemoteAccount(final String aci, final PreKeyBundle preKeyBundle) {
+        remoteAccounts.put(aci, new RemoteAccount(aci, preKeyBundle));
+    }
+
+    /**
+     * @return the ACI of the account registered with the given number, or null
+     */
+    public String getAccountAci(final String number) {
+        return localAccounts.values()
+                .stream()
+                .filter(a -> number.equals(a.number))
+                .map(a -> a.aci)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Build a pre key bundle for sending to a registered local account, consuming one of its one-time pre keys.
+     */
+    public PreKeyBundle getPreKeyBundle(final String aci) throws InvalidKeyException {
+        final var account = localAccounts.get(aci);
+        if (account == null || account.identityKey == null || account.signedPreKey == null) {
+            throw new InvalidKeyException("No pre keys for " + aci);
+        }
+        final PreKey preKey;
+        synchronized (account) {
+            preKey = account.oneTimePreKeys.pollFirst();
+        }
+        return new PreKeyBundle(account.registrationId,
+                1,
+                preKey == null ? -1 : preKey.keyId,
+                preKey == null ? null : Curve.decodePoint(preKey.publicKey, 0),
+                account.signedPreKey.keyId,
+                Curve.decodePoint(account.signedPreKey.publicKey, 0),
+                account.signedPreKey.signature,
+                new IdentityKey(account.identityKey));
+    }
+
+    /**
+     * Queue an envelope for delivery over the websocket of the local account.
+     */
+    public void enqueueEnvelope(final String aci, final Envelope envelope) {
+        final var account = localAccounts.get(aci);
+        if (account == null) {
+            throw new IllegalArgumentException("Unknown account " + aci);
+        }
+        envelopesQueued.incrementAndGet();
+        account.queue.add(envelope);
+    }
+
+    public void putAttachment(final String key, final byte[] data) {
+        attachments.put(key, data);
+    }
+
+    public Stats getStats() {
+        return new Stats(envelopesQueued.get(),
+                envelopesDelivered.get(),
+                envelopesAcknowledged.get(),
+                messagesAccepted.get(),
+                attachmentsUploaded.get());
+    }
+
+    private HttpResponse handleRequest(final HttpRequest request) throws IOException {
+        final var method = request.method();
+        final var path = request.path();
+        Matcher m;
+
+        if (path.equals("/v1/keepalive")) {
+            return HttpResponse.empty(200);
+        }
+
+        // Registration
+        if (method.equals("POST") && path.equals("/v1/verification/session")) {
+            final var sessionId = UUID.randomUUID().toString();
+            sessionNumbers.put(sessionId, readJson(request).path("number").asText(""));
+            return sessionResponse(sessionId, false);
+        }
+        if ((m = SESSION_PATH.matcher(path)).matches()) {
+            final var verified = method.equals("PUT") && m.group(2) != null;
+            return sessionResponse(m.group(1), verified);
+        }
+        if (method.equals("POST") && path.equals("/v1/registration")) {
+            return register(request);
+        }
+        if (path.equals("/v1/accounts/attributes") || path.equals("/v1/accounts/registration_lock")) {
+            return HttpResponse.empty(204);
+        }
+        if (method.equals("GET") && path.equals("/v1/accounts/whoami")) {
+            final var account = getAuthenticatedAccount(request);
+            if (account == null) {
+                return HttpResponse.empty(401);
+            }
+            return HttpResponse.json(Map.of("uuid", account.aci, "pni", account.pni, "number", account.number));
+        }
+        if (method.equals("GET") && path.equals("/v1/config")) {
+            return HttpResponse.json(Map.of("config", List.of()));
+        }
+
+        // Pre keys
+        if (path.equals("/v2/keys")) {
+            final var account = getAuthenticatedAccount(request);
+            if (account == null) {
+                return HttpResponse.empty(401);
+            }
+            if (!"aci".equals(request.query().getOrDefault("identity", "aci"))) {
+                // PNI pre keys are accepted but not used by the mock
+                return method.equals("GET")
+                        ? HttpResponse.json(Map.of("count", 100, "pqCount", 100))
+                        : HttpResponse.empty(204);
+            }
+            if (method.equals("GET")) {
+                synchronized (account) {
+                    return HttpResponse.json(Map.of("count", account.oneTimePreKeys.size(), "pqCount", 0));
+                }
+            }
+            storePreKeys(account, readJson(request));
+            return HttpResponse.empty(204);
+        }
+        if (method.equals("GET") && (m = KEYS_PATH.matcher(path)).matches()) {
+            final var remote = remoteAccounts.get(stripServiceIdPrefix(m.group(1)));
+            return remote == null ? HttpResponse.empty(404) : HttpResponse.json(preKeyResponse(remote.preKeyBundle));
+        }
+
+        // Messages
+        if (method.equals("PUT") && (m = MESSAGES_PATH.matcher(path)).matches()) {
+            final var destination = stripServiceIdPrefix(m.group(1));
+            if (!remoteAccounts.containsKey(destination) && !localAccounts.containsKey(destination)) {
+                return HttpResponse.empty(404);
+            }
+            messagesAccepted.incrementAndGet();
+            return HttpResponse.json(Map.of("needsSync", false));
+        }
+
+        // Profiles
+        if (method.equals("GET") && (m = PROFILE_PATH.matcher(path)).matches()) {
+            final var remote = remoteAccounts.get(stripServiceIdPrefix(m.group(1)));
+            return remote == null ? HttpResponse.empty(404) : HttpResponse.json(profileResponse(remote));
+        }
+        if (method.equals("PUT") && path.equals("/v1/profile")) {
+            return HttpResponse.empty(200);
+        }
+
+        // Attachments
+        if (method.equals("GET") && path.equals("/v3/attachments/form/upload")) {
+            final var key = UUID.randomUUID().toString();
+            return HttpResponse.json(Map.of("cdn",
+                    2,
+                    "key",
+                    key,
+                    "headers",
+                    Map.of(),
+                    "signedUploadLocation",
+                    getUrl() + "/upload/" + key));
+        }
+        if ((m = UPLOAD_PATH.matcher(path)).matches()) {
+            return upload(request, m.group(1));
+        }
+        if (method.equals("GET") && (m = ATTACHMENT_PATH.matcher(path)).matches()) {
+            final var data = attachments.get(m.group(1));
+            return data == null ? HttpResponse.empty(404) : HttpResponse.binary(data);
+        }
+
+        logger.debug("No mock for {} {}", method, path);
+        return HttpResponse.empty(404);
+    }
+
+    private HttpResponse sessionResponse(final String sessionId, final boolean verified) {
+        final var response = new HashMap<String, Object>();
+        response.put("id", sessionId);
+        response.put("nextSms", 0);
+        response.put("nextCall", 0);
+        response.put("nextVerificationAttempt", 0);
+        response.put("allowedToRequestCode", true);
+        response.put("requestedInformation", List.of());
+        response.put("verified", verified);
+        return HttpResponse.json(response);
+    }
+
+    private HttpResponse register(final HttpRequest request) throws IOException {
+        final var body = readJson(request);
+        final var number = sessionNumbers.getOrDefault(body.path("sessionId").asText(), request.login());
+        final var account = new LocalAccount(UUID.randomUUID().toString(), UUID.randomUUID().toString(), number);
+        account.registrationId = body.path("accountAttributes").path("registrationId").asInt();
+        account.identityKey = decodeBase64(body.path("aciIdentityKey").asText(null));
+        account.signedPreKey = parseSignedPreKey(body.path("aciSignedPreKey"));
+        localAccounts.put(account.aci, account);
+        logger.info("Registered {} as {}", number, account.aci);
+
+        return HttpResponse.json(Map.of("uuid",
+                account.aci,
+                "pni",
+                account.pni,
+                "number",
+                number,
+                "storageCapable",
+                false));
+    }
+
+    private void storePreKeys(final LocalAccount account, final JsonNode body) {
+        synchronized (account) {
+            if (body.hasNonNull("identityKey")) {
+                account.identityKey = decodeBase64(body.get("identityKey").asText());
+            }
+            if (body.hasNonNull("signedPreKey")) {
+                account.signedPreKey = parseSignedPreKey(body.get("signedPreKey"));
+            }
+            for (final var preKey : body.path("preKeys")) {
+                account.oneTimePreKeys.add(new PreKey(preKey.path("keyId").asInt(),
+                        decodeBase64(preKey.path("publicKey").asText())));
+            }
+        }
+    }
+
+    private HttpResponse upload(final HttpRequest request, final String key) {
+        if (request.method().equals("POST")) {
+            // Start of a resumable upload
+            return new HttpResponse(201, Map.of("Location", getUrl() + "/upload/" + key), new byte[0]);
+        }
+        if (!request.method().equals("PUT")) {
+            return HttpResponse.empty(404);
+        }
+
+        final var contentRange = request.header("Content-Range");
+        if (request.body().length == 0 && contentRange != null && contentRange.startsWith("bytes */")) {
+            // Query for the already uploaded length
+            final var existing = attachments.get(key);
+            if (existing != null && contentRange.equals("bytes */" + existing.length)) {
+                return HttpResponse.empty(200);
+            }
+            return existing == null || existing.length == 0
+                    ? HttpResponse.empty(308)
+                    : new HttpResponse(308, Map.of("Range", "bytes=0-" + (existing.length - 1)), new byte[0]);
+        }
+
+        final var m = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange);
+        final var offset = m != null && m.matches() ? Integer.parseInt(m.group(1)) : 0;
+        attachments.compute(key, (k, existing) -> {
+            final var length = offset + request.body().length;
+            final var data = new byte[length];
+            if (existing != null) {
+                System.arraycopy(existing, 0, data, 0, Math.min(offset, existing.length));
+            }
+            System.arraycopy(request.body(), 0, data, offset, request.body().length);
+            return data;
+        });
+        attachmentsUploaded.incrementAndGet();
+        return HttpResponse.empty(200);
+    }
+
+    private WebSocketSession.Listener openWebSocket(final HttpRequest request, final WebSocketSession session) {
+        final var login = request.login();
+        final var account = login == null ? null : getAccount(login);
+        final var inFlight = new ConcurrentHashMap<Long, Envelope>();
+
+        if (account != null) {
+            logger.debug("Websocket connected for {}", account.aci);
+            final var thread = new Thread(() -> deliverEnvelopes(account, session, inFlight));
+            thread.setName("mock-delivery");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        return new WebSocketSession.Listener() {
+            @Override
+            public void onMessage(final byte[] data) {
+                try {
+                    final var message = WebSocketMessage.ADAPTER.decode(data);
+                    if (message.response != null) {
+                        if (inFlight.remove(message.response.id) != null) {
+                            envelopesAcknowledged.incrementAndGet();
+                        }
+                    } else if (message.request != null) {
+                        handleWebSocketRequest(request, session, message.request);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Failed to handle websocket message: {}", e.getMessage());
+                }
+            }
+
+            @Override
+            public void onClose() {
+                if (account != null && !inFlight.isEmpty()) {
+                    // Envelopes that weren't acknowledged are delivered again on the next connection
+                    inFlight.values().forEach(account.queue::addFirst);
+                    inFlight.clear();
+                }
+            }
+        };
+    }
+
+    private void handleWebSocketRequest(
+            final HttpRequest handshake, final WebSocketSession session, final WebSocketRequestMessage request
+    ) throws IOException {
+        final var headers = new HashMap<>(handshake.headers());
+        for (final var header : request.headers) {
+            final var separator = header.indexOf(':');
+            if (separator > 0) {
+                headers.put(header.substring(0, separator).trim().toLowerCase(),
+                        header.substring(separator + 1).trim());
+            }
+        }
+        final var target = request.path == null ? "/" : request.path;
+        final var queryStart = target.indexOf('?');
+        final var httpRequest = new HttpRequest(request.verb,
+                queryStart < 0 ? target : target.substring(0, queryStart),
+                queryStart < 0 ? handshake.query() : MockHttpServer.parseQuery(target.substring(queryStart + 1)),
+                headers,
+                request.body == null ? new byte[0] : request.body.toByteArray());
+
+        final var response = handleRequest(httpRequest);
+        final var responseHeaders = new ArrayList<String>();
+        response.headers().forEach((name, value) -> responseHeaders.add(name + ":" + value));
+        session.send(new WebSocketMessage.Builder().type(WebSocketMessage.Type.RESPONSE)
+                .response(new WebSocketResponseMessage.Builder().id(request.id)
+                        .status(response.status())
+                        .message(response.reason())
+                        .headers(responseHeaders)
+                        .body(ByteString.of(response.body()))
+                        .build())
+                .build()
+                .encode());
+    }
+
+    private void deliverEnvelopes(
+            final LocalAccount account, final WebSocketSession session, final Map<Long, Envelope> inFlight
+    ) {
+        try {
+            var queueEmptySent = false;
+            while (!session.isClosed()) {
+                final var envelope = account.queue.poll(1, TimeUnit.SECONDS);
+                if (envelope == null) {
+                    if (!queueEmptySent) {
+                        sendRequest(session, "/api/v1/queue/empty", null, null);
+                        queueEmptySent = true;
+                    }
+                    continue;
+                }
+                final var id = requestIds.incrementAndGet();
+                inFlight.put(id, envelope);
+                try {
+                    sendRequest(session, "/api/v1/message", id, envelope.encode());
+                } catch (IOException e) {
+                    inFlight.remove(id);
+                    account.queue.addFirst(envelope);
+                    break;
+                }
+                envelopesDelivered.incrementAndGet();
+                if (account.queue.isEmpty()) {
+                    sendRequest(session, "/api/v1/queue/empty", null, null);
+                    queueEmptySent = true;
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            logger.debug("Stopped delivering envelopes to {}: {}", account.aci, e.getMessage());
+        }
+    }
+
+    private void sendRequest(
+            final WebSocketSession session, final String path, final Long id, final byte[] body
+    ) throws IOException {
+        final var request = new WebSocketRequestMessage.Builder().verb("PUT")
+                .path(path)
+                .id(id == null ? requestIds.incrementAndGet() : id)
+                .headers(List.of("X-Signal-Timestamp:" + System.currentTimeMillis()));
+        if (body != null) {
+            request.body(ByteString.of(body));
+        }
+        session.send(new WebSocketMessage.Builder().type(WebSocketMessage.Type.REQUEST)
+                .request(request.build())
+                .build()
+                .encode());
+    }
+
+    private LocalAccount getAuthenticatedAccount(final HttpRequest request) {
+        final var login = request.login();
+        return login == null ? null : getAccount(login);
+    }
+
+    private LocalAccount getAccount(final String login) {
+        final var separator = login.lastIndexOf('.');
+        final var username = separator > 0 && !login.startsWith("+") ? login.substring(0, separator) : login;
+        final var account = localAccounts.get(username);
+        if (account != null) {
+            return account;
+        }
+        return localAccounts.values().stream().filter(a -> username.equals(a.number)).findFirst().orElse(null);
+    }
+
+    private Map<String, Object> preKeyResponse(final PreKeyBundle bundle) {
+        final var device = new HashMap<String, Object>();
+        device.put("deviceId", bundle.getDeviceId());
+        device.put("registrationId", bundle.getRegistrationId());
+        device.put("signedPreKey",
+                Map.of("keyId",
+                        bundle.getSignedPreKeyId(),
+                        "publicKey",
+                        encodeBase64(bundle.getSignedPreKey().serialize()),
+                        "signature",
+                        encodeBase64(bundle.getSignedPreKeySignature())));
+        return Map.of("identityKey", encodeBase64(bundle.getIdentityKey().serialize()), "devices", List.of(device));
+    }
+
+    private Map<String, Object> profileResponse(final RemoteAccount remote) {
+        final var profile = new HashMap<String, Object>();
+        profile.put("uuid", remote.aci);
+        profile.put("identityKey", encodeBase64(remote.preKeyBundle.getIdentityKey().serialize()));
+        profile.put("name", null);
+        profile.put("about", null);
+        profile.put("aboutEmoji", null);
+        profile.put("avatar", null);
+        profile.put("unidentifiedAccess", null);
+        profile.put("unrestrictedUnidentifiedAccess", false);
+        profile.put("capabilities", Map.of("storage", false, "pni", true, "paymentActivation", false));
+        profile.put("badges", List.of());
+        return profile;
+    }
+
+    private JsonNode readJson(final HttpRequest request) throws IOException {
+        if (request.body().length == 0) {
+            return objectMapper.createObjectNode();
+        }
+        return objectMapper.readTree(new String(request.body(), StandardCharsets.UTF_8));
+    }
+
+    private static SignedPreKey parseSignedPreKey(final JsonNode node) {
+        if (node == null || node.isMissingNode() || node.isNull()) {
+            return null;
+        }
+        return new SignedPreKey(node.path("keyId").asInt(),
+                decodeBase64(node.path("publicKey").asText()),
+                decodeBase64(node.path("signature").asText()));
+    }
+
+    private static String stripServiceIdPrefix(final String serviceId) {
+        return serviceId.startsWith("PNI:") ? serviceId.substring(4) : serviceId;
+    }
+
+    private static byte[] decodeBase64(final String value) {
+        if (value == null) {
+            return null;
+        }
+        // The client uses both padded and unpadded, standard and url safe encodings
+        final var normalized = value.replace('-', '+').replace('_', '/');
+        return Base64.getDecoder().decode(normalized);
+    }
+
+    private static String encodeBase64(final byte[] value) {
+        return Base64.getEncoder().encodeToString(value);
+    }
+
+    public record Stats(
+            long envelopesQueued,
+            long envelopesDelivered,
+            long envelopesAcknowledged,
+            long messagesAccepted,
+            long attachmentsUploaded
+    ) {}
+
+    private record PreKey(int keyId, byte[] publicKey) {}
+
+    private record SignedPreKey(int keyId, byte[] publicKey, byte[] signature) {}
+
+    private record RemoteAccount(String aci, PreKeyBundle preKeyBundle) {}
+
+    private static class LocalAccount {
+
+        private final String aci;
+        private final String pni;
+        private final String number;
+        private final BlockingDeque<Envelope> queue = new LinkedBlockingDeque<>();
+        private final Deque<PreKey> oneTimePreKeys = new ArrayDeque<>();
+
+        private int registrationId;
+        private byte[] identityKey;
+        private SignedPreKey signedPreKey;
+
+        private LocalAccount(final String aci, final String pni, final String number) {
+            this.aci = aci;
+            this.pni = pni;
+            this.number = number;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.asamk.signal.harness;
+
+import org.signal.libsignal.protocol.IdentityKeyPair;
+import org.signal.libsignal.protocol.InvalidKeyException;
+import org.signal.libsignal.protocol.SessionBuilder;
+import org.signal.libsignal.protocol.SessionCipher;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+import org.signal.libsignal.protocol.UntrustedIdentityException;
+import org.signal.libsignal.protocol.ecc.Curve;
+import org.signal.libsignal.protocol.message.CiphertextMessage;
+import org.signal.libsignal.protocol.state.PreKeyBundle;
+import org.signal.libsignal.protocol.state.SignedPreKeyRecord;
+import org.signal.libsignal.protocol.state.impl.InMemorySignalProtocolStore;
+import org.signal.libsignal.protocol.util.KeyHelper;
+import org.whispersystems.signalservice.internal.push.Content;
+import org.whispersystems.signalservice.internal.push.DataMessage;
+import org.whispersystems.signalservice.internal.push.Envelope;
+
+import java.util.UUID;
+
+import okio.ByteString;
+
+/**
+ * A remote Signal account that sends encrypted messages to the local account through the mock server.
+ */
+class SimulatedSender {
+
+    private final static int DEVICE_ID = 1;
+    private final static int SIGNED_PRE_KEY_ID = 1;
+    private final static int PADDING_BLOCK_SIZE = 160;
+
+    private final String aci = UUID.randomUUID().toString();
+    private final IdentityKeyPair identityKeyPair = IdentityKeyPair.generate();
+    private final int registrationId = KeyHelper.generateRegistrationId(false);
+    private final InMemorySignalProtocolStore store = new InMemorySignalProtocolStore(identityKeyPair, registrationId);
+    private final PreKeyBundle preKeyBundle;
+
+    SimulatedSender() throws InvalidKeyException {
+        final var signedPreKey = Curve.generateKeyPair();
+        final var signature = Curve.calculateSignature(identityKeyPair.getPrivateKey(),
+                signedPreKey.getPublicKey().serialize());
+        store.storeSignedPreKey(SIGNED_PRE_KEY_ID,
+                new SignedPreKeyRecord(SIGNED_PRE_KEY_ID, System.currentTimeMillis(), signedPreKey, signature));
+        this.preKeyBundle = new PreKeyBundle(registrationId,
+                DEVICE_ID,
+                -1,
+                null,
+                SIGNED_PRE_KEY_ID,
+                signedPreKey.getPublicKey(),
+                signature,
+                identityKeyPair.getPublicKey());
+    }
+
+    String getAci() {
+        return aci;
+    }
+
+    PreKeyBundle getPreKeyBundle() {
+        return preKeyBundle;
+    }
+
+    /**
+     * Encrypt a text message for the local account, starting a session with its pre keys if necessary.
+     */
+    synchronized Envelope createEnvelope(
+            final MockSignalServer server, final String destinationAci, final String text
+    ) throws InvalidKeyException, UntrustedIdentityException {
+        final var address = new SignalProtocolAddress(destinationAci, DEVICE_ID);
+        if (!store.containsSession(address)) {
+            new SessionBuilder(store, address).process(server.getPreKeyBundle(destinationAci));
+        }
+
+        final var timestamp = System.currentTimeMillis();
+        final var content = new Content.Builder().dataMessage(new DataMessage.Builder().body(text)
+                .timestamp(timestamp)
+                .build()).build();
+        final var ciphertext = new SessionCipher(store, address).encrypt(pad(content.encode()));
+
+        return new Envelope.Builder().type(ciphertext.getType() == CiphertextMessage.PREKEY_TYPE
+                        ? Envelope.Type.PREKEY_BUNDLE
+                        : Envelope.Type.CIPHERTEXT)
+                .sourceServiceId(aci)
+                .sourceDevice(DEVICE_ID)
+                .destinationServiceId(destinationAci)
+                .timestamp(timestamp)
+                .serverTimestamp(timestamp)
+                .serverGuid(UUID.randomUUID().toString())
+                .content(ByteString.of(ciphertext.serialize()))
+                .urgent(true)
+                .build();
+    }
+
+    private static byte[] pad(final byte[] message) {
+        final var blocks = (message.length + PADDING_BLOCK_SIZE) / PADDING_BLOCK_SIZE;
+        final var paddedLength = blocks * PADDING_BLOCK_SIZE;
+        final var padded = new byte[paddedLength];
+        System.arraycopy(message, 0, padded, 0, message.length);
+        padded[message.length] = (byte) 0x80;
+        return padded;
+    }
+}
@@ -0,0 +1,147 @@
+package org.asamk.signal.harness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Server side of a websocket connection, only binary messages are passed on to the listener.
+ */
+class WebSocketSession {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebSocketSession.class);
+
+    private final static int OPCODE_CONTINUATION = 0x0;
+    private final static int OPCODE_TEXT = 0x1;
+    private final static int OPCODE_BINARY = 0x2;
+    private final static int OPCODE_CLOSE = 0x8;
+    private final static int OPCODE_PING = 0x9;
+    private final static int OPCODE_PONG = 0xA;
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    private volatile boolean closed = false;
+
+    WebSocketSession(final InputStream in, final OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void send(final byte[] message) throws IOException {
+        writeFrame(OPCODE_BINARY, message);
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            writeFrame(OPCODE_CLOSE, new byte[]{0x03, (byte) 0xE8});
+        } catch (IOException e) {
+            logger.trace("Failed to send close frame: {}", e.getMessage());
+        }
+        closed = true;
+    }
+
+    void readLoop(final Listener listener) {
+        final var message = new ByteArrayOutputStream();
+        try {
+            while (!closed) {
+                final var header = readByte();
+                final var fin = (header & 0x80) != 0;
+                final var opcode = header & 0x0F;
+                final var lengthByte = readByte();
+                final var masked = (lengthByte & 0x80) != 0;
+                long length = lengthByte & 0x7F;
+                if (length == 126) {
+                    length = (readByte() << 8) | readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (var i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte();
+                    }
+                }
+                final var mask = masked ? in.readNBytes(4) : null;
+                final var payload = in.readNBytes((int) length);
+                if (payload.length < length) {
+                    throw new EOFException();
+                }
+                if (mask != null) {
+                    for (var i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+                }
+
+                switch (opcode) {
+                    case OPCODE_CONTINUATION, OPCODE_BINARY, OPCODE_TEXT -> {
+                        message.write(payload);
+                        if (fin) {
+                            final var data = message.toByteArray();
+                            message.reset();
+                            listener.onMessage(data);
+                        }
+                    }
+                    case OPCODE_PING -> writeFrame(OPCODE_PONG, payload);
+                    case OPCODE_PONG -> {
+                    }
+                    case OPCODE_CLOSE -> {
+                        close();
+                        return;
+                    }
+                    default -> logger.debug("Ignoring websocket frame with opcode {}", opcode);
+                }
+            }
+        } catch (IOException e) {
+            logger.trace("Websocket connection closed: {}", e.getMessage());
+        } finally {
+            closed = true;
+            listener.onClose();
+        }
+    }
+
+    private int readByte() throws IOException {
+        final var b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private synchronized void writeFrame(final int opcode, final byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Websocket is closed");
+        }
+        out.write(0x80 | opcode);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            out.write(126);
+            out.write(payload.length >> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+            for (var i = 7; i >= 0; i--) {
+                out.write((int) ((long) payload.length >> (8 * i)));
+            }
+        }
+        out.write(payload);
+        out.flush();
+    }
+
+    interface Listener {
+
+        void onMessage(byte[] message);
+
+        void onClose();
+    }
+}